@@ -123,7 +123,7 @@ public class EmulatorCameraView extends CameraBridgeViewBase implements Camera.P
          Log.e(TAG, "Header file " + headerFile.getAbsolutePath() + " does not exist or is not readable");
          return false;
       }
-      if ( (framesFile != null) && ( (! framesFile.exists()) || (! framesFile.canRead()) ) )
+      if ( (framesFile != null) && (! ARCamera.isFramesReadable(framesFile, null)) )
       {
          Log.e(TAG, "Frames file " + framesFile.getAbsolutePath() + " does not exist or is not readable");
          return false;
@@ -32,6 +32,13 @@ long FrameData::readFrame(std::ifstream &in, long filepos, bool isCompressed)
       return -1L;
    uint64_t iv;
    from_big_endian64(v, (unsigned char *) &iv);
+   int codec = frame_codec(iv);
+   if (codec != 0)
+   {
+      std::cerr << "Frame at " << timestamp << " is compressed (codec " << codec
+                << "). Record with frame compression NONE to post-process." << std::endl;
+      return -1L;
+   }
    size = (int) iv;
    bool ok = true;
    if (size > 0)
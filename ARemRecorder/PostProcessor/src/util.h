@@ -16,6 +16,13 @@ void from_big_endian64(const uint64_t &v, unsigned char *dst);
 
 void from_big_endian32(const uint32_t &v, unsigned char *dst);
 
+// The recorder's native frame buffer (c++/framebuffer/framebuffer.hh) stores a codec tag in the top byte of a
+// frame record's size field. Only untagged (raw) records can be read here.
+const int FRAME_CODEC_SHIFT = 56;
+const uint64_t FRAME_SIZE_MASK = 0x00FFFFFFFFFFFFFFULL;
+
+inline int frame_codec(const uint64_t size_field) { return (int) (size_field >> FRAME_CODEC_SHIFT); }
+
 //C++14
 //template <typename V>
 //const std::function< V (const V* v) > defaultHeaderPredTempl = [](const V* v) -> V { return v; };
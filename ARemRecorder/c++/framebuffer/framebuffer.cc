@@ -329,3 +329,29 @@ JNIEXPORT jlong JNICALL Java_to_augmented_reality_android_em_recorder_NativeFram
    return -1;
 }
 
+JNIEXPORT void JNICALL Java_to_augmented_reality_android_em_recorder_NativeFrameBuffer_setCompression
+  (JNIEnv *env, jobject instance, jint mode, jint keyframeInterval)
+//----------------------------------------------------------------------------------------------
+{
+   FrameBuffer *buffer = getBuffer(env, instance);
+   if (buffer)
+      buffer->compression((int) mode, (int) keyframeInterval);
+}
+
+JNIEXPORT void JNICALL Java_to_augmented_reality_android_em_recorder_NativeFrameBuffer_compressionStats
+  (JNIEnv *env, jobject instance, jlongArray stats)
+//----------------------------------------------------------------------------------------------
+{
+   FrameBuffer *buffer = getBuffer(env, instance);
+   if ( (buffer) && (env->GetArrayLength(stats) >= 4) )
+   {
+      int64_t frames, raw_bytes, written_bytes, encode_ns;
+      buffer->compression_stats(frames, raw_bytes, written_bytes, encode_ns);
+      jlong *arr = env->GetLongArrayElements(stats, nullptr);
+      arr[0] = (jlong) frames;
+      arr[1] = (jlong) raw_bytes;
+      arr[2] = (jlong) written_bytes;
+      arr[3] = (jlong) encode_ns;
+      env->ReleaseLongArrayElements(stats, arr, 0);
+   }
+}
@@ -14,6 +14,8 @@
 #include <thread>
 #include <mutex>
 #include <condition_variable>
+#include <atomic>
+#include <vector>
 
 #include "readerwriterqueue.h"
 #include "snappy.h"
@@ -26,6 +28,22 @@
 #define  LOGE(...)  __android_log_print(ANDROID_LOG_ERROR,LOG_TAG,__VA_ARGS__)
 #endif
 
+// Frame records are <int64 timestamp><int64 size><payload> (big endian). The top byte of size is the codec
+// tag of the payload, 0 (CODEC_RAW) being the original untagged format. Tagged payloads start with the file
+// offset of their own record, CODEC_DELTA payloads are followed by the offsets of the reference (previous)
+// frame and of the key frame the delta chain started at so that a reader which has seeked can rebuild the
+// reference frame.
+enum FrameCodec { CODEC_RAW = 0, CODEC_SNAPPY = 1, CODEC_DELTA = 2, CODEC_STORED = 3 };
+
+// Must match NativeFrameBuffer.Compression ordinals
+enum CompressionMode { COMPRESS_NONE = 0, COMPRESS_SNAPPY = 1, COMPRESS_FAST = 2, COMPRESS_DELTA = 3 };
+
+#define CODEC_SHIFT 56
+#define CODEC_SIZE_MASK 0x00FFFFFFFFFFFFFFLL
+#define SNAPPY_HEADER_SIZE 8
+#define DELTA_HEADER_SIZE 24
+#define FAST_SKIP_FRAMES 15 // Frames stored uncompressed in FAST mode after an incompressible frame
+
 struct FrameBufferData
 //====================
 {
@@ -77,7 +95,8 @@ class FrameBuffer
 {
 public:
    FrameBuffer(int count, size_t size, bool must_compress) : _count(count), _size(size), _must_compress(must_compress),
-                                                             _timeoffset(0)
+                                                             _timeoffset(0), _stat_frames(0), _stat_raw_bytes(0),
+                                                             _stat_written_bytes(0), _stat_encode_ns(0)
    //-----------------------------------------------------------------------------------------------------------------
    {
       q = new moodycamel::ReaderWriterQueue<FrameBufferData *>(count);
@@ -129,6 +148,7 @@ public:
          if (! _output.is_open())
             return false;
          _writecount = 0;
+         _prev_offset = _key_offset = -1;
          return (_output.is_open());
       }
       else
@@ -266,6 +286,22 @@ public:
 
    inline int written() { return _writecount; }
 
+   void compression(int mode, int keyframe_interval)
+   //-----------------------------------------------
+   {
+      _mode = mode;
+      _keyframe_interval = (keyframe_interval > 0) ? keyframe_interval : 1;
+   }
+
+   void compression_stats(int64_t &frames, int64_t &raw_bytes, int64_t &written_bytes, int64_t &encode_ns)
+   //----------------------------------------------------------------------------------------------------
+   {
+      frames = _stat_frames;
+      raw_bytes = _stat_raw_bytes;
+      written_bytes = _stat_written_bytes;
+      encode_ns = _stat_encode_ns;
+   }
+
    inline int size() { return q->size_approx(); }
 
    bool read_open(std::string filename ="")
@@ -278,6 +314,7 @@ public:
       if (filename.empty())
          filename = _filename;
       _input.open(filename.c_str(), std::ifstream::in);
+      _read_prev_offset = -1;
       if (_input.good())
       {
          _filename = filename;
@@ -303,9 +340,19 @@ public:
       _input.read((char *) &v, sizeof(uint64_t));
       if (! _input.good())
          return -1L;
-      size = from_big_endian64<int>(v);
+      int64_t size_field = from_big_endian64<int64_t>(v);
+      int codec = (int) (((uint64_t) size_field) >> CODEC_SHIFT);
+      size = (int) (size_field & CODEC_SIZE_MASK);
       bool ok = true;
-      if (size > 0)
+      if ( (size > 0) && (codec != CODEC_RAW) )
+      {
+         if ( (int) _payload.size() < size)
+            _payload.resize((size_t) size);
+         _input.read(_payload.data(), size);
+         ok = ( (! _input.bad()) && (_input.gcount() == size) && (decode(codec, _payload.data(), (size_t) size, data)) );
+         size = (int) _size;
+      }
+      else if (size > 0)
       {
          if (_must_compress)
          {
@@ -327,6 +374,173 @@ public:
       return _input.tellg();
    }
 
+   // Decodes a tagged payload into data (_size bytes), keeping a copy as the reference for a following delta frame.
+   bool decode(int codec, const char *payload, size_t len, unsigned char *data)
+   //-------------------------------------------------------------------------
+   {
+      if (len < SNAPPY_HEADER_SIZE)
+         return false;
+      int64_t self = from_big_endian64<int64_t>(*((const uint64_t *) payload));
+      size_t ulen;
+      switch (codec)
+      {
+         case CODEC_STORED:
+            if (len - SNAPPY_HEADER_SIZE < _size)
+               return false;
+            memcpy(data, payload + SNAPPY_HEADER_SIZE, _size);
+            break;
+         case CODEC_SNAPPY:
+            if ( (! snappy::GetUncompressedLength(payload + SNAPPY_HEADER_SIZE, len - SNAPPY_HEADER_SIZE, &ulen)) ||
+                 (ulen != _size) ||
+                 (! snappy::RawUncompress(payload + SNAPPY_HEADER_SIZE, len - SNAPPY_HEADER_SIZE, (char *) data)) )
+               return false;
+            break;
+         case CODEC_DELTA:
+         {
+            if (len < DELTA_HEADER_SIZE)
+               return false;
+            int64_t ref = from_big_endian64<int64_t>(*((const uint64_t *) (payload + 8)));
+            int64_t key = from_big_endian64<int64_t>(*((const uint64_t *) (payload + 16)));
+            if ( (_read_prev_offset != ref) && (! recover(key, ref)) )
+               return false;
+            if ( (! snappy::GetUncompressedLength(payload + DELTA_HEADER_SIZE, len - DELTA_HEADER_SIZE, &ulen)) ||
+                 (ulen != _size) ||
+                 (! snappy::RawUncompress(payload + DELTA_HEADER_SIZE, len - DELTA_HEADER_SIZE, (char *) data)) )
+               return false;
+            const unsigned char *prev = _read_prev.data();
+            for (size_t i = 0; i < _size; i++)
+               data[i] ^= prev[i];
+            break;
+         }
+         default:
+            return false;
+      }
+      if (_read_prev.size() < _size)
+         _read_prev.resize(_size);
+      memcpy(_read_prev.data(), data, _size);
+      _read_prev_offset = self;
+      return true;
+   }
+
+   // Rebuilds the reference frame at offset ref by decoding forward from the key frame at offset key (after a seek).
+   bool recover(int64_t key, int64_t ref)
+   //------------------------------------
+   {
+      if ( (_recovering) || (key < 0) || (ref < key) )
+         return false;
+      _recovering = true;
+      std::streampos pos = _input.tellg();
+      std::vector<unsigned char> frame(_size);
+      std::vector<char> payload;
+      _input.clear();
+      _input.seekg(key, std::ios_base::beg);
+      _read_prev_offset = -1;
+      bool ok = true;
+      while ( (ok) && (_read_prev_offset != ref) )
+      {
+         int64_t offset = (int64_t) _input.tellg();
+         uint64_t v[2];
+         _input.read((char *) v, sizeof(v));
+         if ( (! _input.good()) || (offset > ref) )
+         {
+            ok = false;
+            break;
+         }
+         int64_t size_field = from_big_endian64<int64_t>(v[1]);
+         int codec = (int) (((uint64_t) size_field) >> CODEC_SHIFT);
+         size_t size = (size_t) (size_field & CODEC_SIZE_MASK);
+         if ( (size == 0) || (codec == CODEC_RAW) )
+         {
+            _input.seekg(size, std::ios_base::cur);
+            continue;
+         }
+         payload.resize(size);
+         _input.read(payload.data(), size);
+         ok = ( (! _input.bad()) && ((size_t) _input.gcount() == size) &&
+                (decode(codec, payload.data(), size, frame.data())) );
+      }
+      _input.clear();
+      _input.seekg(pos, std::ios_base::beg);
+      _recovering = false;
+      return ok;
+   }
+
+   // Encodes a frame for writing at file offset offset according to the compression mode.
+   // Returns the codec tag with payload and len set to the data to write.
+   int encode(const unsigned char *frame, int64_t offset, const char *&payload, size_t &len)
+   //--------------------------------------------------------------------------------------
+   {
+      if ( (_mode == COMPRESS_NONE) || (_mode > COMPRESS_DELTA) )
+      {
+         payload = (const char *) frame;
+         len = _size;
+         return CODEC_RAW;
+      }
+      size_t capacity = DELTA_HEADER_SIZE + snappy::MaxCompressedLength(_size);
+      if (_encoded.size() < capacity)
+         _encoded.resize(capacity);
+      char *out = _encoded.data();
+      *((uint64_t *) out) = to_big_endian64<int64_t>(offset);
+      int codec = -1;
+      size_t sz;
+      if ( (_mode == COMPRESS_DELTA) && (_prev_offset >= 0) && (_since_key < _keyframe_interval) )
+      {
+         if (_scratch.size() < _size)
+            _scratch.resize(_size);
+         unsigned char *delta = _scratch.data();
+         const unsigned char *prev = _prev.data();
+         for (size_t i = 0; i < _size; i++)
+            delta[i] = frame[i] ^ prev[i];
+         snappy::RawCompress((const char *) delta, _size, out + DELTA_HEADER_SIZE, &sz);
+         if (sz < _size / 2) // else a scene change, start a new key frame
+         {
+            *((uint64_t *) (out + 8)) = to_big_endian64<int64_t>(_prev_offset);
+            *((uint64_t *) (out + 16)) = to_big_endian64<int64_t>(_key_offset);
+            len = DELTA_HEADER_SIZE + sz;
+            codec = CODEC_DELTA;
+            _since_key++;
+         }
+      }
+      if (codec < 0)
+      {
+         bool skipped = false;
+         if ( (_mode == COMPRESS_FAST) && (_skip > 0) )
+         {
+            _skip--;
+            sz = _size;
+            skipped = true;
+         }
+         else
+            snappy::RawCompress((const char *) frame, _size, out + SNAPPY_HEADER_SIZE, &sz);
+         if (sz >= (_size - _size / 8))
+         {
+            memcpy(out + SNAPPY_HEADER_SIZE, frame, _size);
+            len = SNAPPY_HEADER_SIZE + _size;
+            codec = CODEC_STORED;
+            // Only back off after a real compression attempt failed, otherwise the last skipped frame would restart
+            // the skip count and FAST mode would never compress again.
+            if ( (_mode == COMPRESS_FAST) && (! skipped) )
+               _skip = FAST_SKIP_FRAMES;
+         }
+         else
+         {
+            len = SNAPPY_HEADER_SIZE + sz;
+            codec = CODEC_SNAPPY;
+         }
+         _key_offset = offset;
+         _since_key = 1;
+      }
+      if (_mode == COMPRESS_DELTA)
+      {
+         if (_prev.size() < _size)
+            _prev.resize(_size);
+         memcpy(_prev.data(), frame, _size);
+         _prev_offset = offset;
+      }
+      payload = out;
+      return codec;
+   }
+
    int64_t readoffset(int64_t offset)
    //--------------------------------
    {
@@ -379,6 +593,22 @@ public:
                v = to_big_endian64<int>(write_size);
                _output.write((const char *) &v, sizeof(uint64_t));
             }
+            else if ( (_mode != COMPRESS_NONE) && (! _must_compress) )
+            {
+               auto start = std::chrono::steady_clock::now();
+               const char *payload;
+               size_t len;
+               int64_t offset = (int64_t) _output.tellp() - (int64_t) sizeof(uint64_t);
+               int codec = encode(data->_data, offset, payload, len);
+               _stat_encode_ns += (int64_t) std::chrono::duration_cast<std::chrono::nanoseconds>(
+                                                std::chrono::steady_clock::now() - start).count();
+               v = to_big_endian64<int64_t>((((int64_t) codec) << CODEC_SHIFT) | (int64_t) len);
+               _output.write((const char *) &v, sizeof(uint64_t));
+               _output.write(payload, len);
+               _stat_frames++;
+               _stat_raw_bytes += (int64_t) _size;
+               _stat_written_bytes += (int64_t) (len + 2*sizeof(uint64_t));
+            }
             else
             {
                char *write_data;
@@ -399,6 +629,9 @@ public:
                _output.write(write_data, write_size);
                if (_must_compress)
                   delete write_data;
+               _stat_frames++;
+               _stat_raw_bytes += (int64_t) _size;
+               _stat_written_bytes += (int64_t) (write_size + 2*sizeof(uint64_t));
             }
             _writecount++;
          }
@@ -453,6 +686,13 @@ private:
    bool _must_compress = true;
    volatile bool _writing = false, _running = false, _buffering = false;
    volatile int _writecount;
+   volatile int _mode = COMPRESS_NONE, _keyframe_interval = 30;
+   int _since_key = 0, _skip = 0;
+   int64_t _prev_offset = -1, _key_offset = -1, _read_prev_offset = -1;
+   bool _recovering = false;
+   std::vector<unsigned char> _prev, _scratch, _read_prev;
+   std::vector<char> _encoded, _payload;
+   std::atomic<int64_t> _stat_frames, _stat_raw_bytes, _stat_written_bytes, _stat_encode_ns;
    std::mutex _writing_mutex;
    std::condition_variable _writing_cond;
    moodycamel::ReaderWriterQueue<FrameBufferData *> *q;
@@ -159,6 +159,22 @@ JNIEXPORT jlong JNICALL Java_to_augmented_reality_android_em_recorder_NativeFram
 JNIEXPORT jlong JNICALL Java_to_augmented_reality_android_em_recorder_NativeFrameBuffer_readPos
   (JNIEnv *, jobject, jlong);
 
+/*
+ * Class:     to_augmented_reality_android_em_recorder_NativeFrameBuffer
+ * Method:    setCompression
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_to_augmented_reality_android_em_recorder_NativeFrameBuffer_setCompression
+  (JNIEnv *, jobject, jint, jint);
+
+/*
+ * Class:     to_augmented_reality_android_em_recorder_NativeFrameBuffer
+ * Method:    compressionStats
+ * Signature: ([J)V
+ */
+JNIEXPORT void JNICALL Java_to_augmented_reality_android_em_recorder_NativeFrameBuffer_compressionStats
+  (JNIEnv *, jobject, jlongArray);
+
 #ifdef __cplusplus
 }
 #endif
@@ -136,6 +136,12 @@ int main(int argc, char **argv)
          framesfile.read((char *) &v, sizeof(uint64_t));
          uint64_t iv;
          from_big_endian64(v, (unsigned char *) &iv);
+         // Top byte of the size is the recorder's frame codec tag (0 = raw)
+         if ((iv >> 56) != 0)
+         {
+            std::cerr << "Compressed frame (codec " << (int) (iv >> 56) << ") not supported" << std::endl;
+            break;
+         }
          int size = (int) iv;
          std::cout << size << std::endl;
          if (size > 0)
@@ -159,12 +159,18 @@ public class ARSurfaceView extends GLSurfaceView
 
    public boolean startRecording(File dir, int width, int height, String name, float increment, long maxsize,
                                  RecordingThread.RecordingType recordingType, ORIENTATION_PROVIDER orientationType,
-                                 List<Integer> xtraSensorList, boolean isPostProcess, boolean isFlashOn,
-                                 boolean useCamera2Api, boolean isStitch)
+                                 List<Integer> xtraSensorList, NativeFrameBuffer.Compression compression,
+                                 boolean isPostProcess, boolean isFlashOn, boolean useCamera2Api, boolean isStitch)
    //-----------------------------------------------------------------------------------------------
    {
       return renderer.startRecording(dir, width, height, name, increment, maxsize, recordingType, orientationType,
-                                     xtraSensorList, isPostProcess, isFlashOn, useCamera2Api, isStitch);
+                                     xtraSensorList, compression, isPostProcess, isFlashOn, useCamera2Api, isStitch);
+   }
+
+   public NativeFrameBuffer.Compression getFrameCompression()
+   //--------------------------------------------------------
+   {
+      return (renderer == null) ? NativeFrameBuffer.Compression.NONE : renderer.getFrameCompression();
    }
 
    public void stopRecording(final boolean isCancelled) { renderer.stopRecording(isCancelled); }
@@ -0,0 +1,417 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous record file writer. Records are encoded directly into one of a small set (by default two, ie double
+ * buffered) of direct ByteBuffers. When the buffer being filled is full it is handed to an I/O thread which writes
+ * all full buffers with a single gathering FileChannel write while the producer continues encoding into a free
+ * buffer, so the producer never waits for file I/O unless all buffers are waiting to be written (back-pressure),
+ * in which case it either waits (OverflowPolicy.BLOCK) or drops the record (OverflowPolicy.DROP). The I/O thread
+ * is woken directly by buffer hand-off, not by polling.
+ * <p>
+ * Records are written by a single producer thread using begin(length) to obtain the buffer to encode the record
+ * into followed by end(), or abort() if encoding the record failed (the buffer is locked between begin and
+ * end/abort so abort should always be called in a finally block). flush and close may be called from other
+ * threads.
+ * </p>
+ */
+public class AsyncRecordWriter implements Closeable
+//=================================================
+{
+   /**
+    * When the file is synced to the storage device (FileChannel.force): NONE never, CLOSE only on close, FLUSH on
+    * flush and close and WRITE after every write by the I/O thread.
+    */
+   public enum SyncPolicy { NONE, CLOSE, FLUSH, WRITE }
+
+   public enum OverflowPolicy { BLOCK, DROP }
+
+   final static public int DEFAULT_BUFFER_SIZE = 32768;
+   final static public int DEFAULT_BUFFER_COUNT = 2;
+
+   final static private ByteBuffer END = ByteBuffer.allocate(0);
+
+   final static private ExecutorService ioExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+   {
+      @Override
+      public Thread newThread(Runnable r)
+      //-------------------------------------------
+      {
+         Thread t = new Thread(r);
+         t.setDaemon(true);
+         t.setName("RecordWriter");
+         return t;
+      }
+   });
+
+   private final File file;
+   private final FileOutputStream fos;
+   private final FileChannel channel;
+   private final int bufferSize;
+   private final SyncPolicy syncPolicy;
+   private final OverflowPolicy overflowPolicy;
+   private final BlockingQueue<ByteBuffer> free, filled;
+   private final Future<?> ioFuture;
+   private final Object completion = new Object();
+   private final ReentrantLock bufferLock = new ReentrantLock();
+   private ByteBuffer current;
+   private int recordStart = -1; // position in current of the record being encoded (guarded by bufferLock)
+   private long submitted = 0, completed = 0; // buffers handed to and written by the I/O thread (guarded by completion)
+   private volatile IOException error = null;
+   private volatile boolean isClosed = false;
+   private final AtomicLong records = new AtomicLong(0), dropped = new AtomicLong(0), bytesWritten = new AtomicLong(0),
+                            stalls = new AtomicLong(0), stallNanos = new AtomicLong(0);
+
+   public AsyncRecordWriter(File f, boolean isAppend, ByteOrder order) throws FileNotFoundException
+   //---------------------------------------------------------------------------------------------
+   {
+      this(f, isAppend, order, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, SyncPolicy.CLOSE, OverflowPolicy.BLOCK);
+   }
+
+   /**
+    * @param f The file to write.
+    * @param isAppend If <i>true</i> records are appended to an existing file.
+    * @param order The byte order of the buffers records are encoded into.
+    * @param bufferSize The size of each buffer (the maximum record length).
+    * @param bufferCount The number of buffers (at least 2).
+    * @param syncPolicy When to sync the file to the storage device.
+    * @param overflowPolicy Whether the producer waits or drops records when no buffer is available.
+    */
+   public AsyncRecordWriter(File f, boolean isAppend, ByteOrder order, int bufferSize, int bufferCount,
+                            SyncPolicy syncPolicy, OverflowPolicy overflowPolicy) throws FileNotFoundException
+   //------------------------------------------------------------------------------------------------------------
+   {
+      file = f;
+      this.bufferSize = bufferSize;
+      this.syncPolicy = syncPolicy;
+      this.overflowPolicy = overflowPolicy;
+      final int count = Math.max(bufferCount, 2);
+      free = new ArrayBlockingQueue<>(count);
+      filled = new ArrayBlockingQueue<>(count + 1);
+      current = ByteBuffer.allocateDirect(bufferSize).order(order);
+      for (int i=1; i<count; i++)
+         free.offer(ByteBuffer.allocateDirect(bufferSize).order(order));
+      fos = new FileOutputStream(f, isAppend);
+      channel = fos.getChannel();
+      ioFuture = ioExecutor.submit(new Runnable() { @Override public void run() { write(count); } });
+   }
+
+   public File getFile() { return file; }
+
+   /**
+    * Returns the buffer to encode a record of (at most) length bytes into at its current position, or null if the
+    * record was dropped (OverflowPolicy.DROP). end() must be called after encoding the record, or abort() if encoding
+    * failed.
+    */
+   public ByteBuffer begin(int length) throws IOException
+   //-----------------------------------------------------
+   {
+      if (error != null)
+         throw error;
+      if (isClosed)
+         throw new IOException(file + " closed");
+      if (length > bufferSize)
+         throw new IOException("Record length " + length + " exceeds buffer size " + bufferSize);
+      bufferLock.lock();
+      try
+      {
+         if ( (current.remaining() < length) && (! submit(true)) )
+         {
+            dropped.incrementAndGet();
+            bufferLock.unlock();
+            return null;
+         }
+      }
+      catch (IOException | RuntimeException e)
+      {
+         bufferLock.unlock();
+         throw e;
+      }
+      recordStart = current.position();
+      return current;
+   }
+
+   /**
+    * Completes the record started by begin.
+    */
+   public void end()
+   //---------------
+   {
+      recordStart = -1;
+      records.incrementAndGet();
+      bufferLock.unlock();
+   }
+
+   /**
+    * Discards the (partially encoded) record started by begin, rewinding the buffer to the start of the record. Does
+    * nothing if the calling thread has no record in progress (eg it was already completed by end), so it can be
+    * called unconditionally in a finally block after end.
+    */
+   public void abort()
+   //-----------------
+   {
+      if (! bufferLock.isHeldByCurrentThread())
+         return;
+      if (recordStart >= 0)
+      {
+         current.limit(current.capacity());
+         current.position(recordStart);
+         recordStart = -1;
+      }
+      bufferLock.unlock();
+   }
+
+   /**
+    * Hands the buffer being filled to the I/O thread and replaces it with a free buffer.
+    * @param isFull <i>true</i> if the buffer is being submitted because it is full (and so may be dropped on overflow).
+    * @return <i>false</i> if no buffer was free and the overflow policy is DROP.
+    */
+   private boolean submit(boolean isFull) throws IOException
+   //-------------------------------------------------------
+   {
+      ByteBuffer next = free.poll();
+      if (next == null)
+      {
+         if ( (isFull) && (overflowPolicy == OverflowPolicy.DROP) )
+            return false;
+         final long start = System.nanoTime();
+         try
+         {
+            next = free.take();
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted waiting for a free record buffer", e);
+         }
+         stalls.incrementAndGet();
+         stallNanos.addAndGet(System.nanoTime() - start);
+      }
+      current.flip();
+      synchronized (completion) { submitted++; }
+      filled.offer(current);
+      current = next;
+      return true;
+   }
+
+   /**
+    * I/O thread: writes all filled buffers with a gathering write and returns them to the free queue.
+    */
+   private void write(int bufferCount)
+   //---------------------------------
+   {
+      final ByteBuffer[] batch = new ByteBuffer[bufferCount];
+      boolean isEnd = false;
+      while (! isEnd)
+      {
+         int n = 0;
+         try
+         {
+            ByteBuffer b = filled.take();
+            while (b != null)
+            {
+               if (b == END)
+               {
+                  isEnd = true;
+                  break;
+               }
+               batch[n++] = b;
+               b = (n < bufferCount) ? filled.poll() : null;
+            }
+         }
+         catch (InterruptedException e)
+         {
+            isEnd = true;
+         }
+         if (n == 0)
+            continue;
+         try
+         {
+            if (error == null)
+            {
+               long remaining = 0, written;
+               for (int i=0; i<n; i++)
+                  remaining += batch[i].remaining();
+               while (remaining > 0)
+               {
+                  written = channel.write(batch, 0, n);
+                  remaining -= written;
+                  bytesWritten.addAndGet(written);
+               }
+               if (syncPolicy == SyncPolicy.WRITE)
+                  channel.force(false);
+            }
+         }
+         catch (IOException e)
+         {
+            error = e;
+         }
+         finally
+         {
+            for (int i=0; i<n; i++)
+            {
+               batch[i].clear();
+               free.offer(batch[i]);
+               batch[i] = null;
+            }
+            synchronized (completion)
+            {
+               completed += n;
+               completion.notifyAll();
+            }
+         }
+      }
+   }
+
+   /**
+    * Waits until all records encoded before the call have been written to the file (and synced for SyncPolicy FLUSH
+    * or WRITE). Should be called from the producer thread or while the producer is idle.
+    */
+   public void flush() throws IOException
+   //------------------------------------
+   {
+      if (isClosed)
+         return;
+      flushBuffers();
+   }
+
+   private void flushBuffers() throws IOException
+   //--------------------------------------------
+   {
+      bufferLock.lock();
+      try
+      {
+         if (current.position() > 0)
+            submit(false);
+      }
+      finally
+      {
+         bufferLock.unlock();
+      }
+      await();
+      if ( (syncPolicy == SyncPolicy.FLUSH) || (syncPolicy == SyncPolicy.WRITE) )
+         channel.force(false);
+      if (error != null)
+         throw error;
+   }
+
+   private void await() throws IOException
+   //-------------------------------------
+   {
+      synchronized (completion)
+      {
+         while (completed < submitted)
+         {
+            if (ioFuture.isDone())
+               throw new IOException(file + ": record writer thread terminated");
+            try
+            {
+               completion.wait(100);
+            }
+            catch (InterruptedException e)
+            {
+               throw new IOException("Interrupted flushing " + file, e);
+            }
+         }
+      }
+   }
+
+   @Override
+   public void close() throws IOException
+   //------------------------------------
+   {
+      if (isClosed)
+         return;
+      // Closed before the final flush so a record begun after this point fails in begin instead of being lost.
+      // The flush takes bufferLock, so a record already being encoded is completed and written.
+      isClosed = true;
+      try
+      {
+         flushBuffers();
+      }
+      finally
+      {
+         filled.offer(END);
+         try
+         {
+            ioFuture.get();
+         }
+         catch (Exception e)
+         {
+            ioFuture.cancel(true);
+         }
+         try
+         {
+            if ( (error == null) && (syncPolicy != SyncPolicy.NONE) )
+               channel.force(false);
+         }
+         finally
+         {
+            fos.close();
+         }
+      }
+   }
+
+   public boolean isClosed() { return isClosed; }
+
+   /**
+    * @return The number of records written (or waiting to be written).
+    */
+   public long getRecordCount() { return records.get(); }
+
+   /**
+    * @return The number of records dropped because no buffer was available (OverflowPolicy.DROP).
+    */
+   public long getDroppedCount() { return dropped.get(); }
+
+   /**
+    * @return The number of times the producer had to wait for the I/O thread to free a buffer.
+    */
+   public long getStallCount() { return stalls.get(); }
+
+   /**
+    * @return The total time in nanoseconds the producer waited for the I/O thread to free a buffer.
+    */
+   public long getStallNanos() { return stallNanos.get(); }
+
+   /**
+    * @return The number of bytes written to the file by this writer.
+    */
+   public long getBytesWritten() { return bytesWritten.get(); }
+
+   /**
+    * @return The number of filled buffers waiting to be written.
+    */
+   public int getPendingBuffers() { return filled.size(); }
+}
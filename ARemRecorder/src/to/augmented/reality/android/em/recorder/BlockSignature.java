@@ -0,0 +1,117 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import java.util.Arrays;
+
+/**
+ * Downsampled block signatures of RGBA frames (the per block sums of the R, G and B channels) used as a cheap
+ * duplicate pre-filter before a full resolution CV.PSNR comparison.
+ * <p>
+ * As the sum of squared pixel differences in a block is at least the square of the summed difference divided by
+ * the number of pixels in the block (Cauchy-Schwarz), the PSNR of two signatures computed by {@link #psnr} using the
+ * same normalisation as CV.PSNR is an upper bound on the full resolution PSNR. A signature PSNR at or below a
+ * duplicate threshold therefore proves the frames are not duplicates, while a high signature PSNR only indicates a
+ * near duplicate.
+ * <p>
+ * An instance is immutable once constructed and can be shared by threads computing signatures into their own
+ * arrays.
+ */
+class BlockSignature
+//==================
+{
+   static final public int DEFAULT_BLOCK_SIZE = 8;
+
+   final int width, height, blockSize, columns, rows;
+   private final int[] blockPixels;
+
+   BlockSignature(int width, int height) { this(width, height, DEFAULT_BLOCK_SIZE); }
+
+   BlockSignature(int width, int height, int blockSize)
+   //--------------------------------------------------
+   {
+      this.width = width;
+      this.height = height;
+      this.blockSize = Math.max(blockSize, 1);
+      columns = (width + this.blockSize - 1) / this.blockSize;
+      rows = (height + this.blockSize - 1) / this.blockSize;
+      blockPixels = new int[columns*rows];
+      for (int by=0; by<rows; by++)
+      {
+         final int bh = Math.min(this.blockSize, height - by*this.blockSize);
+         for (int bx=0; bx<columns; bx++)
+            blockPixels[by*columns + bx] = bh * Math.min(this.blockSize, width - bx*this.blockSize);
+      }
+   }
+
+   /** The length of a signature array. */
+   int length() { return columns*rows*3; }
+
+   /**
+    * Computes the signature of an RGBA frame of width x height pixels into signature (of at least length()
+    * elements, allocated if null or too short).
+    */
+   int[] compute(byte[] rgba, int[] signature)
+   //-----------------------------------------
+   {
+      if ( (signature == null) || (signature.length < length()) )
+         signature = new int[length()];
+      Arrays.fill(signature, 0, length(), 0);
+      int p = 0;
+      for (int y=0; y<height; y++)
+      {
+         int s = (y / blockSize) * columns * 3;
+         for (int x=0; x<width; x += blockSize, s += 3)
+         {
+            final int end = p + Math.min(blockSize, width - x)*4;
+            int r = 0, g = 0, b = 0;
+            for (; p<end; p += 4)
+            {
+               r += rgba[p] & 0xFF;
+               g += rgba[p + 1] & 0xFF;
+               b += rgba[p + 2] & 0xFF;
+            }
+            signature[s] += r;
+            signature[s + 1] += g;
+            signature[s + 2] += b;
+         }
+      }
+      return signature;
+   }
+
+   /**
+    * @return An upper bound on CV.PSNR of the frames with signatures signature1 and signature2 (infinite if the
+    * signatures are identical).
+    */
+   double psnr(int[] signature1, int[] signature2)
+   //---------------------------------------------
+   {
+      double sse = 0;
+      for (int i=0, j=0; i<blockPixels.length; i++, j += 3)
+      {
+         final long dr = signature1[j] - signature2[j], dg = signature1[j + 1] - signature2[j + 1],
+                    db = signature1[j + 2] - signature2[j + 2];
+         final long d = dr*dr + dg*dg + db*db;
+         if (d != 0)
+            sse += (double) d / blockPixels[i];
+      }
+      if (sse <= 1e-10)
+         return Double.POSITIVE_INFINITY;
+      final double mse = sse / (4.0 * width * height);
+      return 10.0 * Math.log10((255 * 255) / mse);
+   }
+}
@@ -64,6 +64,15 @@ public interface Bufferable
 
    BufferData read() throws IOException;
 
+   /**
+    * Reads the next frame into a caller owned (possibly pooled) frame instead of allocating a new BufferData and
+    * direct buffer.
+    * @param frame The frame to read into. Its timestamp, fileOffset and data are set as for read(), with data
+    *              referring to frame.buffer() or null for an empty frame.
+    * @return false at end of file.
+    */
+   boolean read(ReusableFrame frame) throws IOException;
+
    long readPos(long offset);
 
    public class BufferData
@@ -18,10 +18,18 @@ package to.augmented.reality.android.em.recorder;
 
 import java.util.Arrays;
 
+/**
+ * Raw sensor event buffer between the sensor callbacks (the single producer) and the event writer thread (the single
+ * consumer). An adapter over a lock free PrimitiveRingBuffer with the sensor type as the record tag and up to
+ * EVENT_VALUES values per event (the number of values in a sensordata.raw record). The writer should use drain with
+ * a reusable batch; pop and popAll allocate and are retained for compatibility.
+ */
 public class EventRingBuffer
 //==========================
 {
-   volatile int head, tail, length;
+   final static public int EVENT_VALUES = 5;
+
+   final PrimitiveRingBuffer ring;
    final int count;
 
    class SensorEvent
@@ -46,73 +54,69 @@ public class EventRingBuffer
          sensorType = other.sensorType;
          data = Arrays.copyOf(other.data, other.data.length);
       }
-   }
 
-   SensorEvent[] content;
+      SensorEvent(PrimitiveRingBuffer.Batch batch, int i)
+      //-------------------------------------------------
+      {
+         timestamp = batch.timestamps[i];
+         sensorType = batch.tags[i];
+         final int offset = batch.offset(i);
+         data = Arrays.copyOfRange(batch.values, offset, offset + batch.lengths[i]);
+      }
+   }
 
    public EventRingBuffer(int count)
    //---------------------------------
    {
-      content = new SensorEvent[count];
-      for (int i=0; i<count; i++)
-         content[i] = new SensorEvent();
-      this.count = count;
-      head = tail = length = 0;
+      ring = new PrimitiveRingBuffer(count, EVENT_VALUES);
+      this.count = ring.capacity();
    }
 
-   public synchronized void clear() { head = tail = length = 0; }
+   public void clear() { ring.clear(); }
+
+   public boolean isEmpty() { return ring.isEmpty(); }
 
-   public synchronized boolean isEmpty() { return (length == 0); }
+   public boolean isFull() { return ring.isFull(); }
 
-   public synchronized boolean isFull() { return (length >= count); }
+   public long getDropped() { return ring.getDropped(); }
 
-   public synchronized int push(long timestamp, int sensorType, float[] event)
+   public PrimitiveRingBuffer.Batch createBatch() { return ring.createBatch(); }
+
+   /**
+    * Producer: adds a sensor event (values beyond EVENT_VALUES are not stored). If the buffer is full the event is
+    * dropped.
+    * @return The remaining capacity.
+    */
+   public int push(long timestamp, int sensorType, float[] event)
    //----------------------------------------------------------------
    {
-      if (length >= count)
-      {
-         tail = indexIncrement(tail);
-         length--;
-      }
-      SensorEvent rbc = content[head];
-      rbc.timestamp = timestamp;
-      rbc.sensorType = sensorType;
-      rbc.data = Arrays.copyOf(event, event.length);
-      head = indexIncrement(head);
-      length++;
-      return count - length;
+      ring.push(timestamp, sensorType, event);
+      return count - ring.size();
    }
 
-   public synchronized SensorEvent pop()
+   /**
+    * Consumer: moves up to batch.capacity events into batch.
+    * @return The number of events drained.
+    */
+   public int drain(PrimitiveRingBuffer.Batch batch) { return ring.drain(batch); }
+
+   public SensorEvent pop()
    //-----------------------------------------
    {
-      SensorEvent popped = null;
-      if (length > 0)
-      {
-         popped = new SensorEvent(content[tail]);
-         tail = indexIncrement(tail);
-         length--;
-      }
-      return popped;
+      PrimitiveRingBuffer.Batch batch = new PrimitiveRingBuffer.Batch(1, EVENT_VALUES);
+      if (ring.drain(batch) == 0)
+         return null;
+      return new SensorEvent(batch, 0);
    }
 
-   public synchronized SensorEvent[] popAll()
+   public SensorEvent[] popAll()
    //----------------------------------------------
    {
-      SensorEvent[] contents = new SensorEvent[length];
-      if (length > 0)
-      {
-         int i = 0;
-         while (length > 0)
-         {
-            contents[i++] = new SensorEvent(content[tail]);
-            tail = indexIncrement(tail);
-            length--;
-         }
-      }
+      PrimitiveRingBuffer.Batch batch = ring.createBatch();
+      final int n = ring.drain(batch);
+      SensorEvent[] contents = new SensorEvent[n];
+      for (int i=0; i<n; i++)
+         contents[i] = new SensorEvent(batch, i);
       return contents;
    }
-
-   private int indexIncrement(int i) { return (++i >= count) ? 0 : i; }
-   private int indexDecrement(int i) { return (0 == i) ? (length - 1) : (i - 1);  }
 }
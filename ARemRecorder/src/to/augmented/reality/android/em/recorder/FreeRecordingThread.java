@@ -53,6 +53,8 @@ public class FreeRecordingThread extends RecordingThread
       boolean isCreated = false;
       PrintWriter headerWriter = null;
       Bufferable previewBuffer = (Bufferable) previewer;
+      NativeFrameBuffer frameBuffer = renderer.getFrameBuffer();
+      long[] compressionStats = new long[4];
       Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
       try
       {
@@ -107,6 +109,11 @@ public class FreeRecordingThread extends RecordingThread
                   long written = previewBuffer.writeSize();
                   progress.setStatus("Free Record Mode (" + written/1048576L + "Mb)", (int)((written * 100)/ maxFrameFileSize),
                                      false, 0);
+                  if (frameBuffer != null)
+                  {
+                     frameBuffer.compressionStats(compressionStats);
+                     progress.setCompression(compressionStats);
+                  }
                   publishProgress(progress);
                   if (written > maxFrameFileSize)
                   {
@@ -198,6 +205,15 @@ public class FreeRecordingThread extends RecordingThread
          {
             try
             {
+               // Playback memory maps the fixed stride format so convert once filtering (which reads the original
+               // format) is complete.
+               final int version = renderer.getVersionCode();
+               boolean isFixed = OrientationLogWriter.convert(orientationFile, version);
+               if (smoothOrientationFile != null)
+                  isFixed = OrientationLogWriter.convert(smoothOrientationFile, version) && isFixed;
+               if (isFixed)
+                  headerWriter.println(String.format(Locale.US, "%s=%d", OrientationLogWriter.HEADER_KEY,
+                                                     OrientationLogWriter.FORMAT_VERSION));
                headerWriter.println(String.format(Locale.US, "OrientationFile=%s", orientationFile.getAbsolutePath()));
                if ((smoothOrientationFile != null) && (smoothOrientationFile.exists()) && (smoothOrientationFile.length() > 0))
                   headerWriter.println(String.format(Locale.US, "FilteredOrientationFile=%s",
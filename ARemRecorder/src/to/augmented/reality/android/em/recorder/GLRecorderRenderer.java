@@ -105,6 +105,15 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
 
    private NativeFrameBuffer frameBuffer;
    public NativeFrameBuffer getFrameBuffer() { return frameBuffer; }
+   private NativeFrameBuffer.Compression frameCompression = NativeFrameBuffer.Compression.NONE;
+   public NativeFrameBuffer.Compression getFrameCompression() { return frameCompression; }
+   public void setFrameCompression(NativeFrameBuffer.Compression compression)
+   //------------------------------------------------------------------------
+   {
+      frameCompression = (compression == null) ? NativeFrameBuffer.Compression.NONE : compression;
+      if (frameBuffer != null)
+         frameBuffer.setCompression(frameCompression);
+   }
 
    private ConditionVariable frameAvailCondVar = new ConditionVariable(false);
    public ConditionVariable getFrameAvailCondVar() { return frameAvailCondVar; }
@@ -411,6 +420,7 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
                   break;
             }
             frameBuffer = new NativeFrameBuffer(n, nv21BufferSize, false);
+            frameBuffer.setCompression(frameCompression);
             Log.i(TAG, "Buffer size " + n + " x " + nv21BufferSize + " = " + n * nv21BufferSize);
 
             camera = new LegacyPreviewCamera(this, view, nv21BufferSize, frameBuffer, frameAvailCondVar);
@@ -431,6 +441,7 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
                   break;
             }
             frameBuffer = new NativeFrameBuffer(n, yuvBufferSize, false);
+            frameBuffer.setCompression(frameCompression);
             Log.i(TAG, "Buffer size " + n + " x " + yuvBufferSize + " = " + n * yuvBufferSize);
             camera = new PreviewCamera(this, view, displaySurface, frameBuffer, frameAvailCondVar);
             if (! camera.open(CameraCharacteristics.LENS_FACING_BACK, width, height, errbuf))
@@ -508,6 +519,7 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
          locationHandler.freeze(B);
       }
       B.putString("orientationProviderType", orientationProviderType.name());
+      B.putString("frameCompression", frameCompression.name());
       if (recordDir != null)
          B.putString("recordDir", recordDir.getAbsolutePath());
       if (recordFramesFile != null)
@@ -533,6 +545,8 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
       nv21BufferSize = B.getInt("nv21BufferSize");
       orientationProviderType = ORIENTATION_PROVIDER.valueOf(B.getString("orientationProviderType",
                                                                          ORIENTATION_PROVIDER.DEFAULT.name()));
+      frameCompression = NativeFrameBuffer.Compression.valueOf(B.getString("frameCompression",
+                                                                           NativeFrameBuffer.Compression.NONE.name()));
       String recordDirName = B.getString("recordDir", null);
       if (recordDirName != null)
       {
@@ -1062,11 +1076,18 @@ public class GLRecorderRenderer implements GLSurfaceView.Renderer, SurfaceTextur
 
    public boolean startRecording(File dir, int width, int height, String name, float increment, long maxsize,
                                  RecordingThread.RecordingType recordingType, ORIENTATION_PROVIDER orientationType,
-                                 List<Integer> xtraSensorList, boolean isPostProcess, boolean isFlashOn,
-                                 boolean useCamera2Api, boolean isStitch)
+                                 List<Integer> xtraSensorList, NativeFrameBuffer.Compression compression,
+                                 boolean isPostProcess, boolean isFlashOn, boolean useCamera2Api, boolean isStitch)
    //---------------------------------------------------------------------------------------------------------------
    {
       if ( (isRecording) || (dir == null) ) return false;
+      // The desktop post-processor only reads untagged (raw) frame records.
+      if ( (isPostProcess) && (compression != null) && (compression != NativeFrameBuffer.Compression.NONE) )
+      {
+         Log.w(TAG, "Frame compression " + compression + " ignored for post-processed recording");
+         compression = NativeFrameBuffer.Compression.NONE;
+      }
+      setFrameCompression(compression);
       boolean isStopped = false;
       if ( (previewer != null) &&
            ( ( (height > 0) && (height != previewer.getPreviewHeight()) ) ||
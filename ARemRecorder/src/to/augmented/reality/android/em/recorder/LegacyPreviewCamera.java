@@ -28,13 +28,8 @@ import android.opengl.GLSurfaceView;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.ConditionVariable;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
 import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicYuvToRGB;
-import android.renderscript.Type;
 import android.util.Log;
-import to.augmented.reality.em.recorder.ScriptC_yuv2grey;
 
 import java.io.File;
 import java.io.IOException;
@@ -56,6 +51,7 @@ public class LegacyPreviewCamera implements Previewable, Bufferable
    private CameraPreviewThread previewThread = null;
    private NativeFrameBuffer frameBuffer = null;
    private RenderScript renderscript = null;
+   private RGBAConverter.Pool converters = null;
    private float focalLen = -1;
    private boolean isFlashOn = false;
    private boolean hasYUV = false, hasNV21 = false;
@@ -83,6 +79,7 @@ public class LegacyPreviewCamera implements Previewable, Bufferable
       this.bufferSize = bufferSize;
       this.frameAvailCondVar = frameAvailCondVar;
       renderscript = RenderScript.create(renderer.activity);
+      converters = new RGBAConverter.Pool(renderscript, ImageFormat.NV21);
    }
 
    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -287,6 +284,7 @@ public class LegacyPreviewCamera implements Previewable, Bufferable
          try { camera.release(); } catch (Exception _e) { Log.e(LOGTAG, _e.getMessage()); }
       }
       camera = null;
+      converters.clear();
    }
 
    @Override
@@ -409,6 +407,8 @@ public class LegacyPreviewCamera implements Previewable, Bufferable
 
    @Override public BufferData read() throws IOException { return frameBuffer.read(); }
 
+   @Override public boolean read(ReusableFrame frame) throws IOException { return frameBuffer.read(frame); }
+
    @Override public long readPos(long offset) { return frameBuffer.readPos(offset); }
 
    @Override public void stop() { frameBuffer.stop(); }
@@ -419,53 +419,38 @@ public class LegacyPreviewCamera implements Previewable, Bufferable
 
    @Override public int getPreviewBufferSize() { return frameBuffer.getFrameSize(); }
 
-   @Override public void setPreviewWidth(int width) { cameraWidth = width; }
+   @Override public void setPreviewWidth(int width) { if (width != cameraWidth) converters.clear(); cameraWidth = width; }
 
-   @Override public  void setPreviewHeight(int height) { cameraHeight = height; }
+   @Override public  void setPreviewHeight(int height) { if (height != cameraHeight) converters.clear(); cameraHeight = height; }
 
    @Override
    public byte[] toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, int rgbaSize, byte[] grey)
-   //-----------------------------------------------------------------------------------------------------------------
+   //----------------------------------------------------------------------------------------------------------------
+   {
+      byte[] rgbaBuffer = new byte[rgbaSize];
+      return (toRGBA(context, frame, previewWidth, previewHeight, rgbaBuffer, grey)) ? rgbaBuffer : null;
+   }
+
+   @Override
+   public boolean toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, byte[] rgba, byte[] grey)
+   //----------------------------------------------------------------------------------------------------------------
    {
-      ScriptIntrinsicYuvToRGB YUVToRGB = null;
-      byte[] rgbaBuffer = null;
+      RGBAConverter converter = null;
       try
       {
-         Type.Builder yuvType = new Type.Builder(renderscript, Element.U8(renderscript)).setX(previewWidth).
-               setY(previewHeight).setMipmaps(false);
-         yuvType.setYuvFormat(ImageFormat.NV21);
-         Allocation ain = Allocation.createTyped(renderscript, yuvType.create(), Allocation.USAGE_SCRIPT);
-
-         Type.Builder rgbType = null;
-         YUVToRGB = ScriptIntrinsicYuvToRGB.create(renderscript, Element.U8_4(renderscript));
-         rgbType = new Type.Builder(renderscript, Element.RGBA_8888(renderscript));
-         rgbaBuffer = new byte[rgbaSize];
-         rgbType.setX(previewWidth).setY(previewHeight).setMipmaps(false);
-         Allocation aOut = Allocation.createTyped(renderscript, rgbType.create(), Allocation.USAGE_SCRIPT);
-         ain.copyFrom(frame);
-         YUVToRGB.setInput(ain);
-         YUVToRGB.forEach(aOut);
-         aOut.copyTo(rgbaBuffer);
-         if (grey != null)
-         {
-            Allocation allocGrayOut = null;
-            ScriptC_yuv2grey rsYUVtoGrey = null;
-            Type.Builder greyTypeBuilder = new Type.Builder(renderscript, Element.U8(renderscript));
-            greyTypeBuilder.setX(previewWidth).setY(previewHeight);
-            allocGrayOut = Allocation.createTyped(renderscript, greyTypeBuilder.create(), Allocation.USAGE_SCRIPT);
-            rsYUVtoGrey = new ScriptC_yuv2grey(renderscript);
-            Allocation ainbw = Allocation.createTyped(renderscript, yuvType.create(), Allocation.USAGE_SCRIPT);
-            ainbw.copyFrom(frame);
-            rsYUVtoGrey.set_in(ainbw);
-            rsYUVtoGrey.forEach_yuv2grey(allocGrayOut);
-            allocGrayOut.copyTo(grey);
-         }
-         return rgbaBuffer;
+         converter = converters.acquire(previewWidth, previewHeight);
+         converter.convert(frame, rgba, grey);
+         return true;
       }
       catch (Exception e)
       {
          Log.e(LOGTAG, "", e);
-         return null;
+         return false;
+      }
+      finally
+      {
+         if (converter != null)
+            converters.release(converter);
       }
    }
 
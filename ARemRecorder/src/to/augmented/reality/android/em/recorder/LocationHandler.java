@@ -28,15 +28,14 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 // Permissions are checked at startup in RecorderActivity - Android Studio just ignores this annotation.
 @SuppressLint({"NewApi", "MissingPermission, UseCheckPermission"})
@@ -52,7 +51,7 @@ public class LocationHandler implements LocationListener, Bufferable, Freezeable
    File recordingDir;
    LocationManager locationManager;
    File locationFile;
-   DataOutputStream locationWriter;
+   AsyncRecordWriter locationWriter;
    DataInputStream locationReader = null;
    RecorderActivity activity;
    volatile boolean mustWrite = false;
@@ -71,8 +70,9 @@ public class LocationHandler implements LocationListener, Bufferable, Freezeable
       locationManager = (LocationManager) activity.getSystemService(Context.LOCATION_SERVICE);
       recordingDir = dir;
       locationFile = new File(dir, "location");
-      locationWriter =
-            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(locationFile, true), 32768));
+      locationWriter = new AsyncRecordWriter(locationFile, true, ByteOrder.BIG_ENDIAN, 4096,
+                                             AsyncRecordWriter.DEFAULT_BUFFER_COUNT, AsyncRecordWriter.SyncPolicy.FLUSH,
+                                             AsyncRecordWriter.OverflowPolicy.BLOCK);
       lastLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
       if (lastLocation == null)
          lastLocation = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
@@ -121,8 +121,9 @@ public class LocationHandler implements LocationListener, Bufferable, Freezeable
          try { locationWriter.close(); } catch (Exception e) { Log.e(TAG, "", e); }
          locationWriter = null;
       }
-      locationWriter =
-            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(locationFile, true), 32768));
+      locationWriter = new AsyncRecordWriter(locationFile, true, ByteOrder.BIG_ENDIAN, 4096,
+                                             AsyncRecordWriter.DEFAULT_BUFFER_COUNT, AsyncRecordWriter.SyncPolicy.FLUSH,
+                                             AsyncRecordWriter.OverflowPolicy.BLOCK);
    }
 
    @Override public boolean closeFile() throws IOException
@@ -214,15 +215,24 @@ public class LocationHandler implements LocationListener, Bufferable, Freezeable
             long timestamp = SystemClock.elapsedRealtimeNanos() - startTimestamp;
             try
             {
-               locationWriter.writeLong(timestamp);
-               if (isGPSLocation)
-                  locationWriter.writeByte('G');
-               else
-                  locationWriter.writeByte('N');
-               locationWriter.writeDouble(location.getLatitude());
-               locationWriter.writeDouble(location.getLongitude());
-               locationWriter.writeDouble(location.getAltitude());
-               locationWriter.writeFloat(accuracy);
+               ByteBuffer record = locationWriter.begin(RECORD_SIZE);
+               try
+               {
+                  record.putLong(timestamp);
+                  if (isGPSLocation)
+                     record.put((byte) 'G');
+                  else
+                     record.put((byte) 'N');
+                  record.putDouble(location.getLatitude());
+                  record.putDouble(location.getLongitude());
+                  record.putDouble(location.getAltitude());
+                  record.putFloat(accuracy);
+                  locationWriter.end();
+               }
+               finally
+               {
+                  locationWriter.abort();
+               }
                writeCount++;
             }
             catch (Exception e)
@@ -276,6 +286,9 @@ public class LocationHandler implements LocationListener, Bufferable, Freezeable
       }
    }
 
+   @Override
+   public boolean read(ReusableFrame frame) { throw new RuntimeException("N/A (frame buffers only)"); }
+
    @Override
    public BufferData read() throws IOException
    //----------------------------------------
@@ -42,6 +42,18 @@ public class NativeFrameBuffer implements Bufferable
       }
    }
 
+   /**
+    * Frame compression used when writing frames (must match CompressionMode in framebuffer.hh). Each frame record
+    * carries a codec tag so playback can decode any mix of codecs.
+    * NONE - raw frames (the legacy format).
+    * SNAPPY - every frame Snappy compressed.
+    * FAST - Snappy with a bail out to stored frames for a while after an incompressible frame.
+    * DELTA - Snappy compressed XOR of the previous frame with periodic (or scene change) key frames.
+    */
+   public enum Compression { NONE, SNAPPY, FAST, DELTA }
+
+   static final public int DEFAULT_KEYFRAME_INTERVAL = 30;
+
    private ByteBuffer ref = null;
    private File recordingFile = null;
    int frameSize = -1;
@@ -79,6 +91,24 @@ public class NativeFrameBuffer implements Bufferable
    public native void pushYUV(long timestamp, ByteBuffer Y, int ysize, ByteBuffer U, int usize, int ustride,
                               ByteBuffer V, int vsize, int vstride, int retries);
 
+   public void setCompression(Compression compression) { setCompression(compression, DEFAULT_KEYFRAME_INTERVAL); }
+
+   public void setCompression(Compression compression, int keyframeInterval)
+   //-----------------------------------------------------------------------
+   {
+      if (compression == null)
+         compression = Compression.NONE;
+      setCompression(compression.ordinal(), keyframeInterval);
+   }
+
+   private native void setCompression(int mode, int keyframeInterval);
+
+   /**
+    * Fills stats (length &gt;= 4) with the frames written, raw frame bytes, bytes written to the file and total
+    * encode time in nanoseconds.
+    */
+   public native void compressionStats(long[] stats);
+
    @Override public native void writeOn();
 
    @Override public native void writeOff();
@@ -133,6 +163,29 @@ public class NativeFrameBuffer implements Bufferable
       return data;
    }
 
+   @Override
+   public boolean read(ReusableFrame frame) throws IOException
+   //---------------------------------------------------------
+   {
+      if (frame.capacity() < frameSize)
+         throw new RuntimeException("ReusableFrame capacity " + frame.capacity() + " less than frame size " + frameSize);
+      ByteBuffer frameBuf = frame.buffer();
+      frameBuf.clear();
+      long filepos = read(frame.timestampArg, frame.sizeArg, frameBuf);
+      if (filepos < 0)
+         return false;
+      frame.timestamp = frame.timestampArg[0];
+      if (frame.sizeArg[0] == 0)
+         frame.data = null;
+      else
+      {
+         frameBuf.rewind();
+         frame.data = frameBuf;
+      }
+      frame.fileOffset = filepos;
+      return true;
+   }
+
    public native long read(long[] timestamp, int[] size, ByteBuffer frame);
 
    @Override public native long readPos(long offset);
@@ -16,7 +16,7 @@
 
 package to.augmented.reality.android.em.recorder;
 
-import android.hardware.SensorManager;
+import to.augmented.reality.android.common.math.BearingMath;
 import to.augmented.reality.android.common.math.Quaternion;
 
 import java.io.DataInputStream;
@@ -63,6 +63,8 @@ public class OrientationData
             R[i] = dis.readFloat();
          float bearing = dis.readFloat();
          OrientationData data = new OrientationData(timestamp, Q, R);
+         if (bearing >= 0)
+            data.bearing = bearing; // as calculated by bearing() when the record was written
          recordLen[0] = (Long.SIZE + Float.SIZE*(5 + rlen) + Integer.SIZE) / 8;
          return data;
       }
@@ -84,8 +86,35 @@ public class OrientationData
    //-----------------------------------------------------
    {
       this.timestamp = timestamp;
-      this.Q = new Quaternion(Q);
-      this.R = Arrays.copyOf(R, R.length);
+      if (this.Q == null)
+         this.Q = new Quaternion(Q);
+      else
+         this.Q.setFrom(Q);
+      if ( (this.R == null) || (this.R.length != R.length) )
+         this.R = Arrays.copyOf(R, R.length);
+      else
+         System.arraycopy(R, 0, this.R, 0, R.length);
+      bearing = -1;
+   }
+
+   /**
+    * Sets this instance (reusing its quaternion and rotation matrix) from record i of an OrientationRingBuffer batch.
+    */
+   public void set(PrimitiveRingBuffer.Batch batch, int i)
+   //-----------------------------------------------------
+   {
+      timestamp = batch.timestamps[i];
+      final int offset = batch.offset(i);
+      final float[] values = batch.values;
+      if (Q == null)
+         Q = new Quaternion(values[offset], values[offset + 1], values[offset + 2], values[offset + 3]);
+      else
+         Q.setXYZW(values[offset], values[offset + 1], values[offset + 2], values[offset + 3]);
+      final int rlen = batch.tags[i];
+      if ( (R == null) || (R.length != rlen) )
+         R = new float[rlen];
+      System.arraycopy(values, offset + 4, R, 0, rlen);
+      bearing = -1;
    }
 
    public void write(DataOutputStream orientationWriter, float bearing) throws IOException
@@ -106,36 +135,7 @@ public class OrientationData
    //--------------------
    {
       if (bearing >= 0) return bearing;
-
-      float[] RM = new float[16];
-      int REMAP_X = SensorManager.AXIS_X,  REMAP_Y = SensorManager.AXIS_Z;
-      SensorManager.remapCoordinateSystem(R, REMAP_X, REMAP_Y, RM);
-//      float[] orientation = new float[3];
-//      SensorManager.getOrientation(RM, orientation);
-      bearing = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-      if (bearing < 0)
-         bearing += 360;
-
-//      Log.i("OrientationData", "AXIS_Z " + bearing);
-//      REMAP_Y = SensorManager.AXIS_MINUS_Z;
-//      SensorManager.remapCoordinateSystem(R, REMAP_X, REMAP_Y, RM);
-//      float bearing2 = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-//      if (bearing2 < 0)
-//         bearing2 += 360;
-//      Log.i("OrientationData", "AXIS_MINUS_Z " + bearing2);
-//      REMAP_Y = SensorManager.AXIS_MINUS_Y;
-//      SensorManager.remapCoordinateSystem(R, REMAP_X, REMAP_Y, RM);
-//      bearing2 = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-//      if (bearing2 < 0)
-//         bearing2 += 360;
-//      Log.i("OrientationData", "AXIS_MINUS_Y " + bearing2);
-//      REMAP_Y = SensorManager.AXIS_Y;
-//      SensorManager.remapCoordinateSystem(R, REMAP_X, REMAP_Y, RM);
-//      bearing2 = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-//      if (bearing2 < 0)
-//         bearing2 += 360;
-//      Log.i("OrientationData", "AXIS_Y " + bearing2);
-
+      bearing = BearingMath.bearingDegrees(R);
       return bearing;
    }
 }
@@ -0,0 +1,131 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Read only Bufferable over an original format orientation file, for readers which need their own position in the
+ * file independent of the OrientationHandler (for example concurrently evaluated 360 recording increments).
+ */
+public class OrientationFileReader implements Bufferable
+//======================================================
+{
+   final static private String TAG = OrientationFileReader.class.getSimpleName();
+
+   private File file = null;
+   private DataInputStream reader = null;
+   private long filePos = 0;
+   private final long[] recordLen = new long[1];
+
+   @Override
+   public boolean openForReading()
+   //-----------------------------
+   {
+      if ( (file == null) || (! file.exists()) )
+         return false;
+      closeFile();
+      try
+      {
+         reader = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 32768));
+         filePos = 0;
+         return true;
+      }
+      catch (Exception e)
+      {
+         Log.e(TAG, "", e);
+         return false;
+      }
+   }
+
+   @Override
+   public boolean openForReading(File f)
+   //-----------------------------------
+   {
+      if ( (f == null) || (! f.isFile()) )
+         return false;
+      file = f;
+      return openForReading();
+   }
+
+   @Override
+   public boolean read(ReusableFrame frame) { throw new RuntimeException("N/A (frame buffers only)"); }
+
+   @Override
+   public BufferData read() throws IOException
+   //----------------------------------------
+   {
+      if (reader == null)
+         return null;
+      OrientationData orientationData = OrientationData.read(reader, recordLen);
+      if (orientationData == null)
+         return null;
+      filePos += recordLen[0];
+      BufferData data = new BufferData();
+      data.timestamp = orientationData.timestamp;
+      data.data = orientationData;
+      data.fileOffset = filePos;
+      return data;
+   }
+
+   @Override
+   public boolean closeFile()
+   //------------------------
+   {
+      if (reader == null)
+         return false;
+      try { reader.close(); } catch (Exception _e) {}
+      reader = null;
+      return true;
+   }
+
+   @Override public void stop() { closeFile(); }
+
+   @Override public long readPos(long offset) { throw new RuntimeException("readPos not supported"); }
+
+   @Override public void bufferOn() { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public void bufferOff() { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public void bufferClear() { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public boolean bufferEmpty() { return true; }
+
+   @Override public void startTimestamp(long timestamp) { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public void writeFile(File f) { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public File writeFile() { return null; }
+
+   @Override public int writeCount() { return 0; }
+
+   @Override public long writeSize() { return 0; }
+
+   @Override public void flushFile() { }
+
+   @Override public void writeOn() { throw new RuntimeException("N/A (read only)"); }
+
+   @Override public void writeOff() { }
+
+   @Override public void push(long timestamp, byte[] data, int retries) { throw new RuntimeException("N/A (read only)"); }
+}
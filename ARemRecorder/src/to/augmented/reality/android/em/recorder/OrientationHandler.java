@@ -26,26 +26,27 @@ import to.augmented.reality.android.common.sensor.orientation.OrientationProvide
 import to.augmented.reality.android.common.sensor.orientation.RawSensorListenable;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OrientationHandler implements OrientationListenable, RawSensorListenable, Bufferable
 //===============================================================================================
 {
    final static String TAG = "OrientationListener";
    final static int XTRA_EVENT_BUFFER_SIZE = 200;
+   final static int XTRA_EVENT_RECORD_SIZE = 4 + 8 + 4*EventRingBuffer.EVENT_VALUES; // type, timestamp, values
    final static ExecutorService processOrientationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
    {
       @Override
@@ -80,11 +81,14 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
    private float lastUIBearing = -1000, lastUpdateBearing = -1000;
    private File recordingFile, xtraRecordingFile = null;
    private List<Integer> xtraSensorList = null;
-   private DataOutputStream orientationWriter, xtraOrientationWriter = null;
+   private OrientationLogWriter orientationWriter;
+   private AsyncRecordWriter xtraOrientationWriter = null;
    private DataInputStream orientationReader = null;
    private final OrientationRingBuffer buffer;
    private EventRingBuffer eventBuffer;
    private volatile boolean isRunning = false, mustBuffer = false, mustWrite = false, isStopping = false;
+   // Ring position to discard up to, set by bufferClear and handled by the writer thread (the only ring consumer).
+   private final AtomicLong clearPosition = new AtomicLong(-1);
    private OrientationWriterThread writerThread;
    private EventWriterThread eventWriterThread = null;
    Future<?> writerFuture, eventWriterFuture = null;
@@ -109,7 +113,7 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
    //--------------------------------------------------------------------------------
    {
       recordingFile = new File(dir, "orientation");
-      orientationWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordingFile), 32768));
+      orientationWriter = new OrientationLogWriter(recordingFile, OrientationLogWriter.Layout.STREAM);
       this.type = orientationProviderType;
       buffer = new OrientationRingBuffer(bufferSize);
       writerThread = new OrientationWriterThread();
@@ -132,6 +136,7 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
       {
          if (isRunning)
             isRunning = false;
+         cond.open();
          if (writerFuture != null)
             try { writerFuture.get(500, TimeUnit.MILLISECONDS); } catch (Exception ee) { if (writerFuture != null) writerFuture.cancel(true); }
       }
@@ -148,6 +153,7 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
          {
             if (eventWriterThread.isRunning)
                eventWriterThread.isRunning = false;
+            eventCond.open();
             if (eventWriterFuture != null)
                try { eventWriterFuture.get(500, TimeUnit.MILLISECONDS); } catch (Exception ee) { eventWriterFuture.cancel(true); }
          }
@@ -167,7 +173,17 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
 
    @Override public void bufferOff() { mustBuffer = false; }
 
-   @Override public void bufferClear() { buffer.clear();  }
+   /**
+    * Requests the writer thread to discard all buffered updates. The ring buffer only supports a single consumer so
+    * it can't be cleared directly from the calling thread while the writer thread is draining it.
+    */
+   @Override
+   public void bufferClear()
+   //-----------------------
+   {
+      clearPosition.set(buffer.position());
+      cond.open();
+   }
 
    @Override public boolean bufferEmpty() { return buffer.isEmpty(); }
 
@@ -196,7 +212,7 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
          try { orientationWriter.close(); } catch (Exception e) { Log.e(TAG, "", e); }
          orientationWriter = null;
       }
-      orientationWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordingFile), 32768));
+      orientationWriter = new OrientationLogWriter(recordingFile, OrientationLogWriter.Layout.STREAM);
       writeCount = 0;
    }
 
@@ -233,6 +249,9 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
    private long filePos = 0;
    private long[] recordLen = new long[1];
 
+   @Override
+   public boolean read(ReusableFrame frame) { throw new RuntimeException("N/A (frame buffers only)"); }
+
    @Override
    public BufferData read() throws IOException
    //----------------------------------------
@@ -399,11 +418,20 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
       xtraRecordingFile = new File(dir, filename);
       try
       {
-         xtraOrientationWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(xtraRecordingFile), 32768));
+         xtraOrientationWriter = new AsyncRecordWriter(xtraRecordingFile, false, ByteOrder.BIG_ENDIAN);
          this.xtraSensorList = xtraSensorList;
-         xtraOrientationWriter.writeInt(xtraSensorList.size());
-         for (Integer sensorType : xtraSensorList)
-            xtraOrientationWriter.writeInt(sensorType);
+         ByteBuffer header = xtraOrientationWriter.begin(4*(xtraSensorList.size() + 1));
+         try
+         {
+            header.putInt(xtraSensorList.size());
+            for (Integer sensorType : xtraSensorList)
+               header.putInt(sensorType);
+            xtraOrientationWriter.end();
+         }
+         finally
+         {
+            xtraOrientationWriter.abort();
+         }
          eventBuffer = new EventRingBuffer(XTRA_EVENT_BUFFER_SIZE);
          eventWriterThread = new EventWriterThread();
          eventWriterFuture = eventWriterExecutor.submit(eventWriterThread);
@@ -427,35 +455,41 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
       //---------------
       {
          isRunning = true;
+         final PrimitiveRingBuffer.Batch batch = buffer.createBatch();
+         final OrientationData content = buffer.createContent();
          while (isRunning)
          {
-            if ( (cond.block(50)) || (! buffer.isEmpty()) )
+            cond.block(); // opened by every push, by bufferClear and by stop
+            cond.close();
+            while (true)
             {
-               cond.close();
-               OrientationData[] contents = buffer.popAll();
-               for (OrientationData content : contents)
+               final long clearTo = clearPosition.getAndSet(-1);
+               if (clearTo >= 0)
+                  buffer.discardTo(clearTo);
+               if (buffer.drain(batch) <= 0)
+                  break;
+               for (int i=0; i<batch.size; i++)
                {
+                  content.set(batch, i);
                   if ( (mustWrite) && (orientationWriter != null) )
                   {
                      try
                      {
                         content.timestamp -= startTimestamp;
-                        content.write(orientationWriter, -1);
+                        orientationWriter.write(content, -1);
                         writeCount++;
-//                        Log.i(TAG, "Write bearing " + contents.length + " " + content.bearing() + " " + content.timestamp);
                      }
                      catch (Exception e)
                      {
                         Log.e(TAG, "Error writing orientation update to " + recordingFile.getAbsolutePath(), e);
                      }
                   }
-                  lastReading = content;
-                  //Log.i(TAG, "Last bearing " + lastReading.bearing() + " " + lastReading.timestamp + " " + mustWrite + " " + orientationWriter);
                }
+               lastReading = new OrientationData(content); // content is reused so publish a copy once per batch
+               //Log.i(TAG, "Last bearing " + lastReading.bearing() + " " + lastReading.timestamp + " " + mustWrite + " " + orientationWriter);
             }
-            else
-               if ( (isStopping) && (buffer.isEmpty()) )
-                  break;
+            if ( (isStopping) && (buffer.isEmpty()) )
+               break;
          }
          isRunning = false;
       }
@@ -471,37 +505,46 @@ public class OrientationHandler implements OrientationListenable, RawSensorListe
       //---------------
       {
          isRunning = true;
+         final PrimitiveRingBuffer.Batch batch = eventBuffer.createBatch();
          while (isRunning)
          {
-            if ( (eventCond.block(100)) || (! eventBuffer.isEmpty()) )
+            eventCond.block(); // opened by every push and by stop
+            eventCond.close();
+            while (eventBuffer.drain(batch) > 0)
             {
-               eventCond.close();
-               EventRingBuffer.SensorEvent[] events = eventBuffer.popAll();
-               for (EventRingBuffer.SensorEvent event : events)
+               final AsyncRecordWriter writer = xtraOrientationWriter;
+               if ( (! mustWrite) || (writer == null) )
+                  continue;
+               for (int j=0; j<batch.size; j++)
                {
-                  if ( (mustWrite) && (xtraOrientationWriter != null) )
+                  try
                   {
-                     try
-                     {
-                        final long ts = event.timestamp - startTimestamp;
-                        final int len = event.data.length;
-                        xtraOrientationWriter.writeInt(event.sensorType);
-                        //xtraOrientationWriter.writeInt(len); // Always write 5 to make read faster
-                        xtraOrientationWriter.writeLong(ts);
-                        int i;
-                        for (i=0; i<len; i++)
-                           xtraOrientationWriter.writeFloat(event.data[i]);
-                        for (;i<5; i++)
-                           xtraOrientationWriter.writeFloat(Float.NaN);
-                     }
-                     catch (Exception e)
-                     {
-                        Log.e(TAG, "Error writing extra orientation update to " + recordingFile.getAbsolutePath(), e);
-                     }
+                     final ByteBuffer record = writer.begin(XTRA_EVENT_RECORD_SIZE);
+                     if (record == null)
+                        continue;
+                     final long ts = batch.timestamps[j] - startTimestamp;
+                     final int len = batch.lengths[j];
+                     final int offset = batch.offset(j);
+                     record.putInt(batch.tags[j]);
+                     //record.putInt(len); // Always write 5 to make read faster
+                     record.putLong(ts);
+                     int i;
+                     for (i=0; i<len; i++)
+                        record.putFloat(batch.values[offset + i]);
+                     for (;i<EventRingBuffer.EVENT_VALUES; i++)
+                        record.putFloat(Float.NaN);
+                     writer.end();
+                  }
+                  catch (Exception e)
+                  {
+                     Log.e(TAG, "Error writing extra orientation update to " + recordingFile.getAbsolutePath(), e);
+                  }
+                  finally
+                  {
+                     writer.abort();
                   }
                }
             }
-            else
             if ( (isStopping) && (eventBuffer.isEmpty()) )
                break;
          }
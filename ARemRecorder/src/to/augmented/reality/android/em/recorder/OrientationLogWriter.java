@@ -0,0 +1,281 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import android.util.Log;
+import to.augmented.reality.android.common.math.Quaternion;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes orientation records in bulk by encoding them into direct ByteBuffers which are written through a
+ * FileChannel by an AsyncRecordWriter I/O thread, instead of making a DataOutputStream call per value.
+ * Two layouts are supported:
+ * <ul>
+ *    <li>STREAM: the original variable length format
+ *    (<code>long timestamp, float x, y, z, w, int rlen, float R[rlen], float bearing</code>, big endian) which is
+ *    byte for byte identical to OrientationData.write and is still read by the orientation filter and 360
+ *    post-processing.</li>
+ *    <li>FIXED: the revision 2 fixed stride format, a HEADER_SIZE byte header
+ *    (MAGIC, FORMAT_VERSION, header size, rotation matrix length, stride) followed by little endian
+ *    <code>long timestamp, float x, y, z, w, float R[rlen], float bearing</code> records padded to the stride,
+ *    which the emulator memory maps for playback (see to.augmented.reality.android.em.free.OrientationLog).</li>
+ * </ul>
+ */
+public class OrientationLogWriter implements Closeable
+//====================================================
+{
+   final static private String TAG = OrientationLogWriter.class.getSimpleName();
+
+   public enum Layout { STREAM, FIXED }
+
+   final static public int MAGIC = 0x41524F4C; // AROL
+   final static public int FORMAT_VERSION = 2;
+   final static public int HEADER_SIZE = 32;
+   final static public String HEADER_KEY = "OrientationFormat";
+   final static public int DEFAULT_BUFFER_SIZE = 32768;
+
+   private final Layout layout;
+   private final AsyncRecordWriter out;
+   private int rotationLength = -1, stride = 0;
+   private int count = 0;
+
+   /**
+    * @return The record length of the FIXED layout for a rotation matrix of length rotationLength.
+    */
+   static public int stride(int rotationLength) { return (8 + 4*(4 + rotationLength + 1) + 7) & ~7; }
+
+   public OrientationLogWriter(File f, Layout layout) throws FileNotFoundException
+   //----------------------------------------------------------------------------
+   {
+      this(f, layout, DEFAULT_BUFFER_SIZE);
+   }
+
+   public OrientationLogWriter(File f, Layout layout, int bufferSize) throws FileNotFoundException
+   //--------------------------------------------------------------------------------------------
+   {
+      this(f, layout, bufferSize, AsyncRecordWriter.SyncPolicy.CLOSE);
+   }
+
+   public OrientationLogWriter(File f, Layout layout, int bufferSize, AsyncRecordWriter.SyncPolicy syncPolicy)
+         throws FileNotFoundException
+   //--------------------------------------------------------------------------------------------------------
+   {
+      this.layout = layout;
+      out = new AsyncRecordWriter(f, false, (layout == Layout.FIXED) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN,
+                                  Math.max(bufferSize, HEADER_SIZE + stride(16)), AsyncRecordWriter.DEFAULT_BUFFER_COUNT,
+                                  syncPolicy, AsyncRecordWriter.OverflowPolicy.BLOCK);
+   }
+
+   public Layout getLayout() { return layout; }
+
+   /**
+    * @return The underlying writer (for back-pressure metrics).
+    */
+   public AsyncRecordWriter getOutput() { return out; }
+
+   /**
+    * @return The number of records written.
+    */
+   public int getCount() { return count; }
+
+   public void write(OrientationData data, float bearing) throws IOException
+   //-----------------------------------------------------------------------
+   {
+      write(data.timestamp, data.Q, data.R, (bearing < 0) ? data.bearing() : bearing);
+   }
+
+   public void write(long timestamp, Quaternion Q, float[] R, float bearing) throws IOException
+   //----------------------------------------------------------------------------------------
+   {
+      final int rlen = R.length;
+      if (rotationLength < 0)
+         start(rlen);
+      else if ( (layout == Layout.FIXED) && (rlen != rotationLength) )
+         throw new IOException("Rotation matrix length changed from " + rotationLength + " to " + rlen);
+      final int len = (layout == Layout.FIXED) ? stride : 8 + 4*(4 + 1 + rlen + 1);
+      final ByteBuffer buffer = out.begin(len);
+      if (buffer == null)
+         return;
+      try
+      {
+         final int start = buffer.position();
+         buffer.putLong(timestamp);
+         buffer.putFloat(Q.getX()).putFloat(Q.getY()).putFloat(Q.getZ()).putFloat(Q.getW());
+         if (layout == Layout.STREAM)
+            buffer.putInt(rlen);
+         for (int i=0; i<rlen; i++)
+            buffer.putFloat(R[i]);
+         buffer.putFloat(bearing);
+         while (buffer.position() - start < len)
+            buffer.put((byte) 0);
+         out.end();
+      }
+      finally
+      {
+         out.abort();
+      }
+      count++;
+   }
+
+   private void start(int rlen) throws IOException
+   //---------------------------------------------
+   {
+      if ( (rlen < 0) || (rlen > 16) )
+         throw new IOException("Invalid rotation matrix length " + rlen);
+      rotationLength = rlen;
+      stride = stride(rlen);
+      if (layout == Layout.FIXED)
+      {
+         final ByteBuffer buffer = out.begin(HEADER_SIZE);
+         try
+         {
+            final int start = buffer.position();
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(HEADER_SIZE).putInt(rlen).putInt(stride);
+            while (buffer.position() - start < HEADER_SIZE)
+               buffer.put((byte) 0);
+            out.end();
+         }
+         finally
+         {
+            out.abort();
+         }
+      }
+   }
+
+   /**
+    * Writes any buffered records to the file.
+    */
+   public void flush() throws IOException { out.flush(); }
+
+   @Override public void close() throws IOException { out.close(); }
+
+   /**
+    * Converts an original format orientation file to the FIXED layout.
+    * @param legacy The original format orientation file.
+    * @param f The FIXED layout file to create.
+    * @param version The recording version from the header file (orientation records only include the bearing for
+    *                versions greater than 20, earlier records have the bearing calculated from the rotation matrix).
+    * @return The number of records converted.
+    */
+   static public int convert(File legacy, File f, int version) throws IOException
+   //----------------------------------------------------------------------------
+   {
+      DataInputStream dis = null;
+      OrientationLogWriter writer = null;
+      try
+      {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(legacy), 65536));
+         writer = new OrientationLogWriter(f, Layout.FIXED, 65536);
+         OrientationData data = new OrientationData();
+         Quaternion Q = new Quaternion();
+         float[] R = null;
+         while (true)
+         {
+            final long timestamp;
+            final int rlen;
+            try
+            {
+               timestamp = dis.readLong();
+               Q.setXYZW(dis.readFloat(), dis.readFloat(), dis.readFloat(), dis.readFloat());
+               rlen = dis.readInt();
+               if ( (rlen < 0) || (rlen > 16) )
+                  throw new IOException(legacy + ": invalid rotation matrix length " + rlen + " in record " +
+                                        writer.getCount());
+               if ( (R == null) || (R.length != rlen) )
+                  R = new float[rlen];
+               for (int i=0; i<rlen; i++)
+                  R[i] = dis.readFloat();
+            }
+            catch (EOFException e)
+            {
+               break;
+            }
+            float bearing;
+            try
+            {
+               bearing = (version > 20) ? dis.readFloat() : -1;
+            }
+            catch (EOFException e)
+            {
+               bearing = -1;
+            }
+            data.set(timestamp, Q, R);
+            writer.write(data, bearing);
+         }
+         return writer.getCount();
+      }
+      finally
+      {
+         if (dis != null)
+            try { dis.close(); } catch (Exception _e) {}
+         if (writer != null)
+            writer.close();
+      }
+   }
+
+   /**
+    * Replaces an original format orientation file with its FIXED layout conversion.
+    * @return <i>true</i> if f was converted.
+    */
+   static public boolean convert(File f, int version)
+   //------------------------------------------------
+   {
+      File tmp = new File(f.getPath() + ".tmp");
+      try
+      {
+         convert(f, tmp, version);
+         if (tmp.renameTo(f))
+            return true;
+         // Platforms where rename does not replace an existing file: move the original aside first so that it
+         // survives if the second rename fails.
+         File bak = new File(f.getPath() + ".bak");
+         bak.delete();
+         if (! f.renameTo(bak))
+         {
+            Log.e(TAG, "Error replacing " + f + " with " + tmp);
+            tmp.delete();
+            return false;
+         }
+         if (! tmp.renameTo(f))
+         {
+            Log.e(TAG, "Error replacing " + f + " with " + tmp);
+            if (! bak.renameTo(f))
+               Log.e(TAG, "Original orientation file preserved as " + bak);
+            tmp.delete();
+            return false;
+         }
+         bak.delete();
+         return true;
+      }
+      catch (Exception e)
+      {
+         Log.e(TAG, "Error converting orientation file " + f, e);
+         tmp.delete();
+         return false;
+      }
+   }
+}
@@ -18,124 +18,151 @@ package to.augmented.reality.android.em.recorder;
 
 import to.augmented.reality.android.common.math.Quaternion;
 
+/**
+ * Orientation (quaternion and rotation matrix) buffer between the orientation sensor callback (the single producer)
+ * and the orientation writer thread (the single consumer). An adapter over a lock free PrimitiveRingBuffer in which
+ * each record holds the quaternion (x, y, z, w) followed by the rotation matrix, with the tag holding the rotation
+ * matrix length. The writer should use drain with a reusable batch and OrientationData.set(batch, i); the methods
+ * returning OrientationData allocate and are retained for compatibility.
+ */
 public class OrientationRingBuffer
 //================================
 {
+   final static public int STRIDE = 4 + 16; // Quaternion + up to a 4x4 rotation matrix
+
    public OrientationData createContent() { return new OrientationData(); }
 
-   OrientationData[] content;
-   volatile int head, tail, length;
+   final PrimitiveRingBuffer ring;
    final int count;
+   private PrimitiveRingBuffer.Batch scratch = null; // Consumer only
 
    public OrientationRingBuffer(int count)
    //---------------------------------
    {
-      content = new OrientationData[count];
-      for (int i=0; i<count; i++)
-         content[i] = new OrientationData();
-      this.count = count;
-      head = tail = length = 0;
+      ring = new PrimitiveRingBuffer(count, STRIDE);
+      this.count = ring.capacity();
    }
 
-   public synchronized void clear() { head = tail = length = 0; }
+   public void clear() { ring.clear(); }
+
+   public long position() { return ring.position(); }
+
+   public void discardTo(long position) { ring.discardTo(position); }
+
+   public boolean isEmpty() { return ring.isEmpty(); }
+
+   public boolean isFull() { return ring.isFull(); }
 
-   public synchronized boolean isEmpty() { return (length == 0); }
+   public long getDropped() { return ring.getDropped(); }
 
-   public synchronized boolean isFull() { return (length >= count); }
+   public PrimitiveRingBuffer.Batch createBatch() { return ring.createBatch(); }
 
-   public synchronized int push(long timestamp, Quaternion Q, float[] R)
+   /**
+    * Producer: adds an orientation record. If the buffer is full the record is dropped.
+    * @return The remaining capacity.
+    */
+   public int push(long timestamp, Quaternion Q, float[] R)
    //----------------------------------------------------------------
    {
-      if (length >= count)
+      final int slot = ring.claim();
+      if (slot >= 0)
       {
-         tail = indexIncrement(tail);
-         length--;
+         final float[] values = ring.values();
+         final int offset = slot*STRIDE;
+         values[offset] = Q.getX();
+         values[offset + 1] = Q.getY();
+         values[offset + 2] = Q.getZ();
+         values[offset + 3] = Q.getW();
+         final int rlen = Math.min(R.length, STRIDE - 4);
+         System.arraycopy(R, 0, values, offset + 4, rlen);
+         ring.commit(slot, timestamp, rlen, 4 + rlen);
       }
-      OrientationData rbc = content[head];
-      rbc.set(timestamp, Q, R);
-      head = indexIncrement(head);
-      length++;
-      return count - length;
+      return count - ring.size();
    }
 
-   public synchronized OrientationData pop()
+   /**
+    * Consumer: moves up to batch.capacity records into batch (see OrientationData.set(batch, i)).
+    * @return The number of records drained.
+    */
+   public int drain(PrimitiveRingBuffer.Batch batch) { return ring.drain(batch); }
+
+   private PrimitiveRingBuffer.Batch scratch()
    //-----------------------------------------
    {
-      OrientationData popped = null;
-      if (length > 0)
-      {
-         popped = new OrientationData(content[tail]);
-         tail = indexIncrement(tail);
-         length--;
-      }
+      if (scratch == null)
+         scratch = new PrimitiveRingBuffer.Batch(1, STRIDE);
+      return scratch;
+   }
+
+   private OrientationData peekAt(int i)
+   //-----------------------------------
+   {
+      PrimitiveRingBuffer.Batch batch = scratch();
+      if (! ring.peek(i, batch, 0))
+         return null;
+      OrientationData data = new OrientationData();
+      data.set(batch, 0);
+      return data;
+   }
+
+   public OrientationData pop()
+   //-----------------------------------------
+   {
+      PrimitiveRingBuffer.Batch batch = scratch();
+      if (ring.drain(batch) == 0)
+         return null;
+      OrientationData popped = new OrientationData();
+      popped.set(batch, 0);
       return popped;
    }
 
-   public synchronized OrientationData[] popAll()
+   public OrientationData[] popAll()
    //----------------------------------------------
    {
-      OrientationData[] contents = new OrientationData[length];
-      if (length > 0)
+      PrimitiveRingBuffer.Batch batch = ring.createBatch();
+      final int n = ring.drain(batch);
+      OrientationData[] contents = new OrientationData[n];
+      for (int i=0; i<n; i++)
       {
-         int i = 0;
-         while (length > 0)
-         {
-            contents[i++] = new OrientationData(content[tail]);
-            tail = indexIncrement(tail);
-            length--;
-         }
+         contents[i] = new OrientationData();
+         contents[i].set(batch, i);
       }
       return contents;
    }
 
-   public synchronized OrientationData peek()
-   //-------------------------------------------
-   {
-      if (length > 0)
-         return new OrientationData(content[tail]);
-      return null;
-   }
+   public OrientationData peek() { return peekAt(0); }
 
-   public synchronized long peekTime()
+   public long peekTime()
    //---------------------------------
    {
-      if (length > 0)
-         return content[tail].timestamp;
-      return -1;
+      PrimitiveRingBuffer.Batch batch = scratch();
+      if (! ring.peek(0, batch, 0))
+         return -1;
+      return batch.timestamps[0];
    }
 
-   public synchronized OrientationData peekHead()
-   //----------------------------------------------
-   {
-      if (length > 0)
-      {
-         final int index = indexDecrement(head);
-         return new OrientationData(content[index]);
-      }
-      return null;
-   }
+   public OrientationData peekHead() { return peekAt(ring.size() - 1); }
 
    public OrientationData find(final long timestampCompareNS, final long epsilonBeforeNS,
                                final long epsilonAfterNS)
    //-------------------------------------------------------------------------------------------------------------
    {
-      if (length == 0) return null;
       final long gt = timestampCompareNS - epsilonBeforeNS;
       final long lt = timestampCompareNS + epsilonAfterNS;
-      int index;
-      final int len;
-      synchronized (this) { len = length; index = indexDecrement(head); }
-      for (int i=0; i<len; i++)
+      PrimitiveRingBuffer.Batch batch = scratch();
+      for (int i=ring.size() - 1; i>=0; i--)
       {
-         final long ts = content[index].timestamp;
+         if (! ring.peek(i, batch, 0))
+            continue;
+         final long ts = batch.timestamps[0];
          if (gt > ts)
-         {
-//            Log.i("BearingRingBuffer", "find terminate " + gt + " " + ts + " " + lt + " item " + i);
             return null;
-         }
          if ( (ts >= gt) && (ts <= lt) )
-            return new OrientationData(content[index]);
-         index = indexDecrement(index);
+         {
+            OrientationData data = new OrientationData();
+            data.set(batch, 0);
+            return data;
+         }
       }
       return null;
    }
@@ -144,43 +171,28 @@ public class OrientationRingBuffer
                                       final long epsilonAfterNS)
    //-------------------------------------------------------------------------------------------------------------
    {
-      if (length == 0)
-         return null;
       final long gt = timestampCompareNS - epsilonBeforeNS;
       final long lt = timestampCompareNS + epsilonAfterNS;
-      int index;
-      final int len;
+      PrimitiveRingBuffer.Batch batch = scratch();
       int ii = -1;
       long mindiff = Long.MAX_VALUE;
-      synchronized (this) { len = length; index = indexDecrement(head); }
-      for (int i=0; i<len; i++)
+      for (int i=ring.size() - 1; i>=0; i--)
       {
-         final long ts = content[index].timestamp;
-//         Log.i("BearingRingBuffer", "findClosest " + gt/1000000 + " " + ts/1000000 + " " + lt/1000000 + " item " + i+ " "
-//               + ( (ts >= gt) && (ts <= lt) ));
+         if (! ring.peek(i, batch, 0))
+            continue;
+         final long ts = batch.timestamps[0];
          if (gt > ts)
-         {
-//            Log.i("BearingRingBuffer", "findClosest terminate " + gt/1000000 + " " + ts/1000000 + " " + lt/1000000 +
-//                  " item " + i + " " + ( (ts >= gt) && (ts <= lt) ));
             break;
-         }
          if ( (ts >= gt) && (ts <= lt) )
          {
             final long diff = Math.abs(ts - timestampCompareNS);
             if (diff < mindiff)
             {
                mindiff = diff;
-               ii = index;
+               ii = i;
             }
          }
-         index = indexDecrement(index);
       }
-      if (ii >= 0)
-         return new OrientationData(content[ii]);
-      return null;
+      return (ii >= 0) ? peekAt(ii) : null;
    }
-
-
-   private int indexIncrement(int i) { return (++i >= count) ? 0 : i; }
-   private int indexDecrement(int i) { return (0 == i) ? (length - 1) : (i - 1);  }
 }
@@ -39,16 +39,11 @@ import android.os.ConditionVariable;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.SystemClock;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
 import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicYuvToRGB;
-import android.renderscript.Type;
 import android.util.Log;
 import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
-import to.augmented.reality.em.recorder.ScriptC_yuv2grey;
 
 import java.io.File;
 import java.io.IOException;
@@ -67,6 +62,7 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
    private final GLSurfaceView surfaceView;
    private final GLRecorderRenderer renderer;
    private final RenderScript renderscript;
+   private final RGBAConverter.Pool converters;
    private final NativeFrameBuffer frameBuffer;
    private final ConditionVariable frameAvailCondVar;
    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
@@ -111,6 +107,8 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
    @Override public boolean openForReading() { return frameBuffer.openForReading(); }
    @Override public boolean openForReading(File f) { return frameBuffer.openForReading(f); }
    @Override public BufferData read() throws IOException { return frameBuffer.read(); }
+
+   @Override public boolean read(ReusableFrame frame) throws IOException { return frameBuffer.read(frame); }
    @Override public long readPos(long offset) { return frameBuffer.readPos(offset); }
 
    float focalLen = -1;
@@ -138,6 +136,7 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
       this.frameBuffer = frameBuffer;
       this.frameAvailCondVar = frameAvailCondVar;
       renderscript = RenderScript.create(renderer.activity);
+      converters = new RGBAConverter.Pool(renderscript, ImageFormat.YUV_420_888);
    }
 
    @Override
@@ -442,6 +441,7 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
          if (captureThread != null)
             captureThread.quit();
          captureHandler = null;
+         converters.clear();
       }
       catch (InterruptedException e)
       {
@@ -500,9 +500,9 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
 
    @Override public int getPreviewBufferSize() { return frameBuffer.getFrameSize(); }
 
-   @Override public void setPreviewWidth(int width) { cameraWidth = width; }
+   @Override public void setPreviewWidth(int width) { if (width != cameraWidth) converters.clear(); cameraWidth = width; }
 
-   @Override public  void setPreviewHeight(int height) { cameraHeight = height; }
+   @Override public  void setPreviewHeight(int height) { if (height != cameraHeight) converters.clear(); cameraHeight = height; }
 
    @Override
    public String[] availableResolutions() { return resolutions; }
@@ -681,43 +681,34 @@ public class PreviewCamera implements Previewable, Bufferable, Freezeable
       }
    };
 
+   @Override
    public byte[] toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, int rgbaSize, byte[] grey)
    //----------------------------------------------------------------------------------------------------------------
    {
+      byte[] rgbaBuffer = new byte[rgbaSize];
+      return (toRGBA(context, frame, previewWidth, previewHeight, rgbaBuffer, grey)) ? rgbaBuffer : null;
+   }
+
+   @Override
+   public boolean toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, byte[] rgba, byte[] grey)
+   //----------------------------------------------------------------------------------------------------------------
+   {
+      RGBAConverter converter = null;
       try
       {
-         final int inputFormat = ImageFormat.YUV_420_888;
-         Type.Builder yuvTypeBuilder = new Type.Builder(renderscript, Element.YUV(renderscript));
-         yuvTypeBuilder.setX(previewWidth).setY(previewHeight).setYuvFormat(inputFormat);
-         Allocation allocYUVIn = Allocation.createTyped(renderscript, yuvTypeBuilder.create(), Allocation.USAGE_SCRIPT);
-
-         Type.Builder rgbTypeBuilder = new Type.Builder(renderscript, Element.RGBA_8888(renderscript));
-         rgbTypeBuilder.setX(previewWidth).setY(previewHeight);
-         Allocation allocRGBAOut = Allocation.createTyped(renderscript, rgbTypeBuilder.create(), Allocation.USAGE_SCRIPT);
-
-         ScriptIntrinsicYuvToRGB YUVToRGB = ScriptIntrinsicYuvToRGB.create(renderscript, Element.RGBA_8888(renderscript));
-         allocYUVIn.copyFrom(frame);
-         YUVToRGB.setInput(allocYUVIn);
-         YUVToRGB.forEach(allocRGBAOut);
-         byte[] rgbaBuffer = new byte[rgbaSize];
-         allocRGBAOut.copyTo(rgbaBuffer);
-         if (grey != null)
-         {
-            Type.Builder greyTypeBuilder = new Type.Builder(renderscript, Element.U8(renderscript));
-            greyTypeBuilder.setX(cameraWidth).setY(cameraHeight);
-            Allocation allocGrayOut = Allocation.createTyped(renderscript, greyTypeBuilder.create(), Allocation.USAGE_SCRIPT);
-            ScriptC_yuv2grey rsYUVtoGrey = new ScriptC_yuv2grey(renderscript);
-            allocYUVIn.copyFrom(frame);
-            rsYUVtoGrey.set_in(allocYUVIn);
-            rsYUVtoGrey.forEach_yuv2grey(allocGrayOut);
-            allocGrayOut.copyTo(grey);
-         }
-         return rgbaBuffer;
+         converter = converters.acquire(previewWidth, previewHeight);
+         converter.convert(frame, rgba, grey);
+         return true;
       }
       catch (Exception e)
       {
          Log.e(LOGTAG, "", e);
-         return null;
+         return false;
+      }
+      finally
+      {
+         if (converter != null)
+            converters.release(converter);
       }
    }
 }
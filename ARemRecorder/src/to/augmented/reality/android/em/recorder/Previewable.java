@@ -60,8 +60,19 @@ public interface Previewable extends Freezeable
 
    PreviewData pop();
 
+   /**
+    * Converts a raw preview frame to RGBA (and optionally greyscale into grey). May be called concurrently from
+    * several threads (see RecordingThread.convertFrames).
+    */
    byte[] toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, int rgbaSize, byte[] grey);
 
+   /**
+    * Converts a raw preview frame into caller provided rgba (previewWidth*previewHeight*4 bytes) and optionally grey
+    * (previewWidth*previewHeight bytes) buffers using a conversion context sized for the preview resolution, so no
+    * per frame RenderScript allocations are made. Returns false if the conversion failed.
+    */
+   boolean toRGBA(Context context, byte[] frame, int previewWidth, int previewHeight, byte[] rgba, byte[] grey);
+
 
 
    boolean isFlashOn();
@@ -0,0 +1,223 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free single producer, single consumer ring buffer of timestamped sensor records held in preallocated
+ * primitive arrays: a long timestamp, an int tag (eg the sensor type), and up to stride float values per record.
+ * The producer (normally the sensor callback thread) writes a record using claim, values and commit, and the
+ * consumer (the writer thread) drains records into a caller supplied Batch. Neither side allocates or locks.
+ * When the buffer is full new records are dropped (and counted) rather than overwriting records the consumer may
+ * be reading.
+ * Only one thread may produce and only one thread may consume.
+ */
+public class PrimitiveRingBuffer
+//==============================
+{
+   final private int capacity, mask, stride;
+   final private long[] timestamps;
+   final private int[] tags, lengths;
+   final private float[] values;
+   final private AtomicLong head = new AtomicLong(0), tail = new AtomicLong(0);
+   final private AtomicLong dropped = new AtomicLong(0);
+   private long claimed = -1; // Producer only
+
+   /**
+    * A consumer side batch of records. Record i has timestamp timestamps[i], tag tags[i] and lengths[i] values
+    * starting at values[i*stride].
+    */
+   static public class Batch
+   //=======================
+   {
+      final public int capacity, stride;
+      final public long[] timestamps;
+      final public int[] tags, lengths;
+      final public float[] values;
+      public int size = 0;
+
+      public Batch(int capacity, int stride)
+      //------------------------------------
+      {
+         this.capacity = capacity;
+         this.stride = stride;
+         timestamps = new long[capacity];
+         tags = new int[capacity];
+         lengths = new int[capacity];
+         values = new float[capacity*stride];
+      }
+
+      public int offset(int i) { return i*stride; }
+   }
+
+   /**
+    * @param count The minimum number of records (rounded up to a power of 2).
+    * @param stride The maximum number of float values per record.
+    */
+   public PrimitiveRingBuffer(int count, int stride)
+   //-----------------------------------------------
+   {
+      if ( (count <= 0) || (stride < 0) )
+         throw new IllegalArgumentException("Invalid ring buffer size " + count + " x " + stride);
+      int n = 1;
+      while (n < count)
+         n <<= 1;
+      capacity = n;
+      mask = n - 1;
+      this.stride = stride;
+      timestamps = new long[n];
+      tags = new int[n];
+      lengths = new int[n];
+      values = new float[n*stride];
+   }
+
+   public int capacity() { return capacity; }
+
+   public int stride() { return stride; }
+
+   /** @return The number of records available to the consumer. */
+   public int size() { return (int) (head.get() - tail.get()); }
+
+   public boolean isEmpty() { return (head.get() == tail.get()); }
+
+   public boolean isFull() { return (size() >= capacity); }
+
+   /** @return The number of records dropped because the buffer was full. */
+   public long getDropped() { return dropped.get(); }
+
+   public Batch createBatch() { return new Batch(capacity, stride); }
+
+   /**
+    * Producer: claims the next record slot.
+    * @return The slot to write (see values and commit) or -1 if the buffer is full.
+    */
+   public int claim()
+   //----------------
+   {
+      final long h = head.get();
+      if (h - tail.get() >= capacity)
+      {
+         dropped.incrementAndGet();
+         claimed = -1;
+         return -1;
+      }
+      claimed = h;
+      return (int) (h & mask);
+   }
+
+   /**
+    * Producer: the value storage, the values for a claimed slot start at slot*stride.
+    */
+   public float[] values() { return values; }
+
+   /**
+    * Producer: publishes a claimed record to the consumer.
+    */
+   public void commit(int slot, long timestamp, int tag, int length)
+   //---------------------------------------------------------------
+   {
+      if ( (claimed < 0) || (slot != (int) (claimed & mask)) )
+         throw new IllegalStateException("Slot " + slot + " not claimed");
+      timestamps[slot] = timestamp;
+      tags[slot] = tag;
+      lengths[slot] = Math.min(length, stride);
+      head.lazySet(claimed + 1);
+      claimed = -1;
+   }
+
+   /**
+    * Producer: writes a record in one call.
+    * @return <i>false</i> if the buffer was full and the record was dropped.
+    */
+   public boolean push(long timestamp, int tag, float[] data)
+   //--------------------------------------------------------
+   {
+      final int slot = claim();
+      if (slot < 0)
+         return false;
+      final int len = Math.min(data.length, stride);
+      System.arraycopy(data, 0, values, slot*stride, len);
+      commit(slot, timestamp, tag, len);
+      return true;
+   }
+
+   /**
+    * Consumer: moves up to batch.capacity records into batch.
+    * @return The number of records drained (also set in batch.size).
+    */
+   public int drain(Batch batch)
+   //---------------------------
+   {
+      if (batch.stride != stride)
+         throw new IllegalArgumentException("Batch stride " + batch.stride + " != " + stride);
+      final long t = tail.get();
+      final int n = (int) Math.min(head.get() - t, batch.capacity);
+      for (int i=0; i<n; i++)
+      {
+         final int slot = (int) ((t + i) & mask);
+         batch.timestamps[i] = timestamps[slot];
+         batch.tags[i] = tags[slot];
+         final int len = lengths[slot];
+         batch.lengths[i] = len;
+         System.arraycopy(values, slot*stride, batch.values, i*stride, len);
+      }
+      tail.lazySet(t + n);
+      batch.size = n;
+      return n;
+   }
+
+   /**
+    * Consumer: discards all available records.
+    */
+   public void clear() { tail.lazySet(head.get()); }
+
+   /**
+    * Any thread: the position after the last committed record, which can be handed to the consumer to discard
+    * everything committed up to now (see discardTo).
+    */
+   public long position() { return head.get(); }
+
+   /**
+    * Consumer: discards all records before position (as returned by position()).
+    */
+   public void discardTo(long position)
+   //----------------------------------
+   {
+      final long t = tail.get();
+      if (position > t)
+         tail.lazySet(Math.min(position, head.get()));
+   }
+
+   /**
+    * Consumer: copies record i (0 being the oldest available) without removing it.
+    * @return <i>false</i> if there is no record i.
+    */
+   public boolean peek(int i, Batch batch, int index)
+   //------------------------------------------------
+   {
+      final long t = tail.get();
+      if ( (i < 0) || (t + i >= head.get()) )
+         return false;
+      final int slot = (int) ((t + i) & mask);
+      batch.timestamps[index] = timestamps[slot];
+      batch.tags[index] = tags[slot];
+      batch.lengths[index] = lengths[slot];
+      System.arraycopy(values, slot*stride, batch.values, index*batch.stride, lengths[slot]);
+      return true;
+   }
+}
@@ -25,6 +25,7 @@ public class ProgressParam
    String status;
    boolean isToast = false, isBearingsOnly = true;
    int toastDuration;
+   float compressionRatio = -1, encodeMillis = -1;
 
    public void set(float bearing, float targetBearing, float[] color, int progress)
    //--------------------------------------------------------------------
@@ -48,5 +49,21 @@ public class ProgressParam
       this.toastDuration = toastDuration;
       this.progress = progress;
       isBearingsOnly = false;
+      compressionRatio = encodeMillis = -1;
+   }
+
+   /**
+    * Sets the compression ratio and mean per frame encode time from NativeFrameBuffer.compressionStats.
+    */
+   public void setCompression(long[] stats)
+   //--------------------------------------
+   {
+      if ( (stats == null) || (stats[0] <= 0) || (stats[2] <= 0) )
+      {
+         compressionRatio = encodeMillis = -1;
+         return;
+      }
+      compressionRatio = (float) stats[1] / (float) stats[2];
+      encodeMillis = (float) ((double) stats[3] / 1000000.0 / stats[0]);
    }
 }
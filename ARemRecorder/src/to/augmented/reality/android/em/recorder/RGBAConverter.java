@@ -0,0 +1,156 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import android.graphics.ImageFormat;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.Type;
+import to.augmented.reality.em.recorder.ScriptC_yuv2rgbagrey;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A RenderScript YUV to RGBA (and greyscale) conversion context for one preview resolution. The YUV input, RGBA
+ * and greyscale output allocations and the (fused RGBA and greyscale) conversion script are created once and
+ * reused for every frame converted into caller provided buffers. A context may only be used by one thread at a
+ * time, Previewable implementations share contexts between threads through a Pool.
+ */
+public class RGBAConverter
+//========================
+{
+   private final int width, height;
+   private final Allocation yuvIn, rgbaOut, greyOut;
+   private final ScriptC_yuv2rgbagrey script;
+   private int generation = 0; // Pool generation the context was created in
+
+   /**
+    * @param yuvFormat The raw frame format, ImageFormat.YUV_420_888 (camera2) or ImageFormat.NV21 (legacy camera).
+    */
+   public RGBAConverter(RenderScript renderscript, int width, int height, int yuvFormat)
+   //----------------------------------------------------------------------------------
+   {
+      this.width = width;
+      this.height = height;
+      Element yuvElement = (yuvFormat == ImageFormat.YUV_420_888) ? Element.YUV(renderscript)
+                                                                   : Element.U8(renderscript);
+      Type.Builder yuvTypeBuilder = new Type.Builder(renderscript, yuvElement);
+      yuvTypeBuilder.setX(width).setY(height).setMipmaps(false).setYuvFormat(yuvFormat);
+      yuvIn = Allocation.createTyped(renderscript, yuvTypeBuilder.create(), Allocation.USAGE_SCRIPT);
+      Type.Builder rgbaTypeBuilder = new Type.Builder(renderscript, Element.RGBA_8888(renderscript));
+      rgbaTypeBuilder.setX(width).setY(height).setMipmaps(false);
+      rgbaOut = Allocation.createTyped(renderscript, rgbaTypeBuilder.create(), Allocation.USAGE_SCRIPT);
+      Type.Builder greyTypeBuilder = new Type.Builder(renderscript, Element.U8(renderscript));
+      greyTypeBuilder.setX(width).setY(height).setMipmaps(false);
+      greyOut = Allocation.createTyped(renderscript, greyTypeBuilder.create(), Allocation.USAGE_SCRIPT);
+      script = new ScriptC_yuv2rgbagrey(renderscript);
+      script.set_in(yuvIn);
+      script.set_grey(greyOut);
+   }
+
+   public int getWidth() { return width; }
+
+   public int getHeight() { return height; }
+
+   public boolean isSize(int width, int height) { return (this.width == width) && (this.height == height); }
+
+   /**
+    * Converts a raw frame into rgba (width*height*4 bytes) and, if grey is not null, grey (width*height bytes) in a
+    * single kernel pass.
+    */
+   public void convert(byte[] frame, byte[] rgba, byte[] grey)
+   //---------------------------------------------------------
+   {
+      yuvIn.copyFrom(frame);
+      if (grey == null)
+         script.forEach_yuv2rgba(rgbaOut);
+      else
+      {
+         script.forEach_yuv2rgbagrey(rgbaOut);
+         greyOut.copyTo(grey);
+      }
+      rgbaOut.copyTo(rgba);
+   }
+
+   public void release()
+   //-------------------
+   {
+      script.destroy();
+      yuvIn.destroy();
+      rgbaOut.destroy();
+      greyOut.destroy();
+   }
+
+   /**
+    * Conversion contexts owned by a Previewable. Each converting thread takes a context sized for the preview
+    * resolution (creating one if none is free) and returns it after use, so at most one context per concurrently
+    * converting thread is created. Contexts for a previous resolution are released as they are returned.
+    */
+   static public class Pool
+   //======================
+   {
+      private final RenderScript renderscript;
+      private final int yuvFormat;
+      private final ConcurrentLinkedQueue<RGBAConverter> free = new ConcurrentLinkedQueue<>();
+      volatile private int generation = 0;
+
+      public Pool(RenderScript renderscript, int yuvFormat)
+      //---------------------------------------------------
+      {
+         this.renderscript = renderscript;
+         this.yuvFormat = yuvFormat;
+      }
+
+      public RGBAConverter acquire(int width, int height)
+      //-------------------------------------------------
+      {
+         RGBAConverter converter;
+         while ( (converter = free.poll()) != null)
+         {
+            if (converter.isSize(width, height))
+               return converter;
+            converter.release();
+         }
+         converter = new RGBAConverter(renderscript, width, height, yuvFormat);
+         converter.generation = generation;
+         return converter;
+      }
+
+      public void release(RGBAConverter converter)
+      //------------------------------------------
+      {
+         if (converter.generation == generation)
+            free.offer(converter);
+         else
+            converter.release();
+      }
+
+      /**
+       * Releases all free contexts, contexts currently in use are released when they are returned. Called when
+       * the preview resolution changes or the camera is closed.
+       */
+      public void clear()
+      //-----------------
+      {
+         generation++;
+         RGBAConverter converter;
+         while ( (converter = free.poll()) != null)
+            converter.release();
+      }
+   }
+}
@@ -667,6 +667,8 @@ public class RecorderActivity extends Activity
                                     {
                                        @Override public void onItemsSelected(boolean[] selected) { }
                                     });
+      final Spinner compressionSpinner = (Spinner) dialogLayout.findViewById(R.id.spinner_compression);
+      setCompressionAdapter(compressionSpinner);
 
       CheckBox postProcessCheckbox = (CheckBox) dialogLayout.findViewById(R.id.checkbox_postprocess);
       CheckBox flashCheckbox = (CheckBox) dialogLayout.findViewById(R.id.checkbox_flash);
@@ -713,8 +715,9 @@ public class RecorderActivity extends Activity
       sizeText.setText(size.toString());
 
       recordDialog = createRecordDialog(dialogLayout, nameText, resolutionsSpinner, orientationSpinner, sizeText,
-                                        record360Button, xtraSensorsSpinner, postProcessCheckbox, flashCheckbox, cameraApiCheckbox,
-                                        stitchCheckbox, RecordingThread.RecordingType.THREE60);
+                                        record360Button, xtraSensorsSpinner, compressionSpinner, postProcessCheckbox,
+                                        flashCheckbox, cameraApiCheckbox, stitchCheckbox,
+                                        RecordingThread.RecordingType.THREE60);
       recordDialog.show();
    }
 
@@ -782,6 +785,8 @@ public class RecorderActivity extends Activity
                                     {
                                        @Override public void onItemsSelected(boolean[] selected) { }
                                     });
+      final Spinner compressionSpinner = (Spinner) dialogLayout.findViewById(R.id.spinner_free_compression);
+      setCompressionAdapter(compressionSpinner);
 
       CheckBox postProcessCheckbox = (CheckBox) dialogLayout.findViewById(R.id.checkbox_free_postprocess);
       TextView textFlash = (TextView) dialogLayout.findViewById(R.id.label_free_flash);
@@ -825,18 +830,31 @@ public class RecorderActivity extends Activity
       sizeText.setText(size.toString());
 
       recordDialog = createRecordDialog(dialogLayout, nameText, resolutionsSpinner, orientationSpinner, sizeText,
-                                        recordFreeButton, xtraSensorsSpinner, postProcessCheckbox, flashCheckbox,
-                                        cameraApiCheckbox, null, RecordingThread.RecordingType.FREE);
+                                        recordFreeButton, xtraSensorsSpinner, compressionSpinner, postProcessCheckbox,
+                                        flashCheckbox, cameraApiCheckbox, null, RecordingThread.RecordingType.FREE);
       recordDialog.show();
    }
 
    boolean isPostProcess = false;
 
+   private void setCompressionAdapter(Spinner compressionSpinner)
+   //------------------------------------------------------------
+   {
+      NativeFrameBuffer.Compression[] compressions = NativeFrameBuffer.Compression.values();
+      String[] compressionNames = new String[compressions.length];
+      for (int i=0; i<compressions.length; i++)
+         compressionNames[i] = human(compressions[i].name());
+      SpinnerAdapter compressionSpinnerAdapter =
+            new ArrayAdapter<String>(RecorderActivity.this, android.R.layout.simple_list_item_1, compressionNames);
+      compressionSpinner.setAdapter(compressionSpinnerAdapter);
+      compressionSpinner.setSelection(previewSurface.getFrameCompression().ordinal());
+   }
+
    private AlertDialog createRecordDialog(final ViewGroup dialogLayout, final EditText nameText,
                                           final Spinner resolutionsSpinner,
                                           final Spinner orientationSpinner, final TextView sizeText,
                                           final ImageButton button, final MultiSpinner xtraSensorsSpinner,
-                                          final CheckBox postProcessCheckbox,
+                                          final Spinner compressionSpinner, final CheckBox postProcessCheckbox,
                                           final CheckBox flashCheckbox, final CheckBox cameraApiCheckbox,
                                           final CheckBox stitchCheckbox, final RecordingThread.RecordingType recordingType)
    //-----------------------------------------------------------------------------------------------------------------
@@ -870,6 +888,8 @@ public class RecorderActivity extends Activity
                return;
             }
             isPostProcess = postProcessCheckbox.isChecked();
+            final NativeFrameBuffer.Compression compression =
+                  NativeFrameBuffer.Compression.valueOf(inhuman((String) compressionSpinner.getSelectedItem()));
             final boolean isStitch = ( (stitchCheckbox != null) && (stitchCheckbox.isChecked()) );
             final boolean isFlashOn = ( (flashCheckbox != null) && (flashCheckbox.isChecked()) );
             final boolean useCamera2Api = ( (cameraApiCheckbox != null) && (cameraApiCheckbox.isChecked()) );
@@ -942,7 +962,8 @@ public class RecorderActivity extends Activity
                         return;
                      }
                      startRecording(name, wh[0], wh[1], increment, maxStorageBytes, recordingType, orientationSensorType,
-                                    button, xtraSensorList, isPostProcess, isFlashOn, useCamera2Api, isStitch);
+                                    button, xtraSensorList, compression, isPostProcess, isFlashOn, useCamera2Api,
+                                    isStitch);
                   }
                });
                overwriteDialog.setButton(AlertDialog.BUTTON_NEGATIVE, "Cancel", new DialogInterface.OnClickListener()
@@ -967,7 +988,8 @@ public class RecorderActivity extends Activity
                }
 //               previewSurface.startPreview(wh[0], wh[1], isFlashOn);
                startRecording(name, wh[0], wh[1], increment, maxStorageBytes, recordingType, orientationSensorType,
-                              button, xtraSensorList, isPostProcess, isFlashOn, useCamera2Api, isStitch);
+                              button, xtraSensorList, compression, isPostProcess, isFlashOn, useCamera2Api,
+                                    isStitch);
             }
          }
       });
@@ -1142,8 +1164,8 @@ public class RecorderActivity extends Activity
 
    private void startRecording(String name, int width, int height, float increment, long maxsize,
                                RecordingThread.RecordingType recordingType, String orientationType, ImageButton button,
-                               List<Integer> xtraSensorList, boolean isPostProcess, boolean isFlashOn,
-                               boolean useCamera2Api, boolean isStitch)
+                               List<Integer> xtraSensorList, NativeFrameBuffer.Compression compression,
+                               boolean isPostProcess, boolean isFlashOn, boolean useCamera2Api, boolean isStitch)
    //-------------------------------------------------------------------------------------------------------------
    {
       recordDialog = null;
@@ -1165,8 +1187,8 @@ public class RecorderActivity extends Activity
 
       ORIENTATION_PROVIDER orientationProviderType = ORIENTATION_PROVIDER.valueOf(orientationType);
       isRecording = previewSurface.startRecording(DIR, width, height, name, increment, maxsize, recordingType,
-                                                  orientationProviderType, xtraSensorList, isPostProcess, isFlashOn,
-                                                  useCamera2Api, isStitch);
+                                                  orientationProviderType, xtraSensorList, compression, isPostProcess,
+                                                  isFlashOn, useCamera2Api, isStitch);
       isStartRecording = false;
       if (isRecording)
       {
@@ -1674,7 +1696,13 @@ public class RecorderActivity extends Activity
 //            bearingDestText.setText("");
 //      }
       if (params.status != null)
-         statusText.setText(params.status);
+      {
+         if (params.compressionRatio > 0)
+            statusText.setText(String.format(Locale.US, "%s [%.1fx %.1fms]", params.status, params.compressionRatio,
+                                             params.encodeMillis));
+         else
+            statusText.setText(params.status);
+      }
       if (params.progress >= 0)
          statusProgress.setProgress(params.progress);
       params.status = null;
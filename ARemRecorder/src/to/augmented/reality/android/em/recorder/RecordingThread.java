@@ -20,6 +20,7 @@ import android.os.AsyncTask;
 import android.os.ConditionVariable;
 import android.os.Environment;
 import android.util.Log;
+import to.augmented.reality.android.common.sensor.orientation.BearingFilter;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -34,10 +35,20 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boolean>
 //====================================================================================
@@ -153,6 +164,32 @@ abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boo
       return true;
    }
 
+   private int conversionThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+
+   /**
+    * Sets the number of threads converting raw frames to RGBA in convertFrames (see Previewable.toRGBA).
+    */
+   public void setConversionThreads(int threads) { conversionThreads = Math.max(threads, 1); }
+
+   static final public double DUPLICATE_PSNR = 32;
+   private double signatureDuplicatePsnr = 55; // Block averaging raises the PSNR of sensor noise by ~18dB (8x8 blocks)
+
+   /**
+    * Sets the block signature PSNR (see BlockSignature) at or above which convertFrames treats a frame as a
+    * duplicate of its predecessor without a full resolution comparison. Frames with a signature PSNR at or below
+    * DUPLICATE_PSNR can't be duplicates so are never fully compared, and frames in between are compared with
+    * CV.PSNR. Use Double.POSITIVE_INFINITY to only skip full comparisons for frames with identical signatures.
+    */
+   public void setSignatureDuplicatePsnr(double psnr) { signatureDuplicatePsnr = Math.max(psnr, DUPLICATE_PSNR); }
+
+   /**
+    * Converts the raw frames in framesBuffer to RGBA in frames.RGBA, dropping repeated frames (which are written as
+    * empty frames following the frame they repeat). Conversion is pipelined: a reader thread copies raw frames into
+    * pooled buffers, conversionThreads threads convert them to RGBA (and greyscale when isRemoveRepeats), the
+    * calling thread compares consecutive frames in recording order and a writer thread writes the result, so the
+    * output is the same as converting each frame in turn. Frames are first compared by their block signatures (see
+    * setSignatureDuplicatePsnr) with the full resolution CV.PSNR only used when the signatures are inconclusive.
+    */
    protected NativeFrameBuffer convertFrames(File dir, Bufferable framesBuffer, Previewable previewer,
                                              ProgressParam progress, boolean isRemoveRepeats, int[] shift_totals,
                                              int[] framecount)
@@ -185,130 +222,441 @@ abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boo
       Bufferable.BufferData frameBufData = framesBuffer.read();
       if (frameBufData == null)
          return null;
-      long ts = frameBufData.timestamp, ts2 = -1L;
-      byte[] grey = null, nextGrey = null;
       NativeFrameBuffer newFrameBuffer = new NativeFrameBuffer(3, renderer.rgbaBufferSize, false);
       newFrameBuffer.startTimestamp(0);
       newFrameBuffer.bufferOff();
+      newFrameBuffer.setCompression(renderer.getFrameCompression());
       newFrameBuffer.writeFile(f.getAbsolutePath());
-      if (isRemoveRepeats)
-         grey = new byte[renderer.rgbaBufferSize / 4];
-
-//      ByteBuffer bb = (ByteBuffer) frameBufData.data;
-//      bb.rewind();
-//      FileOutputStream fw = new FileOutputStream(new File(dir, "frame.raw"));
-//      byte buf[] = new byte[previewer.getPreviewBufferSize()];
-//      bb.get(buf);
-//      fw.write(buf);
-//      fw.close();
-//      bb.rewind();
-
-      byte[] frame = convertRGBA(previewer, (ByteBuffer) frameBufData.data, previewer.getPreviewBufferSize(), grey);
-      final int w = renderer.previewWidth;
-      final int h = renderer.previewHeight;
       newFrameBuffer.writeOn();
       newFrameBuffer.bufferOn();
-      List<Long> duplicateTimestamps = new ArrayList<>();
-      double psnr;
-      int n = 0;
-      while ( (frameBufData = framesBuffer.read()) != null)
+      FrameConversion conversion = new FrameConversion(framesBuffer, previewer, newFrameBuffer, isRemoveRepeats,
+                                                       conversionThreads);
+      try
+      {
+         conversion.convert(frameBufData, count, progress, pw, shift_totals, framecount);
+      }
+      finally
+      {
+         conversion.shutdown();
+      }
+      if (progress != null)
       {
-         n++;
-         if ( (progress != null) && ((n % 5) == 0) )
+         progress.setStatus("Frame Conversion", 100, false, 0);
+         publishProgress(progress);
+      }
+      if (pw != null)
+         pw.close();
+      newFrameBuffer.stop();
+      newFrameBuffer.closeFile();
+      return newFrameBuffer;
+   }
+
+   /**
+    * The convertFrames pipeline (reader -> converters -> ordered comparison -> writer) with bounded queues between
+    * stages and pooled raw and greyscale buffers.
+    */
+   private class FrameConversion
+   //===========================
+   {
+      final private class Job
+      //=====================
+      {
+         final long timestamp;
+         final boolean isEnd;
+         byte[] raw = null, rgba = null, grey = null;
+         int[] signature = null;
+         Throwable error = null;
+         final CountDownLatch done = new CountDownLatch(1);
+
+         Job(long timestamp, boolean isEnd) { this.timestamp = timestamp; this.isEnd = isEnd; }
+      }
+
+      final private class Write
+      //=======================
+      {
+         final long timestamp;
+         final byte[] frame;
+         final boolean isEnd;
+
+         Write(long timestamp, byte[] frame, boolean isEnd) { this.timestamp = timestamp; this.frame = frame; this.isEnd = isEnd; }
+      }
+
+      private final Bufferable framesBuffer;
+      private final Previewable previewer;
+      private final NativeFrameBuffer output;
+      private final boolean isRemoveRepeats;
+      private final int threads, rawSize, greySize;
+      private final BlockingQueue<Job> convertQueue, orderQueue;
+      private final BlockingQueue<Write> writeQueue;
+      private final BlockingQueue<byte[]> rawPool, rgbaPool, greyPool;
+      private final BlockingQueue<int[]> signaturePool;
+      private final BlockSignature blockSignature;
+      private final ExecutorService executor;
+      private Future<?> writerFuture = null;
+      volatile private boolean isStopped = false;
+
+      FrameConversion(Bufferable framesBuffer, Previewable previewer, NativeFrameBuffer output,
+                      boolean isRemoveRepeats, int threads)
+      //---------------------------------------------------------------------------------------
+      {
+         this.framesBuffer = framesBuffer;
+         this.previewer = previewer;
+         this.output = output;
+         this.isRemoveRepeats = isRemoveRepeats;
+         this.threads = threads;
+         rawSize = previewer.getPreviewBufferSize();
+         greySize = renderer.rgbaBufferSize / 4;
+         final int window = threads*2 + 2;
+         convertQueue = new ArrayBlockingQueue<>(window + threads);
+         orderQueue = new ArrayBlockingQueue<>(window);
+         writeQueue = new ArrayBlockingQueue<>(FRAMEWRITE_QUEUE_SIZE);
+         rawPool = new ArrayBlockingQueue<>(window + threads + 1);
+         rgbaPool = new ArrayBlockingQueue<>(window + threads + FRAMEWRITE_QUEUE_SIZE + 3);
+         greyPool = new ArrayBlockingQueue<>(window + threads + 3);
+         signaturePool = new ArrayBlockingQueue<>(window + threads + 3);
+         blockSignature = new BlockSignature(renderer.previewWidth, renderer.previewHeight);
+         executor = Executors.newFixedThreadPool(threads + 2, new ThreadFactory()
          {
-            progress.setStatus("Frame Conversion", (n*100)/count, false, 0);
-            publishProgress(progress);
-         }
-         ts2 = frameBufData.timestamp;
-
-         if (isRemoveRepeats)
-            nextGrey = new byte[renderer.rgbaBufferSize / 4];
-
-         byte[] nextframe = convertRGBA(previewer, (ByteBuffer) frameBufData.data, previewer.getPreviewBufferSize(),
-                                        nextGrey);
-
-//         Mat m = new Mat(h, w, CvType.CV_8UC1);
-//         m.put(0, 0, grey);
-//         Imgcodecs.imwrite("/sdcard/1.png", m);
-//         m.put(0, 0, nextGrey);
-//         Imgcodecs.imwrite("/sdcard/2.png", m);
-//         m = new Mat(h, w, CvType.CV_8UC4);
-//         m.put(0, 0, frame);
-//         Imgcodecs.imwrite("/sdcard/3.png", m);
-//         m.put(0, 0, nextframe);
-//         Imgcodecs.imwrite("/sdcard/4.png", m);
-
-         try { psnr = CV.PSNR(w, h, frame, nextframe); } catch (Exception ee) { Log.e(TAG, "", ee); psnr = -1; }
-         if (psnr < 0)
-            continue;
-         if (isRemoveRepeats)
+            @Override
+            public Thread newThread(Runnable r)
+            //-------------------------------------------
+            {
+               Thread t = new Thread(r);
+               t.setDaemon(true);
+               t.setName("FrameConversion");
+               return t;
+            }
+         });
+      }
+
+      private byte[] acquire(BlockingQueue<byte[]> pool, int size)
+      //----------------------------------------------------------
+      {
+         byte[] buffer = pool.poll();
+         return (buffer == null) ? new byte[size] : buffer;
+      }
+
+      private <T> void release(BlockingQueue<T> pool, T buffer)
+      //-------------------------------------------------------
+      {
+         if (buffer != null)
+            pool.offer(buffer);
+      }
+
+      void convert(final Bufferable.BufferData first, int count, ProgressParam progress, PrintWriter pw,
+                   int[] shift_totals, int[] framecount) throws IOException
+      //----------------------------------------------------------------------------------------------
+      {
+         executor.submit(new Runnable() { @Override public void run() { read(first); } });
+         for (int i=0; i<threads; i++)
+            executor.submit(new Runnable() { @Override public void run() { toRGBA(); } });
+         writerFuture = executor.submit(new Runnable() { @Override public void run() { write(); } });
+
+         final int w = renderer.previewWidth;
+         final int h = renderer.previewHeight;
+         Job job = take();
+         if (job.isEnd)
+            throw rethrow(job.error);
+         long ts = job.timestamp, ts2;
+         byte[] frame = result(job), grey = job.grey;
+         int[] signature = job.signature;
+         List<Long> duplicateTimestamps = new ArrayList<>();
+         long[] stats = new long[4];
+         double psnr;
+         int n = 0, signatureDuplicates = 0, signatureDistinct = 0;
+         while (! (job = take()).isEnd)
          {
-            if ( (psnr == 0) || (psnr > 32) )
+            n++;
+            if ( (progress != null) && ((n % 5) == 0) )
             {
-               duplicateTimestamps.add(ts2);
+               progress.setStatus("Frame Conversion", (n*100)/count, false, 0);
+               output.compressionStats(stats);
+               progress.setCompression(stats);
+               publishProgress(progress);
+            }
+            ts2 = job.timestamp;
+            byte[] nextframe = result(job), nextGrey = job.grey;
+            int[] nextSignature = job.signature;
+
+            psnr = -1;
+            if ( (signature != null) && (nextSignature != null) )
+            {
+               psnr = blockSignature.psnr(signature, nextSignature);
+               if (psnr >= signatureDuplicatePsnr)
+               {
+                  psnr = 0; // near duplicate
+                  signatureDuplicates++;
+               }
+               else if (psnr <= DUPLICATE_PSNR)
+                  signatureDistinct++; // The full PSNR can't be higher
+               else
+                  psnr = -1;
+            }
+            if (psnr < 0)
+               try { psnr = CV.PSNR(w, h, frame, nextframe); } catch (Exception ee) { Log.e(TAG, "", ee); psnr = -1; }
+            if (psnr < 0)
+            {
+               release(rgbaPool, nextframe);
+               release(greyPool, nextGrey);
+               release(signaturePool, nextSignature);
                continue;
             }
-            int[] shift = new int[2];
-            try
+            if (isRemoveRepeats)
             {
-               CV.SHIFT(w, h, grey, nextGrey, shift);
-               if (shift[0] < 0)
+               if ( (psnr == 0) || (psnr > DUPLICATE_PSNR) )
                {
-//                  duplicateTimestamps.add(ts2);
-                  if (pw != null)
-                     pw.println("T   " + ts + " " + shift[0]);
+                  duplicateTimestamps.add(ts2);
+                  release(rgbaPool, nextframe);
+                  release(greyPool, nextGrey);
+                  release(signaturePool, nextSignature);
                   continue;
                }
-               else
+               int[] shift = new int[2];
+               try
                {
-                  if (shift_totals != null)
+                  CV.SHIFT(w, h, grey, nextGrey, shift);
+                  if (shift[0] < 0)
+                  {
+                     if (pw != null)
+                        pw.println("T   " + ts + " " + shift[0]);
+                     release(rgbaPool, nextframe);
+                     release(greyPool, nextGrey);
+                     release(signaturePool, nextSignature);
+                     continue;
+                  }
+                  else
                   {
-                     shift_totals[0] += shift[0];
-                     if (shift_totals.length > 1)
-                        shift_totals[1] += shift[1];
+                     if (shift_totals != null)
+                     {
+                        shift_totals[0] += shift[0];
+                        if (shift_totals.length > 1)
+                           shift_totals[1] += shift[1];
+                     }
+                     if (framecount != null)
+                        framecount[0]++;
                   }
-                  if (framecount != null)
-                     framecount[0]++;
+               }
+               catch (NativeCVException ee)
+               {
+                  Log.e(TAG, "", ee);
                }
             }
-            catch (NativeCVException ee)
+            else if ( (psnr == 0) || (psnr > DUPLICATE_PSNR) )
             {
-               Log.e(TAG, "", ee);
+               duplicateTimestamps.add(ts2);
+               release(rgbaPool, nextframe);
+               release(signaturePool, nextSignature);
+               continue;
             }
+            if (pw != null)
+               pw.println(ts);
+            put(new Write(ts, frame, false));
+            if (! duplicateTimestamps.isEmpty())
+            {
+               for (long timestamp : duplicateTimestamps)
+               {
+                  put(new Write(timestamp, null, false));
+                  if (pw != null)
+                     pw.println("D   " + timestamp);
+               }
+               duplicateTimestamps.clear();
+            }
+            frame = nextframe;
+            release(greyPool, grey);
+            grey = nextGrey;
+            release(signaturePool, signature);
+            signature = nextSignature;
+            ts = ts2;
          }
-         else if ( (psnr == 0) || (psnr > 32) )
+         Log.i(TAG, "Frame conversion: " + signatureDuplicates + " duplicates and " + signatureDistinct +
+                    " distinct frames decided by block signature of " + n);
+         if (job.error != null)
+            throw rethrow(job.error);
+         put(new Write(-1, null, true));
+         try
          {
-            duplicateTimestamps.add(ts2);
-            continue;
+            writerFuture.get();
          }
-         if (pw != null)
-            pw.println(ts);
-         newFrameBuffer.push(ts, frame, -1);
-         if (! duplicateTimestamps.isEmpty())
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted waiting for frame writer", e);
+         }
+         catch (ExecutionException e)
+         {
+            throw rethrow(e.getCause());
+         }
+      }
+
+      /**
+       * Reader stage: copies raw frames into pooled buffers and queues them in order for conversion. Frames after
+       * the first are read into a single reused direct buffer.
+       */
+      private void read(Bufferable.BufferData frameBufData)
+      //---------------------------------------------------
+      {
+         final ReusableFrame readFrame = new ReusableFrame(rawSize);
+         try
          {
-            for (long timestamp : duplicateTimestamps)
+            while ( (frameBufData != null) && (! isStopped) )
             {
-               newFrameBuffer.push(timestamp, null, -1);
-               if (pw != null)
-                  pw.println("D   " + timestamp);
+               Job job = new Job(frameBufData.timestamp, false);
+               ByteBuffer frameData = (ByteBuffer) frameBufData.data;
+               if (frameData == null)
+                  throw new RuntimeException("frameData was null");
+               job.raw = acquire(rawPool, rawSize);
+               frameData.rewind();
+               frameData.get(job.raw);
+               orderQueue.put(job);
+               convertQueue.put(job);
+               frameBufData = (framesBuffer.read(readFrame)) ? readFrame : null;
             }
-            duplicateTimestamps.clear();
+            orderQueue.put(new Job(-1, true));
+         }
+         catch (InterruptedException e)
+         {
+            return;
+         }
+         catch (Throwable e)
+         {
+            Job end = new Job(-1, true);
+            end.error = e;
+            try { orderQueue.put(end); } catch (InterruptedException _e) { return; }
          }
-         frame = nextframe;
-         grey = null;
-         grey = nextGrey;
-         ts = ts2;
+         for (int i=0; i<threads; i++)
+            try { convertQueue.put(new Job(-1, true)); } catch (InterruptedException _e) { return; }
       }
-      if (progress != null)
+
+      /**
+       * Conversion stage: one or more threads converting raw frames to RGBA and greyscale and computing the RGBA
+       * block signatures used to pre-filter duplicates.
+       */
+      private void toRGBA()
+      //-------------------
       {
-         progress.setStatus("Frame Conversion", 100, false, 0);
-         publishProgress(progress);
+         while (! isStopped)
+         {
+            final Job job;
+            try { job = convertQueue.take(); } catch (InterruptedException e) { return; }
+            if (job.isEnd)
+               return;
+            try
+            {
+               if (isRemoveRepeats)
+               {
+                  job.grey = acquire(greyPool, greySize);
+                  Arrays.fill(job.grey, (byte) 0);
+               }
+               job.rgba = acquire(rgbaPool, renderer.rgbaBufferSize);
+               if (! previewer.toRGBA(activity, job.raw, renderer.previewWidth, renderer.previewHeight, job.rgba,
+                                      job.grey))
+               {
+                  release(rgbaPool, job.rgba);
+                  job.rgba = null;
+               }
+               else
+                  job.signature = blockSignature.compute(job.rgba, signaturePool.poll());
+            }
+            catch (Throwable e)
+            {
+               job.error = e;
+            }
+            finally
+            {
+               release(rawPool, job.raw);
+               job.raw = null;
+               job.done.countDown();
+            }
+         }
+      }
+
+      /**
+       * Writer stage: pushes converted frames, in order, to the output NativeFrameBuffer.
+       */
+      private void write()
+      //------------------
+      {
+         while (! isStopped)
+         {
+            final Write write;
+            try { write = writeQueue.take(); } catch (InterruptedException e) { return; }
+            if (write.isEnd)
+               return;
+            output.push(write.timestamp, write.frame, -1);
+            release(rgbaPool, write.frame);
+         }
+      }
+
+      private Job take() throws IOException
+      //-----------------------------------
+      {
+         try
+         {
+            return orderQueue.take();
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted converting frames", e);
+         }
+      }
+
+      private void put(Write write) throws IOException
+      //----------------------------------------------
+      {
+         try
+         {
+            while (! writeQueue.offer(write, 100, TimeUnit.MILLISECONDS))
+            {
+               if (writerFuture.isDone())
+               {
+                  writerFuture.get();
+                  throw new IOException("Frame writer stopped");
+               }
+            }
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted converting frames", e);
+         }
+         catch (ExecutionException e)
+         {
+            throw rethrow(e.getCause());
+         }
+      }
+
+      private byte[] result(Job job) throws IOException
+      //-----------------------------------------------
+      {
+         try
+         {
+            job.done.await();
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted converting frames", e);
+         }
+         if (job.error != null)
+            throw rethrow(job.error);
+         return job.rgba;
+      }
+
+      private IOException rethrow(Throwable e)
+      //--------------------------------------
+      {
+         if (e instanceof IOException)
+            return (IOException) e;
+         if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+         if (e instanceof Error)
+            throw (Error) e;
+         return new IOException(e);
+      }
+
+      void shutdown()
+      //-------------
+      {
+         isStopped = true;
+         executor.shutdownNow();
       }
-      if (pw != null)
-         pw.close();
-      newFrameBuffer.stop();
-      newFrameBuffer.closeFile();
-      return newFrameBuffer;
    }
 
    protected byte[] convertRGBA(Previewable previewer, ByteBuffer frameData, int previewBufferSize, byte[] grey)
@@ -333,26 +681,39 @@ abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boo
    protected int orientationFilter(File dir, File orientationFile, float startBearing, ProgressParam progress,
                                     int count, boolean isMonotonic, float rangeCheck, int kernelSize)
    //---------------------------------------------------------------------------------------------------------------
+   {
+      return orientationFilter(dir, orientationFile, startBearing, progress, count, isMonotonic, rangeCheck,
+                               kernelSize, BearingFilter.Kernel.MEAN);
+   }
+
+   /**
+    * Writes the orientation records to orientationFile.smooth, optionally starting at startBearing, skipping
+    * non-monotonic or out of range bearings and smoothing the bearings over a window of kernelSize records
+    * (no smoothing if kernelSize &lt;= 0) using the specified BearingFilter kernel.
+    * @return The number of records written or -1 on error.
+    */
+   protected int orientationFilter(File dir, File orientationFile, float startBearing, ProgressParam progress,
+                                    int count, boolean isMonotonic, float rangeCheck, int kernelSize,
+                                    BearingFilter.Kernel kernel)
+   //---------------------------------------------------------------------------------------------------------------
    {
       if (progress != null)
       {
          progress.setStatus("Filtering Orientation Readings (0)", 0, false, 0);
          publishProgress(progress);
       }
-      long N = 0;
       boolean mustFilter = (kernelSize > 0);
       int writecount = 0;
-      if ( (mustFilter) && ((kernelSize % 2) == 0) )
-         kernelSize++;
       File f = new File(dir, orientationFile.getName() + ".smooth");
-      RingBuffer<OrientationData> buff = null;
-      List<OrientationData> L = null;
-      final int center = kernelSize / 2;
+      BearingFilter filter = null;
+      OrientationData[] window = null; // The records whose bearings are in the filter window
+      int center = 0;
       if (mustFilter)
       {
-         OrientationData[] array = new OrientationData[kernelSize];
-         buff = new RingBuffer<>(array);
-         L = new ArrayList<>(kernelSize);
+         filter = new BearingFilter(kernel, kernelSize);
+         kernelSize = filter.getKernelSize();
+         center = filter.delay();
+         window = new OrientationData[kernelSize];
       }
       float previousBearing = -1;
       PrintWriter pw = null;
@@ -442,27 +803,16 @@ abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boo
 
             if (mustFilter)
             {
-               N++;
-               if (N > kernelSize)
+               window[(int) (filter.pushed() % kernelSize)] = data;
+               if (filter.push(bearing))
                {
-                  buff.peekList(L);
-                  buff.push(data);
-                  data = L.get(center);
-                  float ave = 0;
-                  for (int i = 0; i < kernelSize; i++)
-                     ave += L.get(i).bearing();
-                  ave /= kernelSize;
-                  data.write(dos, ave);
+                  window[(int) ((filter.pushed() - 1 - center) % kernelSize)].write(dos, filter.value());
                   writecount++;
                }
-               else
+               else if (filter.pushed() <= center) // no complete window before the center
                {
-                  buff.push(data);
-                  if (N < kernelSize / 2)
-                  {
-                     data.write(dos, data.bearing());
-                     writecount++;
-                  }
+                  data.write(dos, bearing);
+                  writecount++;
                }
             }
             else
@@ -476,10 +826,11 @@ abstract public class RecordingThread extends AsyncTask<Void, ProgressParam, Boo
          }
          if (mustFilter)
          {
-            int left = buff.peekList(L);
-            for (int i=center+1; i<left; i++)
+            // The records after the last complete window
+            final long pushed = filter.pushed();
+            for (long i = (pushed >= kernelSize) ? pushed - center : Math.min(center, pushed); i<pushed; i++)
             {
-               data = L.get(i);
+               data = window[(int) (i % kernelSize)];
                data.write(dos, data.bearing());
                writecount++;
             }
@@ -0,0 +1,143 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A frame read target (see Bufferable.read(ReusableFrame)) wrapping a direct ByteBuffer which is reused for every
+ * frame read into it, so streaming through a recording does not allocate a direct buffer (which is only reclaimed
+ * by the GC) per frame. Frames obtained from a Pool are reference counted: the acquirer owns one reference, retain()
+ * adds a reference for every additional holder and the frame returns to the pool when the last holder calls
+ * release(). A frame must not be used after its last release.
+ */
+public class ReusableFrame extends Bufferable.BufferData
+//======================================================
+{
+   final long[] timestampArg = new long[1];
+   final int[] sizeArg = new int[1];
+   private final ByteBuffer buffer;
+   private final Pool pool;
+   private final AtomicInteger references = new AtomicInteger(1);
+
+   /**
+    * Creates an unpooled frame (release() is a no-op) for readers that copy each frame out before the next read.
+    */
+   public ReusableFrame(int capacity) { this(capacity, null); }
+
+   private ReusableFrame(int capacity, Pool pool)
+   //--------------------------------------------
+   {
+      buffer = ByteBuffer.allocateDirect(capacity);
+      this.pool = pool;
+   }
+
+   /**
+    * @return The underlying direct buffer. Unlike data it is not null for empty (size 0) frames.
+    */
+   public ByteBuffer buffer() { return buffer; }
+
+   public int capacity() { return buffer.capacity(); }
+
+   public ReusableFrame retain()
+   //---------------------------
+   {
+      if (references.getAndIncrement() <= 0)
+         throw new IllegalStateException("ReusableFrame retained after release");
+      return this;
+   }
+
+   public void release()
+   //-------------------
+   {
+      final int count = references.decrementAndGet();
+      if (count < 0)
+         throw new IllegalStateException("ReusableFrame released more times than acquired/retained");
+      if ( (count == 0) && (pool != null) )
+         pool.recycle(this);
+   }
+
+   /**
+    * Replaces a frame reference, retaining the new frame and releasing the old one (either may be null).
+    * @return next
+    */
+   static public ReusableFrame set(ReusableFrame previous, ReusableFrame next)
+   //-------------------------------------------------------------------------
+   {
+      if (previous == next)
+         return next;
+      if (next != null)
+         next.retain();
+      if (previous != null)
+         previous.release();
+      return next;
+   }
+
+   /**
+    * Null safe release.
+    * @return null so that release can be used as frame = ReusableFrame.release(frame)
+    */
+   static public ReusableFrame release(ReusableFrame frame)
+   //------------------------------------------------------
+   {
+      if (frame != null)
+         frame.release();
+      return null;
+   }
+
+   /**
+    * A small pool of equally sized direct buffer frames. acquire() reuses a released frame if one is available, so
+    * the number of direct buffers allocated is bounded by the maximum number of frames held at the same time.
+    */
+   static public class Pool
+   //======================
+   {
+      private final int capacity;
+      private final ConcurrentLinkedQueue<ReusableFrame> free = new ConcurrentLinkedQueue<>();
+      private final AtomicInteger allocated = new AtomicInteger(0);
+
+      public Pool(int capacity) { this.capacity = capacity; }
+
+      public int capacity() { return capacity; }
+
+      /**
+       * @return The number of direct buffers allocated by the pool.
+       */
+      public int allocated() { return allocated.get(); }
+
+      public ReusableFrame acquire()
+      //----------------------------
+      {
+         ReusableFrame frame = free.poll();
+         if (frame == null)
+         {
+            allocated.incrementAndGet();
+            return new ReusableFrame(capacity, this);
+         }
+         frame.references.set(1);
+         frame.timestamp = -1;
+         frame.fileOffset = -1;
+         frame.data = null;
+         frame.buffer.clear();
+         return frame;
+      }
+
+      private void recycle(ReusableFrame frame) { free.offer(frame); }
+   }
+}
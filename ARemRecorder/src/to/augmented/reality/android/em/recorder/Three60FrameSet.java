@@ -0,0 +1,198 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/**
+ * Random access writer/reader for the fixed size frames of a 360 recording addressed by a 64 bit frame index. The
+ * frames are either held in a single file or in a segmented frame set of framesPerSegment frames per file, where
+ * segment n of frames file base is named base.nnn (see segmentFile). A segmented frame set is indicated by
+ * FrameSegments (the number of segment files) in the recording header file, with FramesFile naming the
+ * (nonexistent) base file. The naming
+ * convention must match to.augmented.reality.android.em.three60.SegmentedFrameStore in ARemu.
+ */
+public class Three60FrameSet implements Closeable
+//===============================================
+{
+   /** Largest single frames file created when the segment size is chosen automatically. */
+   final static public long MAX_FRAMES_FILE_SIZE = Integer.MAX_VALUE;
+
+   private final File framesFile;
+   private final int frameSize;
+   private final int framesPerSegment;
+   private RandomAccessFile[] segments = new RandomAccessFile[1];
+
+   /**
+    * @param framesFile The frames file or the base name of a segmented frame set.
+    * @param frameSize The size of a frame in bytes.
+    * @param framesPerSegment The number of frames per segment file or 0 for a single frames file.
+    */
+   public Three60FrameSet(File framesFile, int frameSize, int framesPerSegment)
+   //--------------------------------------------------------------------------
+   {
+      if (frameSize <= 0)
+         throw new IllegalArgumentException("Invalid frame size " + frameSize);
+      this.framesFile = framesFile;
+      this.frameSize = frameSize;
+      this.framesPerSegment = Math.max(framesPerSegment, 0);
+   }
+
+   /**
+    * @return The number of frames per segment to use for a recording of frameCount frames, 0 if the recording fits
+    * in a single frames file of at most MAX_FRAMES_FILE_SIZE bytes.
+    */
+   static public int framesPerSegment(long frameCount, int frameSize)
+   //-----------------------------------------------------------------
+   {
+      if (frameCount * frameSize <= MAX_FRAMES_FILE_SIZE)
+         return 0;
+      return (int) Math.max(1L, MAX_FRAMES_FILE_SIZE / frameSize);
+   }
+
+   static public File segmentFile(File framesFile, int segno)
+   //---------------------------------------------------------
+   {
+      return new File(framesFile.getParentFile(), String.format(Locale.US, "%s.%03d", framesFile.getName(), segno));
+   }
+
+   /**
+    * @return <i>true</i> if framesFile names a segmented frame set.
+    */
+   static public boolean isSegmented(File framesFile)
+   //------------------------------------------------
+   {
+      return (! framesFile.exists()) && (segmentFile(framesFile, 0).exists());
+   }
+
+   /**
+    * @return The number of segment files in a segmented frame set or 0 if framesFile is not segmented.
+    */
+   static public int segmentCount(File framesFile)
+   //---------------------------------------------
+   {
+      if (! isSegmented(framesFile))
+         return 0;
+      int segno = 0;
+      while (segmentFile(framesFile, segno).exists())
+         segno++;
+      return segno;
+   }
+
+   static public boolean exists(File framesFile) { return (framesFile.exists()) || (isSegmented(framesFile)); }
+
+   /**
+    * Renames a frames file or all the segments of a segmented frame set.
+    */
+   static public boolean rename(File framesFile, File to)
+   //----------------------------------------------------
+   {
+      if (! isSegmented(framesFile))
+         return framesFile.renameTo(to);
+      boolean isRenamed = true;
+      for (int segno = 0; ; segno++)
+      {
+         File f = segmentFile(framesFile, segno);
+         if (! f.exists())
+            break;
+         isRenamed &= f.renameTo(segmentFile(to, segno));
+      }
+      return isRenamed;
+   }
+
+   /**
+    * Deletes a frames file and/or all the segments of a segmented frame set.
+    */
+   static public void delete(File framesFile)
+   //----------------------------------------
+   {
+      framesFile.delete();
+      for (int segno = 0; ; segno++)
+      {
+         File f = segmentFile(framesFile, segno);
+         if (! f.delete())
+            break;
+      }
+   }
+
+   public int getFramesPerSegment() { return framesPerSegment; }
+
+   private RandomAccessFile file(long index) throws IOException
+   //----------------------------------------------------------
+   {
+      int segno = (framesPerSegment == 0) ? 0 : (int) (index / framesPerSegment);
+      if (segno >= segments.length)
+      {
+         RandomAccessFile[] newSegments = new RandomAccessFile[Math.max(segno + 1, segments.length*2)];
+         System.arraycopy(segments, 0, newSegments, 0, segments.length);
+         segments = newSegments;
+      }
+      RandomAccessFile raf = segments[segno];
+      if (raf == null)
+      {
+         File f = (framesPerSegment == 0) ? framesFile : segmentFile(framesFile, segno);
+         raf = new RandomAccessFile(f, "rw");
+         segments[segno] = raf;
+      }
+      long position = ((framesPerSegment == 0) ? index : (index % framesPerSegment)) * frameSize;
+      raf.seek(position);
+      return raf;
+   }
+
+   /**
+    * Writes frame index.
+    * @param frame The frame contents (frameSize bytes).
+    */
+   public void write(long index, byte[] frame) throws IOException
+   //------------------------------------------------------------
+   {
+      if (index < 0)
+         throw new IOException("Invalid frame index " + index);
+      file(index).write(frame, 0, frameSize);
+   }
+
+   /**
+    * Reads frame index.
+    * @param frame The buffer to read into (at least frameSize bytes).
+    */
+   public void read(long index, byte[] frame) throws IOException
+   //-----------------------------------------------------------
+   {
+      if (index < 0)
+         throw new IOException("Invalid frame index " + index);
+      file(index).readFully(frame, 0, frameSize);
+   }
+
+   @Override
+   public void close() throws IOException
+   //------------------------------------
+   {
+      IOException ex = null;
+      for (int i=0; i<segments.length; i++)
+      {
+         if (segments[i] != null)
+            try { segments[i].close(); } catch (IOException e) { ex = e; }
+         segments[i] = null;
+      }
+      if (ex != null)
+         throw ex;
+   }
+}
@@ -85,12 +85,12 @@ public class Three60RecordingResult extends Activity
       float recordingIncrement = recordingIncrements[indices[selectedItem]];
       File framesFile = new File(recordingDir, String.format(Locale.US, "%s.frames.%.1f", recordingDir.getName(),
                                                              recordingIncrement));
-      if (! framesFile.exists())
+      if (! Three60FrameSet.exists(framesFile))
          Toast.makeText(this, "File " + framesFile.getAbsolutePath() + " not found", Toast.LENGTH_LONG).show();
       else
       {
          File fn = new File(recordingDir, recordingDir.getName() + ".frames");
-         framesFile.renameTo(fn);
+         Three60FrameSet.rename(framesFile, fn);
          framesFile = fn;
          File headerFile = new File(recordingDir, recordingDir.getName() + ".head");
          File newHeaderFile = new File(recordingDir, recordingDir.getName() + ".head.new");
@@ -133,7 +133,8 @@ public class Three60RecordingResult extends Activity
                {
                   while ( (line = headerReader.readLine()) != null)
                   {
-                     if ( (line.contains("FramesFile")) || (line.contains("Increment")) )
+                     if ( (line.contains("FramesFile")) || (line.contains("Increment")) ||
+                          (line.contains("FrameSegments")) )
                         continue;
                      headerWriter.println(line);
                   }
@@ -154,6 +155,8 @@ public class Three60RecordingResult extends Activity
                }
             }
             headerWriter.println(String.format(Locale.US, "FramesFile=%s", framesFile.getAbsolutePath()));
+            if (Three60FrameSet.isSegmented(framesFile))
+               headerWriter.println(String.format(Locale.US, "FrameSegments=%d", Three60FrameSet.segmentCount(framesFile)));
             headerWriter.println(String.format(Locale.US, "Increment=%6.1f", recordingIncrement));
             headerWriter.close();
             if ( (! isAppending) && (newHeaderFile.exists()) && (newHeaderFile.length() > 0) )
@@ -170,7 +173,7 @@ public class Three60RecordingResult extends Activity
             {
                float increment = recordingIncrements[i];
                File f = new File(recordingDir, String.format(Locale.US, "%s.frames.%.1f", recordingDir.getName(), increment));
-               f.delete();
+               Three60FrameSet.delete(f);
             }
          }
          setResult(1);
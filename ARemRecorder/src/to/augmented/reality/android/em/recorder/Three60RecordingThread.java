@@ -38,13 +38,20 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Three60RecordingThread extends RecordingThread
 //=========================================================
@@ -57,6 +64,40 @@ public class Three60RecordingThread extends RecordingThread
 
    private boolean mustStitch = false;
 
+   private int framesPerSegment = 0;
+
+   /**
+    * Sets the number of frames per file for a segmented frame set (see Three60FrameSet). If 0 (the default) a
+    * single frames file is created unless it would exceed Three60FrameSet.MAX_FRAMES_FILE_SIZE.
+    */
+   public void setFramesPerSegment(int framesPerSegment) { this.framesPerSegment = Math.max(framesPerSegment, 0); }
+
+   private int candidateThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+
+   /**
+    * Sets the maximum number of candidate recording increments evaluated concurrently after a 360 capture. Each
+    * concurrent candidate holds its own frame and orientation readers and output frames file.
+    */
+   public void setCandidateThreads(int threads) { candidateThreads = Math.max(threads, 1); }
+
+   private final Object syncLock = new Object();
+
+   private File candidateFile(float recordingIncrement)
+   //--------------------------------------------------
+   {
+      return new File(recordingDir, String.format(Locale.US, "%s.frames.%.1f", recordingDir.getName(),
+                                                  recordingIncrement));
+   }
+
+   private int framesPerSegment(float recordingIncrement)
+   //----------------------------------------------------
+   {
+      if (framesPerSegment > 0)
+         return framesPerSegment;
+      long frameCount = (long) Math.ceil(360.0 / recordingIncrement);
+      return Three60FrameSet.framesPerSegment(frameCount, renderer.rgbaBufferSize);
+   }
+
    //Testing the post-processing phase. See also RecorderActivity.NO_OVERWRITE_CHECK to
    // prevent the debug files being overwritten.
    static final public boolean TEST_POST_PROCESS = false;
@@ -321,7 +362,6 @@ public class Three60RecordingThread extends RecordingThread
             headerWriter.println(String.format(Locale.US, "FilteredOrientationCount=%d", orientationCount));
          }
 
-         Bufferable orientationBuffer = (Bufferable) orientationHandler;
          rawBuffer.openForReading();
          int[] shift_totals = new int[2], framecount = new int[1];
          Bufferable rgbaBuffer = convertFrames(recordingDir, rawBuffer, previewer, progress, true, shift_totals,
@@ -344,63 +384,29 @@ public class Three60RecordingThread extends RecordingThread
             headerWriter.flush();
          }
 
-         orientationBuffer.openForReading(orientationFile);
-         rgbaBuffer.openForReading();
          float recordingIncrement = -1f;
          float[] recordingIncrements = { 1f, 1.5f, 2.0f, 2.5f, 3.0f };
-         Pair<Integer, Integer>[] incrementResults = new Pair[recordingIncrements.length];
-         for (int j=0; j<recordingIncrements.length; j++)
-            incrementResults[j] = new Pair<>(Integer.MAX_VALUE, Integer.MAX_VALUE);
-         int[] kludgeCount = new int[1];
-         for (int i=0; i<recordingIncrements.length; i++)
+         Pair<Integer, Integer>[] incrementResults = evaluateIncrements(startBearing, rawBuffer,
+                                                                        new File(recordingDir, "frames.RGBA"),
+                                                                        orientationFile, recordingIncrements, n,
+                                                                        orientationCount, shift_totals, progress);
+         File framesFile = null;
+         for (int i=0; i<incrementResults.length; i++)
          {
-            try
+            if ( (incrementResults[i].first < Integer.MAX_VALUE) && (incrementResults[i].second == 0) )
             {
-               float increment = recordingIncrements[i];
-               if ( (increment < this.startIncrement) || (increment > this.endIncrement) )
-                  continue;;
-//               int no = (int) (Math.floor(360.0f / startIncrement));
-               int no = (int) (Math.floor(((float) (n + 1)) / increment));
-               rgbaBuffer.readPos(0L);
-               rawBuffer.readPos(0L);
-               orientationBuffer.closeFile();
-               orientationBuffer.openForReading(orientationFile);
-               logWriter.println(); logWriter.println("startIncrement " + Float.toString(increment) + " n = " + n +
-                                                      " no = " + no);
-               kludgeCount[0] = 0;
-               File ff = createThree60(startBearing, rawBuffer, rgbaBuffer, orientationBuffer, increment, no, orientationCount,
-                                       mustStitch, progress, shift_totals, kludgeCount);
-               if (ff != null)
-               {
-                  logWriter.println("startIncrement " + Float.toString(increment) + " kludges " + kludgeCount[0]);
-                  incrementResults[i] = new Pair<>(i, kludgeCount[0]);
-                  if (kludgeCount[0] == 0)
-                    break;
-               }
-               else
-                  logWriter.println("startIncrement " + Float.toString(increment) + " error");
-               if (isCancelled())
-                  break;
-            }
-            catch (Exception ee)
-            {
-               Log.e(TAG, "", ee);
+               recordingIncrement = recordingIncrements[incrementResults[i].first];
+               framesFile = candidateFile(recordingIncrement);
+               break;
             }
          }
-         File framesFile = null;
-         if (incrementResults[0].second == 0)
-         {
-            recordingIncrement = recordingIncrements[incrementResults[0].first];
-            framesFile = new File(recordingDir, String.format(Locale.US, "%s.frames.%.1f", recordingDir.getName(),
-                                                              recordingIncrement));
-         }
 
          if (framesFile == null)
          {
             boolean hasResult = false;
             for (int i=0; i<incrementResults.length; i++)
             {
-               if (incrementResults[0].first < Integer.MAX_VALUE)
+               if (incrementResults[i].first < Integer.MAX_VALUE)
                {
                   hasResult = true;
                   break;
@@ -432,10 +438,12 @@ public class Three60RecordingThread extends RecordingThread
          else
          {
             File fn = new File(recordingDir, recordingDir.getName() + ".frames");
-            framesFile.renameTo(fn);
+            Three60FrameSet.rename(framesFile, fn);
             framesFile = fn;
             headerWriter.println("FileFormat=RGBA");
             headerWriter.println(String.format(Locale.US, "FramesFile=%s", framesFile.getAbsolutePath()));
+            if (Three60FrameSet.isSegmented(framesFile))
+               headerWriter.println(String.format(Locale.US, "FrameSegments=%d", Three60FrameSet.segmentCount(framesFile)));
             headerWriter.println(String.format(Locale.US, "Increment=%6.1f", recordingIncrement));
             isCreated = true;
             progress.setStatus("Created Recording " + framesFile.getName(), 100, true, Toast.LENGTH_LONG);
@@ -512,6 +520,153 @@ public class Three60RecordingThread extends RecordingThread
                                 boolean mustStitch, ProgressParam progress, int[] shift_totals, int[] kludgeCount)
          throws IOException
    //------------------------------------------------------------------------------------------------------------
+   {
+      return createThree60(startBearing, rawBuffer, rgbaBuffer, orientationBuffer, recordingIncrement, no,
+                           orientationCount, mustStitch, progress, shift_totals, kludgeCount, null);
+   }
+
+   /**
+    * Evaluates the candidate recording increments concurrently on a pool of at most candidateThreads threads
+    * (see setCandidateThreads). Each candidate reads the converted RGBA frames and the orientation file through its
+    * own readers and writes its own frames file. When a candidate completes without kludges all candidates with a
+    * larger increment are cancelled, while those with a smaller increment run to completion, so the candidate
+    * selected is the same as when the increments are evaluated in order.
+    * @return The result for each increment as (increment index, kludge count), with (Integer.MAX_VALUE,
+    * Integer.MAX_VALUE) for increments that were skipped, failed or were cancelled.
+    */
+   private Pair<Integer, Integer>[] evaluateIncrements(final float startBearing, final Bufferable rawBuffer,
+                                                       final File rgbaFile, final File orientationFile,
+                                                       final float[] increments, final int n,
+                                                       final int orientationCount, final int[] shift_totals,
+                                                       final ProgressParam progress)
+   //--------------------------------------------------------------------------------------------------------------
+   {
+      final int count = increments.length;
+      Pair<Integer, Integer>[] results = new Pair[count];
+      final AtomicBoolean[] cancels = new AtomicBoolean[count];
+      for (int i=0; i<count; i++)
+      {
+         results[i] = new Pair<>(Integer.MAX_VALUE, Integer.MAX_VALUE);
+         cancels[i] = new AtomicBoolean(false);
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(Math.min(candidateThreads, count), new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(Runnable r)
+         //-------------------------------------------
+         {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName("Three60Candidate");
+            return t;
+         }
+      });
+      CompletionService<Pair<Integer, Integer>> completion = new ExecutorCompletionService<>(pool);
+      int submitted = 0;
+      try
+      {
+         for (int i=0; i<count; i++)
+         {
+            final float increment = increments[i];
+            if ( (increment < this.startIncrement) || (increment > this.endIncrement) )
+               continue;
+            final int index = i;
+            final int no = (int) (Math.floor(((float) (n + 1)) / increment));
+            completion.submit(new Callable<Pair<Integer, Integer>>()
+            {
+               @Override
+               public Pair<Integer, Integer> call() throws Exception
+               //--------------------------------------------------
+               {
+                  if ( (cancels[index].get()) || (isCancelled()) )
+                     return new Pair<>(index, -1);
+                  NativeFrameBuffer rgbaBuffer = new NativeFrameBuffer(3, renderer.rgbaBufferSize, false);
+                  OrientationFileReader orientationBuffer = new OrientationFileReader();
+                  try
+                  {
+                     rgbaBuffer.startTimestamp(0);
+                     if ( (! rgbaBuffer.openForReading(rgbaFile)) ||
+                          (! orientationBuffer.openForReading(orientationFile)) )
+                     {
+                        logWriter.println("startIncrement " + Float.toString(increment) + " error opening input");
+                        return new Pair<>(index, -1);
+                     }
+                     logWriter.println("startIncrement " + Float.toString(increment) + " n = " + n + " no = " + no);
+                     int[] kludgeCount = new int[1];
+                     File ff = createThree60(startBearing, rawBuffer, rgbaBuffer, orientationBuffer, increment, no,
+                                             orientationCount, mustStitch,
+                                             (progress == null) ? null : new ProgressParam(), shift_totals,
+                                             kludgeCount, cancels[index]);
+                     if (ff != null)
+                     {
+                        logWriter.println("startIncrement " + Float.toString(increment) + " kludges " + kludgeCount[0]);
+                        return new Pair<>(index, kludgeCount[0]);
+                     }
+                     if (cancels[index].get())
+                     {
+                        logWriter.println("startIncrement " + Float.toString(increment) + " cancelled");
+                        Three60FrameSet.delete(candidateFile(increment));
+                     }
+                     else
+                        logWriter.println("startIncrement " + Float.toString(increment) + " error");
+                     return new Pair<>(index, -1);
+                  }
+                  finally
+                  {
+                     try { rgbaBuffer.closeFile(); } catch (Exception _e) {}
+                     orientationBuffer.closeFile();
+                  }
+               }
+            });
+            submitted++;
+         }
+         for (int k=0; k<submitted; k++)
+         {
+            try
+            {
+               Pair<Integer, Integer> result = completion.take().get();
+               if (result.second < 0)
+                  continue;
+               results[result.first] = result;
+               if (result.second == 0)
+               {
+                  for (int i=result.first + 1; i<count; i++)
+                     cancels[i].set(true);
+               }
+            }
+            catch (ExecutionException e)
+            {
+               Log.e(TAG, "", e.getCause());
+            }
+            if (isCancelled())
+            {
+               for (AtomicBoolean cancel : cancels)
+                  cancel.set(true);
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         for (AtomicBoolean cancel : cancels)
+            cancel.set(true);
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+      return results;
+   }
+
+   /**
+    * @param cancel If not null createThree60 stops and returns null when cancel is set.
+    */
+   protected File createThree60(float startBearing, Bufferable rawBuffer, Bufferable rgbaBuffer,
+                                Bufferable orientationBuffer, float recordingIncrement, int no, int orientationCount,
+                                boolean mustStitch, ProgressParam progress, int[] shift_totals, int[] kludgeCount,
+                                AtomicBoolean cancel)
+         throws IOException
+   //------------------------------------------------------------------------------------------------------------
    {
       if (progress != null)
       {
@@ -520,14 +675,15 @@ public class Three60RecordingThread extends RecordingThread
       }
       int increments = (int) (Math.floor(360.0f / recordingIncrement));
       int shift_mean = shift_totals[0] / increments;
-      File framesFile = new File(recordingDir, String.format(Locale.US, "%s.frames.%.1f", recordingDir.getName(),
-                                           recordingIncrement));
+      File framesFile = candidateFile(recordingIncrement);
       kludgeCount[0] = 0;
-      RandomAccessFile raf = new RandomAccessFile(framesFile, "rw");
-      int n = 0, N = 0;
       Bufferable.BufferData orientationBufData = orientationBuffer.read();
       if (orientationBufData == null)
          return null;
+      Three60FrameSet.delete(framesFile);
+      Three60FrameSet frameSet = new Three60FrameSet(framesFile, renderer.rgbaBufferSize,
+                                                     framesPerSegment(recordingIncrement));
+      int n = 0, N = 0;
       long videoStartTimestamp = -1;
       if (startBearing < 0)
       {
@@ -561,8 +717,12 @@ public class Three60RecordingThread extends RecordingThread
       }
 //      final long interval = 2000000000L;
       long nextTime, frameno = 0, lastFrameno =-1;
-      ByteBuffer frame = null, lastFrame  = null;
-      ByteBuffer[] lastFrames = new ByteBuffer[2];
+      // Frames are read into pooled direct buffers, the working set is the frames referenced by lastFrames,
+      // matchFrame, matchFrame2 and the current read (plus stitch/kludge output).
+      ReusableFrame.Pool framePool = new ReusableFrame.Pool(renderer.rgbaBufferSize);
+      ReusableFrame frame = null, frameBufData = null, matchFrame = null, matchFrame2 = null;
+      ByteBuffer lastFrame  = null;
+      ReusableFrame[] lastFrames = new ReusableFrame[2];
       long[] lastFrameOffsets = new long[2];
       final int LAST_FRAME = 0, FRAME_BEFORE_LAST = 1;
       lastFrames[LAST_FRAME] = null; lastFrames[FRAME_BEFORE_LAST] = null;
@@ -573,6 +733,8 @@ public class Three60RecordingThread extends RecordingThread
       {
          while (orientationBufData != null)
          {
+            if ( (cancel != null) && ((cancel.get()) || (isCancelled())) )
+               return null;
             N++;
             if ( (progress != null) && ((N % 5) == 0) )
             {
@@ -596,37 +758,38 @@ public class Three60RecordingThread extends RecordingThread
             }
 
             nextTime = orientationData.timestamp + 300000000L;
-            lastFrame = lastFrames[LAST_FRAME];
-            Bufferable.BufferData frameBufData = rgbaBuffer.read();
+            lastFrame = (lastFrames[LAST_FRAME] == null) ? null : lastFrames[LAST_FRAME].buffer();
+            frameBufData = readFrame(rgbaBuffer, framePool, frameBufData);
             long frameOffset = -1;
             long minOrientationMatch = Long.MAX_VALUE;
             int shift_min = Integer.MAX_VALUE, matchShift1 = -1;
-            ByteBuffer matchFrame = null, matchFrame2 = null;
+            matchFrame = ReusableFrame.release(matchFrame);
+            matchFrame2 = ReusableFrame.release(matchFrame2);
             long matchTs = -1, matchTs2 = -1, matchFrameno = -1, matchFrameno2 = -1, matchOffset =-1, matchOffset2 =-1;
             while ( (frameBufData != null) && (frameBufData.timestamp < nextTime) )
             {
                long frameTimestamp = frameBufData.timestamp;
                if (frameTimestamp < 0)
                {
-                  frameBufData = rgbaBuffer.read();
+                  frameBufData = readFrame(rgbaBuffer, framePool, frameBufData);
                   continue;
                }
 
                if (frameBufData.data != null)
                {
-                  frame = (ByteBuffer) frameBufData.data;
+                  frame = frameBufData;
                   if ( (lastFrame != null) && (frame != null) )
                   {
                      int[] shift = new int[2];
                      CV.TOGREY_SHIFT(renderer.previewWidth, renderer.previewHeight, lastFrame,
-                                     frame, shift);
+                                     frame.buffer(), shift);
                      if (shift[0] > 0)
                      {
                         int sh = shift[0] - shift_mean; sh *= sh;
                         if (sh < shift_min)
                         {
                            shift_min = sh;
-                           matchFrame = frame;
+                           matchFrame = ReusableFrame.set(matchFrame, frame);
                            matchShift1 = shift[0];
                            matchFrameno = frameno;
                            matchTs = frameBufData.timestamp;
@@ -642,7 +805,7 @@ public class Three60RecordingThread extends RecordingThread
                         if ( (timediff < minOrientationMatch) && (frameno > lastFrameno) )
                         {
                            minOrientationMatch = timediff;
-                           matchFrame2 = frame;
+                           matchFrame2 = ReusableFrame.set(matchFrame2, frame);
                            matchFrameno2 = frameno;
                            matchTs2 = frameBufData.timestamp;
                            matchOffset2 = frameBufData.fileOffset;
@@ -652,26 +815,26 @@ public class Three60RecordingThread extends RecordingThread
                   frameno++;
                }
 
-               frameBufData = rgbaBuffer.read();
+               frameBufData = readFrame(rgbaBuffer, framePool, frameBufData);
             }
             if (matchFrame == null)
             {
-               matchFrame = matchFrame2;
+               matchFrame = ReusableFrame.set(matchFrame, matchFrame2);
                matchFrameno = matchFrameno2;
                matchTs = matchTs2;
                matchOffset = matchOffset2;
             }
             int matchShift2 = -1;
-            if ( (matchFrame != matchFrame2) && (shift_min > 0) )
+            if ( (matchFrame != matchFrame2) && (matchFrame2 != null) && (shift_min > 0) )
             {
                int[] shift = new int[2];
-               CV.TOGREY_SHIFT(renderer.previewWidth, renderer.previewHeight, lastFrame, matchFrame2, shift);
+               CV.TOGREY_SHIFT(renderer.previewWidth, renderer.previewHeight, lastFrame, matchFrame2.buffer(), shift);
                matchShift2 = shift[0];
                int sh = matchShift2 - shift_mean; sh *= sh;
                if (sh < shift_min)
                {
                   shift_min = sh;
-                  matchFrame = matchFrame2;
+                  matchFrame = ReusableFrame.set(matchFrame, matchFrame2);
                   matchFrameno = matchFrameno2;
                   matchTs = matchTs2;
                   matchOffset = matchOffset2;
@@ -681,12 +844,14 @@ public class Three60RecordingThread extends RecordingThread
             if (matchFrame != null)
             {
                frameOffset = matchOffset;
-               ByteBuffer beforeLastFrame = lastFrames[FRAME_BEFORE_LAST];
+               ByteBuffer beforeLastFrame = (lastFrames[FRAME_BEFORE_LAST] == null) ? null
+                                                                                     : lastFrames[FRAME_BEFORE_LAST].buffer();
                if ( (mustStitch) && (lastFrame != null) && (beforeLastFrame != null))
                {
-                  ByteBuffer stitchedFrame = ByteBuffer.allocateDirect(renderer.rgbaBufferSize);
+                  ReusableFrame stitched = framePool.acquire();
+                  ByteBuffer stitchedFrame = stitched.buffer();
                   if (CV.STITCH3(renderer.previewWidth, renderer.previewHeight, beforeLastFrame, lastFrame,
-                                 matchFrame, stitchedFrame))
+                                 matchFrame.buffer(), stitchedFrame))
                   {
 //                     Mat M = new Mat(renderer.previewHeight, renderer.previewWidth, CvType.CV_8UC4);
 //                     matchFrame.rewind(); matchFrame.get(frameContents); M.put(0, 0, frameContents);
@@ -703,20 +868,20 @@ public class Three60RecordingThread extends RecordingThread
 //                     int sh = shift[0] - shift_mean; sh *= sh;
 //                     if ( (sh <= Math.max(shift_min, 9)) && (lastFrameOffsets[LAST_FRAME] >= 0) )
 //                     {
-                        raf.seek(lastFrameOffsets[LAST_FRAME] * renderer.rgbaBufferSize);
                         stitchedFrame.rewind();
                         stitchedFrame.get(frameContents);
-                        raf.write(frameContents);
+                        frameSet.write(lastFrameOffsets[LAST_FRAME], frameContents);
 //                     }
                   }
+                  stitched.release();
                }
-               raf.seek(currentOffset * renderer.rgbaBufferSize);
-               matchFrame.rewind();
+               matchFrame.buffer().rewind();
                lastFrameno = matchFrameno;
-               matchFrame.get(frameContents);
-               raf.write(frameContents);
+               matchFrame.buffer().get(frameContents);
+               frameSet.write(currentOffset, frameContents);
+               ReusableFrame.release(lastFrames[FRAME_BEFORE_LAST]);
                lastFrames[FRAME_BEFORE_LAST] = lastFrames[LAST_FRAME];
-               lastFrames[LAST_FRAME] = matchFrame;
+               lastFrames[LAST_FRAME] = matchFrame.retain();
                lastFrameOffsets[FRAME_BEFORE_LAST] = lastFrameOffsets[LAST_FRAME];
                lastFrameOffsets[LAST_FRAME] = currentOffset;
                Log.i(TAG, Integer.toString(n) + ": Wrote offset " + currentOffset + " bearing " + currentBearing +
@@ -733,17 +898,17 @@ public class Three60RecordingThread extends RecordingThread
                kludgeCount[0]++;
                if (kludgeCount[0] > MAX_KLUDGES)
                   return null;
-               ByteBuffer kludgedFrame = ByteBuffer.allocateDirect(renderer.rgbaBufferSize);
+               ReusableFrame kludgedFrame = framePool.acquire();
                if (lastFrame == null)
                   lastFrame = (ByteBuffer) frameBufData.data;
                if (lastFrames != null)
                {
                   CV.KLUDGE_RGBA(renderer.previewWidth, renderer.previewHeight, lastFrame,
-                                 kludgeTranslate, true, kludgedFrame);
+                                 kludgeTranslate, true, kludgedFrame.buffer());
                   kludgeTranslate += shift_mean;
-                  raf.seek(currentOffset * renderer.rgbaBufferSize);
-                  kludgedFrame.get(frameContents);
-                  raf.write(frameContents);
+                  kludgedFrame.buffer().get(frameContents);
+                  frameSet.write(currentOffset, frameContents);
+                  ReusableFrame.release(lastFrames[FRAME_BEFORE_LAST]);
                   lastFrames[FRAME_BEFORE_LAST] = lastFrames[LAST_FRAME];
                   lastFrames[LAST_FRAME] = kludgedFrame;
                   lastFrameOffsets[FRAME_BEFORE_LAST] = lastFrameOffsets[LAST_FRAME];
@@ -759,10 +924,16 @@ public class Three60RecordingThread extends RecordingThread
             currentBearing = bearing;
             orientationsPerBearing.clear();
          }
-         raf.close();
+         frameSet.close();
 
          if (currentOffset == stopOffset)
-            syncLastFrame(framesFile, startOffset, stopOffset, shift_mean, videoStartTimestamp, mustStitch, progress);
+         {
+            synchronized (syncLock) // syncLastFrame converts raw frames through the shared previewer
+            {
+               syncLastFrame(framesFile, frameSet.getFramesPerSegment(), startOffset, stopOffset, shift_mean,
+                             videoStartTimestamp, mustStitch, progress);
+            }
+         }
          if ( (n >= no) && (currentOffset == stopOffset) )
             return framesFile;
          //return (n >= no) ? framesFile : null;
@@ -772,10 +943,35 @@ public class Three60RecordingThread extends RecordingThread
          Log.e(TAG, "", e);
          return null;
       }
+      finally
+      {
+         try { frameSet.close(); } catch (Exception _e) {}
+         ReusableFrame.release(frameBufData);
+         ReusableFrame.release(matchFrame);
+         ReusableFrame.release(matchFrame2);
+         ReusableFrame.release(lastFrames[LAST_FRAME]);
+         ReusableFrame.release(lastFrames[FRAME_BEFORE_LAST]);
+      }
       return framesFile;
    }
 
-   private void syncLastFrame(File framesFile, long startOffset, long stopOffset, int shift_mean,
+   /**
+    * Releases previous (if not null) and reads the next frame into a frame acquired from pool.
+    * @return The frame read or null at end of file.
+    */
+   private static ReusableFrame readFrame(Bufferable buffer, ReusableFrame.Pool pool, ReusableFrame previous)
+         throws IOException
+   //--------------------------------------------------------------------------------------------------------
+   {
+      ReusableFrame.release(previous);
+      ReusableFrame frame = pool.acquire();
+      if (buffer.read(frame))
+         return frame;
+      frame.release();
+      return null;
+   }
+
+   private void syncLastFrame(File framesFile, int framesPerSegment, long startOffset, long stopOffset, int shift_mean,
                               long startTimestamp, boolean mustStitch, ProgressParam progress)
    //----------------------------------------------------------------------------------------------------
    {
@@ -785,7 +981,7 @@ public class Three60RecordingThread extends RecordingThread
          publishProgress(progress);
       }
       NativeFrameBuffer rawBuffer = null;
-      RandomAccessFile raf = null;
+      Three60FrameSet frameSet = null;
       try
       {
          File rawFile = new File(recordingDir, "frames.RAW");
@@ -799,13 +995,10 @@ public class Three60RecordingThread extends RecordingThread
             }
             byte[] startFrameBuf = new byte[renderer.rgbaBufferSize], nextFrameBuf = new byte[renderer.rgbaBufferSize],
                    lastFrameBuf = new byte[renderer.rgbaBufferSize];
-            raf = new RandomAccessFile(framesFile, "rw");
-            raf.seek(startOffset * renderer.rgbaBufferSize);
-            raf.readFully(startFrameBuf);
-            raf.seek((startOffset + 1) * renderer.rgbaBufferSize);
-            raf.readFully(nextFrameBuf);
-            raf.seek(stopOffset * renderer.rgbaBufferSize);
-            raf.readFully(lastFrameBuf);
+            frameSet = new Three60FrameSet(framesFile, renderer.rgbaBufferSize, framesPerSegment);
+            frameSet.read(startOffset, startFrameBuf);
+            frameSet.read(startOffset + 1, nextFrameBuf);
+            frameSet.read(stopOffset, lastFrameBuf);
             byte[] startFrameBufGrey = new byte[renderer.rgbaBufferSize / 4],
                    nextFrameBufGrey = new byte[renderer.rgbaBufferSize / 4],
                    lastFrameBufGrey = new byte[renderer.rgbaBufferSize / 4];
@@ -832,12 +1025,13 @@ public class Three60RecordingThread extends RecordingThread
                shift_min = sh;
             }
             byte[] frameMatchBuf = null;
-            Bufferable.BufferData frameBufData = rawBuffer.read();
+            ReusableFrame rawFrame = new ReusableFrame(renderer.rawBufferSize);
+            Bufferable.BufferData frameBufData = (rawBuffer.read(rawFrame)) ? rawFrame : null;
             while ( (frameBufData != null) && (frameBufData.timestamp < startTimestamp) )
             {
                if ( (frameBufData.timestamp < 0) ||  (frameBufData.data == null) )
                {
-                  frameBufData = rawBuffer.read();
+                  frameBufData = (rawBuffer.read(rawFrame)) ? rawFrame : null;
                   continue;
                }
                ByteBuffer bb = (ByteBuffer) frameBufData.data;
@@ -856,18 +1050,17 @@ public class Three60RecordingThread extends RecordingThread
                         break;
                   }
                }
-               frameBufData = rawBuffer.read();
+               frameBufData = (rawBuffer.read(rawFrame)) ? rawFrame : null;
             }
             if (frameMatchBuf != null)
             {
-               raf.seek(stopOffset * renderer.rgbaBufferSize);
                if (mustStitch)
                {
                   byte[] stitchedFrame = new byte[renderer.rgbaBufferSize];
                   if (CV.STITCH3(renderer.previewWidth, renderer.previewHeight, frameMatchBuf, startFrameBuf,
                                  nextFrameBuf, stitchedFrame))
                   {
-                     raf.write(stitchedFrame);
+                     frameSet.write(stopOffset, stitchedFrame);
                      Mat M = new Mat(renderer.previewHeight, renderer.previewWidth, CvType.CV_8UC4);
 //                     M.put(0, 0, startFrameBuf); Imgcodecs.imwrite("/sdcard/startframe.png", M);
 //                     M.put(0, 0, frameMatchBuf); Imgcodecs.imwrite("/sdcard/syncframe.png", M);
@@ -875,7 +1068,7 @@ public class Three60RecordingThread extends RecordingThread
                   }
                }
                else
-                  raf.write(frameMatchBuf);
+                  frameSet.write(stopOffset, frameMatchBuf);
 
             }
          }
@@ -889,8 +1082,8 @@ public class Three60RecordingThread extends RecordingThread
       {
          if (rawBuffer != null)
             try { rawBuffer.closeFile(); } catch (Exception _e) {}
-         if (raf != null)
-            try { raf.close(); } catch (Exception _e) {}
+         if (frameSet != null)
+            try { frameSet.close(); } catch (Exception _e) {}
       }
 
    }
@@ -1104,9 +1297,11 @@ public class Three60RecordingThread extends RecordingThread
             else
             {
                File fn = new File(recordingDir, recordingDir.getName() + ".frames");
-               framesFile.renameTo(fn);
+               Three60FrameSet.rename(framesFile, fn);
                framesFile = fn;
                headerWriter.println(String.format(Locale.US, "FramesFile=%s", framesFile.getAbsolutePath()));
+               if (Three60FrameSet.isSegmented(framesFile))
+                  headerWriter.println(String.format(Locale.US, "FrameSegments=%d", Three60FrameSet.segmentCount(framesFile)));
                headerWriter.println(String.format(Locale.US, "Increment=%6.1f", recordingIncrement));
                isCreated = true;
             }
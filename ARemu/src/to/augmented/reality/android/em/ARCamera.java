@@ -841,6 +841,8 @@ public class ARCamera extends AbstractARCamera implements ARCameraInterface
       if (isPreviewing)
          stopPreview();
       isPreviewing = false;
+      releaseSurfaceRenderer();
+      releaseFrameFanOut();
       if (camera != null)
          try { camera.release(); } catch (Exception e) { Log.e(TAG, "", e); }
    }
@@ -210,6 +210,8 @@ public class ARCameraDevice extends AbstractARCamera implements AutoCloseable, A
    public void close() throws Exception
    //-----------------------------------
    {
+      releaseSurfaceRenderer();
+      releaseFrameFanOut();
       if (delegateCamera != null)
          delegateCamera.close();
       delegateCamera = null;
@@ -256,7 +258,7 @@ public class ARCameraDevice extends AbstractARCamera implements AutoCloseable, A
    public void startPreview()
    //-----------------------
    {
-      if (cameraCallback == null)
+      if ( (cameraCallback == null) && (frameCallback == null) )
          Log.e(TAG, "ERROR: Camera frame callback is null for ARCameraDevice");
       if ( (orientationCallback == null) && (recordingType == RecordingType.FREE) )
          Log.w(TAG, "WARNING: Orientation callback is null for ARCameraDevice");
@@ -292,7 +294,7 @@ public class ARCameraDevice extends AbstractARCamera implements AutoCloseable, A
       public int setRepeatingRequest(CaptureRequest request, CaptureCallback listener, Handler handler) throws CameraAccessException
       //-----------------------------------------------------------------------------------------------------------------------------
       {
-         if (cameraCallback == null)
+         if ( (cameraCallback == null) && (frameCallback == null) )
             throw new RuntimeException("ARCameraDevice.ARCaptureCallback not set in ARCameraDevice");
          startPreview();
          return 0;
@@ -78,4 +78,28 @@ public interface ARCameraInterface extends Latcheable
    void setARSensorManager(ARSensorManager sensorManager);
 
    void startPreview();
+
+   boolean seekTo(long timestampNs);
+
+   boolean seekToFraction(float fraction);
+
+   void setFrameCallback(ARFrameCallback callback);
+
+   FrameFanOut.Consumer addFrameConsumer(ARFrameCallback consumer, FrameFanOut.Policy policy, int capacity);
+
+   boolean removeFrameConsumer(FrameFanOut.Consumer consumer);
+
+   void setPlaybackRate(float rate);
+
+   float getPlaybackRate();
+
+   boolean pausePlayback();
+
+   boolean resumePlayback();
+
+   boolean isPlaybackPaused();
+
+   boolean stepForward();
+
+   boolean stepBack();
 }
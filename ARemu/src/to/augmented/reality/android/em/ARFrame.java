@@ -0,0 +1,135 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preview frame delivered to an ARFrameCallback. The frame data is a read-only direct ByteBuffer which is either
+ * taken from a DirectBufferPool or is a view of a memory mapped frames file, so it can be passed to native code
+ * (eg an OpenCV Mat or a GL texture upload) without copying. The frame must be released once it is no longer
+ * needed so that pooled buffers can be reused; the buffer must not be accessed after release.
+ * A frame may be shared between several consumers (see FrameFanOut) using retain, which returns a new reference
+ * to the same buffer. The buffer is returned to the pool once every reference has been released.
+ */
+public class ARFrame
+//==================
+{
+   private final ByteBuffer buffer;
+   private final ByteBuffer pooled;
+   private final DirectBufferPool pool;
+   private final int width, height;
+   private final AbstractARCamera.RecordFileFormat format;
+   private final long timestamp;
+   private final float bearing;
+   private final AtomicBoolean isReleased = new AtomicBoolean(false);
+   private final AtomicInteger references; // Shared by all references to the buffer
+
+   /**
+    * @param buffer The frame data from position to limit.
+    * @param pool The pool buffer belongs to or null if it is not pooled (eg a mapped file view).
+    * @param width Frame width.
+    * @param height Frame height.
+    * @param format Frame format.
+    * @param timestamp Frame timestamp in nanoseconds. For free recordings this is the recording timestamp, for 360
+    *                  recordings the time at which the frame was delivered.
+    * @param bearing The bearing of the frame for 360 recordings or -1 if not available.
+    */
+   public ARFrame(ByteBuffer buffer, DirectBufferPool pool, int width, int height,
+                  AbstractARCamera.RecordFileFormat format, long timestamp, float bearing)
+   //-------------------------------------------------------------------------------------
+   {
+      this.pooled = buffer;
+      this.buffer = buffer.asReadOnlyBuffer();
+      this.pool = pool;
+      this.width = width;
+      this.height = height;
+      this.format = format;
+      this.timestamp = timestamp;
+      this.bearing = bearing;
+      references = new AtomicInteger(1);
+   }
+
+   private ARFrame(ARFrame frame)
+   //----------------------------
+   {
+      pooled = frame.pooled;
+      buffer = frame.buffer;
+      pool = frame.pool;
+      width = frame.width;
+      height = frame.height;
+      format = frame.format;
+      timestamp = frame.timestamp;
+      bearing = frame.bearing;
+      references = frame.references;
+   }
+
+   /**
+    * Adds a reference to the frame buffer. The returned frame must be released independently of this one.
+    * @return A new reference to the same frame.
+    */
+   public ARFrame retain()
+   //---------------------
+   {
+      if (isReleased.get())
+         throw new IllegalStateException("Frame has been released");
+      references.incrementAndGet();
+      return new ARFrame(this);
+   }
+
+   /** @return The number of unreleased references to the frame buffer. */
+   public int getReferenceCount() { return references.get(); }
+
+   /**
+    * @return A read-only view of the frame data (position 0 to limit the frame size). Each call returns a new view
+    * so callers may change its position and limit.
+    */
+   public ByteBuffer getBuffer()
+   //---------------------------
+   {
+      if (isReleased.get())
+         throw new IllegalStateException("Frame has been released");
+      return buffer.duplicate();
+   }
+
+   public int getSize() { return buffer.remaining(); }
+
+   public int getWidth() { return width; }
+
+   public int getHeight() { return height; }
+
+   public AbstractARCamera.RecordFileFormat getFormat() { return format; }
+
+   public long getTimestamp() { return timestamp; }
+
+   public float getBearing() { return bearing; }
+
+   public boolean isReleased() { return isReleased.get(); }
+
+   /**
+    * Releases this reference to the frame, returning the buffer to its pool if it was the last reference. Calling
+    * release more than once on the same reference has no effect.
+    */
+   public void release()
+   //-------------------
+   {
+      if ( (isReleased.compareAndSet(false, true)) && (references.decrementAndGet() == 0) && (pool != null) )
+         pool.release(pooled);
+   }
+}
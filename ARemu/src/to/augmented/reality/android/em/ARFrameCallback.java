@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+/**
+ * Receives preview frames as read-only direct ByteBuffers (see ARFrame) as an alternative to the byte[] based
+ * Camera.PreviewCallback and ARCameraDevice.ARCaptureCallback, avoiding copying the frame into a Java array.
+ * Set using ARCameraInterface.setFrameCallback.
+ */
+public interface ARFrameCallback
+//==============================
+{
+   /**
+    * Called on the playback thread for every preview frame. The frame remains valid until ARFrame.release() is
+    * called, which must be done (on any thread) as soon as it is no longer needed as the buffer is reused.
+    * @param frame The frame.
+    */
+   void onFrameAvailable(ARFrame frame);
+}
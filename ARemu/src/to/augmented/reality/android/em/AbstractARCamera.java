@@ -35,10 +35,12 @@ import to.augmented.reality.android.common.sensor.orientation.OrientationListena
 import to.augmented.reality.android.common.sensor.orientation.OrientationProvider;
 import to.augmented.reality.android.em.free.ContinuousPlaybackThreadFree;
 import to.augmented.reality.android.em.free.DirtyPlaybackThreadFree;
+import to.augmented.reality.android.em.free.MergedPlaybackThreadFree;
 import to.augmented.reality.android.em.free.PlaybackThreadFree;
 import to.augmented.reality.android.em.three60.ContinuousPlaybackThread360;
 import to.augmented.reality.android.em.three60.DirtyPlaybackThread360;
 import to.augmented.reality.android.em.three60.PlaybackThread360;
+import to.augmented.reality.android.em.three60.SegmentedFrameStore;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -66,6 +68,13 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
 
    public enum DelegationType {ALL, READ, NONE }
 
+   /**
+    * Render mode for free recordings which plays frames, orientation, location and raw sensor events from a single
+    * thread in merged timestamp order (see MergedPlaybackThreadFree). Chosen so as not to clash with
+    * GLSurfaceView.RENDERMODE_WHEN_DIRTY (0) and GLSurfaceView.RENDERMODE_CONTINUOUSLY (1).
+    */
+   final static public int RENDERMODE_MERGED = 2;
+
    private static final String TRUE = "true";
    private static final String FALSE = "false";
 
@@ -170,6 +179,42 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
    protected Future<?> playbackFuture;
    protected Runnable playbackThread = null;
 
+   protected SurfaceRenderer surfaceRenderer = null;
+
+   /**
+    * @return A SurfaceRenderer for the current preview size, reusing the existing renderer if the size has not
+    * changed, or null if no preview surface has been set.
+    */
+   protected SurfaceRenderer getSurfaceRenderer()
+   //--------------------------------------------
+   {
+      if (surface == null)
+         return null;
+      if ( (surfaceRenderer != null) && (! surfaceRenderer.isSize(previewWidth, previewHeight)) )
+         releaseSurfaceRenderer();
+      if (surfaceRenderer == null)
+         surfaceRenderer = new SurfaceRenderer(context, previewWidth, previewHeight);
+      return surfaceRenderer;
+   }
+
+   protected void releaseSurfaceRenderer()
+   //-------------------------------------
+   {
+      if (surfaceRenderer != null)
+         surfaceRenderer.release();
+      surfaceRenderer = null;
+   }
+
+   protected void releaseFrameFanOut()
+   //---------------------------------
+   {
+      if (frameFanOut != null)
+         frameFanOut.stop();
+      if (frameCallback == frameFanOut)
+         frameCallback = null;
+      frameFanOut = null;
+   }
+
    public AbstractARCamera(Context context) { this.context = context; }
 
    /**
@@ -192,13 +237,13 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
       this.framesFile = framesFile;
       headers = parseHeader(headerFile);
       String s;
-      if ( (framesFile == null) || (! isFileReadable(framesFile, null)) )
+      if ( (framesFile == null) || (! isFramesReadable(framesFile, null)) )
       {
          s = headers.get("FramesFile");
          if (s != null)
          {
             framesFile = new File(s);
-            if (! isFileReadable(framesFile, errbuf))
+            if (! isFramesReadable(framesFile, errbuf))
                throw new RuntimeException(errbuf.toString());
             else
                this.framesFile = framesFile;
@@ -473,6 +518,7 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
                                                                  previewFrameRate, previewWidth, previewHeight, surface);
                      break;
                   case GLSurfaceView.RENDERMODE_CONTINUOUSLY:
+                  case RENDERMODE_MERGED: // 360 recordings have no sensor timeline to merge
                      playbackThread = new ContinuousPlaybackThread360(context, framesFile, bufferSize, increment,
                                                                       orientationProviderType, fileFormat, bufferQueue,
                                                                       previewFrameRate, previewWidth, previewHeight, surface);
@@ -480,6 +526,10 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
                   default:
                      throw new RuntimeException("Invalid renderMode (" + renderMode + ")");
                }
+               ((PlaybackThread360) playbackThread).setPrefetch(prefetchLookahead, prefetchMemoryBudget);
+               ((PlaybackThread360) playbackThread).setFrameSegments(getMapInt(headers, "FrameSegments", -1));
+               ((PlaybackThread360) playbackThread).setSurfaceRenderer(getSurfaceRenderer());
+               ((PlaybackThread360) playbackThread).setFrameCallback(frameCallback, frameBufferCount());
                onSetCallback360((PlaybackThread360) playbackThread);
                break;
             case FREE:
@@ -498,9 +548,19 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
                                                                        previewWidth, previewHeight, context, surface,
                                                                        version, progress);
                      break;
+                  case RENDERMODE_MERGED:
+                     playbackThread = new MergedPlaybackThreadFree(framesFile, orientationFile, locationFile,
+                                                                   fileFormat, bufferSize, previewFrameRate,
+                                                                   isRepeat, bufferQueue, sensorManager,
+                                                                   previewWidth, previewHeight, context, surface,
+                                                                   version, progress);
+                     break;
                   default:
                      throw new RuntimeException("Invalid renderMode (" + renderMode + ")");
                }
+               ((PlaybackThreadFree) playbackThread).setSurfaceRenderer(getSurfaceRenderer());
+               ((PlaybackThreadFree) playbackThread).setPlaybackRate(playbackRate);
+               ((PlaybackThreadFree) playbackThread).setFrameCallback(frameCallback, frameBufferCount());
                onSetCallbackFree((PlaybackThreadFree) playbackThread);
          }
          if (bufferQueue != null)
@@ -623,7 +683,9 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
     * the callback is only called when the bearing changes. If updating a OpenGL texture to display the preview
     * when using  continuous rendering, if flickering is encountered it may be due to the frame rate being to
     * high. Consider setting the frame rate using methods in @link android.hardware.Camera#Parameters.
-    * @param renderMode GLSurfaceView.RENDERMODE_CONTINUOUSLY or GLSurfaceView.RENDERMODE_WHEN_DIRTY
+    * For free recordings RENDERMODE_MERGED plays back all streams from a single thread in recorded timestamp order;
+    * for 360 recordings it behaves as GLSurfaceView.RENDERMODE_CONTINUOUSLY.
+    * @param renderMode GLSurfaceView.RENDERMODE_CONTINUOUSLY, GLSurfaceView.RENDERMODE_WHEN_DIRTY or RENDERMODE_MERGED
     */
    public void setRenderMode(int renderMode)
    //---------------------------------------
@@ -632,15 +694,232 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
       {
          case GLSurfaceView.RENDERMODE_CONTINUOUSLY:
          case GLSurfaceView.RENDERMODE_WHEN_DIRTY:
+         case RENDERMODE_MERGED:
             this.renderMode = renderMode;
             break;
          default:
-            throw new RuntimeException("setRenderMode: renderMode must be GLSurfaceView.RENDERMODE_CONTINUOUSLY or GLSurfaceView.RENDERMODE_WHEN_DIRTY");
+            throw new RuntimeException("setRenderMode: renderMode must be GLSurfaceView.RENDERMODE_CONTINUOUSLY, GLSurfaceView.RENDERMODE_WHEN_DIRTY or RENDERMODE_MERGED");
       }
    }
 
    public int getRenderMode() { return renderMode; }
 
+   /**
+    * Repositions a previewing free mode recording so that frames, orientation, location and raw sensor playback
+    * all continue from the frame at or immediately before timestamp. A timestamp index of each recording file is
+    * built (and saved alongside the recording file) on the first seek.
+    * @param timestampNs Timestamp in nanoseconds relative to the start of the recording.
+    * @return true if the seek was requested, false if not previewing or the recording is not a free mode recording.
+    */
+   @Override
+   public boolean seekTo(long timestampNs)
+   //-------------------------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).seekTo(timestampNs);
+         return true;
+      }
+      return false;
+   }
+
+   protected ARFrameCallback frameCallback = null;
+
+   /**
+    * Sets a callback which receives preview frames as read-only direct ByteBuffers backed by pooled direct buffers
+    * or by the memory mapped frames file, avoiding the copy into a byte[] made for the preview callbacks. Frames must
+    * be released using ARFrame.release. When set the byte[] preview callback need not be set and is not called.
+    * Must be set before startPreview.
+    */
+   @Override public void setFrameCallback(ARFrameCallback callback) { frameCallback = callback; }
+
+   protected FrameFanOut frameFanOut = null;
+
+   /**
+    * Adds a frame consumer which receives every preview frame on its own thread. The first consumer added replaces
+    * any callback set by setFrameCallback with a FrameFanOut which shares each frame read between all consumers.
+    * Consumers should be added before startPreview as the number of pooled frame buffers is fixed when the preview
+    * starts.
+    * @param consumer The consumer. Must release every frame received.
+    * @param policy The behaviour when frames arrive faster than the consumer processes them.
+    * @param capacity The maximum number of frames queued for the consumer.
+    * @return The registered consumer which can be passed to removeFrameConsumer.
+    */
+   @Override
+   public FrameFanOut.Consumer addFrameConsumer(ARFrameCallback consumer, FrameFanOut.Policy policy, int capacity)
+   //-------------------------------------------------------------------------------------------------------------
+   {
+      if (frameFanOut == null)
+         frameFanOut = new FrameFanOut();
+      frameCallback = frameFanOut;
+      return frameFanOut.addConsumer(consumer, policy, capacity);
+   }
+
+   @Override
+   public boolean removeFrameConsumer(FrameFanOut.Consumer consumer)
+   //---------------------------------------------------------------
+   {
+      return (frameFanOut != null) && (frameFanOut.removeConsumer(consumer));
+   }
+
+   private int frameBufferCount()
+   //----------------------------
+   {
+      if ( (frameFanOut != null) && (frameCallback == frameFanOut) )
+         return frameFanOut.getBufferDemand();
+      return 0; // The playback thread default
+   }
+
+   protected float playbackRate = 1f;
+
+   /**
+    * Sets the playback rate for free mode recordings. The rate applies to the frame, orientation, location and raw
+    * sensor streams alike and may be changed while previewing.
+    * @param rate A multiple of the recorded rate from PlaybackClock.MIN_RATE (0.1) to PlaybackClock.MAX_RATE (8)
+    *             or PlaybackClock.UNTHROTTLED to play back as fast as the preview callback consumes frames.
+    *             In unthrottled mode RENDERMODE_MERGED gives a deterministic event order.
+    */
+   @Override
+   public void setPlaybackRate(float rate)
+   //-------------------------------------
+   {
+      playbackRate = PlaybackClock.checkRate(rate);
+      if (playbackThread instanceof PlaybackThreadFree)
+         ((PlaybackThreadFree) playbackThread).setPlaybackRate(playbackRate);
+   }
+
+   @Override public float getPlaybackRate() { return playbackRate; }
+
+   /**
+    * Pauses a previewing free mode recording.
+    * @return true if paused, false if not previewing or the recording is not a free mode recording.
+    */
+   @Override
+   public boolean pausePlayback()
+   //----------------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).pause();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Resumes a paused free mode recording.
+    * @return true if resumed, false if not previewing or the recording is not a free mode recording.
+    */
+   @Override
+   public boolean resumePlayback()
+   //-----------------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).resume();
+         return true;
+      }
+      return false;
+   }
+
+   @Override
+   public boolean isPlaybackPaused()
+   //-------------------------------
+   {
+      return (playbackThread instanceof PlaybackThreadFree) && (((PlaybackThreadFree) playbackThread).isPaused());
+   }
+
+   /**
+    * Pauses a free mode recording (if not already paused) and plays the next frame and the orientation, location
+    * and raw sensor events preceding it.
+    * @return true if stepped, false if not previewing or the recording is not a free mode recording.
+    */
+   @Override
+   public boolean stepForward()
+   //--------------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).stepForward();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Pauses a free mode recording (if not already paused) and steps all streams back to the frame preceding the
+    * last frame played.
+    * @return true if stepped, false if not previewing or the recording is not a free mode recording.
+    * @see #seekTo(long)
+    */
+   @Override
+   public boolean stepBack()
+   //-----------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).stepBack();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Repositions a previewing free mode recording to a fraction of its duration.
+    * @param fraction 0 for the start to 1 for the end of the recording.
+    * @return true if the seek was requested, false if not previewing or the recording is not a free mode recording.
+    * @see #seekTo(long)
+    */
+   @Override
+   public boolean seekToFraction(float fraction)
+   //-------------------------------------------
+   {
+      if ( (playbackThread instanceof PlaybackThreadFree) && (((Stoppable) playbackThread).isStarted()) )
+      {
+         ((PlaybackThreadFree) playbackThread).seekToFraction(fraction);
+         return true;
+      }
+      return false;
+   }
+
+   protected int prefetchLookahead = 0;
+   protected long prefetchMemoryBudget = 0;
+
+   /**
+    * Enables predictive frame prefetching for RecordingType.THREE60 playback. Frames in the direction the bearing
+    * is moving are loaded in the background into a bounded LRU cache. Takes effect on the next startPreview.
+    * @param lookahead The number of frames to prefetch ahead of the current bearing (0 to disable).
+    * @param memoryBudget The maximum memory in bytes to use for cached frames.
+    */
+   public void setPrefetch(int lookahead, long memoryBudget)
+   //-------------------------------------------------------
+   {
+      prefetchLookahead = lookahead;
+      prefetchMemoryBudget = memoryBudget;
+   }
+
+   /**
+    * @return The number of 360 frame reads satisfied by the prefetch cache.
+    */
+   public long getPrefetchHits()
+   //---------------------------
+   {
+      if (playbackThread instanceof PlaybackThread360)
+         return ((PlaybackThread360) playbackThread).getPrefetchHits();
+      return 0;
+   }
+
+   /**
+    * @return The number of 360 frame reads not satisfied by the prefetch cache.
+    */
+   public long getPrefetchMisses()
+   //-----------------------------
+   {
+      if (playbackThread instanceof PlaybackThread360)
+         return ((PlaybackThread360) playbackThread).getPrefetchMisses();
+      return 0;
+   }
+
    final static private int MAX_QUEUE_BUFFERS = 3;
    ArrayBlockingQueue<byte[]> bufferQueue = null;
    public void setBufferQueue(ArrayBlockingQueue<byte[]> bufferQueue) { this.bufferQueue = bufferQueue; }
@@ -682,6 +961,18 @@ abstract public class AbstractARCamera implements Reviewable, ARCameraInterface,
       try { return Float.parseFloat(s.trim()); } catch (NumberFormatException e) { return def; }
    }
 
+   /**
+    * Checks that a frames file, or the first segment of a segmented 360 frame set (see SegmentedFrameStore), is
+    * readable.
+    */
+   public static boolean isFramesReadable(File f, StringBuilder errbuf)
+   //------------------------------------------------------------------
+   {
+      if ( (f != null) && (SegmentedFrameStore.isSegmented(f)) )
+         return isFileReadable(SegmentedFrameStore.segmentFile(f, 0), errbuf);
+      return isFileReadable(f, errbuf);
+   }
+
    public static boolean isFileReadable(File f, StringBuilder errbuf)
    //----------------------------------------------------------------
    {
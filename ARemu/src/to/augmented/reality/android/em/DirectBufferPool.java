@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized direct ByteBuffers. Buffers are allocated on demand up to the maximum count,
+ * after which acquire waits for a buffer to be released.
+ */
+public class DirectBufferPool
+//===========================
+{
+   private final int bufferSize;
+   private final int maxBuffers;
+   private final ArrayBlockingQueue<ByteBuffer> available;
+   private final AtomicInteger allocated = new AtomicInteger(0);
+
+   public DirectBufferPool(int bufferSize, int maxBuffers)
+   //-----------------------------------------------------
+   {
+      if ( (bufferSize <= 0) || (maxBuffers <= 0) )
+         throw new IllegalArgumentException("Invalid pool size " + maxBuffers + " x " + bufferSize);
+      this.bufferSize = bufferSize;
+      this.maxBuffers = maxBuffers;
+      available = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+   }
+
+   public int getBufferSize() { return bufferSize; }
+
+   public int getMaxBuffers() { return maxBuffers; }
+
+   /** @return The number of buffers allocated so far. */
+   public int getAllocated() { return allocated.get(); }
+
+   /** @return The number of allocated buffers currently available for reuse. */
+   public int getAvailable() { return available.size(); }
+
+   /**
+    * Acquires a cleared buffer, allocating a new buffer if none is available and the maximum has not been reached.
+    * @return The buffer or null if none became available within the timeout.
+    */
+   public ByteBuffer acquire(long timeout, TimeUnit unit) throws InterruptedException
+   //--------------------------------------------------------------------------------
+   {
+      ByteBuffer buffer = available.poll();
+      if (buffer == null)
+      {
+         int n;
+         while ( (n = allocated.get()) < maxBuffers)
+         {
+            if (allocated.compareAndSet(n, n + 1))
+               return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+         }
+         buffer = available.poll(timeout, unit);
+         if (buffer == null)
+            return null;
+      }
+      buffer.clear();
+      return buffer;
+   }
+
+   /**
+    * Returns a buffer acquired from this pool.
+    */
+   public void release(ByteBuffer buffer)
+   //------------------------------------
+   {
+      if ( (buffer == null) || (! buffer.isDirect()) || (buffer.capacity() != bufferSize) )
+         throw new IllegalArgumentException("Buffer was not acquired from this pool");
+      buffer.clear();
+      available.offer(buffer);
+   }
+}
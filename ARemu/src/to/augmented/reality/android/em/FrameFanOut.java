@@ -0,0 +1,261 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes each frame from a single playback thread to several consumers. The fan-out is set as the ARFrameCallback
+ * of the playback thread (see AbstractARCamera.addFrameConsumer) and hands each consumer its own reference to the
+ * same pooled frame buffer (see ARFrame.retain), so the frame is read from the recording once and the buffer is
+ * returned to the pool when the last consumer releases it. Every consumer runs on its own thread with a bounded
+ * queue whose overflow behaviour is set by a Policy, so a slow consumer does not delay the others unless it uses
+ * Policy.BLOCK.
+ * Consumers must release every frame they receive.
+ */
+public class FrameFanOut implements ARFrameCallback
+//=================================================
+{
+   final static private String TAG = FrameFanOut.class.getSimpleName();
+   final static public int DEFAULT_CAPACITY = 2;
+
+   public enum Policy
+   {
+      /** Wait for space in the consumer queue, which throttles playback (and so all consumers) to this consumer. */
+      BLOCK,
+      /** Discard the oldest queued frame to make space for the new frame. */
+      DROP_OLDEST,
+      /** Keep only the most recent frame (a queue capacity of 1 with DROP_OLDEST). */
+      LATEST_ONLY
+   }
+
+   private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<>();
+
+   /**
+    * A registered consumer. Returned by addConsumer for use with removeConsumer and to obtain delivery statistics.
+    */
+   public class Consumer implements Runnable
+   //=======================================
+   {
+      private final ARFrameCallback callback;
+      private final Policy policy;
+      private final ArrayBlockingQueue<ARFrame> queue;
+      private final Thread thread;
+      volatile private boolean mustStop = false;
+      private final AtomicLong delivered = new AtomicLong(0), dropped = new AtomicLong(0);
+
+      Consumer(ARFrameCallback callback, Policy policy, int capacity, String name)
+      //-------------------------------------------------------------------------
+      {
+         this.callback = callback;
+         this.policy = policy;
+         queue = new ArrayBlockingQueue<>((policy == Policy.LATEST_ONLY) ? 1 : capacity);
+         thread = new Thread(this);
+         thread.setDaemon(true);
+         thread.setName(name);
+      }
+
+      public ARFrameCallback getCallback() { return callback; }
+
+      public Policy getPolicy() { return policy; }
+
+      public int getCapacity() { return queue.size() + queue.remainingCapacity(); }
+
+      /** @return The number of frames passed to the consumer callback. */
+      public long getDelivered() { return delivered.get(); }
+
+      /** @return The number of frames discarded because the consumer queue was full. */
+      public long getDropped() { return dropped.get(); }
+
+      void offer(ARFrame frame) throws InterruptedException
+      //---------------------------------------------------
+      {
+         switch (policy)
+         {
+            case BLOCK:
+               try
+               {
+                  while (! queue.offer(frame, 100, TimeUnit.MILLISECONDS))
+                  {
+                     if (mustStop)
+                     {
+                        frame.release();
+                        return;
+                     }
+                  }
+               }
+               catch (InterruptedException e)
+               {
+                  frame.release();
+                  throw e;
+               }
+               break;
+            case DROP_OLDEST:
+            case LATEST_ONLY:
+               while (! queue.offer(frame))
+               {
+                  ARFrame oldest = queue.poll();
+                  if (oldest != null)
+                  {
+                     oldest.release();
+                     dropped.incrementAndGet();
+                  }
+               }
+               break;
+         }
+         if (mustStop) // Removed while publishing
+            clear();
+      }
+
+      @Override
+      public void run()
+      //---------------
+      {
+         while (! mustStop)
+         {
+            ARFrame frame;
+            try
+            {
+               frame = queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+               break;
+            }
+            if (frame == null)
+               continue;
+            try
+            {
+               callback.onFrameAvailable(frame);
+               delivered.incrementAndGet();
+            }
+            catch (Exception e)
+            {
+               Log.e(TAG, thread.getName() + ": Frame consumer error", e);
+               frame.release();
+            }
+         }
+         clear();
+      }
+
+      void stop()
+      //---------
+      {
+         mustStop = true;
+         thread.interrupt();
+      }
+
+      private void clear()
+      //------------------
+      {
+         ARFrame frame;
+         while ( (frame = queue.poll()) != null)
+            frame.release();
+      }
+   }
+
+   /**
+    * Registers a consumer with a queue capacity of DEFAULT_CAPACITY.
+    */
+   public Consumer addConsumer(ARFrameCallback callback, Policy policy)
+   //------------------------------------------------------------------
+   {
+      return addConsumer(callback, policy, DEFAULT_CAPACITY);
+   }
+
+   /**
+    * Registers a consumer and starts its delivery thread.
+    * @param callback The consumer. Called on the consumer thread, must release each frame.
+    * @param policy The behaviour when the consumer queue is full.
+    * @param capacity The maximum number of frames queued for the consumer (ignored for LATEST_ONLY).
+    * @return The registered consumer.
+    */
+   public Consumer addConsumer(ARFrameCallback callback, Policy policy, int capacity)
+   //-------------------------------------------------------------------------------
+   {
+      if (callback == null)
+         throw new RuntimeException("Frame consumer cannot be null");
+      if (capacity <= 0)
+         throw new RuntimeException("Frame consumer queue capacity must be positive (" + capacity + ")");
+      Consumer consumer = new Consumer(callback, (policy == null) ? Policy.BLOCK : policy, capacity,
+                                       "FrameConsumer-" + consumers.size());
+      consumers.add(consumer);
+      consumer.thread.start();
+      return consumer;
+   }
+
+   /**
+    * Unregisters a consumer, stopping its thread and releasing any frames queued for it.
+    */
+   public boolean removeConsumer(Consumer consumer)
+   //----------------------------------------------
+   {
+      if (! consumers.remove(consumer))
+         return false;
+      consumer.stop();
+      return true;
+   }
+
+   public int size() { return consumers.size(); }
+
+   /**
+    * @return The number of pooled frame buffers required so that the playback thread does not wait for buffers
+    * when every consumer queue is full and every consumer is processing a frame.
+    */
+   public int getBufferDemand()
+   //--------------------------
+   {
+      int demand = 2; // The frame being read and the frame being published
+      for (Consumer consumer : consumers)
+         demand += consumer.getCapacity() + 1;
+      return demand;
+   }
+
+   @Override
+   public void onFrameAvailable(ARFrame frame)
+   //-----------------------------------------
+   {
+      try
+      {
+         for (Consumer consumer : consumers)
+            consumer.offer(frame.retain());
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         frame.release();
+      }
+   }
+
+   /**
+    * Stops and removes all consumers.
+    */
+   public void stop()
+   //----------------
+   {
+      for (Consumer consumer : consumers)
+         removeConsumer(consumer);
+   }
+}
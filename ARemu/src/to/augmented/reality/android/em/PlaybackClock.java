@@ -0,0 +1,418 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Master clock used to pace playback of the frame, orientation, location and raw sensor streams.
+ * Streams wait for recording timestamps (nanoseconds relative to the start of the recording) which the clock maps
+ * to deadlines, so all streams registered against the same clock stay in step without accumulating drift. Waiting
+ * parks the thread until shortly before the deadline and only spins (yielding) for the final spin window, so pacing
+ * a stream does not occupy a core.
+ * <p>
+ * The clock position (recording time) advances at a playback rate between MIN_RATE and MAX_RATE times real time,
+ * or as fast as the streams can be consumed when the rate is UNTHROTTLED. In unthrottled mode the master stream
+ * (normally the frames) is never delayed and the other streams are released up to the last master timestamp, so
+ * the streams stay in step. The clock can also be paused and stepped.
+ * </p>
+ * Each registered stream measures its jitter (how late it was released relative to its deadline).
+ */
+public class PlaybackClock
+//========================
+{
+   /** Default time before a deadline at which parking stops and spinning starts. */
+   final static public long DEFAULT_SPIN_WINDOW = 1000000L;
+
+   /** Interval pacing resynchronises to the current position instead of trying to catch up if it falls this far behind. */
+   final static public long MAX_LAG = 250000000L;
+
+   final static public float MIN_RATE = 0.1f, MAX_RATE = 8f;
+
+   /** Playback rate at which streams are played as fast as they are consumed. */
+   final static public float UNTHROTTLED = Float.POSITIVE_INFINITY;
+
+   /** Maximum single park so that stop requests are noticed promptly. */
+   final static private long MAX_PARK = 50000000L;
+
+   final static private long DUE = Long.MIN_VALUE, NEVER = Long.MAX_VALUE;
+
+   static public long now()
+   //----------------------
+   {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+         return SystemClock.elapsedRealtimeNanos();
+      else
+         return System.nanoTime();
+   }
+
+   /**
+    * @return rate clamped to the range MIN_RATE to MAX_RATE or UNTHROTTLED.
+    */
+   static public float checkRate(float rate)
+   //---------------------------------------
+   {
+      if ( (Float.isNaN(rate)) || (rate <= 0) )
+         throw new IllegalArgumentException("Invalid playback rate " + rate);
+      if (Float.isInfinite(rate))
+         return UNTHROTTLED;
+      return Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+   }
+
+   private final long spinWindow;
+   volatile private boolean isStarted = false, isStopped = false;
+   // position = anchorPosition + (now - anchorRealtime) * rate unless paused or unthrottled
+   private long anchorRealtime = 0, anchorPosition = 0;
+   volatile private float rate = 1;
+   private boolean isPaused = false;
+   volatile private long masterPosition = 0; // Last timestamp released on the master stream
+   private final List<Stream> streams = new CopyOnWriteArrayList<>();
+
+   public PlaybackClock() { this(DEFAULT_SPIN_WINDOW); }
+
+   /**
+    * @param spinWindow The time in nanoseconds before a deadline at which waiting threads stop parking and start
+    *                   spinning. Larger values improve accuracy at the cost of more CPU.
+    */
+   public PlaybackClock(long spinWindow) { this.spinWindow = Math.max(0, spinWindow); }
+
+   /**
+    * Starts the clock at recording timestamp 0. Has no effect if already started.
+    */
+   public synchronized void start() { if (! isStarted) startAt(0); }
+
+   /**
+    * Starts (or restarts) the clock so that its current position is the specified recording timestamp.
+    * @param position The recording timestamp in nanoseconds.
+    */
+   public synchronized void startAt(long position)
+   //---------------------------------------------
+   {
+      anchorRealtime = now();
+      anchorPosition = masterPosition = position;
+      isStarted = true;
+      isStopped = false;
+      wake();
+   }
+
+   public boolean isStarted() { return isStarted; }
+
+   /**
+    * Stops the clock. Threads waiting on a deadline return immediately with <i>false</i>.
+    */
+   public void stop() { isStopped = true; wake(); }
+
+   public boolean isStopped() { return isStopped; }
+
+   /**
+    * @return The current position of the clock in recording time (nanoseconds).
+    */
+   public synchronized long position() { return (isStarted) ? positionAt(now()) : 0; }
+
+   private long positionAt(long t)
+   //-----------------------------
+   {
+      if (isPaused)
+         return anchorPosition;
+      if (rate == UNTHROTTLED)
+         return Math.max(anchorPosition, masterPosition);
+      return anchorPosition + (long) ((t - anchorRealtime) * (double) rate);
+   }
+
+   private void rebase()
+   //-------------------
+   {
+      final long t = now();
+      anchorPosition = positionAt(t);
+      anchorRealtime = t;
+   }
+
+   /**
+    * Sets the playback rate.
+    * @param rate A multiple of real time between MIN_RATE and MAX_RATE (values outside the range are clamped) or
+    *             UNTHROTTLED.
+    */
+   public synchronized void setRate(float rate)
+   //------------------------------------------
+   {
+      rate = checkRate(rate);
+      if (isStarted)
+         rebase();
+      this.rate = rate;
+      wake();
+   }
+
+   public synchronized float getRate() { return rate; }
+
+   /**
+    * Pauses the clock at its current position. Streams wait until the clock is resumed or stepped.
+    */
+   public synchronized void pause()
+   //------------------------------
+   {
+      if (isPaused)
+         return;
+      if (isStarted)
+         rebase();
+      isPaused = true;
+   }
+
+   /**
+    * Resumes a paused clock from the position at which it was paused (or stepped to).
+    */
+   public synchronized void resume()
+   //-------------------------------
+   {
+      if (! isPaused)
+         return;
+      anchorRealtime = now();
+      isPaused = false;
+      wake();
+   }
+
+   public synchronized boolean isPaused() { return isPaused; }
+
+   /**
+    * Moves a paused clock forward to a position, releasing all stream timestamps up to and including it.
+    * Has no effect if the clock is not paused or position is not ahead of the current position.
+    */
+   public synchronized void stepTo(long position)
+   //--------------------------------------------
+   {
+      if ( (isPaused) && (position > anchorPosition) )
+      {
+         anchorPosition = position;
+         wake();
+      }
+   }
+
+   /**
+    * Moves a paused clock forward by interval nanoseconds of recording time.
+    */
+   public synchronized void step(long interval) { stepTo(anchorPosition + interval); }
+
+   /**
+    * @return The time (as returned by now()) at which timestamp is due for stream, DUE if it is due regardless of
+    * time or NEVER if it will only become due after a change of state (resume, step or a master stream release).
+    */
+   private synchronized long deadline(Stream stream, long timestamp)
+   //---------------------------------------------------------------
+   {
+      if (! isStarted)
+         start();
+      if (isPaused)
+         return (timestamp <= anchorPosition) ? DUE : NEVER;
+      if (rate == UNTHROTTLED)
+         return ( (stream.isMaster) || (timestamp <= Math.max(anchorPosition, masterPosition)) ) ? DUE : NEVER;
+      return anchorRealtime + (long) ((timestamp - anchorPosition) / (double) rate);
+   }
+
+   private void wake()
+   //-----------------
+   {
+      for (Stream stream : streams)
+      {
+         Thread t = stream.waiter;
+         if (t != null)
+            LockSupport.unpark(t);
+      }
+   }
+
+   /**
+    * Registers a stream against this clock.
+    * @param name A name for the stream used in jitter reports.
+    * @return The stream instance used by the stream thread to wait for deadlines.
+    */
+   public Stream register(String name) { return register(name, false); }
+
+   /**
+    * Registers the master stream (normally the frames stream) which paces the other streams in unthrottled mode.
+    */
+   public Stream registerMaster(String name) { return register(name, true); }
+
+   private Stream register(String name, boolean isMaster)
+   //----------------------------------------------------
+   {
+      Stream stream = new Stream(name, isMaster);
+      streams.add(stream);
+      return stream;
+   }
+
+   public List<Stream> getStreams() { return streams; }
+
+   /**
+    * @return A human readable summary of the measured jitter of all registered streams.
+    */
+   public String jitterReport()
+   //--------------------------
+   {
+      StringBuilder sb = new StringBuilder();
+      for (Stream stream : streams)
+         sb.append(stream).append('\n');
+      return sb.toString();
+   }
+
+   public class Stream
+   //=================
+   {
+      private final String name;
+      public String getName() { return name; }
+
+      private final boolean isMaster;
+      volatile private boolean isCancelled = false;
+      volatile private Thread waiter = null;
+      private long lastTimestamp = 0;
+      private boolean hasLast = false;
+
+      volatile private long count = 0, totalJitter = 0, maxJitter = 0;
+
+      Stream(String name, boolean isMaster) { this.name = name; this.isMaster = isMaster; }
+
+      /**
+       * Waits until a recording timestamp is due.
+       * @param timestamp The recording timestamp in nanoseconds.
+       * @return <i>true</i> if the deadline was reached, <i>false</i> if the wait was cancelled, the clock was
+       * stopped or the thread was interrupted.
+       */
+      public boolean awaitTimestamp(long timestamp)
+      //-------------------------------------------
+      {
+         waiter = Thread.currentThread();
+         try
+         {
+            while (true)
+            {
+               if ( (isCancelled) || (isStopped) )
+                  return false;
+               final long deadline = deadline(this, timestamp);
+               if (deadline == DUE)
+               {
+                  released(timestamp, -1);
+                  return true;
+               }
+               final long now = now();
+               long remaining = (deadline == NEVER) ? MAX_PARK + spinWindow : deadline - now;
+               if (remaining <= 0)
+               {
+                  released(timestamp, -remaining);
+                  return true;
+               }
+               if (remaining > spinWindow)
+                  LockSupport.parkNanos(Math.min(remaining - spinWindow, MAX_PARK));
+               else
+                  Thread.yield();
+               if (Thread.currentThread().isInterrupted())
+                  return false;
+            }
+         }
+         finally
+         {
+            waiter = null;
+         }
+      }
+
+      private void released(long timestamp, long jitter)
+      //-------------------------------------------------
+      {
+         lastTimestamp = timestamp;
+         hasLast = true;
+         if (isMaster)
+         {
+            if (timestamp > masterPosition)
+               masterPosition = timestamp;
+            if (rate == UNTHROTTLED)
+               wake();
+         }
+         if (jitter >= 0)
+         {
+            count++;
+            totalJitter += jitter;
+            if (jitter > maxJitter)
+               maxJitter = jitter;
+         }
+      }
+
+      /**
+       * Waits for an interval (in recording time) after the previous timestamp of this stream. Timestamps are
+       * accumulated from the previous timestamp rather than from the time the wait was called so processing time
+       * does not cause drift. If the stream has fallen more than MAX_LAG behind it is resynchronised to the current
+       * clock position.
+       * @param interval The interval in nanoseconds.
+       * @return <i>true</i> if the deadline was reached, <i>false</i> if the wait was cancelled, the clock was
+       * stopped or the thread was interrupted.
+       */
+      public boolean awaitInterval(long interval)
+      //-----------------------------------------
+      {
+         final long position = position();
+         long timestamp;
+         if (! hasLast)
+            timestamp = position + interval;
+         else
+         {
+            timestamp = lastTimestamp + interval;
+            if ((position - timestamp) > MAX_LAG)
+               timestamp = position;
+         }
+         return awaitTimestamp(timestamp);
+      }
+
+      /**
+       * Resets interval pacing so that the next awaitInterval is relative to the current clock position.
+       */
+      public void resync() { hasLast = false; }
+
+      /**
+       * Cancels any current and future waits on this stream.
+       */
+      public void cancel()
+      //------------------
+      {
+         isCancelled = true;
+         Thread t = waiter;
+         if (t != null)
+            LockSupport.unpark(t);
+      }
+
+      public boolean isCancelled() { return isCancelled; }
+
+      /** @return The number of deadlines waited for (excluding paused, stepped or unthrottled releases). */
+      public long getCount() { return count; }
+
+      /** @return The mean amount in nanoseconds by which deadlines were overshot. */
+      public long getMeanJitter() { return (count == 0) ? 0 : totalJitter / count; }
+
+      /** @return The maximum amount in nanoseconds by which a deadline was overshot. */
+      public long getMaxJitter() { return maxJitter; }
+
+      public void resetJitter() { count = totalJitter = maxJitter = 0; }
+
+      @Override
+      public String toString()
+      //----------------------
+      {
+         return String.format(Locale.US, "%s: %d deadlines, mean jitter %.3fms, max jitter %.3fms", name, count,
+                              getMeanJitter() / 1000000.0, maxJitter / 1000000.0);
+      }
+   }
+}
@@ -20,7 +20,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 
-public class QueuedRawSensorPlaybackThread implements Runnable, Latcheable
+public class QueuedRawSensorPlaybackThread implements Runnable, Latcheable, Clockable, Seekable
 //=====================================================================
 {
    final static private String TAG = QueuedRawSensorPlaybackThread.class.getSimpleName();
@@ -36,6 +36,12 @@ public class QueuedRawSensorPlaybackThread implements Runnable, Latcheable
    private CountDownLatch startLatch = null;
    @Override public void setLatch(CountDownLatch latch) { startLatch = latch; }
 
+   private PlaybackClock clock = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
+
    private final ConcurrentLinkedQueue<Long> timestampQueue;
 
    public QueuedRawSensorPlaybackThread(File sensorFile, Map<Integer, Sensor> sensors,
@@ -81,18 +87,25 @@ public class QueuedRawSensorPlaybackThread implements Runnable, Latcheable
       Long nextTimestamp = -1L;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sensorFile), 32768));
-
-         // skip header
-         int cSensors = dis.readInt();
-         for (int i = 0; i < cSensors; i++)
-            dis.readInt();
-
-         long startTime, processStart, timestamp = 0, lastTimestamp = 0;
-         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-            processStart = startTime = SystemClock.elapsedRealtimeNanos();
-         else
-            processStart = startTime = System.nanoTime();
+         FileInputStream fis = new FileInputStream(sensorFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 32768));
+
+         if (startOffset <= 0)
+         {  // skip header
+            int cSensors = dis.readInt();
+            for (int i = 0; i < cSensors; i++)
+               dis.readInt();
+         }
+
+         long timestamp = 0, lastTimestamp = 0;
+         if (clock == null)
+         {
+            clock = new PlaybackClock();
+            clock.start();
+         }
+         final PlaybackClock.Stream pacer = clock.register("RawSensor");
          int type = -1, len;
          Constructor<SensorEvent> constructor = SensorEvent.class.getDeclaredConstructor(Integer.TYPE);
          constructor.setAccessible(true);
@@ -120,38 +133,17 @@ public class QueuedRawSensorPlaybackThread implements Runnable, Latcheable
             if (nextTimestamp == null)
             {
                Thread.sleep(10);
+               pacer.resync();
                continue;
             }
             while ((timestamp < nextTimestamp) && (!isStop))
             {
-               long timediff;
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L);
-               else
-                  timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);
-               long now, then;
-               if ((timediff > 0) && (!isStop))
+               if (! pacer.awaitInterval(timestamp - lastTimestamp))
                {
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-                  then = now + timediff;
-                  while ((then > now) && (!isStop))
-                  {
-                     Thread.yield();
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        now = SystemClock.elapsedRealtimeNanos();
-                     else
-                        now = System.nanoTime();
-                  }
+                  isStop = true;
+                  break;
                }
 
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  processStart = SystemClock.elapsedRealtimeNanos();
-               else
-                  processStart = System.nanoTime();
-
                for (Pair<Integer, SensorEventListener> pp : observers)
                {
                   if (pp.first == type)
@@ -19,7 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
-public class RawSensorPlaybackThread implements Runnable, Latcheable
+public class RawSensorPlaybackThread implements Runnable, Latcheable, Clockable, Seekable
 //===============================================================
 {
    final static private String TAG = RawSensorPlaybackThread.class.getSimpleName();
@@ -35,6 +35,12 @@ public class RawSensorPlaybackThread implements Runnable, Latcheable
    private CountDownLatch startLatch = null;
    @Override public void setLatch(CountDownLatch latch) { startLatch = latch; }
 
+   private PlaybackClock clock = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
+
    public RawSensorPlaybackThread(File sensorFile, Map<Integer, Sensor> sensors,
                                   List<Pair<Integer, SensorEventListener>> observers)
    //------------------------------------------------------------------------------
@@ -73,18 +79,25 @@ public class RawSensorPlaybackThread implements Runnable, Latcheable
       DataInputStream dis = null;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sensorFile), 32768));
-
-         // skip header
-         int cSensors = dis.readInt();
-         for (int i = 0; i < cSensors; i++)
-            dis.readInt();
-
-         long startTime, processStart, timestamp = 0, lastTimestamp = 0;
-         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-            processStart = startTime = SystemClock.elapsedRealtimeNanos();
-         else
-            processStart = startTime = System.nanoTime();
+         FileInputStream fis = new FileInputStream(sensorFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 32768));
+
+         if (startOffset <= 0)
+         {  // skip header
+            int cSensors = dis.readInt();
+            for (int i = 0; i < cSensors; i++)
+               dis.readInt();
+         }
+
+         long timestamp = 0;
+         if (clock == null)
+         {
+            clock = new PlaybackClock();
+            clock.start();
+         }
+         final PlaybackClock.Stream pacer = clock.register("RawSensor");
          int type = -1, len;
          Constructor<SensorEvent> constructor = SensorEvent.class.getDeclaredConstructor(Integer.TYPE);
          constructor.setAccessible(true);
@@ -94,7 +107,7 @@ public class RawSensorPlaybackThread implements Runnable, Latcheable
          {
             type = dis.readInt();
             //len = dis.readInt();
-            lastTimestamp = timestamp = dis.readLong();
+            timestamp = dis.readLong();
             values[0] = dis.readFloat();
             values[1] = dis.readFloat();
             values[2] = dis.readFloat();
@@ -108,36 +121,12 @@ public class RawSensorPlaybackThread implements Runnable, Latcheable
          }
          while (!isStop)
          {
-            long timediff;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               timediff =
-                     (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-            else
-               timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-            long now, then;
-            if ((timediff > 0) && (!isStop))
+            if (! pacer.awaitTimestamp(timestamp))
             {
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  now = SystemClock.elapsedRealtimeNanos();
-               else
-                  now = System.nanoTime();
-               then = now + timediff;
-               while ((then > now) && (!isStop))
-               {
-                  //                     try { Thread.sleep(0, (int) timediff/4); } catch (InterruptedException _e) { break; }
-                  Thread.yield();
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-               }
+               isStop = true;
+               break;
             }
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               processStart = SystemClock.elapsedRealtimeNanos();
-            else
-               processStart = System.nanoTime();
-
             for (Pair<Integer, SensorEventListener> pp : observers)
             {
                if (pp.first == type)
@@ -151,7 +140,6 @@ public class RawSensorPlaybackThread implements Runnable, Latcheable
             {
                type = dis.readInt();
                //len = dis.readInt();
-               lastTimestamp = timestamp;
                timestamp = dis.readLong();
                values[0] = dis.readFloat();
                values[1] = dis.readFloat();
@@ -0,0 +1,30 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+/**
+ * Implemented by playback threads which can start playing from a position within their recording file other than
+ * the start (see StreamIndex).
+ */
+public interface Seekable
+//=======================
+{
+   /**
+    * @param offset The file offset of the first record to play. 0 plays from the start of the file.
+    */
+   void setStartOffset(long offset);
+}
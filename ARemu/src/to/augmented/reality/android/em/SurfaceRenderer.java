@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.Type;
+import android.util.Log;
+import android.view.Surface;
+import to.augmented.reality.android.em.rs.ScriptC_rgba2argb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws RGBA preview frames to a Surface. The RenderScript allocations and script, the ARGB conversion buffer and
+ * the Bitmap are created once for a given preview size and reused for every frame, so drawing a frame does not
+ * allocate. Shared by the 360 and free playback threads.
+ */
+public class SurfaceRenderer
+//==========================
+{
+   final static private String TAG = SurfaceRenderer.class.getSimpleName();
+
+   private final int width, height;
+   private final int[] ARGB;
+   private Bitmap bitmap;
+   private RenderScript renderscript = null;
+   private Allocation aIn = null, aOut = null;
+   private ScriptC_rgba2argb rgba2argb = null;
+   private boolean isRenderscript = false;
+   private byte[] staging = null; // Allocation input for ByteBuffer frames
+
+   public SurfaceRenderer(Context context, int width, int height)
+   //------------------------------------------------------------
+   {
+      this.width = width;
+      this.height = height;
+      ARGB = new int[width*height];
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      if (context != null)
+      {
+         try
+         {
+            renderscript = RenderScript.create(context);
+            Type.Builder rgbaType = new Type.Builder(renderscript, Element.RGBA_8888(renderscript)).setX(width).
+                  setY(height).setMipmaps(false);
+            aIn = Allocation.createTyped(renderscript, rgbaType.create(), Allocation.USAGE_SCRIPT);
+            Type.Builder argbType = new Type.Builder(renderscript, Element.U32(renderscript)).setX(width).
+                  setY(height).setMipmaps(false);
+            aOut = Allocation.createTyped(renderscript, argbType.create(), Allocation.USAGE_SCRIPT);
+            rgba2argb = new ScriptC_rgba2argb(renderscript);
+            rgba2argb.set_in(aIn);
+            isRenderscript = true;
+         }
+         catch (Exception e)
+         {
+            Log.e(TAG, "Renderscript initialisation error. Using Java RGBA to ARGB conversion", e);
+            releaseRenderscript();
+         }
+      }
+   }
+
+   public int getWidth() { return width; }
+
+   public int getHeight() { return height; }
+
+   public boolean isSize(int width, int height) { return (this.width == width) && (this.height == height); }
+
+   /**
+    * Converts an RGBA frame to ARGB and draws it on the surface.
+    * @param buffer The RGBA frame (width*height*4 bytes).
+    * @param surface The surface to draw on.
+    */
+   public synchronized void draw(final byte[] buffer, Surface surface)
+   //-----------------------------------------------------------------
+   {
+      if (bitmap == null)
+         return;
+      if (isRenderscript)
+      {
+         try
+         {
+            aIn.copyFrom(buffer);
+            rgba2argb.forEach_rgba2argb(aOut);
+            aOut.copyTo(ARGB);
+         }
+         catch (Exception e)
+         {
+            Log.e(TAG, "drawToSurface: Renderscript RGBA to ARGB error", e);
+            releaseRenderscript();
+            toARGB(buffer);
+         }
+      }
+      else
+         toARGB(buffer);
+      bitmap.setPixels(ARGB, 0, width, 0, 0, width, height);
+      Canvas canvas = surface.lockCanvas(null);
+      canvas.drawBitmap(bitmap, 0, 0, null);
+      surface.unlockCanvasAndPost(canvas);
+   }
+
+   /**
+    * Converts an RGBA frame held in a (possibly direct or read-only) ByteBuffer to ARGB and draws it on the surface.
+    * @param buffer The RGBA frame from position to limit. The buffer position is not changed.
+    * @param surface The surface to draw on.
+    */
+   public synchronized void draw(final ByteBuffer buffer, Surface surface)
+   //---------------------------------------------------------------------
+   {
+      if (bitmap == null)
+         return;
+      if (staging == null)
+         staging = new byte[ARGB.length*4];
+      ByteBuffer src = buffer.duplicate();
+      src.get(staging, 0, Math.min(src.remaining(), staging.length));
+      draw(staging, surface);
+   }
+
+   private void toARGB(final byte[] buffer)
+   //--------------------------------------
+   {
+      final int len = Math.min(buffer.length, ARGB.length*4);
+      int i=0, j = 0;
+      while (i<len)
+      {
+         int r = buffer[i++] & 0xFF;
+         int g = buffer[i++] & 0xFF;
+         int b = buffer[i++] & 0xFF;
+         int a = buffer[i++] & 0xFF;
+         ARGB[j++] = Color.argb(a, r, g, b);
+      }
+   }
+
+   private void releaseRenderscript()
+   //--------------------------------
+   {
+      isRenderscript = false;
+      if (aIn != null)
+         try { aIn.destroy(); } catch (Exception _e) {}
+      if (aOut != null)
+         try { aOut.destroy(); } catch (Exception _e) {}
+      if (rgba2argb != null)
+         try { rgba2argb.destroy(); } catch (Exception _e) {}
+      if (renderscript != null)
+         try { renderscript.destroy(); } catch (Exception _e) {}
+      aIn = aOut = null;
+      rgba2argb = null;
+      renderscript = null;
+   }
+
+   /**
+    * Releases the RenderScript resources and Bitmap. The renderer cannot be used after being released.
+    */
+   public synchronized void release()
+   //--------------------------------
+   {
+      releaseRenderscript();
+      if (bitmap != null)
+         bitmap.recycle();
+      bitmap = null;
+   }
+
+   /**
+    * Draws the frames of one playback thread. Uses the renderer shared by the camera when one has been set,
+    * otherwise a private renderer which is created on the first frame and kept until release().
+    */
+   public static class Drawer
+   //========================
+   {
+      private final Context context;
+      private final Surface surface;
+      private final int width, height;
+      private volatile SurfaceRenderer shared = null;
+      private SurfaceRenderer fallback = null;
+
+      /**
+       * @param surface The preview surface. May be <i>null</i> in which case nothing is drawn.
+       */
+      public Drawer(Context context, Surface surface, int width, int height)
+      //--------------------------------------------------------------------
+      {
+         this.context = context;
+         this.surface = surface;
+         this.width = width;
+         this.height = height;
+      }
+
+      public boolean hasSurface() { return (surface != null); }
+
+      public void setRenderer(SurfaceRenderer renderer) { shared = renderer; }
+
+      public void draw(final byte[] buffer)
+      //-----------------------------------
+      {
+         SurfaceRenderer renderer = renderer();
+         if (renderer != null)
+            renderer.draw(buffer, surface);
+      }
+
+      public void draw(final ByteBuffer buffer)
+      //---------------------------------------
+      {
+         SurfaceRenderer renderer = renderer();
+         if (renderer != null)
+            renderer.draw(buffer, surface);
+      }
+
+      private SurfaceRenderer renderer()
+      //--------------------------------
+      {
+         if (surface == null)
+            return null;
+         SurfaceRenderer renderer = shared;
+         if (renderer != null)
+            return renderer;
+         synchronized (this)
+         {
+            if (fallback == null)
+               fallback = new SurfaceRenderer(context, width, height);
+            return fallback;
+         }
+      }
+
+      /**
+       * Releases the private renderer, if one was created. The shared renderer belongs to the camera and is not
+       * released.
+       */
+      public synchronized void release()
+      //--------------------------------
+      {
+         if (fallback != null)
+            fallback.release();
+         fallback = null;
+      }
+   }
+}
@@ -17,23 +17,22 @@
 package to.augmented.reality.android.em.free;
 
 import android.content.Context;
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
+import to.augmented.reality.android.em.ARFrame;
 import to.augmented.reality.android.em.ARSensorManager;
 import to.augmented.reality.android.em.AbstractARCamera;
 import to.augmented.reality.android.em.FreePreviewListenable;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
 import to.augmented.reality.android.em.QueuedRawSensorPlaybackThread;
 import to.augmented.reality.android.em.RawSensorPlaybackThread;
 import to.augmented.reality.android.em.Stoppable;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -84,6 +83,7 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
             fps /= 1000; // In case legacy camera API value wasn't scaled
          fpsInterval = 1000000000L / fps;
       }
+      frameInterval = fpsInterval;
       isStarted = true;
       mustStop = false;
       boolean again;
@@ -93,6 +93,7 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
          {
             try { stopThreads((Stoppable) orientationThread, (Stoppable) locationThread); } catch (InterruptedException _e) { break; }
          }
+         SeekPosition position = takeSeekPosition();
          int tc = 0;
          if ( (orientationFile != null) && (orientationFile.length() > 0) && (orientationListener != null) )
          {
@@ -131,6 +132,13 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
             tc++;
          }
          CountDownLatch startLatch = new CountDownLatch(tc + 1);
+         final PlaybackClock clock = new PlaybackClock();
+         this.clock = clock;
+         for (Runnable r : new Runnable[] { orientationThread, locationThread, sensorThread })
+            if (r instanceof Clockable)
+               ((Clockable) r).setClock(clock);
+         final PlaybackClock.Stream pacer = clock.registerMaster("Frames");
+         applySeekPosition(position, clock, orientationThread, locationThread, sensorThread);
          createThreadPool();
          if (orientationThread != null)
          {
@@ -153,23 +161,21 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
          Thread.yield();
          startLatch.countDown();
          try { startLatch.await(); } catch (InterruptedException e) { mustStop = true; isStarted = false; return; }
-         long startTime, processStart, timestamp = 0, lastTimestamp = 0;
-         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-            processStart = startTime = SystemClock.elapsedRealtimeNanos();
-         else
-            processStart = startTime = System.nanoTime();
+         long timestamp = 0;
          int readlen, iter = 0;
          DataInputStream framesStream = null;
          try
          {
-            framesStream = new DataInputStream(new BufferedInputStream(new FileInputStream(framesFile), 65535));
+            framesStream = openFrames(position);
             if (progress != null)
                progress.onStarted();
-            long frameStartTime = startTime, frameEndTime, size;
+            long size;
             byte[] buffer = null;
+            ARFrame frame = null;
             try
             {
-               lastTimestamp = timestamp = framesStream.readLong();
+               timestamp = framesStream.readLong();
+               nextFrameTimestamp = timestamp;
                if (fps > 0)
                {
                   if (orientationTimestampQueue != null)
@@ -180,13 +186,15 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
                      sensorTimestampQueue.offer(timestamp);
                }
                size = framesStream.readLong();
-               if (size > 0)
+               if ( (size > 0) && (frameCallback != null) )
+                  frame = readDirectFrame(framesStream, timestamp, size);
+               else if (size > 0)
                {
                   buffer = bufferQueue.poll(500, TimeUnit.MILLISECONDS);
                   if (buffer != null)
                   {
-                     readlen = readBuffer(buffer, framesStream, size); //framesStream.read(buffer)
-                     if (readlen != size)
+                     readlen = readFrame(buffer, framesStream, size); //framesStream.read(buffer)
+                     if ( (FrameCodec.codec(size) == FrameCodec.RAW) && (readlen != size) )
                         Log.w(TAG, "Short read " + readlen);
                   }
                   else
@@ -197,49 +205,21 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
             {
                mustStop = true;
             }
-            if (fps > 0)
-            {
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  frameStartTime = SystemClock.elapsedRealtimeNanos();
-               else
-                  frameStartTime = System.nanoTime();
-            }
-            while (! mustStop)
+            while ( (! mustStop) && (seekRequest.get() < 0) )
             {
-               if (fps <= 0)
-               {
-                  long timediff;
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-                  else
-                     timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-                  Log.i(TAG, "timediff = " + timediff);
-                  long now, then;
-                  if ( (timediff > 0) && (! mustStop) )
-                  {
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        now = SystemClock.elapsedRealtimeNanos();
-                     else
-                        now = System.nanoTime();
-                     then = now + timediff;
-                     while ( (then > now) && (! mustStop) )
-                     {
-                        Thread.yield();
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                           now = SystemClock.elapsedRealtimeNanos();
-                        else
-                           now = System.nanoTime();
-                     }
-                  }
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     processStart = SystemClock.elapsedRealtimeNanos();
-                  else
-                     processStart = System.nanoTime();
-               }
+               if ( (fps <= 0) && (! pacer.awaitTimestamp(timestamp)) )
+                  break;
 
                try
                {
-                  if (buffer != null)
+                  final boolean isFrame = (buffer != null) || (frame != null);
+                  if (frame != null)
+                  {
+                     deliverFrame(frame);
+                     frame = null;
+                     lastFrameTimestamp = timestamp;
+                  }
+                  else if (buffer != null)
                   {
                      if (cameraListener != null)
                      {
@@ -249,45 +229,24 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
                      }
                      else
                         camera2Listener.onPreviewFrame(buffer);
+                     lastFrameTimestamp = timestamp;
                      if ( (! isUseBuffer) && (bufferQueue.size() < PREALLOCATED_BUFFERS) )
                         bufferQueue.add(buffer);
                   }
 
                   if (fps > 0)
                   {
-                     if (buffer != null)
+                     if (isFrame)
                      {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                           frameEndTime = SystemClock.elapsedRealtimeNanos();
-                        else
-                           frameEndTime = System.nanoTime();
-                        long dt = frameEndTime - frameStartTime;
-                        while (dt < fpsInterval)
-                        {
-                           Thread.yield();
-                           if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                              frameEndTime = SystemClock.elapsedRealtimeNanos();
-                           else
-                              frameEndTime = System.nanoTime();
-                           dt = frameEndTime - frameStartTime;
-                        }
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                           frameStartTime = SystemClock.elapsedRealtimeNanos();
-                        else
-                           frameStartTime = System.nanoTime();
+                        if (! pacer.awaitInterval(fpsInterval))
+                           break;
                      }
                      else
-                     {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                           frameStartTime = SystemClock.elapsedRealtimeNanos();
-                        else
-                           frameStartTime = System.nanoTime();
-                     }
+                        pacer.resync();
                   }
-                  else
-                     lastTimestamp = timestamp;
 
                   timestamp = framesStream.readLong();
+                  nextFrameTimestamp = timestamp;
                   size = framesStream.readLong();
                   if (fps > 0)
                   {
@@ -308,11 +267,16 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
                      if (size == 0)
                         continue;
                   }
+                  if (frameCallback != null)
+                  {
+                     frame = readDirectFrame(framesStream, timestamp, size);
+                     continue;
+                  }
                   buffer = bufferQueue.poll(500, TimeUnit.MILLISECONDS);
                   if (buffer != null)
                   {
-                     readlen = readBuffer(buffer, framesStream, size); //framesStream.read(buffer)
-                     if (readlen != size)
+                     readlen = readFrame(buffer, framesStream, size); //framesStream.read(buffer)
+                     if ( (FrameCodec.codec(size) == FrameCodec.RAW) && (readlen != size) )
                         Log.w(TAG, "Short read " + readlen);
                   }
                   else
@@ -332,6 +296,8 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
                   break;
                }
             }
+            if (frame != null)
+               frame.release();
          }
          catch (IOException e)
          {
@@ -351,6 +317,13 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
             if (framesStream != null)
                try { framesStream.close(); } catch (Exception _e) {}
          }
+         clock.stop();
+         Log.i(TAG, "Playback jitter: " + clock.jitterReport());
+         if ( (! mustStop) && (seekRequest.get() >= 0) )
+         {
+            again = true;
+            continue;
+         }
          iter++;
          if (progress != null)
             again = progress.onComplete(iter);
@@ -359,6 +332,7 @@ public class ContinuousPlaybackThreadFree extends PlaybackThreadFree implements
       } while ( (! mustStop) && (again) );
 
       try { stopThreads((Stoppable) orientationThread, (Stoppable) locationThread); } catch (InterruptedException _e) {}
+      surfaceDrawer.release();
       isStarted = false;
    }
 }
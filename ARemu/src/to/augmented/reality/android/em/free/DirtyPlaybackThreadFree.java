@@ -17,22 +17,21 @@
 package to.augmented.reality.android.em.free;
 
 import android.content.Context;
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
+import to.augmented.reality.android.em.ARFrame;
 import to.augmented.reality.android.em.ARSensorManager;
 import to.augmented.reality.android.em.AbstractARCamera;
 import to.augmented.reality.android.em.FreePreviewListenable;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
 import to.augmented.reality.android.em.QueuedRawSensorPlaybackThread;
 import to.augmented.reality.android.em.Stoppable;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -74,6 +73,7 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
       else if (fps > 1000)
          fps /= 1000;
       fpsInterval = 1000000000L / fps;
+      frameInterval = fpsInterval;
       ConcurrentLinkedQueue<Long> orientationTimestampQueue = null, locationTimestampQueue = null, sensorTimestampQueue = null;
       isStarted = true;
       mustStop = false;
@@ -88,6 +88,7 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
          {
             try { stopThreads(orientationThread, locationThread); } catch (InterruptedException _e) { break; }
          }
+         SeekPosition position = takeSeekPosition();
          int tc = 0;
          if ( (orientationFile != null) && (orientationFile.length() > 0) && (orientationListener != null) )
          {
@@ -110,6 +111,13 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
             tc++;
          }
          CountDownLatch startLatch = new CountDownLatch(tc + 1);
+         final PlaybackClock clock = new PlaybackClock();
+         this.clock = clock;
+         for (Runnable r : new Runnable[] { orientationThread, locationThread, sensorThread })
+            if (r instanceof Clockable)
+               ((Clockable) r).setClock(clock);
+         final PlaybackClock.Stream pacer = clock.registerMaster("Frames");
+         applySeekPosition(position, clock, orientationThread, locationThread, sensorThread);
          createThreadPool();
          if (orientationThread != null)
          {
@@ -132,26 +140,19 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
          Thread.yield();
          startLatch.countDown();
          try { startLatch.await(); } catch (InterruptedException e) { mustStop = true; isStarted = false; return; }
-         long startTime;
-         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-            startTime = SystemClock.elapsedRealtimeNanos();
-         else
-            startTime = System.nanoTime();
          DataInputStream framesStream = null;
          try
          {
-            framesStream = new DataInputStream(new BufferedInputStream(new FileInputStream(framesFile), 65535));
+            framesStream = openFrames(position);
             if (progress != null)
                progress.onStarted();
-            long frameStartTime, frameEndTime, frameTimestamp, frameSize;
+            long frameTimestamp = -1, frameSize;
             byte[] buffer = null;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               frameStartTime = SystemClock.elapsedRealtimeNanos();
-            else
-               frameStartTime = System.nanoTime();
+            ARFrame frame = null;
             try
             {
                frameTimestamp = framesStream.readLong();
+               nextFrameTimestamp = frameTimestamp;
                if (orientationTimestampQueue != null)
                   orientationTimestampQueue.offer(frameTimestamp);
                if (locationTimestampQueue != null)
@@ -159,13 +160,15 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
                if (sensorTimestampQueue != null)
                   sensorTimestampQueue.offer(frameTimestamp);
                frameSize = framesStream.readLong();
-               if (frameSize > 0)
+               if ( (frameSize > 0) && (frameCallback != null) )
+                  frame = readDirectFrame(framesStream, frameTimestamp, frameSize);
+               else if (frameSize > 0)
                {
                   buffer = bufferQueue.poll(500, TimeUnit.MILLISECONDS);
                   if (buffer != null)
                   {
-                     readlen = readBuffer(buffer, framesStream, frameSize); //framesStream.read(buffer)
-                     if (readlen != frameSize)
+                     readlen = readFrame(buffer, framesStream, frameSize); //framesStream.read(buffer)
+                     if ( (FrameCodec.codec(frameSize) == FrameCodec.RAW) && (readlen != frameSize) )
                         Log.w(TAG, "Short read " + readlen);
                   }
                   else
@@ -181,13 +184,18 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
 //            long now = System.currentTimeMillis();
 //            long then =  now + 1000L;
 
-            while (! mustStop)
+            while ( (! mustStop) && (seekRequest.get() < 0) )
             {
                try
                {
-                  if (buffer != null)
+                  if ( (buffer != null) || (frame != null) )
                   {
-                     if (cameraListener != null)
+                     if (frame != null)
+                     {
+                        deliverFrame(frame);
+                        frame = null;
+                     }
+                     else if (cameraListener != null)
                      {
                         cameraListener.onPreviewFrame(buffer, null);
                         if (surface != null)
@@ -195,7 +203,8 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
                      }
                      else
                         camera2Listener.onPreviewFrame(buffer);
-                     if ( (!isUseBuffer) && (bufferQueue.size() < PREALLOCATED_BUFFERS) )
+                     lastFrameTimestamp = frameTimestamp;
+                     if ( (buffer != null) && (! isUseBuffer) && (bufferQueue.size() < PREALLOCATED_BUFFERS) )
                         bufferQueue.add(buffer);
 
 //                     framecount++;
@@ -207,31 +216,14 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
 //                        then = System.currentTimeMillis() + 1000L;
 //                     }
 
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        frameEndTime = SystemClock.elapsedRealtimeNanos();
-                     else
-                        frameEndTime = System.nanoTime();
-                     long dt = frameEndTime - frameStartTime;
-                     while (dt < fpsInterval)
-                     {
-                        Thread.yield();
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                           frameEndTime = SystemClock.elapsedRealtimeNanos();
-                        else
-                           frameEndTime = System.nanoTime();
-                        dt = frameEndTime - frameStartTime;
-                     }
-                     frameStartTime = frameEndTime;
+                     if (! pacer.awaitInterval(fpsInterval))
+                        break;
                   }
                   else
-                  {
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        frameStartTime = SystemClock.elapsedRealtimeNanos();
-                     else
-                        frameStartTime = System.nanoTime();
-                  }
+                     pacer.resync();
 
                   frameTimestamp = framesStream.readLong();
+                  nextFrameTimestamp = frameTimestamp;
                   if (orientationTimestampQueue != null)
                      orientationTimestampQueue.offer(frameTimestamp);
                   if (locationTimestampQueue != null)
@@ -244,11 +236,17 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
                      buffer = null;
                      continue;
                   }
+                  if (frameCallback != null)
+                  {
+                     buffer = null;
+                     frame = readDirectFrame(framesStream, frameTimestamp, frameSize);
+                     continue;
+                  }
                   buffer = bufferQueue.poll(500, TimeUnit.MILLISECONDS);
                   if (buffer != null)
                   {
-                     readlen = readBuffer(buffer, framesStream, frameSize);
-                     if (readlen != frameSize)
+                     readlen = readFrame(buffer, framesStream, frameSize);
+                     if ( (FrameCodec.codec(frameSize) == FrameCodec.RAW) && (readlen != frameSize) )
                         Log.w(TAG, "Short read " + readlen);
                   }
                   else
@@ -268,6 +266,8 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
                   break;
                }
             }
+            if (frame != null)
+               frame.release();
          }
          catch (IOException e)
          {
@@ -287,6 +287,13 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
             if (framesStream != null)
                try { framesStream.close(); } catch (Exception _e) {}
          }
+         clock.stop();
+         Log.i(TAG, "Playback jitter: " + clock.jitterReport());
+         if ( (! mustStop) && (seekRequest.get() >= 0) )
+         {
+            again = true;
+            continue;
+         }
          iter++;
          if (progress != null)
             again = progress.onComplete(iter);
@@ -294,6 +301,7 @@ public class DirtyPlaybackThreadFree extends PlaybackThreadFree implements Runna
             again = isRepeat;
       } while ( (! mustStop) && (again) );
       try { stopThreads(orientationThread, locationThread); } catch (InterruptedException _e) { }
+      surfaceDrawer.release();
       isStarted = false;
    }
 }
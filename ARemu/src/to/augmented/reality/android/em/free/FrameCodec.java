@@ -0,0 +1,302 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.free;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decodes frames written by the recorder with a compression mode set (see NativeFrameBuffer.Compression in
+ * ARemRecorder). The top byte of the size field of a frame record is a codec tag; RAW (0) frames are the original
+ * untagged format and are not handled here. Tagged payloads start with the file offset of their own record. DELTA
+ * payloads then hold the offsets of the reference (previous) frame and of the key frame the delta chain starts at,
+ * followed by the Snappy compressed XOR of the frame with the reference frame. If a delta frame does not follow its
+ * reference frame (eg after a seek) the reference is rebuilt by decoding forward from the key frame using
+ * positional reads on the frames file.
+ */
+class FrameCodec
+//==============
+{
+   final static public int RAW = 0, SNAPPY = 1, DELTA = 2, STORED = 3;
+
+   final static private int CODEC_SHIFT = 56;
+   final static private long SIZE_MASK = 0x00FFFFFFFFFFFFFFL;
+   final static private int HEADER_SIZE = 8, DELTA_HEADER_SIZE = 24;
+
+   static public int codec(long sizeField) { return (int) (sizeField >>> CODEC_SHIFT); }
+
+   static public long length(long sizeField) { return sizeField & SIZE_MASK; }
+
+   private final File framesFile;
+   private byte[] payload = new byte[0], frame = null, previous = null;
+   private long previousOffset = -1;
+   private boolean isRecovering = false;
+
+   FrameCodec(File framesFile) { this.framesFile = framesFile; }
+
+   /**
+    * Reads a tagged frame payload following a frame header from stream and decodes it into dst (from its
+    * position).
+    * @return The decoded frame length.
+    */
+   public int read(DataInputStream stream, long sizeField, ByteBuffer dst) throws IOException
+   //----------------------------------------------------------------------------------------
+   {
+      int len = readPayload(stream, sizeField);
+      int n = decode(codec(sizeField), payload, len);
+      if (n > dst.remaining())
+         throw new IOException("Decoded frame size " + n + " exceeds buffer size " + dst.remaining());
+      dst.put(previous, 0, n);
+      return n;
+   }
+
+   /**
+    * Reads a tagged frame payload following a frame header from stream and decodes it into dst.
+    * @return The decoded frame length.
+    */
+   public int read(DataInputStream stream, long sizeField, byte[] dst) throws IOException
+   //------------------------------------------------------------------------------------
+   {
+      int len = readPayload(stream, sizeField);
+      int n = decode(codec(sizeField), payload, len);
+      if (n > dst.length)
+         throw new IOException("Decoded frame size " + n + " exceeds buffer size " + dst.length);
+      System.arraycopy(previous, 0, dst, 0, n);
+      return n;
+   }
+
+   private int readPayload(DataInputStream stream, long sizeField) throws IOException
+   //--------------------------------------------------------------------------------
+   {
+      long len = length(sizeField);
+      if (len > Integer.MAX_VALUE)
+         throw new IOException("Invalid frame size " + len);
+      if (payload.length < len)
+         payload = new byte[(int) len];
+      stream.readFully(payload, 0, (int) len);
+      return (int) len;
+   }
+
+   /**
+    * Decodes a payload, leaving the frame in previous (the reference for a following delta frame).
+    * @return The decoded frame length.
+    */
+   private int decode(int codec, byte[] src, int len) throws IOException
+   //-------------------------------------------------------------------
+   {
+      if (len < HEADER_SIZE)
+         throw new IOException("Short frame payload (" + len + ")");
+      ByteBuffer header = ByteBuffer.wrap(src, 0, Math.min(len, DELTA_HEADER_SIZE));
+      long self = header.getLong();
+      int n;
+      switch (codec)
+      {
+         case STORED:
+            n = len - HEADER_SIZE;
+            frame = ensure(frame, n);
+            System.arraycopy(src, HEADER_SIZE, frame, 0, n);
+            break;
+         case SNAPPY:
+            n = uncompressedLength(src, HEADER_SIZE, len);
+            frame = ensure(frame, n);
+            uncompress(src, HEADER_SIZE, len, frame);
+            break;
+         case DELTA:
+            if (len < DELTA_HEADER_SIZE)
+               throw new IOException("Short delta frame payload (" + len + ")");
+            long ref = header.getLong(), key = header.getLong();
+            if (previousOffset != ref)
+               recover(key, ref);
+            n = uncompressedLength(src, DELTA_HEADER_SIZE, len);
+            if ( (previous == null) || (previous.length < n) )
+               throw new IOException("Delta frame size " + n + " does not match its reference frame");
+            frame = ensure(frame, n);
+            uncompress(src, DELTA_HEADER_SIZE, len, frame);
+            for (int i=0; i<n; i++)
+               frame[i] ^= previous[i];
+            break;
+         default:
+            throw new IOException("Unknown frame codec " + codec);
+      }
+      byte[] tmp = previous;
+      previous = frame;
+      frame = tmp;
+      previousOffset = self;
+      return n;
+   }
+
+   /**
+    * Rebuilds the reference frame at offset ref by decoding forward from the key frame at offset key.
+    */
+   private void recover(long key, long ref) throws IOException
+   //---------------------------------------------------------
+   {
+      if ( (isRecovering) || (key < 0) || (ref < key) )
+         throw new IOException("Cannot recover delta reference frame at " + ref + " from key frame at " + key);
+      isRecovering = true;
+      previousOffset = -1;
+      RandomAccessFile raf = null;
+      byte[] src = new byte[0];
+      try
+      {
+         raf = new RandomAccessFile(framesFile, "r");
+         FileChannel channel = raf.getChannel();
+         ByteBuffer recordHeader = ByteBuffer.allocate(16);
+         long offset = key;
+         while (previousOffset != ref)
+         {
+            if (offset > ref)
+               throw new IOException("Delta reference frame at " + ref + " not found");
+            recordHeader.clear();
+            readFully(channel, recordHeader, offset);
+            recordHeader.flip();
+            recordHeader.getLong();
+            long sizeField = recordHeader.getLong();
+            int len = (int) length(sizeField);
+            offset += 16;
+            if ( (len > 0) && (codec(sizeField) != RAW) )
+            {
+               if (src.length < len)
+                  src = new byte[len];
+               readFully(channel, ByteBuffer.wrap(src, 0, len), offset);
+               decode(codec(sizeField), src, len);
+            }
+            offset += len;
+         }
+      }
+      finally
+      {
+         isRecovering = false;
+         if (raf != null)
+            try { raf.close(); } catch (Exception _e) {}
+      }
+   }
+
+   static private void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException
+   //---------------------------------------------------------------------------------------------------
+   {
+      while (dst.hasRemaining())
+      {
+         if (channel.read(dst, position + dst.position()) < 0)
+            throw new IOException("Unexpected end of frames file");
+      }
+   }
+
+   static private byte[] ensure(byte[] a, int n) { return ( (a == null) || (a.length < n) ) ? new byte[n] : a; }
+
+   /**
+    * Returns the uncompressed length stored as a varint at the start of a raw Snappy block.
+    */
+   static int uncompressedLength(byte[] src, int off, int end) throws IOException
+   //----------------------------------------------------------------------------
+   {
+      long n = 0;
+      for (int shift = 0; shift < 35; shift += 7)
+      {
+         if (off >= end)
+            break;
+         int b = src[off++] & 0xFF;
+         n |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+         {
+            if (n > Integer.MAX_VALUE)
+               break;
+            return (int) n;
+         }
+      }
+      throw new IOException("Corrupt Snappy length");
+   }
+
+   /**
+    * Decompresses the raw Snappy block src[off, end) into dst.
+    * @return The uncompressed length.
+    */
+   static int uncompress(byte[] src, int off, int end, byte[] dst) throws IOException
+   //--------------------------------------------------------------------------------
+   {
+      final int n = uncompressedLength(src, off, end);
+      if (n > dst.length)
+         throw new IOException("Snappy uncompressed length " + n + " exceeds buffer size " + dst.length);
+      while ((src[off++] & 0x80) != 0); // skip length varint
+      int d = 0;
+      while (off < end)
+      {
+         int tag = src[off++] & 0xFF;
+         int len, distance;
+         switch (tag & 3)
+         {
+            case 0: // literal
+               len = tag >>> 2;
+               if (len >= 60)
+               {
+                  int bytes = len - 59;
+                  if (off + bytes > end)
+                     throw new IOException("Corrupt Snappy literal");
+                  len = 0;
+                  for (int i=0; i<bytes; i++)
+                     len |= (src[off++] & 0xFF) << (8*i);
+               }
+               len++;
+               if ( (len <= 0) || (off + len > end) || (d + len > n) )
+                  throw new IOException("Corrupt Snappy literal");
+               System.arraycopy(src, off, dst, d, len);
+               off += len;
+               d += len;
+               continue;
+            case 1:
+               if (off >= end)
+                  throw new IOException("Corrupt Snappy copy");
+               len = 4 + ((tag >>> 2) & 7);
+               distance = ((tag & 0xE0) << 3) | (src[off++] & 0xFF);
+               break;
+            case 2:
+               if (off + 2 > end)
+                  throw new IOException("Corrupt Snappy copy");
+               len = 1 + (tag >>> 2);
+               distance = (src[off] & 0xFF) | ((src[off + 1] & 0xFF) << 8);
+               off += 2;
+               break;
+            default:
+               if (off + 4 > end)
+                  throw new IOException("Corrupt Snappy copy");
+               len = 1 + (tag >>> 2);
+               distance = (src[off] & 0xFF) | ((src[off + 1] & 0xFF) << 8) | ((src[off + 2] & 0xFF) << 16) |
+                          ((src[off + 3] & 0xFF) << 24);
+               off += 4;
+               break;
+         }
+         if ( (distance <= 0) || (distance > d) || (d + len > n) )
+            throw new IOException("Corrupt Snappy copy");
+         if (distance >= len)
+            System.arraycopy(dst, d - distance, dst, d, len);
+         else
+         {
+            for (int i=0; i<len; i++, d++)
+               dst[d] = dst[d - distance];
+            continue;
+         }
+         d += len;
+      }
+      if (d != n)
+         throw new IOException("Snappy uncompressed length mismatch (" + d + " != " + n + ")");
+      return n;
+   }
+}
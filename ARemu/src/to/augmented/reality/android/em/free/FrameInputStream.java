@@ -0,0 +1,131 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.free;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A buffered InputStream over a frames file channel which can also read frame data directly into a (direct)
+ * ByteBuffer, bypassing both the internal buffer and any intermediate byte array. Used in place of
+ * BufferedInputStream when frames are delivered to an ARFrameCallback.
+ */
+class FrameInputStream extends InputStream
+//========================================
+{
+   private final FileInputStream fis;
+   private final FileChannel channel;
+   private final ByteBuffer buffer;
+
+   FrameInputStream(FileInputStream fis, int bufferSize)
+   //---------------------------------------------------
+   {
+      this.fis = fis;
+      this.channel = fis.getChannel();
+      buffer = ByteBuffer.allocate(bufferSize);
+      buffer.flip(); // Initially empty
+   }
+
+   private boolean fill() throws IOException
+   //---------------------------------------
+   {
+      if (buffer.hasRemaining())
+         return true;
+      buffer.clear();
+      int c;
+      do
+      {
+         c = channel.read(buffer);
+      } while (c == 0);
+      buffer.flip();
+      return (c > 0);
+   }
+
+   @Override
+   public int read() throws IOException
+   //----------------------------------
+   {
+      if (! fill())
+         return -1;
+      return buffer.get() & 0xFF;
+   }
+
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException
+   //------------------------------------------------------------
+   {
+      if (len == 0)
+         return 0;
+      if ( (! buffer.hasRemaining()) && (len >= buffer.capacity()) )
+         return channel.read(ByteBuffer.wrap(b, off, len));
+      if (! fill())
+         return -1;
+      int c = Math.min(len, buffer.remaining());
+      buffer.get(b, off, c);
+      return c;
+   }
+
+   /**
+    * Reads exactly dst.remaining() bytes into dst.
+    * @throws EOFException if the end of the file is reached first.
+    */
+   public void readFully(ByteBuffer dst) throws IOException
+   //------------------------------------------------------
+   {
+      if (buffer.hasRemaining())
+      {
+         int c = Math.min(dst.remaining(), buffer.remaining());
+         ByteBuffer src = buffer.duplicate();
+         src.limit(src.position() + c);
+         dst.put(src);
+         buffer.position(buffer.position() + c);
+      }
+      while (dst.hasRemaining())
+      {
+         if (channel.read(dst) < 0)
+            throw new EOFException();
+      }
+   }
+
+   @Override
+   public long skip(long n) throws IOException
+   //-----------------------------------------
+   {
+      if (n <= 0)
+         return 0;
+      int c = (int) Math.min(n, buffer.remaining());
+      buffer.position(buffer.position() + c);
+      long rest = Math.min(n - c, Math.max(0, channel.size() - channel.position()));
+      if (rest > 0)
+         channel.position(channel.position() + rest);
+      return c + rest;
+   }
+
+   @Override
+   public int available() throws IOException
+   //---------------------------------------
+   {
+      long n = buffer.remaining() + Math.max(0, channel.size() - channel.position());
+      return (int) Math.min(n, Integer.MAX_VALUE);
+   }
+
+   @Override public void close() throws IOException { fis.close(); }
+}
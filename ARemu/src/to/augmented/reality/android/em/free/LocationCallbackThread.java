@@ -18,10 +18,11 @@ package to.augmented.reality.android.em.free;
 
 import android.location.Location;
 import android.location.LocationListener;
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Seekable;
 import to.augmented.reality.android.em.LocationThread;
 import to.augmented.reality.android.em.Stoppable;
 
@@ -32,7 +33,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.util.concurrent.CountDownLatch;
 
-class LocationCallbackThread implements Runnable, Stoppable, Latcheable
+class LocationCallbackThread implements Runnable, Stoppable, Latcheable, Clockable, Seekable
 //======================================================================
 {
    final static private String TAG = "free/" + LocationCallbackThread.class.getSimpleName();
@@ -45,7 +46,21 @@ class LocationCallbackThread implements Runnable, Stoppable, Latcheable
 
    @Override public boolean isStarted() { return isStarted; }
 
-   public void stop() { isStop = true; }
+   public void stop()
+   //----------------
+   {
+      isStop = true;
+      PlaybackClock.Stream stream = pacer;
+      if (stream != null)
+         stream.cancel();
+   }
+
+   private PlaybackClock clock = null;
+   volatile private PlaybackClock.Stream pacer = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
 
    public LocationCallbackThread(File f, CountDownLatch startLatch, LocationListener locationListener)
    //--------------------------------------------------------------------------------------------------
@@ -69,19 +84,24 @@ class LocationCallbackThread implements Runnable, Stoppable, Latcheable
    {
       startLatch.countDown();
       try { startLatch.await(); } catch (InterruptedException e) { return; }
-      long startTime, processStart, timestamp = 0, lastTimestamp = 0;
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-         processStart = startTime = SystemClock.elapsedRealtimeNanos();
-      else
-         processStart = startTime = System.nanoTime();
+      long timestamp = 0;
+      if (clock == null)
+      {
+         clock = new PlaybackClock();
+         clock.start();
+      }
+      pacer = clock.register("Location");
       DataInputStream dis = null;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(locationFile), 16384));
+         FileInputStream fis = new FileInputStream(locationFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 16384));
          Location location = null;
          try
          {
-            lastTimestamp = timestamp =  dis.readLong();
+            timestamp =  dis.readLong();
             char provider = (char) (dis.readByte() & 0xFF);
             boolean isGPSLocation = (provider == 'G');
             double latitude = dis.readDouble();
@@ -97,40 +117,13 @@ class LocationCallbackThread implements Runnable, Stoppable, Latcheable
          isStarted = true;
          while (!isStop)
          {
-            long timediff;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-            else
-               timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-            long now, then;
-            if ( (timediff > 0) && (! isStop) )
-            {
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  now = SystemClock.elapsedRealtimeNanos();
-               else
-                  now = System.nanoTime();
-               then = now + timediff;
-               while ( (then > now) && (! isStop) )
-               {
-                  Thread.yield();
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-               }
-//                  Thread.sleep(timediff);
-            }
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               processStart = SystemClock.elapsedRealtimeNanos();
-            else
-               processStart = System.nanoTime();
+            if (! pacer.awaitTimestamp(timestamp))
+               break;
 
             locationListener.onLocationChanged(location);
 
             try
             {
-               lastTimestamp = timestamp;
                timestamp =  dis.readLong();
                char provider = (char) (dis.readByte() & 0xFF);
                boolean isGPSLocation = (provider == 'G');
@@ -18,10 +18,11 @@ package to.augmented.reality.android.em.free;
 
 import android.location.Location;
 import android.location.LocationListener;
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Seekable;
 import to.augmented.reality.android.em.LocationThread;
 import to.augmented.reality.android.em.Stoppable;
 
@@ -34,7 +35,7 @@ import java.io.IOException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 
-class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
+class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable, Clockable, Seekable
 //===========================================================================
 {
    final static private String TAG = "free/" + LocationQueuedCallbackThread.class.getSimpleName();
@@ -48,7 +49,21 @@ class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
 
    @Override public boolean isStarted() { return isStarted; }
 
-   public void stop() { isStop = true; }
+   public void stop()
+   //----------------
+   {
+      isStop = true;
+      PlaybackClock.Stream stream = pacer;
+      if (stream != null)
+         stream.cancel();
+   }
+
+   private PlaybackClock clock = null;
+   volatile private PlaybackClock.Stream pacer = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
 
 
    public LocationQueuedCallbackThread(File f, CountDownLatch startLatch, ConcurrentLinkedQueue<Long> timestampQueue,
@@ -75,16 +90,20 @@ class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
    {
       startLatch.countDown();
       try { startLatch.await(); } catch (InterruptedException e) { return; }
-      long startTime;
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-         startTime = SystemClock.elapsedRealtimeNanos();
-      else
-         startTime = System.nanoTime();
+      if (clock == null)
+      {
+         clock = new PlaybackClock();
+         clock.start();
+      }
+      pacer = clock.register("Location");
       long timestamp = 0, lastTimestamp = 0;
       DataInputStream dis = null;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(locationFile), 16384));
+         FileInputStream fis = new FileInputStream(locationFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 16384));
          Location location = null;
          try
          {
@@ -108,16 +127,11 @@ class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
             if (nextTimestamp == null)
             {
                Thread.sleep(0, 100);
+               pacer.resync();
                continue;
             }
             while ((timestamp < nextTimestamp) && (!isStop))
             {
-               long processStart;
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  processStart = SystemClock.elapsedRealtimeNanos();
-               else
-                  processStart = System.nanoTime();
-
                locationListener.onLocationChanged(location);
 
                try
@@ -142,32 +156,11 @@ class LocationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
                   throw new RuntimeException(e);
                }
 
-               long timediff;
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-               else
-                  timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-               long now, then;
-               if ( (timediff > 0) && (! isStop) )
-               {
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-                  then = now + timediff;
-                  while ( (then > now) && (! isStop) )
-                  {
-                     Thread.sleep(20);
-                     Long L = timestampQueue.poll();
-                     if (L != null)
-                        nextTimestamp = L;  // Slightly naughty - changes outer loop condition value
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        now = SystemClock.elapsedRealtimeNanos();
-                     else
-                        now = System.nanoTime();
-                  }
-//                  Thread.sleep(timediff);
-               }
+               if (! pacer.awaitInterval(timestamp - lastTimestamp))
+                  break;
+               Long L = timestampQueue.poll();
+               if (L != null)
+                  nextTimestamp = L;  // Slightly naughty - changes outer loop condition value
             }
          }
       }
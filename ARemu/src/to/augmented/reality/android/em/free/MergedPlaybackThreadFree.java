@@ -0,0 +1,540 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.free;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.location.Location;
+import android.util.Log;
+import android.util.Pair;
+import android.view.Surface;
+import to.augmented.reality.android.common.math.Quaternion;
+import to.augmented.reality.android.em.ARFrame;
+import to.augmented.reality.android.em.ARSensorManager;
+import to.augmented.reality.android.em.AbstractARCamera;
+import to.augmented.reality.android.em.FreePreviewListenable;
+import to.augmented.reality.android.em.LocationThread;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Stoppable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays back Free recording mode files on a single thread by k-way merging the frames, orientation, location and
+ * raw sensor files into one timestamp ordered event stream (selected with AbstractARCamera.RENDERMODE_MERGED).
+ * Unlike ContinuousPlaybackThreadFree no helper threads or timestamp queues are used, so events are always
+ * dispatched in recorded order. Where timestamps are equal sensor events are dispatched before the frame so the
+ * frame callback sees the latest orientation and location.
+ * If fps is zero or negative events are played back at the recorded rate, otherwise frames are played at the
+ * specified frame rate and the sensor events recorded between two frames are played at their recorded offsets
+ * from the preceding frame (clamped to the frame interval). In both cases the playback rate scales the pacing and
+ * with PlaybackClock.UNTHROTTLED the events are dispatched as fast as the listeners consume them.
+ */
+public class MergedPlaybackThreadFree extends PlaybackThreadFree implements Runnable, Stoppable
+//=============================================================================================
+{
+   final static private String TAG = "free/" + MergedPlaybackThreadFree.class.getSimpleName();
+
+   public MergedPlaybackThreadFree(File framesFile, File orientationFile, File locationFile,
+                                   AbstractARCamera.RecordFileFormat fileFormat, int bufferSize, int fps, boolean isRepeat,
+                                   ArrayBlockingQueue<byte[]> bufferQueue, ARSensorManager sensorManager,
+                                   int previewWidth, int previewHeight, Context context, Surface previewSurface,
+                                   int version, FreePreviewListenable progress)
+   //-------------------------------------------------------------------------------------------------------------
+   {
+      super(framesFile, orientationFile, locationFile, fileFormat, bufferSize, fps, isRepeat, bufferQueue, sensorManager,
+            previewWidth, previewHeight, context, previewSurface, version, progress);
+   }
+
+   @Override
+   public void run()
+   //--------------
+   {
+      if (startLatch != null)
+      {
+         startLatch.countDown();
+         try { startLatch.await(); } catch (InterruptedException e) { return; }
+      }
+      long fpsInterval = -1L;
+      if (fps > 0)
+      {
+         if (fps > 1000)
+            fps /= 1000; // In case legacy camera API value wasn't scaled
+         fpsInterval = 1000000000L / fps;
+      }
+      frameInterval = fpsInterval;
+      isStarted = true;
+      mustStop = false;
+      boolean again;
+      int iter = 0;
+      do
+      {
+         final PlaybackClock clock = new PlaybackClock();
+         this.clock = clock;
+         final PlaybackClock.Stream pacer = clock.registerMaster("Merged");
+         final SeekPosition position = takeSeekPosition();
+         // Sensor sources precede the frame source so that they win timestamp ties.
+         EventSource[] sources = new EventSource[4];
+         int count = 0;
+         FrameSource frames = null;
+         try
+         {
+            if ( (orientationFile != null) && (orientationFile.length() > 0) && (orientationListener != null) )
+            {
+               final long offset = (position == null) ? 0 : position.orientationOffset;
+               count = addSource(sources, count, (OrientationLog.isLog(orientationFile))
+                                                   ? new OrientationLogSource(orientationFile, offset)
+                                                   : new OrientationSource(orientationFile, offset));
+            }
+            if ( (locationFile != null) && (locationFile.length() > 0) && (locationListener != null) )
+               count = addSource(sources, count, new LocationSource(locationFile,
+                                                                    (position == null) ? 0 : position.locationOffset));
+            if ( (sensorManager != null) && (sensorManager.getSensorFile() != null) &&
+                 (sensorManager.getSensorFile().length() > 0) )
+               count = addSource(sources, count, new SensorSource(sensorManager,
+                                                                  (position == null) ? 0 : position.sensorOffset));
+            frames = new FrameSource(position);
+            count = addSource(sources, count, frames);
+            if (progress != null)
+               progress.onStarted();
+            applySeekPosition(position, clock, null, null, null);
+            long frameTarget = -1, frameTimestamp = 0;
+            while ( (! mustStop) && (count > 0) && (seekRequest.get() < 0) )
+            {
+               int next = 0;
+               for (int i=1; i<count; i++)
+                  if (sources[i].timestamp < sources[next].timestamp)
+                     next = i;
+               EventSource source = sources[next];
+               boolean isOnTime;
+               if (fps <= 0)
+                  isOnTime = pacer.awaitTimestamp(source.timestamp);
+               else if (source == frames)
+               {
+                  if ( (frames.buffer != null) || (frames.frame != null) ) // Duplicate (or unbuffered) frames don't use up a frame interval
+                  {
+                     if (frameTarget < 0)
+                        frameTarget = clock.position();
+                     else
+                        frameTarget += fpsInterval;
+                     frameTimestamp = source.timestamp;
+                     isOnTime = pacer.awaitTimestamp(frameTarget);
+                  }
+                  else
+                     isOnTime = true;
+               }
+               else if (frameTarget < 0)
+                  isOnTime = true;
+               else
+                  isOnTime = pacer.awaitTimestamp(frameTarget +
+                                                  Math.max(0, Math.min(source.timestamp - frameTimestamp, fpsInterval)));
+               if (! isOnTime)
+                  break;
+               source.dispatch();
+               if (! source.advance())
+               {
+                  source.close();
+                  System.arraycopy(sources, next + 1, sources, next, count - next - 1);
+                  sources[--count] = null;
+                  if (source == frames)
+                     break; // The frames file defines the end of the recording
+               }
+            }
+         }
+         catch (InterruptedException e)
+         {
+            mustStop = true;
+            if (progress != null)
+               progress.onError("Interrupted", e);
+         }
+         catch (IOException e)
+         {
+            Log.e(TAG, "", e);
+            if (progress != null)
+               progress.onError(framesFile.getAbsolutePath(), e);
+         }
+         catch (Exception e)
+         {
+            Log.e(TAG, "", e);
+            if (progress != null)
+               progress.onError("ABEND", e); // Android/360
+            throw new RuntimeException(e);
+         }
+         finally
+         {
+            for (int i=0; i<count; i++)
+               sources[i].close();
+            clock.stop();
+         }
+         Log.i(TAG, "Playback jitter: " + clock.jitterReport());
+         if ( (! mustStop) && (seekRequest.get() >= 0) )
+         {
+            again = true;
+            continue;
+         }
+         iter++;
+         if (progress != null)
+            again = progress.onComplete(iter);
+         else
+            again = isRepeat;
+      } while ( (! mustStop) && (again) );
+      surfaceDrawer.release();
+      isStarted = false;
+   }
+
+   static private int addSource(EventSource[] sources, int count, EventSource source)
+         throws IOException, InterruptedException
+   //---------------------------------------------------------------------------------
+   {
+      if (source.advance())
+         sources[count++] = source;
+      else
+         source.close();
+      return count;
+   }
+
+   /**
+    * A timestamp ordered recording file. advance() reads the next record and sets timestamp, dispatch() delivers
+    * the current record.
+    */
+   private abstract class EventSource implements Closeable
+   //=====================================================
+   {
+      protected final DataInputStream dis;
+      long timestamp = Long.MAX_VALUE;
+
+      EventSource(File f, long offset, int bufferSize) throws IOException
+      //-----------------------------------------------------------------
+      {
+         FileInputStream fis = new FileInputStream(f);
+         if (offset > 0)
+            fis.getChannel().position(offset);
+         dis = new DataInputStream(new BufferedInputStream(fis, bufferSize));
+      }
+
+      EventSource(DataInputStream dis) { this.dis = dis; }
+
+      EventSource() { this.dis = null; }
+
+      /**
+       * @return false when the end of the file has been reached.
+       */
+      abstract boolean advance() throws IOException, InterruptedException;
+
+      abstract void dispatch();
+
+      @Override public void close() { if (dis != null) try { dis.close(); } catch (Exception _e) {} }
+   }
+
+   private class FrameSource extends EventSource
+   //===========================================
+   {
+      byte[] buffer = null;
+      ARFrame frame = null;
+
+      FrameSource(SeekPosition position) throws IOException { super(openFrames(position)); }
+
+      @Override
+      boolean advance() throws IOException, InterruptedException
+      //--------------------------------------------------------
+      {
+         long size;
+         try
+         {
+            timestamp = dis.readLong();
+            size = dis.readLong();
+         }
+         catch (EOFException e)
+         {
+            return false;
+         }
+         nextFrameTimestamp = timestamp;
+         buffer = null;
+         if ( (size > 0) && (frameCallback != null) )
+            frame = readDirectFrame(dis, timestamp, size);
+         else if (size > 0)
+         {
+            buffer = bufferQueue.poll(500, TimeUnit.MILLISECONDS);
+            if (buffer != null)
+            {
+               int readlen = readFrame(buffer, dis, size);
+               if ( (FrameCodec.codec(size) == FrameCodec.RAW) && (readlen != size) )
+                  Log.w(TAG, "Short read " + readlen);
+            }
+            else
+            {
+               Log.w(TAG, "Timed out waiting for a buffer. Check if buffers are being replenished using addCallbackBuffer");
+               long skip = FrameCodec.length(size);
+               while (skip > 0)
+               {
+                  int c = dis.skipBytes((int) Math.min(skip, Integer.MAX_VALUE));
+                  if (c <= 0)
+                     throw new EOFException();
+                  skip -= c;
+               }
+            }
+         }
+         return true;
+      }
+
+      @Override
+      void dispatch()
+      //-------------
+      {
+         if (frame != null)
+         {
+            deliverFrame(frame);
+            frame = null;
+            lastFrameTimestamp = timestamp;
+            return;
+         }
+         if (buffer == null)
+            return;
+         if (cameraListener != null)
+         {
+            cameraListener.onPreviewFrame(buffer, null);
+            if (surface != null)
+               drawToSurface(buffer);
+         }
+         else
+            camera2Listener.onPreviewFrame(buffer);
+         lastFrameTimestamp = timestamp;
+         if ( (! isUseBuffer) && (bufferQueue.size() < PREALLOCATED_BUFFERS) )
+            bufferQueue.add(buffer);
+         buffer = null;
+      }
+
+      @Override
+      public void close()
+      //-----------------
+      {
+         if ( (buffer != null) && (! isUseBuffer) && (bufferQueue.size() < PREALLOCATED_BUFFERS) )
+            bufferQueue.add(buffer);
+         buffer = null;
+         if (frame != null)
+            frame.release();
+         frame = null;
+         super.close();
+      }
+   }
+
+   private class OrientationSource extends EventSource
+   //=================================================
+   {
+      Quaternion Q = null;
+      float[] R = null;
+      byte[] ab = null;
+
+      OrientationSource(File f, long offset) throws IOException { super(f, offset, 32768); }
+
+      @Override
+      boolean advance() throws IOException
+      //----------------------------------
+      {
+         try
+         {
+            timestamp = dis.readLong();
+            float x = dis.readFloat();
+            float y = dis.readFloat();
+            float z = dis.readFloat();
+            float w = dis.readFloat();
+            Q = new Quaternion(x, y, z, w);
+            int rlen = dis.readInt();
+            if ( (R == null) || (R.length != rlen) )
+            {
+               R = new float[rlen];
+               ab = new byte[(rlen*Float.SIZE)/8];
+            }
+            dis.readFully(ab);
+            if (version > 20)
+               dis.readFloat(); // bearing
+            FloatBuffer fb = ByteBuffer.wrap(ab).asFloatBuffer();
+            fb.get(R);
+            return true;
+         }
+         catch (EOFException e)
+         {
+            return false;
+         }
+      }
+
+      @Override void dispatch() { orientationListener.onOrientationListenerUpdate(R, Q, timestamp); }
+   }
+
+   /**
+    * Orientation source for fixed stride (revision 2) orientation files which reads through a memory mapped
+    * record flyweight instead of a stream.
+    */
+   private class OrientationLogSource extends EventSource
+   //====================================================
+   {
+      final OrientationLog log;
+      final OrientationLog.Record record;
+      final Quaternion Q = new Quaternion();
+      final float[] R;
+      boolean isFirst = true;
+
+      OrientationLogSource(File f, long offset) throws IOException
+      //----------------------------------------------------------
+      {
+         log = OrientationLog.open(f);
+         record = log.record().moveTo(log.indexOf(offset));
+         R = new float[log.getRotationLength()];
+      }
+
+      @Override
+      boolean advance()
+      //---------------
+      {
+         if (isFirst)
+            isFirst = false;
+         else if (! record.next())
+            return false;
+         if (! record.isValid())
+            return false;
+         timestamp = record.timestamp();
+         return true;
+      }
+
+      @Override
+      void dispatch()
+      //-------------
+      {
+         orientationListener.onOrientationListenerUpdate(record.rotation(R), record.quaternion(Q), timestamp);
+      }
+
+      @Override public void close() { log.close(); }
+   }
+
+   private class LocationSource extends EventSource
+   //==============================================
+   {
+      Location location = null;
+
+      LocationSource(File f, long offset) throws IOException { super(f, offset, 16384); }
+
+      @Override
+      boolean advance() throws IOException
+      //----------------------------------
+      {
+         try
+         {
+            timestamp =  dis.readLong();
+            char provider = (char) (dis.readByte() & 0xFF);
+            boolean isGPSLocation = (provider == 'G');
+            double latitude = dis.readDouble();
+            double longitude = dis.readDouble();
+            double altitude = dis.readDouble();
+            float accuracy = dis.readFloat();
+            location = LocationThread.createLocation(isGPSLocation, latitude, longitude, altitude, accuracy);
+            return true;
+         }
+         catch (EOFException e)
+         {
+            return false;
+         }
+      }
+
+      @Override void dispatch() { locationListener.onLocationChanged(location); }
+   }
+
+   private class SensorSource extends EventSource
+   //============================================
+   {
+      final Map<Integer, Sensor> sensors;
+      final List<Pair<Integer, SensorEventListener>> observers;
+      final SensorEvent event;
+      final float[] values;
+      int type = -1;
+
+      SensorSource(ARSensorManager m, long offset) throws IOException
+      //-------------------------------------------------------------
+      {
+         super(m.getSensorFile(), offset, 32768);
+         sensors = m.getSensorMao();
+         observers = m.getObservers();
+         try
+         {
+            Constructor<SensorEvent> constructor = SensorEvent.class.getDeclaredConstructor(Integer.TYPE);
+            constructor.setAccessible(true);
+            event = constructor.newInstance(5);
+         }
+         catch (Exception e)
+         {
+            close();
+            throw new IOException("Could not create SensorEvent", e);
+         }
+         values = event.values;
+         if (offset <= 0)
+         {  // skip header
+            int cSensors = dis.readInt();
+            for (int i = 0; i < cSensors; i++)
+               dis.readInt();
+         }
+      }
+
+      @Override
+      boolean advance() throws IOException
+      //----------------------------------
+      {
+         try
+         {
+            type = dis.readInt();
+            timestamp = dis.readLong();
+            values[0] = dis.readFloat();
+            values[1] = dis.readFloat();
+            values[2] = dis.readFloat();
+            values[3] = dis.readFloat();
+            values[4] = dis.readFloat();
+            return true;
+         }
+         catch (EOFException e)
+         {
+            return false;
+         }
+      }
+
+      @Override
+      void dispatch()
+      //-------------
+      {
+         for (Pair<Integer, SensorEventListener> pp : observers)
+         {
+            if (pp.first == type)
+            {
+               event.sensor = sensors.get(type);
+               pp.second.onSensorChanged(event);
+            }
+         }
+      }
+   }
+}
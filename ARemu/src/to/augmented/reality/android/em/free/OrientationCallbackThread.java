@@ -16,12 +16,13 @@
 
 package to.augmented.reality.android.em.free;
 
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
 import to.augmented.reality.android.common.math.Quaternion;
 import to.augmented.reality.android.common.sensor.orientation.OrientationListenable;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Seekable;
 import to.augmented.reality.android.em.Stoppable;
 
 import java.io.BufferedInputStream;
@@ -34,7 +35,7 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.concurrent.CountDownLatch;
 
-class OrientationCallbackThread implements Runnable, Stoppable, Latcheable
+class OrientationCallbackThread implements Runnable, Stoppable, Latcheable, Clockable, Seekable
 //========================================================================
 {
    final static private String TAG = "free/" + OrientationCallbackThread.class.getSimpleName();
@@ -46,7 +47,21 @@ class OrientationCallbackThread implements Runnable, Stoppable, Latcheable
    private int version =-1;
    volatile private boolean isStop = false, isStarted = false;
 
-   public void stop() { isStop = true; }
+   public void stop()
+   //----------------
+   {
+      isStop = true;
+      PlaybackClock.Stream stream = pacer;
+      if (stream != null)
+         stream.cancel();
+   }
+
+   private PlaybackClock clock = null;
+   volatile private PlaybackClock.Stream pacer = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
 
    @Override public boolean isStarted() { return isStarted; }
 
@@ -73,22 +88,40 @@ class OrientationCallbackThread implements Runnable, Stoppable, Latcheable
    {
       startLatch.countDown();
       try { startLatch.await(); } catch (InterruptedException e) { return; }
-      long startTime, processStart, timestamp = 0, lastTimestamp = 0;
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-         processStart = startTime = SystemClock.elapsedRealtimeNanos();
-      else
-         processStart = startTime = System.nanoTime();
+      long timestamp = 0;
+      if (clock == null)
+      {
+         clock = new PlaybackClock();
+         clock.start();
+      }
+      pacer = clock.register("Orientation");
+      if (OrientationLog.isLog(orientationFile))
+      {
+         try
+         {
+            playLog();
+         }
+         catch (IOException e)
+         {
+            Log.e(TAG, "", e);
+         }
+         isStarted = false;
+         return;
+      }
       DataInputStream dis = null;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(orientationFile), 32768));
+         FileInputStream fis = new FileInputStream(orientationFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 32768));
          float x, y, z, w, bearing;
          Quaternion Q = null;
          int rlen;
          float[] R = null;
          try
          {
-            lastTimestamp = timestamp = dis.readLong();
+            timestamp = dis.readLong();
             x = dis.readFloat();
             y = dis.readFloat();
             z = dis.readFloat();
@@ -110,40 +143,13 @@ class OrientationCallbackThread implements Runnable, Stoppable, Latcheable
          isStarted = true;
          while (!isStop)
          {
-            long timediff;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-            else
-               timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-            long now, then;
-            if ( (timediff > 0) && (! isStop) )
-            {
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  now = SystemClock.elapsedRealtimeNanos();
-               else
-                  now = System.nanoTime();
-               then = now + timediff;
-               while ( (then > now) && (! isStop) )
-               {
-                  Thread.yield();
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-               }
-//                  Thread.sleep(timediff);
-            }
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-               processStart = SystemClock.elapsedRealtimeNanos();
-            else
-               processStart = System.nanoTime();
+            if (! pacer.awaitTimestamp(timestamp))
+               break;
 
             orientationListener.onOrientationListenerUpdate(R, Q, timestamp);
 
             try
             {
-               lastTimestamp = timestamp;
                timestamp = dis.readLong();
                x = dis.readFloat();
                y = dis.readFloat();
@@ -180,4 +186,34 @@ class OrientationCallbackThread implements Runnable, Stoppable, Latcheable
       }
       isStarted = false;
    }
+
+   /**
+    * Plays a fixed stride (revision 2) orientation file through a memory mapped record flyweight, reusing the same
+    * Quaternion and rotation matrix for every callback.
+    */
+   private void playLog() throws IOException
+   //---------------------------------------
+   {
+      OrientationLog log = OrientationLog.open(orientationFile);
+      try
+      {
+         OrientationLog.Record record = log.record().moveTo(log.indexOf(startOffset));
+         Quaternion Q = new Quaternion();
+         float[] R = new float[log.getRotationLength()];
+         isStarted = true;
+         while ( (! isStop) && (record.isValid()) )
+         {
+            final long timestamp = record.timestamp();
+            if (! pacer.awaitTimestamp(timestamp))
+               break;
+            orientationListener.onOrientationListenerUpdate(record.rotation(R), record.quaternion(Q), timestamp);
+            if (! record.next())
+               break;
+         }
+      }
+      finally
+      {
+         log.close();
+      }
+   }
 }
@@ -0,0 +1,242 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.free;
+
+import to.augmented.reality.android.common.math.Quaternion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped reader for the fixed stride (revision 2) orientation file format written by the recorder in place
+ * of the original variable length DataOutputStream records. The file starts with a HEADER_SIZE byte little endian
+ * header (MAGIC, FORMAT_VERSION, header size, rotation matrix length, record stride) followed by records of
+ * <code>long timestamp, float x, y, z, w, float R[rotation matrix length], float bearing</code> padded to the
+ * stride. As every record has the same length the record at index i is at offsetOf(i) and records can be located by
+ * timestamp with a binary search over the mapped file.
+ * Records are read through a Record flyweight which does not allocate per record.
+ */
+public class OrientationLog implements Closeable
+//=============================================
+{
+   final static public int MAGIC = 0x41524F4C; // AROL
+   final static public int FORMAT_VERSION = 2; // 1 being the original DataOutputStream format
+   final static public int HEADER_SIZE = 32;
+   final static public String HEADER_KEY = "OrientationFormat";
+
+   private final RandomAccessFile raf;
+   private final ByteBuffer map;
+   private final int rotationLength, stride;
+   private final long count;
+
+   private OrientationLog(RandomAccessFile raf, ByteBuffer map, int rotationLength, int stride, long count)
+   //-----------------------------------------------------------------------------------------------------
+   {
+      this.raf = raf;
+      this.map = map;
+      this.rotationLength = rotationLength;
+      this.stride = stride;
+      this.count = count;
+   }
+
+   /**
+    * @return The record length for a rotation matrix of length rotationLength.
+    */
+   static public int stride(int rotationLength) { return (8 + 4*(4 + rotationLength + 1) + 7) & ~7; }
+
+   /**
+    * @return <i>true</i> if f is a fixed stride orientation file, <i>false</i> if it is an original format
+    * orientation file (or cannot be read).
+    */
+   static public boolean isLog(File f)
+   //---------------------------------
+   {
+      if ( (f == null) || (! f.isFile()) || (f.length() < HEADER_SIZE) )
+         return false;
+      FileInputStream fis = null;
+      try
+      {
+         fis = new FileInputStream(f);
+         ByteBuffer bb = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+         FileChannel channel = fis.getChannel();
+         while ( (bb.hasRemaining()) && (channel.read(bb) > 0) );
+         return ( (! bb.hasRemaining()) && (bb.getInt(0) == MAGIC) );
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+      finally
+      {
+         if (fis != null)
+            try { fis.close(); } catch (Exception _e) {}
+      }
+   }
+
+   static public OrientationLog open(File f) throws IOException
+   //-----------------------------------------------------------
+   {
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try
+      {
+         FileChannel channel = raf.getChannel();
+         final long length = channel.size();
+         if (length > Integer.MAX_VALUE)
+            throw new IOException(f + " too large to map (" + length + ")");
+         if (length < HEADER_SIZE)
+            throw new IOException(f + " is not an orientation log");
+         MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+         mapped.order(ByteOrder.LITTLE_ENDIAN);
+         if ( (mapped.getInt(0) != MAGIC) || (mapped.getInt(4) != FORMAT_VERSION) )
+            throw new IOException(f + " is not a revision " + FORMAT_VERSION + " orientation log");
+         final int headerSize = mapped.getInt(8), rotationLength = mapped.getInt(12), stride = mapped.getInt(16);
+         if ( (headerSize != HEADER_SIZE) || (rotationLength < 0) || (rotationLength > 16) ||
+              (stride != stride(rotationLength)) )
+            throw new IOException(f + " has an invalid orientation log header");
+         OrientationLog log = new OrientationLog(raf, mapped, rotationLength, stride, (length - HEADER_SIZE) / stride);
+         raf = null;
+         return log;
+      }
+      finally
+      {
+         if (raf != null)
+            try { raf.close(); } catch (Exception _e) {}
+      }
+   }
+
+   public long size() { return count; }
+
+   public int getRotationLength() { return rotationLength; }
+
+   public int getStride() { return stride; }
+
+   /**
+    * @return The file offset of record i.
+    */
+   public long offsetOf(long i) { return HEADER_SIZE + i*stride; }
+
+   /**
+    * @return The index of the first record at or after file offset (an offset of 0 being the first record).
+    */
+   public long indexOf(long offset)
+   //------------------------------
+   {
+      if (offset <= HEADER_SIZE)
+         return 0;
+      return Math.min((offset - HEADER_SIZE + stride - 1) / stride, count);
+   }
+
+   public long timestampAt(long i) { return map.getLong((int) (HEADER_SIZE + i*stride)); }
+
+   /**
+    * @return The index of the first record with a timestamp greater than timestamp (size() if there is none).
+    */
+   public long indexAfter(long timestamp)
+   //------------------------------------
+   {
+      long lo = 0, hi = count;
+      while (lo < hi)
+      {
+         final long mid = (lo + hi) >>> 1;
+         if (timestampAt(mid) <= timestamp)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo;
+   }
+
+   /**
+    * @return A new flyweight positioned at the first record.
+    */
+   public Record record() { return new Record(); }
+
+   @Override public void close() { try { raf.close(); } catch (Exception _e) {} }
+
+   /**
+    * A view of a single record which is moved over the mapped file.
+    */
+   public class Record
+   //=================
+   {
+      private long index = 0;
+      private int position = HEADER_SIZE;
+
+      public Record moveTo(long i)
+      //--------------------------
+      {
+         index = i;
+         position = (int) (HEADER_SIZE + i*stride);
+         return this;
+      }
+
+      /**
+       * @return <i>false</i> if there is no next record.
+       */
+      public boolean next()
+      //-------------------
+      {
+         if (index + 1 >= count)
+            return false;
+         moveTo(index + 1);
+         return true;
+      }
+
+      public boolean isValid() { return (index >= 0) && (index < count); }
+
+      public long index() { return index; }
+
+      public long timestamp() { return map.getLong(position); }
+
+      public float x() { return map.getFloat(position + 8); }
+
+      public float y() { return map.getFloat(position + 12); }
+
+      public float z() { return map.getFloat(position + 16); }
+
+      public float w() { return map.getFloat(position + 20); }
+
+      public float rotation(int i) { return map.getFloat(position + 24 + i*4); }
+
+      public float bearing() { return map.getFloat(position + 24 + rotationLength*4); }
+
+      public Quaternion quaternion(Quaternion dst)
+      //-----------------------------------------
+      {
+         return dst.setXYZW(x(), y(), z(), w());
+      }
+
+      /**
+       * Copies the rotation matrix into dst which must have a length of at least getRotationLength().
+       */
+      public float[] rotation(float[] dst)
+      //----------------------------------
+      {
+         int p = position + 24;
+         for (int i=0; i<rotationLength; i++, p += 4)
+            dst[i] = map.getFloat(p);
+         return dst;
+      }
+   }
+}
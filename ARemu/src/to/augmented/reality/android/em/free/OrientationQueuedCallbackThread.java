@@ -16,12 +16,13 @@
 
 package to.augmented.reality.android.em.free;
 
-import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
 import to.augmented.reality.android.common.math.Quaternion;
 import to.augmented.reality.android.common.sensor.orientation.OrientationListenable;
+import to.augmented.reality.android.em.Clockable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Seekable;
 import to.augmented.reality.android.em.Stoppable;
 
 import java.io.BufferedInputStream;
@@ -35,7 +36,7 @@ import java.nio.FloatBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 
-class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
+class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable, Clockable, Seekable
 //===============================================================================
 {
    final static private String TAG = "free/" + OrientationQueuedCallbackThread.class.getSimpleName();
@@ -55,7 +56,21 @@ class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
 
    @Override public boolean isStarted() { return isStarted; }
 
-   public void stop() { isStop = true; }
+   public void stop()
+   //----------------
+   {
+      isStop = true;
+      PlaybackClock.Stream stream = pacer;
+      if (stream != null)
+         stream.cancel();
+   }
+
+   private PlaybackClock clock = null;
+   volatile private PlaybackClock.Stream pacer = null;
+   @Override public void setClock(PlaybackClock clock) { this.clock = clock; }
+
+   private long startOffset = 0;
+   @Override public void setStartOffset(long offset) { startOffset = offset; }
 
    public OrientationQueuedCallbackThread(File f, CountDownLatch startLatch,
                                           ConcurrentLinkedQueue<Long> timestampQueue,
@@ -86,17 +101,38 @@ class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
    {
       startLatch.countDown();
       try { startLatch.await(); } catch (InterruptedException e) { return; }
-      long startTime;
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-         startTime = SystemClock.elapsedRealtimeNanos();
-      else
-         startTime = System.nanoTime();
+      if (clock == null)
+      {
+         clock = new PlaybackClock();
+         clock.start();
+      }
+      pacer = clock.register("Orientation");
+      if (OrientationLog.isLog(orientationFile))
+      {
+         try
+         {
+            playLog();
+         }
+         catch (IOException e)
+         {
+            Log.e(TAG, "", e);
+         }
+         catch (InterruptedException e)
+         {
+            isStop = true;
+         }
+         isStarted = false;
+         return;
+      }
       Long nextTimestamp = -1L;
       long timestamp = 0, lastTimestamp = 0;
       DataInputStream dis = null;
       try
       {
-         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(orientationFile), 32768));
+         FileInputStream fis = new FileInputStream(orientationFile);
+         if (startOffset > 0)
+            fis.getChannel().position(startOffset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 32768));
          float x, y, z, w, bearing;
          Quaternion Q = null;
          int rlen;
@@ -129,16 +165,11 @@ class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
             if (nextTimestamp == null)
             {
                Thread.sleep(10);
+               pacer.resync();
                continue;
             }
             while ((timestamp < nextTimestamp) && (!isStop))
             {
-               long processStart;
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  processStart = SystemClock.elapsedRealtimeNanos();
-               else
-                  processStart = System.nanoTime();
-
                orientationListener.onOrientationListenerUpdate(R, Q, timestamp);
 
                try
@@ -173,32 +204,11 @@ class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
                   throw new RuntimeException(e);
                }
 
-               long timediff;
-               if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                  timediff = (timestamp - lastTimestamp - (SystemClock.elapsedRealtimeNanos() - processStart) - 1000L); // / 1000000L;
-               else
-                  timediff = (timestamp - lastTimestamp - (System.nanoTime() - processStart) - 1000L);// / 1000000L;
-               long now, then;
-               if ( (timediff > 0) && (! isStop) )
-               {
-                  if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                     now = SystemClock.elapsedRealtimeNanos();
-                  else
-                     now = System.nanoTime();
-                  then = now + timediff;
-                  while ( (then > now) && (! isStop) )
-                  {
-                     Thread.yield();
-                     Long L = timestampQueue.poll();
-                     if (L != null)
-                        nextTimestamp = L; // Slightly naughty - changes outer loop condition value
-                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-                        now = SystemClock.elapsedRealtimeNanos();
-                     else
-                        now = System.nanoTime();
-                  }
-//                  Thread.sleep(timediff);
-               }
+               if (! pacer.awaitInterval(timestamp - lastTimestamp))
+                  break;
+               Long L = timestampQueue.poll();
+               if (L != null)
+                  nextTimestamp = L; // Slightly naughty - changes outer loop condition value
             }
          }
       }
@@ -223,4 +233,51 @@ class OrientationQueuedCallbackThread implements Runnable, Stoppable, Latcheable
       Log.d(TAG, "Last Orientation timestamp read " + timestamp + " " +  nextTimestamp);
       isStarted = false;
    }
+
+   /**
+    * Plays a fixed stride (revision 2) orientation file through a memory mapped record flyweight, reusing the same
+    * Quaternion and rotation matrix for every callback.
+    */
+   private void playLog() throws IOException, InterruptedException
+   //--------------------------------------------------------------
+   {
+      OrientationLog log = OrientationLog.open(orientationFile);
+      try
+      {
+         OrientationLog.Record record = log.record().moveTo(log.indexOf(startOffset));
+         Quaternion Q = new Quaternion();
+         float[] R = new float[log.getRotationLength()];
+         long timestamp = (record.isValid()) ? record.timestamp() : Long.MAX_VALUE, lastTimestamp;
+         isStarted = true;
+         isStopped:
+         while ( (! isStop) && (record.isValid()) )
+         {
+            Long nextTimestamp = timestampQueue.poll();
+            if (nextTimestamp == null)
+            {
+               Thread.sleep(10);
+               pacer.resync();
+               continue;
+            }
+            while ( (timestamp < nextTimestamp) && (! isStop) )
+            {
+               orientationListener.onOrientationListenerUpdate(record.rotation(R), record.quaternion(Q), timestamp);
+               if (! record.next())
+                  break isStopped;
+               lastTimestamp = timestamp;
+               timestamp = record.timestamp();
+               if (! pacer.awaitInterval(timestamp - lastTimestamp))
+                  break isStopped;
+               Long L = timestampQueue.poll();
+               if (L != null)
+                  nextTimestamp = L;
+            }
+         }
+         Log.d(TAG, "Last Orientation timestamp read " + timestamp);
+      }
+      finally
+      {
+         log.close();
+      }
+   }
 }
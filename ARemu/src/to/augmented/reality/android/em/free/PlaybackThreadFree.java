@@ -17,29 +17,31 @@
 package to.augmented.reality.android.em.free;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
 import android.hardware.Camera;
 import android.location.LocationListener;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.Type;
 import android.util.Log;
 import android.view.Surface;
 import to.augmented.reality.android.common.sensor.orientation.OrientationListenable;
 import to.augmented.reality.android.em.ARCameraDevice;
+import to.augmented.reality.android.em.ARFrame;
+import to.augmented.reality.android.em.ARFrameCallback;
 import to.augmented.reality.android.em.ARSensorManager;
 import to.augmented.reality.android.em.AbstractARCamera;
+import to.augmented.reality.android.em.DirectBufferPool;
 import to.augmented.reality.android.em.FreePreviewListenable;
 import to.augmented.reality.android.em.Latcheable;
+import to.augmented.reality.android.em.PlaybackClock;
+import to.augmented.reality.android.em.Seekable;
 import to.augmented.reality.android.em.Stoppable;
-import to.augmented.reality.android.em.rs.ScriptC_rgba2argb;
+import to.augmented.reality.android.em.SurfaceRenderer;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -48,6 +50,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latcheable
 //=================================================================================
@@ -66,6 +70,10 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
    protected OrientationListenable orientationListener;
    protected LocationListener locationListener;
    protected ARCameraDevice.ARCaptureCallback camera2Listener;
+   protected ARFrameCallback frameCallback = null;
+   protected DirectBufferPool framePool = null;
+   protected FrameInputStream framesInput = null; // The frames file stream opened by openFrames
+   protected FrameCodec frameCodec = null; // Decodes compressed frames in the frames file opened by openFrames
    protected final int bufferSize;
    protected FreePreviewListenable progress = null;
 
@@ -76,15 +84,50 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
 
    final protected boolean isUseBuffer;
 
-   private RenderScript renderscript = null;
    protected Surface surface; // Only not null If the ARCamera had a setPreviewDisplay(holder) call. The surface is from the holder
    protected final Context context; // ""
    protected int width, height; // Only necessary where surface is not null
+   protected final SurfaceRenderer.Drawer surfaceDrawer;
    protected int version;
 
    volatile protected boolean mustStop = false;
    volatile protected boolean isStarted = false;
 
+   /**
+    * Shared deadline clock for the current playback iteration. The frame loop and the orientation, location and raw
+    * sensor sub-threads each register a stream with it so they are all paced against the same origin.
+    */
+   volatile protected PlaybackClock clock = null;
+   public PlaybackClock getClock() { return clock; }
+
+   volatile protected float playbackRate = 1f;
+   volatile protected boolean isPaused = false;
+   /** Frame interval in nanoseconds when playing at a fixed frame rate, otherwise -1. */
+   volatile protected long frameInterval = -1;
+   /** Timestamp of the frame the frame loop is waiting to play and of the last frame played. */
+   volatile protected long nextFrameTimestamp = -1, lastFrameTimestamp = -1;
+
+   /**
+    * Pending seek timestamp, SEEK_FRACTION or SEEK_STEP_BACK if the timestamp is to be resolved from the stream
+    * indices by the playback thread, or -1 if there is no pending seek.
+    */
+   protected final AtomicLong seekRequest = new AtomicLong(-1);
+   static private final long SEEK_FRACTION = Long.MAX_VALUE, SEEK_STEP_BACK = Long.MAX_VALUE - 1;
+   volatile private float seekFraction = 0;
+
+   private StreamIndex framesIndex = null, orientationIndex = null, locationIndex = null, sensorIndex = null;
+   private boolean isIndexed = false;
+
+   /**
+    * File offsets (and the frame timestamp) at which each stream should start in order to play from a seek
+    * timestamp.
+    */
+   static protected class SeekPosition
+   //=================================
+   {
+      public long timestamp = 0, framesOffset = 0, orientationOffset = 0, locationOffset = 0, sensorOffset = 0;
+   }
+
    protected ExecutorService threadPool = null;
 
    protected ExecutorService createThreadPool()
@@ -127,8 +170,7 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
       this.context = context;
       width = previewWidth;
       height = previewHeight;
-      if (this.surface != null)
-         renderscript = RenderScript.create(context);
+      surfaceDrawer = new SurfaceRenderer.Drawer(context, previewSurface, width, height);
       this.sensorManager = sensorManager;
       this.version = version;
       if (! isUseBuffer)
@@ -142,6 +184,8 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
    public void setCameraListener(Object callback)
    //--------------------------------------------
    {
+      if ( (callback == null) && (frameCallback != null) )
+         return;
       if (callback == null)
          throw new RuntimeException("Camera callback cannot be null");
       if (callback instanceof Camera.PreviewCallback)
@@ -154,16 +198,394 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
                                           ARCameraDevice.ARCaptureCallback.class.getName());
    }
 
+   /**
+    * Sets a callback which receives frames in pooled direct ByteBuffers instead of the byte[] preview callbacks.
+    * When set frames are read directly from the frames file into the pooled buffers and the camera listener
+    * (if any) is not called.
+    */
+   public void setFrameCallback(ARFrameCallback callback) { setFrameCallback(callback, PREALLOCATED_BUFFERS); }
+
+   /**
+    * Sets the frame callback with a pool of up to bufferCount frame buffers. Callbacks which hold on to frames,
+    * such as a FrameFanOut, require more than the default PREALLOCATED_BUFFERS.
+    */
+   public void setFrameCallback(ARFrameCallback callback, int bufferCount)
+   //---------------------------------------------------------------------
+   {
+      frameCallback = callback;
+      bufferCount = Math.max(bufferCount, PREALLOCATED_BUFFERS);
+      if ( (callback != null) && ( (framePool == null) || (framePool.getMaxBuffers() != bufferCount) ) )
+         framePool = new DirectBufferPool(bufferSize, bufferCount);
+   }
+
    public void setOrientationListener(OrientationListenable listener) { orientationListener = listener; }
 
    public void setLocationListener(LocationListener listener) { this.locationListener = listener; }
 
    @Override public boolean isStarted() { return isStarted; }
 
-   @Override public void stop() { mustStop = true; }
+   @Override public void stop()
+   //--------------------------
+   {
+      mustStop = true;
+      PlaybackClock c = clock;
+      if (c != null)
+         c.stop();
+   }
 
    @Override abstract public void run();
 
+   /**
+    * Opens (building if necessary) the timestamp indices for the recording streams. Invoked lazily on the first
+    * seek by the playback thread as building an index reads the whole stream.
+    */
+   protected synchronized void openIndices()
+   //---------------------------------------
+   {
+      if (isIndexed)
+         return;
+      framesIndex = openIndex(framesFile, StreamIndex.StreamType.FRAMES);
+      orientationIndex = openIndex(orientationFile, StreamIndex.StreamType.ORIENTATION);
+      locationIndex = openIndex(locationFile, StreamIndex.StreamType.LOCATION);
+      if (sensorManager != null)
+         sensorIndex = openIndex(sensorManager.getSensorFile(), StreamIndex.StreamType.SENSORS);
+      isIndexed = true;
+   }
+
+   private StreamIndex openIndex(File f, StreamIndex.StreamType type)
+   //----------------------------------------------------------------
+   {
+      if ( (f == null) || (! f.exists()) || (f.length() == 0) )
+         return null;
+      try
+      {
+         return StreamIndex.open(f, type, version);
+      }
+      catch (IOException e)
+      {
+         Log.e(TAG, "Error indexing " + f, e);
+         return null;
+      }
+   }
+
+   /**
+    * @return The frames index, opening or building the stream indices if they have not been opened yet which can
+    * take some time for long recordings.
+    */
+   public StreamIndex getFramesIndex() { openIndices(); return framesIndex; }
+
+   /**
+    * Repositions playback of all streams to the frame at or immediately preceding timestamp.
+    * @param timestamp Timestamp in nanoseconds relative to the start of the recording.
+    */
+   public void seekTo(long timestamp) { requestSeek(Math.min(Math.max(0, timestamp), SEEK_STEP_BACK - 1)); }
+
+   private void requestSeek(long request)
+   //------------------------------------
+   {
+      seekRequest.set(request);
+      PlaybackClock c = clock;
+      if (c != null)
+         c.stop(); // Wake any paced waits so the current iteration ends promptly
+   }
+
+   /**
+    * Repositions playback of all streams to a fraction of the recording duration. The fraction is converted to a
+    * timestamp by the playback thread.
+    * @param fraction 0 for the start to 1 for the end of the recording.
+    */
+   public void seekToFraction(float fraction)
+   //----------------------------------------
+   {
+      seekFraction = Math.max(0f, Math.min(1f, fraction));
+      requestSeek(SEEK_FRACTION);
+   }
+
+   /**
+    * Takes the pending seek request (if any) and returns the stream positions to play from.
+    * @return The stream positions or null if no seek is pending.
+    */
+   protected SeekPosition takeSeekPosition()
+   //---------------------------------------
+   {
+      long timestamp = seekRequest.getAndSet(-1);
+      if (timestamp < 0)
+         return null;
+      openIndices();
+      if ( (timestamp == SEEK_FRACTION) || (timestamp == SEEK_STEP_BACK) )
+         timestamp = resolveSeek(timestamp);
+      SeekPosition position = new SeekPosition();
+      position.timestamp = timestamp;
+      long previous = -1; // Sensor events after the preceding frame are played before the seek frame
+      if (framesIndex != null)
+      {
+         int i = framesIndex.floor(timestamp);
+         if (i >= 0)
+         {
+            position.timestamp = framesIndex.timestampAt(i);
+            position.framesOffset = framesIndex.offsetAt(i);
+            if (i > 0)
+               previous = framesIndex.timestampAt(i - 1);
+         }
+      }
+      if (previous >= 0)
+      {
+         position.orientationOffset = offsetAfter(orientationIndex, orientationFile, previous);
+         position.locationOffset = offsetAfter(locationIndex, locationFile, previous);
+         if (sensorManager != null)
+            position.sensorOffset = offsetAfter(sensorIndex, sensorManager.getSensorFile(), previous);
+      }
+      return position;
+   }
+
+   /**
+    * Converts a SEEK_FRACTION or SEEK_STEP_BACK request to a seek timestamp using the frames index.
+    */
+   private long resolveSeek(long request)
+   //------------------------------------
+   {
+      if ( (framesIndex == null) || (framesIndex.size() == 0) )
+         return 0;
+      if (request == SEEK_FRACTION)
+      {
+         long first = framesIndex.getFirstTimestamp(), last = framesIndex.getLastTimestamp();
+         return first + (long) ((last - first) * (double) seekFraction);
+      }
+      final long last = lastFrameTimestamp;
+      if (last < 0)
+         return 0;
+      int i = framesIndex.floor(last);
+      return framesIndex.timestampAt(Math.max(0, i - 1));
+   }
+
+   static private long offsetAfter(StreamIndex index, File f, long timestamp)
+   //------------------------------------------------------------------------
+   {
+      if (index == null)
+         return 0;
+      try
+      {
+         return index.offsetAfter(f, timestamp);
+      }
+      catch (IOException e)
+      {
+         Log.e(TAG, "Error seeking in " + f, e);
+         return index.offsetOf(timestamp);
+      }
+   }
+
+   /**
+    * Sets the playback rate for all streams.
+    * @param rate A multiple of the recorded rate from PlaybackClock.MIN_RATE (0.1) to PlaybackClock.MAX_RATE (8)
+    *             or PlaybackClock.UNTHROTTLED to play as fast as the frames are consumed. When playing at a fixed
+    *             frame rate the rate multiplies the frame rate.
+    */
+   public void setPlaybackRate(float rate)
+   //-------------------------------------
+   {
+      playbackRate = PlaybackClock.checkRate(rate);
+      PlaybackClock c = clock;
+      if (c != null)
+         c.setRate(playbackRate);
+   }
+
+   public float getPlaybackRate() { return playbackRate; }
+
+   public void pause()
+   //-----------------
+   {
+      isPaused = true;
+      PlaybackClock c = clock;
+      if (c != null)
+         c.pause();
+   }
+
+   public void resume()
+   //------------------
+   {
+      isPaused = false;
+      PlaybackClock c = clock;
+      if (c != null)
+         c.resume();
+   }
+
+   public boolean isPaused() { return isPaused; }
+
+   /**
+    * Pauses playback (if not already paused) and then plays the next frame together with the orientation, location
+    * and raw sensor events preceding it.
+    */
+   public void stepForward()
+   //-----------------------
+   {
+      isPaused = true;
+      PlaybackClock c = clock;
+      if (c == null)
+         return;
+      c.pause();
+      if (frameInterval > 0)
+         c.step(frameInterval);
+      else if (nextFrameTimestamp >= 0)
+         c.stepTo(nextFrameTimestamp);
+   }
+
+   /**
+    * Pauses playback (if not already paused) and repositions all streams to the frame preceding the last frame
+    * played. The preceding frame is looked up by the playback thread.
+    */
+   public void stepBack()
+   //--------------------
+   {
+      isPaused = true;
+      PlaybackClock c = clock;
+      if (c != null)
+         c.pause();
+      requestSeek(SEEK_STEP_BACK);
+   }
+
+   /**
+    * Applies a seek position to the helper playback threads and starts the iteration clock so that the seek
+    * timestamp plays immediately. The current playback rate and pause state are applied to the clock.
+    */
+   protected void applySeekPosition(SeekPosition position, PlaybackClock clock, Runnable orientationThread,
+                                    Runnable locationThread, Runnable sensorThread)
+   //----------------------------------------------------------------------------------------------------------
+   {
+      clock.setRate(playbackRate);
+      if (isPaused)
+         clock.pause();
+      if (position == null)
+      {
+         clock.start();
+         return;
+      }
+      if (orientationThread instanceof Seekable)
+         ((Seekable) orientationThread).setStartOffset(position.orientationOffset);
+      if (locationThread instanceof Seekable)
+         ((Seekable) locationThread).setStartOffset(position.locationOffset);
+      if (sensorThread instanceof Seekable)
+         ((Seekable) sensorThread).setStartOffset(position.sensorOffset);
+      clock.startAt(position.timestamp);
+   }
+
+   /**
+    * Opens the frames file positioned at the seek position (or at the start if position is null).
+    */
+   protected DataInputStream openFrames(SeekPosition position) throws IOException
+   //----------------------------------------------------------------------------
+   {
+      FileInputStream fis = new FileInputStream(framesFile);
+      frameCodec = new FrameCodec(framesFile);
+      if ( (position != null) && (position.framesOffset > 0) )
+         fis.getChannel().position(position.framesOffset);
+      if (frameCallback != null)
+      {
+         framesInput = new FrameInputStream(fis, 65535);
+         return new DataInputStream(framesInput);
+      }
+      framesInput = null;
+      return new DataInputStream(new BufferedInputStream(fis, 65535));
+   }
+
+   /**
+    * Reads the frame data following a frame header directly from the frames file into a pooled direct buffer,
+    * decoding it if the size read from the header has a (non RAW) codec tag.
+    * Only valid when a frame callback is set (the stream must have been opened by openFrames). If no pooled buffer
+    * becomes available in time the frame data is skipped.
+    * @return The frame or null if it was skipped.
+    */
+   protected ARFrame readDirectFrame(DataInputStream framesStream, long timestamp, long size)
+         throws IOException, InterruptedException
+   //---------------------------------------------------------------------------------------
+   {
+      if (FrameCodec.codec(size) != FrameCodec.RAW)
+         return readEncodedFrame(framesStream, timestamp, size);
+      ByteBuffer buffer = null;
+      if (size <= framePool.getBufferSize())
+      {
+         buffer = framePool.acquire(500, TimeUnit.MILLISECONDS);
+         if (buffer == null)
+            Log.w(TAG, "Timed out waiting for a frame buffer. Check if ARFrame.release is being called");
+      }
+      else
+         Log.w(TAG, "Frame size " + size + " exceeds buffer size " + framePool.getBufferSize());
+      if (buffer == null)
+      {
+         long skip = size;
+         while (skip > 0)
+         {
+            int c = framesStream.skipBytes((int) Math.min(skip, Integer.MAX_VALUE));
+            if (c <= 0)
+               throw new EOFException();
+            skip -= c;
+         }
+         return null;
+      }
+      try
+      {
+         buffer.limit((int) size);
+         framesInput.readFully(buffer);
+         buffer.flip();
+      }
+      catch (IOException e)
+      {
+         framePool.release(buffer);
+         throw e;
+      }
+      return new ARFrame(buffer, framePool, width, height, fileFormat, timestamp, -1);
+   }
+
+   private ARFrame readEncodedFrame(DataInputStream framesStream, long timestamp, long size)
+         throws IOException, InterruptedException
+   //--------------------------------------------------------------------------------------
+   {
+      ByteBuffer buffer = framePool.acquire(500, TimeUnit.MILLISECONDS);
+      if (buffer == null)
+      {
+         // Still decoded (into a discarded buffer) as following delta frames are relative to it.
+         Log.w(TAG, "Timed out waiting for a frame buffer. Check if ARFrame.release is being called");
+         frameCodec.read(framesStream, size, ByteBuffer.allocate(framePool.getBufferSize()));
+         return null;
+      }
+      try
+      {
+         buffer.clear();
+         frameCodec.read(framesStream, size, buffer);
+         buffer.flip();
+      }
+      catch (IOException e)
+      {
+         framePool.release(buffer);
+         throw e;
+      }
+      return new ARFrame(buffer, framePool, width, height, fileFormat, timestamp, -1);
+   }
+
+   /**
+    * Reads the frame data following a frame header into buffer, decoding it if the size read from the header has
+    * a (non RAW) codec tag.
+    * @return The number of bytes placed in buffer.
+    */
+   protected int readFrame(byte[] buffer, DataInputStream stream, long size) throws IOException
+   //------------------------------------------------------------------------------------------
+   {
+      if (FrameCodec.codec(size) != FrameCodec.RAW)
+         return frameCodec.read(stream, size, buffer);
+      return readBuffer(buffer, stream, size);
+   }
+
+   /**
+    * Delivers a frame read by readDirectFrame to the frame callback, drawing it to the preview surface first if
+    * there is one. The callback is responsible for releasing the frame.
+    */
+   protected void deliverFrame(ARFrame frame)
+   //----------------------------------------
+   {
+      if (surface != null)
+         surfaceDrawer.draw(frame.getBuffer());
+      frameCallback.onFrameAvailable(frame);
+   }
+
    static public int readBuffer(byte[] buffer, DataInputStream stream, long size) throws IOException
    //------------------------------------------------------------------------------------------------------
    {
@@ -199,45 +621,11 @@ abstract public class PlaybackThreadFree implements Runnable, Stoppable, Latchea
       threadPool = null;
    }
 
-   public void drawToSurface(final byte[] buffer)
-   //--------------------------------------------
-   {
-      int[] ARGB = new int[buffer.length/4];
-      try
-      {
-         Type.Builder rgbaType = new Type.Builder(renderscript, Element.RGBA_8888(renderscript)).setX(width).
-                                                               setY( height).setMipmaps(false);
-         Allocation aIn = Allocation.createTyped(renderscript, rgbaType.create(), Allocation.USAGE_SCRIPT);
-         Type.Builder argbType = new Type.Builder(renderscript, Element.U32(renderscript)).setX(width).
-               setY( height).setMipmaps(false);
-         Allocation aOut = Allocation.createTyped(renderscript, argbType.create(), Allocation.USAGE_SCRIPT);
-         ScriptC_rgba2argb rs = new ScriptC_rgba2argb(renderscript);
-         aIn.copyFrom(buffer);
-         rs.set_in(aIn);
-         rs.forEach_rgba2argb(aOut);
-         aOut.copyTo(ARGB);
-      }
-      catch (Exception e)
-      {
-         Log.e("PlaybackThreadFree", "drawToSurface: Renderscript RGBA to ARGB error", e);
-         int i=0, j = 0;
-         while (i<buffer.length)
-         {
-            int r = (int) buffer[i++];
-            if (r < 0) r = 256 + r; // Brain-dead Java has no unsigned char
-            int g = (int) buffer[i++];
-            if (g < 0) g = 256 + g;
-            int b = (int) buffer[i++];
-            if (b < 0) b = 256 + b;
-            int a = buffer[i++];
-            if (a < 0) a = 256 + a;
-            ARGB[j++] = Color.argb(a, r, g, b);
-         }
-      }
+   public void setSurfaceRenderer(SurfaceRenderer renderer) { surfaceDrawer.setRenderer(renderer); }
 
-      Bitmap bmp = Bitmap.createBitmap(ARGB, width, height, Bitmap.Config.ARGB_8888);
-      Canvas canvas = surface.lockCanvas(null);
-      canvas.drawBitmap(bmp, 0, 0, null);
-      surface.unlockCanvasAndPost(canvas);
-   }
+   /**
+    * Draws an RGBA frame on the preview surface using the renderer shared by the camera (see setSurfaceRenderer),
+    * or if none was provided a renderer owned by this thread which is released when the thread stops.
+    */
+   public void drawToSurface(final byte[] buffer) { surfaceDrawer.draw(buffer); }
 }
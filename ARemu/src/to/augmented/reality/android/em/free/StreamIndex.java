@@ -0,0 +1,425 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.free;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Maps recording timestamps to file offsets for one free mode recording stream (frames, orientation, location or
+ * raw sensor file). The index is built in a single sequential pass over the stream file and cached in a sidecar
+ * file (the stream file name with an .idx suffix) which is reused for as long as the stream file length and
+ * modification time are unchanged. Every frame is indexed while the much denser sensor streams are indexed every
+ * SENSOR_STRIDE records; offsetAfter scans at most SENSOR_STRIDE records forward from the nearest entry to find an
+ * exact record position.
+ */
+public class StreamIndex
+//======================
+{
+   final static private String TAG = "free/" + StreamIndex.class.getSimpleName();
+
+   public enum StreamType { FRAMES, ORIENTATION, LOCATION, SENSORS }
+
+   final static public String SUFFIX = ".idx";
+   final static public int SENSOR_STRIDE = 16;
+
+   final static private int MAGIC = 0x41524958; // ARIX
+   final static private int INDEX_VERSION = 1;
+   final static private int LOCATION_RECORD_REMAINDER = 1 + 3*8 + 4; // provider, lat, long, alt, accuracy
+   final static private int SENSOR_RECORD_REMAINDER = 5*4; // 5 floats
+
+   private final StreamType type;
+   private final int version;
+   private long[] timestamps;
+   private long[] offsets;
+   private int count = 0;
+
+   private StreamIndex(StreamType type, int version, int capacity)
+   //------------------------------------------------------------
+   {
+      this.type = type;
+      this.version = version;
+      timestamps = new long[Math.max(16, capacity)];
+      offsets = new long[timestamps.length];
+   }
+
+   public StreamType getType() { return type; }
+
+   public int size() { return count; }
+
+   public long timestampAt(int i) { return timestamps[i]; }
+
+   public long offsetAt(int i) { return offsets[i]; }
+
+   public long getFirstTimestamp() { return (count > 0) ? timestamps[0] : -1; }
+
+   public long getLastTimestamp() { return (count > 0) ? timestamps[count - 1] : -1; }
+
+   /**
+    * @return The position in the index of the last entry with a timestamp less than or equal to timestamp or 0 if
+    * timestamp precedes the first entry. Returns -1 for an empty index.
+    */
+   public int floor(long timestamp)
+   //------------------------------
+   {
+      if (count == 0)
+         return -1;
+      int i = Arrays.binarySearch(timestamps, 0, count, timestamp);
+      if (i < 0)
+         i = -i - 2; // insertion point - 1
+      while ( (i > 0) && (timestamps[i - 1] == timestamps[i]) )
+         i--;
+      return Math.max(i, 0);
+   }
+
+   /**
+    * @return The file offset from which to play in order to start at timestamp.
+    */
+   public long offsetOf(long timestamp)
+   //----------------------------------
+   {
+      int i = floor(timestamp);
+      return (i < 0) ? 0 : offsets[i];
+   }
+
+   private void add(long timestamp, long offset)
+   //-------------------------------------------
+   {
+      if (count >= timestamps.length)
+      {
+         timestamps = Arrays.copyOf(timestamps, count*2);
+         offsets = Arrays.copyOf(offsets, count*2);
+      }
+      timestamps[count] = timestamp;
+      offsets[count++] = offset;
+   }
+
+   static public File sidecar(File f) { return new File(f.getPath() + SUFFIX); }
+
+   /**
+    * Loads the index for a stream file from its sidecar file, building (and attempting to save) it if the sidecar
+    * does not exist or is out of date.
+    * @param f The stream file
+    * @param type The stream type
+    * @param version The recording version from the header file (affects the orientation record format).
+    */
+   static public StreamIndex open(File f, StreamType type, int version) throws IOException
+   //------------------------------------------------------------------------------------
+   {
+      File idx = sidecar(f);
+      if ( (idx.exists()) && (idx.lastModified() >= f.lastModified()) )
+      {
+         try
+         {
+            StreamIndex index = load(idx, f, type, version);
+            if (index != null)
+               return index;
+         }
+         catch (IOException e)
+         {
+            Log.w(TAG, "Error reading index " + idx + " (rebuilding)", e);
+         }
+      }
+      StreamIndex index = build(f, type, version);
+      try
+      {
+         index.save(idx, f, version);
+      }
+      catch (IOException e)
+      {
+         Log.w(TAG, "Could not save index " + idx + ": " + e.getMessage());
+         idx.delete();
+      }
+      return index;
+   }
+
+   /**
+    * Builds the index for a stream file with a single sequential pass.
+    */
+   static public StreamIndex build(File f, StreamType type, int version) throws IOException
+   //-------------------------------------------------------------------------------------
+   {
+      switch (type)
+      {
+         case FRAMES:   return buildFrames(f);
+         case ORIENTATION:
+            if (OrientationLog.isLog(f))
+               return buildLog(f, version);
+            return buildRecords(f, type, version);
+         default:       return buildRecords(f, type, version);
+      }
+   }
+
+   static private StreamIndex buildFrames(File f) throws IOException
+   //---------------------------------------------------------------
+   {
+      RandomAccessFile raf = null;
+      try
+      {
+         raf = new RandomAccessFile(f, "r");
+         FileChannel channel = raf.getChannel();
+         final long length = channel.size();
+         StreamIndex index = new StreamIndex(StreamType.FRAMES, -1, 1024);
+         ByteBuffer header = ByteBuffer.allocate(16);
+         long offset = 0;
+         while (offset + 16 <= length)
+         {
+            header.clear();
+            while (header.hasRemaining())
+            {
+               if (channel.read(header, offset + header.position()) < 0)
+                  break;
+            }
+            if (header.hasRemaining())
+               break;
+            header.flip();
+            long timestamp = header.getLong();
+            long size = FrameCodec.length(header.getLong());
+            if ( (size < 0) || (offset + 16 + size > length) )
+               break; // truncated last frame
+            index.add(timestamp, offset);
+            offset += 16 + size;
+         }
+         return index;
+      }
+      finally
+      {
+         if (raf != null)
+            try { raf.close(); } catch (Exception _e) {}
+      }
+   }
+
+   /**
+    * Builds the index for a fixed stride (revision 2) orientation file from its mapped timestamps.
+    */
+   static private StreamIndex buildLog(File f, int version) throws IOException
+   //-------------------------------------------------------------------------
+   {
+      OrientationLog log = OrientationLog.open(f);
+      try
+      {
+         final long n = log.size();
+         StreamIndex index = new StreamIndex(StreamType.ORIENTATION, version, (int) (n / SENSOR_STRIDE) + 1);
+         for (long i=0; i<n; i += SENSOR_STRIDE)
+            index.add(log.timestampAt(i), log.offsetOf(i));
+         return index;
+      }
+      finally
+      {
+         log.close();
+      }
+   }
+
+   static private StreamIndex buildRecords(File f, StreamType type, int version) throws IOException
+   //----------------------------------------------------------------------------------------------
+   {
+      DataInputStream dis = null;
+      try
+      {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 65536));
+         StreamIndex index = new StreamIndex(type, version, 1024);
+         long offset = 0;
+         if (type == StreamType.SENSORS)
+         {
+            int cSensors = dis.readInt();
+            skip(dis, cSensors*4);
+            offset = 4 + cSensors*4;
+         }
+         final long[] timestamp = new long[1];
+         int n = 0, len;
+         while ( (len = readRecord(dis, type, version, timestamp)) > 0)
+         {
+            if ((n++ % SENSOR_STRIDE) == 0)
+               index.add(timestamp[0], offset);
+            offset += len;
+         }
+         return index;
+      }
+      finally
+      {
+         if (dis != null)
+            try { dis.close(); } catch (Exception _e) {}
+      }
+   }
+
+   /**
+    * Reads (skipping the content of) a single orientation, location or raw sensor record.
+    * @param timestamp Set to the timestamp of the record.
+    * @return The length of the record in bytes or -1 at the end of the file.
+    */
+   static private int readRecord(DataInputStream dis, StreamType type, int version, long[] timestamp)
+         throws IOException
+   //-----------------------------------------------------------------------------------------------
+   {
+      try
+      {
+         switch (type)
+         {
+            case ORIENTATION:
+               timestamp[0] = dis.readLong();
+               skip(dis, 16);
+               int rlen = dis.readInt();
+               int len = rlen*4;
+               if (version > 20)
+                  len += 4;
+               skip(dis, len);
+               return 8 + 16 + 4 + len;
+            case LOCATION:
+               timestamp[0] = dis.readLong();
+               skip(dis, LOCATION_RECORD_REMAINDER);
+               return 8 + LOCATION_RECORD_REMAINDER;
+            case SENSORS:
+               dis.readInt(); // type
+               timestamp[0] = dis.readLong();
+               skip(dis, SENSOR_RECORD_REMAINDER);
+               return 4 + 8 + SENSOR_RECORD_REMAINDER;
+            default:
+               throw new IllegalArgumentException("Invalid stream type " + type);
+         }
+      }
+      catch (EOFException e)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * Finds the first record in a sparsely indexed stream with a timestamp after timestamp by scanning forward from
+    * the nearest index entry.
+    * @param f The stream file this index was built from.
+    * @return The offset of the first record with a timestamp greater than timestamp (the file length if there is
+    * none).
+    */
+   public long offsetAfter(File f, long timestamp) throws IOException
+   //----------------------------------------------------------------
+   {
+      int i = floor(timestamp);
+      if ( (i < 0) || (timestamps[i] > timestamp) )
+         return (i < 0) ? 0 : offsets[i];
+      if (type == StreamType.FRAMES)
+         return (i + 1 < count) ? offsets[i + 1] : f.length();
+      if ( (type == StreamType.ORIENTATION) && (OrientationLog.isLog(f)) )
+      {
+         OrientationLog log = OrientationLog.open(f);
+         try { return log.offsetOf(log.indexAfter(timestamp)); } finally { log.close(); }
+      }
+      long offset = offsets[i];
+      FileInputStream fis = new FileInputStream(f);
+      DataInputStream dis = null;
+      try
+      {
+         fis.getChannel().position(offset);
+         dis = new DataInputStream(new BufferedInputStream(fis, 8192));
+         final long[] ts = new long[1];
+         int len;
+         while ( (len = readRecord(dis, type, version, ts)) > 0)
+         {
+            if (ts[0] > timestamp)
+               return offset;
+            offset += len;
+         }
+         return offset;
+      }
+      finally
+      {
+         if (dis != null)
+            try { dis.close(); } catch (Exception _e) {}
+         else
+            try { fis.close(); } catch (Exception _e) {}
+      }
+   }
+
+   static private void skip(DataInputStream dis, int n) throws IOException
+   //---------------------------------------------------------------------
+   {
+      while (n > 0)
+      {
+         int c = dis.skipBytes(n);
+         if (c <= 0)
+         {
+            dis.readByte(); // throws EOFException at end of file
+            c = 1;
+         }
+         n -= c;
+      }
+   }
+
+   private void save(File idx, File f, int version) throws IOException
+   //-----------------------------------------------------------------
+   {
+      DataOutputStream dos = null;
+      try
+      {
+         dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idx), 32768));
+         dos.writeInt(MAGIC);
+         dos.writeInt(INDEX_VERSION);
+         dos.writeInt(type.ordinal());
+         dos.writeInt(version);
+         dos.writeLong(f.length());
+         dos.writeLong(f.lastModified());
+         dos.writeInt(count);
+         for (int i=0; i<count; i++)
+         {
+            dos.writeLong(timestamps[i]);
+            dos.writeLong(offsets[i]);
+         }
+      }
+      finally
+      {
+         if (dos != null)
+            dos.close();
+      }
+   }
+
+   static private StreamIndex load(File idx, File f, StreamType type, int version) throws IOException
+   //------------------------------------------------------------------------------------------------
+   {
+      DataInputStream dis = null;
+      try
+      {
+         dis = new DataInputStream(new BufferedInputStream(new FileInputStream(idx), 32768));
+         if ( (dis.readInt() != MAGIC) || (dis.readInt() != INDEX_VERSION) || (dis.readInt() != type.ordinal()) ||
+              (dis.readInt() != version) || (dis.readLong() != f.length()) || (dis.readLong() != f.lastModified()) )
+            return null;
+         int n = dis.readInt();
+         if (n < 0)
+            return null;
+         StreamIndex index = new StreamIndex(type, version, n);
+         for (int i=0; i<n; i++)
+            index.add(dis.readLong(), dis.readLong());
+         return index;
+      }
+      finally
+      {
+         if (dis != null)
+            try { dis.close(); } catch (Exception _e) {}
+      }
+   }
+}
@@ -76,10 +76,10 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
          try { startLatch.await(); } catch (InterruptedException e) { return; }
       }
       mustStop = false;
-      RandomAccessFile framesRAF = null;
+      FrameStore frameStore = null;
       byte[] frameBuffer = null;
       float offset =-1;
-      int fileOffset =-1;
+      long frameIndex =-1;
       boolean isDirty = false;
 //      int fps = camera.getFrameRate()/1000;
       long fpsInterval = -1L;
@@ -87,7 +87,7 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
          fpsInterval = 1000000000L / fps;
       try
       {
-         framesRAF = new RandomAccessFile(framesFile, "r");
+         frameStore = openFrameStore();
          isStarted = true;
          long startTime, endTime;
          if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
@@ -102,21 +102,23 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
                currentBearing = (float) (Math.rint(currentBearing * 10.0f) / 10.0);
                if (currentBearing >= 360)
                   currentBearing -= 360;
-               if (((currentBearing <= startBearing) || (currentBearing > endBearing)) &&
+               if ( ((currentBearing <= startBearing) || (currentBearing > endBearing)) && (frameCallback != null) )
+               {
+                  offset = (float) (Math.floor(currentBearing / recordingIncrement) * recordingIncrement);
+                  frameIndex = frameIndex(offset);
+                  startBearing = offset;
+                  endBearing = startBearing + recordingIncrement;
+               }
+               else if (((currentBearing <= startBearing) || (currentBearing > endBearing)) &&
                      (bufferQueue.peek() != null))
                {
                   try { frameBuffer = bufferQueue.take(); } catch (InterruptedException e) { break; }
                   offset = (float) (Math.floor(currentBearing / recordingIncrement) * recordingIncrement);
-                  fileOffset = (int) (Math.floor(offset / recordingIncrement) * bufferSize);
-                  framesRAF.seek(fileOffset);
-                  try
-                  {
-                     framesRAF.readFully(frameBuffer);
-                  }
-                  catch (EOFException _e)
+                  frameIndex = frameIndex(offset);
+                  if (! frameStore.read(frameIndex, frameBuffer))
                   {
                      Arrays.fill(frameBuffer, (byte) 0);
-                     Log.e(TAG, "Offset out of range: " + fileOffset + ", bearing was " + currentBearing, _e);
+                     Log.e(TAG, "Frame out of range: " + frameIndex + ", bearing was " + currentBearing);
                   }
                   startBearing = offset;
                   endBearing = startBearing + recordingIncrement;
@@ -125,7 +127,7 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
                   isDirty = true;
                }
             }
-            if (frameBuffer == null)
+            if ( (frameBuffer == null) && ( (frameCallback == null) || (frameIndex < 0) ) )
                continue;
             if (fps > 0)
             {
@@ -136,7 +138,9 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
                long dt = endTime - startTime;
                if (dt < fpsInterval)
                   onIdle((fpsInterval - dt)<<1);
-               if (previewCallback != null)
+               if (frameCallback != null)
+                  deliverFrame(frameStore, frameIndex);
+               else if (previewCallback != null)
                {
                   previewCallback.onPreviewFrame(frameBuffer, null);
                   if (surface != null)
@@ -148,7 +152,9 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
             }
             else
             {
-               if (previewCallback != null)
+               if (frameCallback != null)
+                  deliverFrame(frameStore, frameIndex);
+               else if (previewCallback != null)
                {
                   previewCallback.onPreviewFrame(frameBuffer, null);
                   if (surface != null)
@@ -161,13 +167,14 @@ public class ContinuousPlaybackThread360 extends PlaybackThread360 implements Ru
       }
       catch (Exception e)
       {
-         Log.e(TAG, "PlaybackThread: bearing = " + currentBearing + " offset = " + offset + " file offset = " + fileOffset, e);
+         Log.e(TAG, "PlaybackThread: bearing = " + currentBearing + " offset = " + offset + " frame = " + frameIndex, e);
          throw new RuntimeException("PlaybackThread.run", e);
       }
       finally
       {
-         if (framesRAF != null)
-            try { framesRAF.close(); framesRAF = null; } catch (Exception e) {}
+         if (frameStore != null)
+            try { frameStore.close(); frameStore = null; } catch (Exception e) {}
+         surfaceDrawer.release();
          isStarted = false;
       }
    }
@@ -61,13 +61,13 @@ public class DirtyPlaybackThread360 extends PlaybackThread360 implements Runnabl
          try { startLatch.await(); } catch (InterruptedException e) { return; }
       }
       mustStop = false;
-      RandomAccessFile framesRAF = null;
+      FrameStore frameStore = null;
       byte[] frameBuffer = null;
       float offset =-1;
-      int fileOffset =-1;
+      long frameIndex =-1;
       try
       {
-         framesRAF = new RandomAccessFile(framesFile, "r");
+         frameStore = openFrameStore();
          isStarted = true;
          while (! mustStop)
          {
@@ -83,21 +83,24 @@ public class DirtyPlaybackThread360 extends PlaybackThread360 implements Runnabl
             currentBearing = (float) (Math.rint(currentBearing*10.0f)/10.0);
             if (currentBearing >= 360)
                currentBearing -= 360;
-            if ( ( (currentBearing <= startBearing) || (currentBearing > endBearing) ) &&
+            if ( ( (currentBearing <= startBearing) || (currentBearing > endBearing) ) && (frameCallback != null) )
+            {
+               offset = (float) (Math.floor(currentBearing / recordingIncrement) * recordingIncrement);
+               frameIndex = frameIndex(offset);
+               startBearing = offset;
+               endBearing = startBearing + recordingIncrement;
+               deliverFrame(frameStore, frameIndex);
+            }
+            else if ( ( (currentBearing <= startBearing) || (currentBearing > endBearing) ) &&
                    (! bufferQueue.isEmpty()) )
             {
                frameBuffer = bufferQueue.poll();
                offset = (float) (Math.floor(currentBearing / recordingIncrement) * recordingIncrement);
-               fileOffset = (int) (Math.floor(offset / recordingIncrement) * bufferSize);
-               framesRAF.seek(fileOffset);
-               try
-               {
-                  framesRAF.readFully(frameBuffer);
-               }
-               catch (EOFException _e)
+               frameIndex = frameIndex(offset);
+               if (! frameStore.read(frameIndex, frameBuffer))
                {
                   Arrays.fill(frameBuffer, (byte) 0);
-                  Log.e(TAG, "Offset out of range: " + fileOffset + ", bearing was " + currentBearing, _e);
+                  Log.e(TAG, "Frame out of range: " + frameIndex + ", bearing was " + currentBearing);
                }
                startBearing = offset;
                endBearing = startBearing + recordingIncrement;
@@ -116,13 +119,14 @@ public class DirtyPlaybackThread360 extends PlaybackThread360 implements Runnabl
       }
       catch (Exception e)
       {
-         Log.e(TAG, "PlaybackThread: bearing = " + currentBearing + " offset = " + offset + " file offset = " + fileOffset, e);
+         Log.e(TAG, "PlaybackThread: bearing = " + currentBearing + " offset = " + offset + " frame = " + frameIndex, e);
          throw new RuntimeException("PlaybackThread.run", e);
       }
       finally
       {
-         if (framesRAF != null)
-            try { framesRAF.close(); framesRAF = null; } catch (Exception e) {}
+         if (frameStore != null)
+            try { frameStore.close(); frameStore = null; } catch (Exception e) {}
+         surfaceDrawer.release();
          isStarted = false;
          mustStop = true;
       }
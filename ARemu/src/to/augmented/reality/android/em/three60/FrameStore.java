@@ -0,0 +1,57 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.three60;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access source of fixed size frames for 360 recordings. Frames are addressed by a 64 bit frame index
+ * (offset into the recording in recording increment units) so recordings larger than 2GB can be addressed.
+ */
+public interface FrameStore extends Closeable
+//===========================================
+{
+   /**
+    * @return The size in bytes of a single frame.
+    */
+   int getFrameSize();
+
+   /**
+    * @return The number of complete frames available.
+    */
+   long getFrameCount();
+
+   /**
+    * Returns a read-only view of a frame. The view shares the underlying storage so no copy is made.
+    * @param index The frame index
+    * @return A read-only ByteBuffer positioned at 0 with limit equal to the frame size, or null if index is
+    *         out of range.
+    */
+   ByteBuffer frame(long index);
+
+   /**
+    * Copies a frame into a caller supplied buffer.
+    * @param index The frame index
+    * @param dest The destination buffer (at least getFrameSize() bytes).
+    * @return <i>true</i> if the frame was read, <i>false</i> if index is out of range.
+    */
+   boolean read(long index, byte[] dest);
+
+   @Override void close() throws IOException;
+}
@@ -0,0 +1,118 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.three60;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FrameStore implementation over a memory mapped frames file. As a single mapping is limited to 2GB the file is
+ * mapped in segments, each segment holding a whole number of frames so a frame never straddles two mappings.
+ * Segments are mapped lazily on first access.
+ */
+public class MappedFrameStore implements FrameStore
+//=================================================
+{
+   final static private long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+   private final int frameSize;
+   private final long frameCount;
+   private final long framesPerSegment;
+   private final MappedByteBuffer[] segments;
+   private RandomAccessFile raf;
+   private FileChannel channel;
+
+   public MappedFrameStore(File framesFile, int frameSize) throws IOException
+   //-----------------------------------------------------------------------
+   {
+      if (frameSize <= 0)
+         throw new IllegalArgumentException("Invalid frame size " + frameSize);
+      this.frameSize = frameSize;
+      raf = new RandomAccessFile(framesFile, "r");
+      channel = raf.getChannel();
+      frameCount = channel.size() / frameSize;
+      framesPerSegment = Math.max(1L, MAX_SEGMENT_SIZE / frameSize);
+      segments = new MappedByteBuffer[(int) ((frameCount + framesPerSegment - 1) / framesPerSegment)];
+   }
+
+   @Override public int getFrameSize() { return frameSize; }
+
+   @Override public long getFrameCount() { return frameCount; }
+
+   private synchronized MappedByteBuffer segment(int segno) throws IOException
+   //------------------------------------------------------------
+   {
+      MappedByteBuffer segment = segments[segno];
+      if (segment == null)
+      {
+         if (channel == null)
+            throw new IOException("Frame store closed");
+         long position = segno * framesPerSegment * frameSize;
+         long size = Math.min(framesPerSegment, frameCount - segno * framesPerSegment) * frameSize;
+         segment = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+         segments[segno] = segment;
+      }
+      return segment;
+   }
+
+   @Override
+   public ByteBuffer frame(long index)
+   //---------------------------------
+   {
+      if ( (index < 0) || (index >= frameCount) )
+         return null;
+      final MappedByteBuffer segment;
+      try
+      {
+         segment = segment((int) (index / framesPerSegment));
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException("Error mapping frame " + index, e);
+      }
+      ByteBuffer view = segment.duplicate();
+      int offset = (int) ((index % framesPerSegment) * frameSize);
+      view.limit(offset + frameSize).position(offset);
+      return view.slice().asReadOnlyBuffer();
+   }
+
+   @Override
+   public boolean read(long index, byte[] dest)
+   //------------------------------------------
+   {
+      ByteBuffer view = frame(index);
+      if (view == null)
+         return false;
+      view.get(dest, 0, frameSize);
+      return true;
+   }
+
+   @Override
+   public synchronized void close() throws IOException
+   //------------------------------------
+   {
+      for (int i=0; i<segments.length; i++)
+         segments[i] = null;
+      channel = null;
+      if (raf != null)
+         try { raf.close(); } finally { raf = null; }
+   }
+}
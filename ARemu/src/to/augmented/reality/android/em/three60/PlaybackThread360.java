@@ -17,16 +17,15 @@ package to.augmented.reality.android.em.three60;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
 import android.hardware.Camera;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.ConditionVariable;
-import android.renderscript.RenderScript;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
+import to.augmented.reality.android.common.math.BearingMath;
 import to.augmented.reality.android.common.math.Quaternion;
 import to.augmented.reality.android.common.sensor.orientation.AccelerometerCompassProvider;
 import to.augmented.reality.android.common.sensor.orientation.FastFusedGyroscopeRotationVector;
@@ -38,12 +37,18 @@ import to.augmented.reality.android.common.sensor.orientation.StableFusedGyrosco
 import to.augmented.reality.android.em.ARCamera;
 import to.augmented.reality.android.em.AbstractARCamera;
 import to.augmented.reality.android.em.ARCameraDevice;
+import to.augmented.reality.android.em.ARFrame;
+import to.augmented.reality.android.em.ARFrameCallback;
 import to.augmented.reality.android.em.BearingListener;
+import to.augmented.reality.android.em.DirectBufferPool;
 import to.augmented.reality.android.em.Latcheable;
 import to.augmented.reality.android.em.ReviewListenable;
 import to.augmented.reality.android.em.Stoppable;
+import to.augmented.reality.android.em.SurfaceRenderer;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -52,13 +57,6 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicYuvToRGB;
-import android.renderscript.Type;
-import to.augmented.reality.android.em.rs.ScriptC_rgba2argb;
-
 import static to.augmented.reality.android.common.sensor.orientation.OrientationProvider.ORIENTATION_PROVIDER;
 
 /**
@@ -69,7 +67,6 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
 {
    final static private String TAG = PlaybackThread360.class.getSimpleName();
    final static protected int PREALLOCATED_BUFFERS = 3;
-   final static int REMAP_X = SensorManager.AXIS_X,  REMAP_Y = SensorManager.AXIS_Z;
 
    protected final int fps;
    protected boolean isUseBuffer;
@@ -82,6 +79,8 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
    final protected float recordingIncrement;
    protected Camera.PreviewCallback previewCallback;
    protected ARCameraDevice.ARCaptureCallback captureCallback;
+   protected ARFrameCallback frameCallback = null;
+   protected DirectBufferPool framePool = null;
    protected ConditionVariable bearingAvailCondVar = null;
    protected BearingListener bearingListener;
    protected ArrayBlockingQueue<byte[]> bufferQueue;
@@ -95,7 +94,8 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
    float startBearing = Float.MAX_VALUE, endBearing = -1, currentBearing =-1;
 
    protected File framesFile = null;
-   final long fileLen;
+   long fileLen;
+   protected int frameSegments = -1;
    private SensorEventListener rotationListener;
    volatile protected boolean isStarted = false;
    @Override public boolean isStarted() { return isStarted; }
@@ -117,10 +117,14 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
    private Future<?> reviewFuture;
    private int reviewPause = 0;
 
-   private RenderScript renderscript = null;
    protected Surface surface; // Only not null If the ARCamera had a setPreviewDisplay(holder) call. The surface is from the holder
    protected final Context context; // ""
    protected int width, height; // Only necessary where surface is not null
+   protected final SurfaceRenderer.Drawer surfaceDrawer;
+
+   protected int prefetchLookahead = 0;
+   protected long prefetchMemoryBudget = 0;
+   volatile protected PrefetchingFrameStore prefetchStore = null;
 
    public PlaybackThread360(Context context, File framesFile, int bufferSize, float recordingIncrement,
                             ORIENTATION_PROVIDER providerType, ARCamera.RecordFileFormat fileFormat,
@@ -130,9 +134,19 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
    {
       if (context == null)
          throw new RuntimeException("Context cannot be null");
-      this.fileLen = framesFile.length();
-      if (! framesFile.canRead())
-         throw new RuntimeException("Frames file " + framesFile + " not readable");
+      if (SegmentedFrameStore.isSegmented(framesFile))
+      {  // Segments are opened in openFrameStore once the segment count from the header is known
+         File f = SegmentedFrameStore.segmentFile(framesFile, 0);
+         if (! f.canRead())
+            throw new RuntimeException("Frames file segment " + f + " not readable");
+         this.fileLen = -1;
+      }
+      else
+      {
+         this.fileLen = framesFile.length();
+         if (! framesFile.canRead())
+            throw new RuntimeException("Frames file " + framesFile + " not readable");
+      }
       this.framesFile = framesFile;
       this.bufferSize = bufferSize;
       this.recordingIncrement = (float) (Math.rint(recordingIncrement*10.0f)/10.0);
@@ -144,8 +158,7 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
       this.context = context;
       width = previewWidth;
       height = previewHeight;
-      if (this.surface != null)
-         renderscript = RenderScript.create(context);
+      surfaceDrawer = new SurfaceRenderer.Drawer(context, previewSurface, width, height);
       this.isUseBuffer = (bufferQueue != null);
       if (! isUseBuffer)
       {  // If not using user defined buffers create an internal buffer of buffers
@@ -158,6 +171,8 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
    public void setCameraListener(Object callback)
    //--------------------------------------------
    {
+      if ( (callback == null) && (frameCallback != null) )
+         return;
       if (callback == null)
          throw new RuntimeException("Camera callback cannot be null");
       if (callback instanceof Camera.PreviewCallback)
@@ -170,8 +185,59 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
                                     ARCameraDevice.ARCaptureCallback.class.getName());
    }
 
+   /**
+    * Sets a callback which receives frames as read-only direct ByteBuffers instead of the byte[] preview callbacks.
+    * Frames are delivered as views of the memory mapped frames file without copying, except where a frame comes
+    * from the prefetch cache in which case it is copied into a pooled direct buffer.
+    */
+   public void setFrameCallback(ARFrameCallback callback) { setFrameCallback(callback, PREALLOCATED_BUFFERS); }
+
+   /**
+    * Sets the frame callback with a pool of up to bufferCount frame buffers. Callbacks which hold on to frames,
+    * such as a FrameFanOut, require more than the default PREALLOCATED_BUFFERS.
+    */
+   public void setFrameCallback(ARFrameCallback callback, int bufferCount)
+   //---------------------------------------------------------------------
+   {
+      frameCallback = callback;
+      bufferCount = Math.max(bufferCount, PREALLOCATED_BUFFERS);
+      if ( (callback != null) && ( (framePool == null) || (framePool.getMaxBuffers() != bufferCount) ) )
+         framePool = new DirectBufferPool(bufferSize, bufferCount);
+   }
+
    public void setBearingListener(BearingListener listener) { bearingListener = listener; }
 
+   /**
+    * Enables predictive prefetching of frames in the direction of bearing change. Must be called before the
+    * thread is started.
+    * @param lookahead The number of frames to prefetch ahead of the current bearing (0 to disable prefetching).
+    * @param memoryBudget The maximum memory in bytes to use for prefetched frames.
+    */
+   public void setPrefetch(int lookahead, long memoryBudget)
+   //-------------------------------------------------------
+   {
+      prefetchLookahead = lookahead;
+      prefetchMemoryBudget = memoryBudget;
+   }
+
+   /**
+    * Sets the number of segment files of a segmented frame set (FrameSegments in the recording header file). If
+    * not set the segments are probed for. Must be called before the thread is started.
+    */
+   public void setFrameSegments(int segments) { frameSegments = segments; }
+
+   public long getPrefetchHits() { PrefetchingFrameStore store = prefetchStore; return (store == null) ? 0 : store.getHits(); }
+
+   public long getPrefetchMisses() { PrefetchingFrameStore store = prefetchStore; return (store == null) ? 0 : store.getMisses(); }
+
+   protected void onPrefetchBearing(float bearing, long timestamp)
+   //-------------------------------------------------------------
+   {
+      PrefetchingFrameStore store = prefetchStore;
+      if (store != null)
+         store.onBearingChanged(bearing, timestamp);
+   }
+
    @Override abstract public void run();
 
    @Override
@@ -236,6 +302,7 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
                      if (reviewListenable != null)
                         reviewListenable.onReviewed(bearing);
                      bearing += recordingIncrement;
+                     onPrefetchBearing(bearing, System.nanoTime());
 //                     Log.i(TAG, "Preview bearing " + bearing);
                      if (bearingListener != null)
                         bearingListener.onBearingChanged(bearing);
@@ -256,6 +323,7 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
                         if (reviewListenable != null)
                            reviewListenable.onReviewed(bearing);
                         bearing -= recordingIncrement;
+                        onPrefetchBearing(bearing, System.nanoTime());
                         if (bearingListener != null)
                            bearingListener.onBearingChanged(bearing);
                      }
@@ -300,6 +368,38 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
 
    protected void onIdle(long idleTimeNS) { throw new RuntimeException("onIdle not implemented"); }
 
+   /**
+    * Opens the frame store used to access the frames file. The default implementation memory maps the frames file
+    * (or the segments of a segmented frame set) and wraps it in a PrefetchingFrameStore if prefetching was enabled
+    * using setPrefetch.
+    * @return A FrameStore over framesFile with a frame size of bufferSize.
+    * @throws IOException
+    */
+   protected FrameStore openFrameStore() throws IOException
+   //------------------------------------------------------
+   {
+      FrameStore store;
+      if (SegmentedFrameStore.isSegmented(framesFile))
+      {
+         store = new SegmentedFrameStore(framesFile, bufferSize, frameSegments);
+         fileLen = store.getFrameCount() * bufferSize;
+      }
+      else
+         store = new MappedFrameStore(framesFile, bufferSize);
+      if (prefetchLookahead > 0)
+      {
+         prefetchStore = new PrefetchingFrameStore(store, recordingIncrement, prefetchLookahead, prefetchMemoryBudget);
+         return prefetchStore;
+      }
+      return store;
+   }
+
+   /**
+    * @param offset A bearing offset (a multiple of recordingIncrement)
+    * @return The 64 bit index of the frame for offset in the frame store.
+    */
+   protected long frameIndex(float offset) { return (long) Math.floor(offset / recordingIncrement); }
+
    protected boolean onSetupOrientationSensor()
    //------------------------------------------
    {
@@ -336,18 +436,12 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
       orientationProvider.setOrientationListener(new OrientationListenable()
       //--------------------------------------------------------------------
       {
-         float[] RM = new float[16];
-
          @Override
          public void onOrientationListenerUpdate(float[] R, Quaternion Q, long timestamp)
          //-------------------------------------------------------------------------------
          {
-            SensorManager.remapCoordinateSystem(R, REMAP_X, REMAP_Y, RM);
-            bearing = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-            if (bearing < 0)
-               bearing += 360;
-            if (bearing >= 360)
-               bearing -= 360;
+            bearing = BearingMath.bearingDegrees(R);
+            onPrefetchBearing(bearing, timestamp);
             if (bearingAvailCondVar != null)
                bearingAvailCondVar.open();
             if (bearingListener != null)
@@ -358,48 +452,71 @@ abstract public class PlaybackThread360 implements Runnable, Stoppable, Latcheab
       return orientationProvider.isStarted();
    }
 
-   public void drawToSurface(final byte[] buffer)
-   //--------------------------------------------
+   /**
+    * Delivers a frame from the frame store to the frame callback, drawing it to the preview surface first if there
+    * is one. Mapped frames are passed as is, other (heap) frames are copied into a pooled direct buffer. Frames from
+    * a PrefetchingFrameStore are always copied into a pooled buffer as its cache buffers are recycled on eviction.
+    * If the index is out of range or no pooled buffer becomes available the frame is not delivered.
+    * @return <i>true</i> if the frame was delivered.
+    */
+   protected boolean deliverFrame(FrameStore store, long index) throws InterruptedException
+   //--------------------------------------------------------------------------------------
    {
-      int[] ARGB = new int[buffer.length/4];
-      try
+      final boolean isPrefetching = (store instanceof PrefetchingFrameStore);
+      ByteBuffer view = (isPrefetching) ? null : store.frame(index);
+      if ( (! isPrefetching) && (view == null) )
       {
-         Type.Builder rgbaType = new Type.Builder(renderscript, Element.RGBA_8888(renderscript)).setX(width).
-               setY( height).setMipmaps(false);
-         Allocation aIn = Allocation.createTyped(renderscript, rgbaType.create(), Allocation.USAGE_SCRIPT);
-         Type.Builder argbType = new Type.Builder(renderscript, Element.U32(renderscript)).setX(width).
-               setY( height).setMipmaps(false);
-         Allocation aOut = Allocation.createTyped(renderscript, argbType.create(), Allocation.USAGE_SCRIPT);
-         ScriptC_rgba2argb rs = new ScriptC_rgba2argb(renderscript);
-         aIn.copyFrom(buffer);
-         rs.set_in(aIn);
-         rs.forEach_rgba2argb(aOut);
-         aOut.copyTo(ARGB);
+         Log.e(TAG, "Frame out of range: " + index + ", bearing was " + currentBearing);
+         return false;
       }
-      catch (Exception e)
+      long timestamp;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+         timestamp = SystemClock.elapsedRealtimeNanos();
+      else
+         timestamp = System.nanoTime();
+      ARFrame frame;
+      if ( (view != null) && (view.isDirect()) )
+         frame = new ARFrame(view, null, width, height, fileFormat, timestamp, currentBearing);
+      else
       {
-         Log.e("PlaybackThreadFree", "drawToSurface: Renderscript RGBA to ARGB error", e);
-         int i=0, j = 0;
-         while (i<buffer.length)
+         ByteBuffer buffer = framePool.acquire(500, TimeUnit.MILLISECONDS);
+         if (buffer == null)
+         {
+            Log.w(TAG, "Timed out waiting for a frame buffer. Check if ARFrame.release is being called");
+            return false;
+         }
+         if (isPrefetching)
          {
-            int r = (int) buffer[i++];
-            if (r < 0) r = 256 + r; // Brain-dead Java has no unsigned char
-            int g = (int) buffer[i++];
-            if (g < 0) g = 256 + g;
-            int b = (int) buffer[i++];
-            if (b < 0) b = 256 + b;
-            int a = buffer[i++];
-            if (a < 0) a = 256 + a;
-            ARGB[j++] = Color.argb(a, r, g, b);
+            if (! ((PrefetchingFrameStore) store).read(index, buffer))
+            {
+               framePool.release(buffer);
+               Log.e(TAG, "Frame out of range: " + index + ", bearing was " + currentBearing);
+               return false;
+            }
          }
+         else
+         {
+            buffer.limit(Math.min(view.remaining(), buffer.capacity()));
+            view.limit(view.position() + buffer.remaining());
+            buffer.put(view);
+            buffer.flip();
+         }
+         frame = new ARFrame(buffer, framePool, width, height, fileFormat, timestamp, currentBearing);
       }
-
-      Bitmap bmp = Bitmap.createBitmap(ARGB, width, height, Bitmap.Config.ARGB_8888);
-      Canvas canvas = surface.lockCanvas(null);
-      canvas.drawBitmap(bmp, 0, 0, null);
-      surface.unlockCanvasAndPost(canvas);
+      if (surface != null)
+         surfaceDrawer.draw(frame.getBuffer());
+      frameCallback.onFrameAvailable(frame);
+      return true;
    }
 
+   public void setSurfaceRenderer(SurfaceRenderer renderer) { surfaceDrawer.setRenderer(renderer); }
+
+   /**
+    * Draws an RGBA frame on the preview surface using the renderer shared by the camera (see setSurfaceRenderer),
+    * or if none was provided a renderer owned by this thread which is released when the thread stops.
+    */
+   public void drawToSurface(final byte[] buffer) { surfaceDrawer.draw(buffer); }
+
 //   protected boolean onSetupRotationSensor()
 //   //------------------------------------
 //   {
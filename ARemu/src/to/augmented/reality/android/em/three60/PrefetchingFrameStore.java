@@ -0,0 +1,356 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.three60;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A FrameStore decorator which predictively prefetches frames in the direction the bearing is moving.
+ * The angular velocity is estimated from successive bearings passed to {@link #onBearingChanged(float, long)} and
+ * the next <i>lookahead</i> frames in the direction of travel are loaded on a background thread into a bounded
+ * LRU cache. Evicted frame buffers are recycled so once the cache is full prefetching does not allocate.
+ * Because of this recycling cached frames are never handed out as views of the cache: {@link #frame(long)} returns
+ * a copy of a cached frame, and {@link #read(long, byte[])} or {@link #read(long, ByteBuffer)} copy it into a caller
+ * provided buffer without allocating.
+ */
+public class PrefetchingFrameStore implements FrameStore
+//======================================================
+{
+   final static private String TAG = PrefetchingFrameStore.class.getSimpleName();
+
+   /** Below this angular speed (degrees/s) the bearing is considered stationary and frames either side are loaded. */
+   final static private float STATIONARY_VELOCITY = 2.0f;
+   final static private float VELOCITY_SMOOTHING = 0.5f;
+
+   private final FrameStore store;
+   private final int frameSize;
+   private final long frameCount;
+   private final float recordingIncrement;
+   private final int lookahead;
+   private final int maxFrames;
+
+   private final LinkedHashMap<Long, byte[]> cache;
+   private final ArrayDeque<byte[]> spares = new ArrayDeque<>();
+
+   private final AtomicLong hits = new AtomicLong(0), misses = new AtomicLong(0), prefetched = new AtomicLong(0);
+   public long getHits() { return hits.get(); }
+   public long getMisses() { return misses.get(); }
+   public long getPrefetched() { return prefetched.get(); }
+
+   private float lastBearing = -1;
+   private long lastTimestamp = -1;
+   volatile private float velocity = 0;
+   /** @return The current smoothed estimate of the angular velocity in degrees per second. */
+   public float getVelocity() { return velocity; }
+
+   volatile private long targetIndex = -1;
+   private final AtomicBoolean isPrefetching = new AtomicBoolean(false);
+   volatile private boolean isClosed = false;
+
+   private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+   {
+      @Override
+      public Thread newThread(Runnable r)
+      //---------------------------------
+      {
+         Thread t = new Thread(r);
+         t.setDaemon(true);
+         t.setName("Prefetch");
+         t.setPriority(Thread.NORM_PRIORITY - 1);
+         return t;
+      }
+   });
+
+   private final Runnable prefetchTask = new Runnable()
+   //==================================================
+   {
+      @Override
+      public void run()
+      //---------------
+      {
+         long start = -1;
+         do
+         {
+            try
+            {
+               do
+               {
+                  start = targetIndex;
+                  prefetch(start, velocity);
+               } while ( (start != targetIndex) && (! isClosed) );
+            }
+            catch (Exception e)
+            {
+               Log.e(TAG, "Prefetch", e);
+               return;
+            }
+            finally
+            {
+               isPrefetching.set(false);
+            }
+            // A bearing change between the last check and clearing isPrefetching did not schedule a prefetch
+            // (the flag was still set), so continue if the target moved and no other prefetch has been started.
+         } while ( (start != targetIndex) && (! isClosed) && (isPrefetching.compareAndSet(false, true)) );
+      }
+   };
+
+   /**
+    * @param store The FrameStore to prefetch from.
+    * @param recordingIncrement The recording increment of the 360 recording.
+    * @param lookahead The number of frames to prefetch in the direction of travel.
+    * @param memoryBudget The maximum number of bytes to use for cached frames. At least lookahead + 1 frames
+    *                     are always allowed.
+    */
+   public PrefetchingFrameStore(FrameStore store, float recordingIncrement, int lookahead, long memoryBudget)
+   //-------------------------------------------------------------------------------------------------------
+   {
+      this.store = store;
+      this.frameSize = store.getFrameSize();
+      this.frameCount = store.getFrameCount();
+      this.recordingIncrement = recordingIncrement;
+      this.lookahead = Math.max(1, lookahead);
+      this.maxFrames = (int) Math.min(Integer.MAX_VALUE - 1, Math.max(this.lookahead + 1, memoryBudget / frameSize));
+      cache = new LinkedHashMap<Long, byte[]>(Math.min(maxFrames, 64), 0.75f, true)
+      {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest)
+         //-----------------------------------------------------------------
+         {
+            if (size() > maxFrames)
+            {
+               spares.push(eldest.getValue());
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   @Override public int getFrameSize() { return frameSize; }
+
+   @Override public long getFrameCount() { return frameCount; }
+
+   public int getLookahead() { return lookahead; }
+
+   public int getMaxCachedFrames() { return maxFrames; }
+
+   /**
+    * Updates the angular velocity estimate and schedules prefetching around the new bearing. Typically called from
+    * the bearing listener.
+    * @param bearing The new bearing in degrees [0, 360)
+    * @param timestamp The bearing timestamp in nanoseconds.
+    */
+   public void onBearingChanged(float bearing, long timestamp)
+   //---------------------------------------------------------
+   {
+      if ( (isClosed) || (bearing < 0) )
+         return;
+      synchronized (this)
+      {
+         if ( (lastTimestamp >= 0) && (timestamp > lastTimestamp) )
+         {
+            float delta = bearing - lastBearing;
+            if (delta > 180)
+               delta -= 360;
+            else if (delta < -180)
+               delta += 360;
+            float v = delta / ((timestamp - lastTimestamp) / 1000000000f);
+            velocity = VELOCITY_SMOOTHING * v + (1 - VELOCITY_SMOOTHING) * velocity;
+         }
+         lastBearing = bearing;
+         lastTimestamp = timestamp;
+      }
+      targetIndex = (long) Math.floor(bearing / recordingIncrement);
+      if (isPrefetching.compareAndSet(false, true))
+      {
+         try
+         {
+            prefetchExecutor.submit(prefetchTask);
+         }
+         catch (Exception e)
+         {
+            isPrefetching.set(false);
+         }
+      }
+   }
+
+   private void prefetch(long index, float velocity)
+   //-----------------------------------------------
+   {
+      if ( (index < 0) || (frameCount <= 0) )
+         return;
+      if (Math.abs(velocity) < STATIONARY_VELOCITY)
+      {
+         final int n = Math.max(1, lookahead / 2);
+         for (int i=1; i<=n; i++)
+         {
+            if ( (isClosed) || (index != targetIndex) ) return;
+            load(wrap(index + i));
+            load(wrap(index - i));
+         }
+      }
+      else
+      {
+         final int direction = (velocity > 0) ? 1 : -1;
+         for (int i=1; i<=lookahead; i++)
+         {
+            if ( (isClosed) || (index != targetIndex) ) return;
+            load(wrap(index + direction*i));
+         }
+      }
+   }
+
+   private long wrap(long index)
+   //---------------------------
+   {
+      index %= frameCount;
+      return (index < 0) ? index + frameCount : index;
+   }
+
+   private void load(long index)
+   //---------------------------
+   {
+      byte[] buffer;
+      synchronized (cache)
+      {
+         if (cache.containsKey(index))
+            return;
+         buffer = spares.poll();
+      }
+      if (buffer == null)
+         buffer = new byte[frameSize];
+      if (store.read(index, buffer))
+      {
+         synchronized (cache)
+         {
+            if (! cache.containsKey(index))
+            {
+               cache.put(index, buffer);
+               prefetched.incrementAndGet();
+               return;
+            }
+         }
+      }
+      synchronized (cache) { spares.push(buffer); }
+   }
+
+   /**
+    * Returns a read-only view of a frame. A cached frame is copied (the cache buffer is recycled when the frame is
+    * evicted so it can't be shared), otherwise the view is provided by the underlying store.
+    * @see #read(long, ByteBuffer)
+    */
+   @Override
+   public ByteBuffer frame(long index)
+   //---------------------------------
+   {
+      synchronized (cache)
+      {
+         byte[] buffer = cache.get(index);
+         if (buffer != null)
+         {
+            hits.incrementAndGet();
+            return ByteBuffer.wrap(buffer.clone()).asReadOnlyBuffer();
+         }
+      }
+      misses.incrementAndGet();
+      return store.frame(index);
+   }
+
+   /**
+    * Copies a frame into a caller supplied buffer (from position 0, at most dest.capacity() bytes). On return dest
+    * is flipped ready for reading.
+    * @return <i>true</i> if the frame was read, <i>false</i> if index is out of range.
+    */
+   public boolean read(long index, ByteBuffer dest)
+   //----------------------------------------------
+   {
+      dest.clear();
+      synchronized (cache)
+      {
+         byte[] buffer = cache.get(index);
+         if (buffer != null)
+         {
+            hits.incrementAndGet();
+            dest.put(buffer, 0, Math.min(frameSize, dest.capacity()));
+            dest.flip();
+            return true;
+         }
+      }
+      misses.incrementAndGet();
+      ByteBuffer view = store.frame(index);
+      if (view == null)
+         return false;
+      view.limit(view.position() + Math.min(view.remaining(), dest.capacity()));
+      dest.put(view);
+      dest.flip();
+      return true;
+   }
+
+   @Override
+   public boolean read(long index, byte[] dest)
+   //------------------------------------------
+   {
+      synchronized (cache)
+      {
+         byte[] buffer = cache.get(index);
+         if (buffer != null)
+         {
+            hits.incrementAndGet();
+            System.arraycopy(buffer, 0, dest, 0, frameSize);
+            return true;
+         }
+      }
+      misses.incrementAndGet();
+      return store.read(index, dest);
+   }
+
+   /**
+    * Resets the hit, miss and prefetch counters.
+    */
+   public void resetCounters()
+   //-------------------------
+   {
+      hits.set(0);
+      misses.set(0);
+      prefetched.set(0);
+   }
+
+   @Override
+   public void close() throws IOException
+   //------------------------------------
+   {
+      isClosed = true;
+      prefetchExecutor.shutdownNow();
+      synchronized (cache)
+      {
+         cache.clear();
+         spares.clear();
+      }
+      store.close();
+   }
+}
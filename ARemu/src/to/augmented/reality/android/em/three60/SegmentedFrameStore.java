@@ -0,0 +1,175 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.em.three60;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * FrameStore implementation over a segmented frame set in which the frames are split over several files each
+ * holding the same number of frames (except the last). Segment n of frames file base is named base.nnn, and the
+ * recording header file specifies the number of segment files as FrameSegments with FramesFile naming the
+ * (nonexistent) base file. Each segment is memory mapped lazily using a MappedFrameStore.
+ */
+public class SegmentedFrameStore implements FrameStore
+//====================================================
+{
+   private final int frameSize;
+   private final long framesPerSegment;
+   private final long frameCount;
+   private final File[] files;
+   private final MappedFrameStore[] segments;
+
+   public SegmentedFrameStore(File framesFile, int frameSize) throws IOException { this(framesFile, frameSize, -1); }
+
+   /**
+    * @param framesFile The (nonexistent) base frames file.
+    * @param frameSize The size of a frame in bytes.
+    * @param segmentCount The number of segment files (FrameSegments in the header file) or &lt;= 0 if unknown in
+    *                     which case segments are probed for until one is not found.
+    * @throws IOException if a segment is missing or has the wrong number of frames.
+    */
+   public SegmentedFrameStore(File framesFile, int frameSize, int segmentCount) throws IOException
+   //--------------------------------------------------------------------------------------------
+   {
+      if (frameSize <= 0)
+         throw new IllegalArgumentException("Invalid frame size " + frameSize);
+      this.frameSize = frameSize;
+      files = segmentFiles(framesFile, segmentCount);
+      if (files.length == 0)
+         throw new IOException("No frame segments found for " + framesFile);
+      segments = new MappedFrameStore[files.length];
+      framesPerSegment = files[0].length() / frameSize;
+      if (framesPerSegment <= 0)
+         throw new IOException("Frame segment " + files[0] + " is empty");
+      long count = 0;
+      for (int i=0; i<files.length; i++)
+      {
+         long n = files[i].length() / frameSize;
+         if ( (i < files.length - 1) && (n != framesPerSegment) )
+            throw new IOException("Frame segment " + files[i] + " has " + n + " frames (expected " + framesPerSegment + ")");
+         count += n;
+      }
+      frameCount = count;
+   }
+
+   /**
+    * @param segmentCount The number of segments or &lt;= 0 to probe for existing segments.
+    * @return The segment files of framesFile.
+    * @throws IOException if one of segmentCount segments does not exist.
+    */
+   static public File[] segmentFiles(File framesFile, int segmentCount) throws IOException
+   //-------------------------------------------------------------------------------------
+   {
+      if (segmentCount <= 0)
+      {
+         List<File> fileList = new ArrayList<>();
+         File f;
+         while ( (f = segmentFile(framesFile, fileList.size())).exists())
+            fileList.add(f);
+         return fileList.toArray(new File[fileList.size()]);
+      }
+      File[] files = new File[segmentCount];
+      for (int i=0; i<segmentCount; i++)
+      {
+         files[i] = segmentFile(framesFile, i);
+         if (! files[i].exists())
+            throw new IOException("Frame segment " + files[i] + " of " + segmentCount + " not found");
+      }
+      return files;
+   }
+
+   static public File segmentFile(File framesFile, int segno)
+   //---------------------------------------------------------
+   {
+      return new File(framesFile.getParentFile(), String.format(Locale.US, "%s.%03d", framesFile.getName(), segno));
+   }
+
+   /**
+    * @return <i>true</i> if framesFile names a segmented frame set (the file itself does not exist but its first
+    * segment does).
+    */
+   static public boolean isSegmented(File framesFile)
+   //------------------------------------------------
+   {
+      return (! framesFile.exists()) && (segmentFile(framesFile, 0).exists());
+   }
+
+   @Override public int getFrameSize() { return frameSize; }
+
+   @Override public long getFrameCount() { return frameCount; }
+
+   public int getSegmentCount() { return files.length; }
+
+   private synchronized MappedFrameStore segment(int segno) throws IOException
+   //-------------------------------------------------------------------------
+   {
+      MappedFrameStore segment = segments[segno];
+      if (segment == null)
+      {
+         segment = new MappedFrameStore(files[segno], frameSize);
+         segments[segno] = segment;
+      }
+      return segment;
+   }
+
+   @Override
+   public ByteBuffer frame(long index)
+   //---------------------------------
+   {
+      if ( (index < 0) || (index >= frameCount) )
+         return null;
+      try
+      {
+         return segment((int) (index / framesPerSegment)).frame(index % framesPerSegment);
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException("Error opening segment for frame " + index, e);
+      }
+   }
+
+   @Override
+   public boolean read(long index, byte[] dest)
+   //------------------------------------------
+   {
+      ByteBuffer view = frame(index);
+      if (view == null)
+         return false;
+      view.get(dest, 0, frameSize);
+      return true;
+   }
+
+   @Override
+   public synchronized void close() throws IOException
+   //-------------------------------------------------
+   {
+      IOException ex = null;
+      for (int i=0; i<segments.length; i++)
+      {
+         if (segments[i] != null)
+            try { segments[i].close(); } catch (IOException e) { ex = e; }
+         segments[i] = null;
+      }
+      if (ex != null)
+         throw ex;
+   }
+}
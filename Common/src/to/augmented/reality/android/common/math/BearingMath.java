@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.math;
+
+/**
+ * Allocation free, thread safe bearing, pitch and roll extraction from rotation matrices and quaternions.
+ * <p>
+ * The bearing is the azimuth of the device's camera (-Z) axis, ie the angle returned by SensorManager.getOrientation
+ * after SensorManager.remapCoordinateSystem(R, AXIS_X, AXIS_Z, RM) as used throughout the recorder and playback
+ * code. The remapped matrix elements are taken directly from R in closed form (no remap, no scratch arrays):
+ * RM[1] = -R[2], RM[5] = -R[6], RM[8] = R[8], RM[9] = -R[10] and RM[10] = R[9].
+ * <p>
+ * Matrices may be 4x4 (16 elements) or 3x3 (9 elements) in SensorManager row major layout. Quaternions use the
+ * OrientationProvider convention (x, y, z, w) = (q1, q2, q3, -q0) of the Android rotation vector quaternion (the
+ * sign of the whole quaternion does not matter and it need not be normalised).
+ */
+public class BearingMath
+//======================
+{
+   static final private float TWO_PI = (float) (2 * Math.PI);
+
+   /**
+    * @param R A 4x4 or 3x3 rotation matrix
+    * @return The bearing in radians in the range [0, 2PI).
+    */
+   static public float bearingRadians(float[] R)
+   //-------------------------------------------
+   {
+      final float bearing = (R.length == 9) ? (float) Math.atan2(-R[2], -R[5]) : (float) Math.atan2(-R[2], -R[6]);
+      return wrapRadians(bearing);
+   }
+
+   /**
+    * @param R A 4x4 or 3x3 rotation matrix
+    * @return The bearing in degrees in the range [0, 360).
+    */
+   static public float bearingDegrees(float[] R)
+   //-------------------------------------------
+   {
+      final double bearing = (R.length == 9) ? Math.atan2(-R[2], -R[5]) : Math.atan2(-R[2], -R[6]);
+      return wrapDegrees((float) Math.toDegrees(bearing));
+   }
+
+   /**
+    * @param R A 4x4 or 3x3 rotation matrix
+    * @return The pitch in radians in the range [-PI/2, PI/2].
+    */
+   static public float pitchRadians(float[] R)
+   //-----------------------------------------
+   {
+      return (float) Math.asin(clamp((R.length == 9) ? R[8] : R[10]));
+   }
+
+   /**
+    * @param R A 4x4 or 3x3 rotation matrix
+    * @return The roll in radians in the range [-PI, PI].
+    */
+   static public float rollRadians(float[] R)
+   //----------------------------------------
+   {
+      return (R.length == 9) ? (float) Math.atan2(-R[6], R[7]) : (float) Math.atan2(-R[8], R[9]);
+   }
+
+   /**
+    * @param R A 4x4 or 3x3 rotation matrix
+    * @param dst Receives the bearing [0, 2PI), pitch and roll in radians.
+    * @return dst
+    */
+   static public float[] anglesRadians(float[] R, float[] dst)
+   //---------------------------------------------------------
+   {
+      dst[0] = bearingRadians(R);
+      dst[1] = pitchRadians(R);
+      dst[2] = rollRadians(R);
+      return dst;
+   }
+
+   /**
+    * @param Q A rotation quaternion (OrientationProvider convention)
+    * @return The bearing in radians in the range [0, 2PI).
+    */
+   static public float bearingRadians(Quaternion Q)
+   //----------------------------------------------
+   {
+      final float x = Q.getX(), y = Q.getY(), z = Q.getZ(), w = Q.getW();
+      // -R[2] = 2(yw - xz), -R[6] = -2(yz + xw)
+      return wrapRadians((float) Math.atan2(y*w - x*z, -(y*z + x*w)));
+   }
+
+   /**
+    * @param Q A rotation quaternion (OrientationProvider convention)
+    * @return The bearing in degrees in the range [0, 360).
+    */
+   static public float bearingDegrees(Quaternion Q)
+   //----------------------------------------------
+   {
+      final float x = Q.getX(), y = Q.getY(), z = Q.getZ(), w = Q.getW();
+      return wrapDegrees((float) Math.toDegrees(Math.atan2(y*w - x*z, -(y*z + x*w))));
+   }
+
+   /**
+    * @param Q A rotation quaternion (OrientationProvider convention)
+    * @return The pitch in radians in the range [-PI/2, PI/2].
+    */
+   static public float pitchRadians(Quaternion Q)
+   //--------------------------------------------
+   {
+      final float x = Q.getX(), y = Q.getY(), z = Q.getZ(), w = Q.getW();
+      final float n = x*x + y*y + z*z + w*w;
+      // R[10] = 1 - 2(x^2 + y^2) for unit quaternions
+      return (n == 0) ? 0 : (float) Math.asin(clamp((w*w + z*z - x*x - y*y) / n));
+   }
+
+   /**
+    * @param Q A rotation quaternion (OrientationProvider convention)
+    * @return The roll in radians in the range [-PI, PI].
+    */
+   static public float rollRadians(Quaternion Q)
+   //-------------------------------------------
+   {
+      final float x = Q.getX(), y = Q.getY(), z = Q.getZ(), w = Q.getW();
+      // -R[8] = -2(xz + yw), R[9] = 2(yz - xw)
+      return (float) Math.atan2(-(x*z + y*w), y*z - x*w);
+   }
+
+   /**
+    * @param Q A rotation quaternion (OrientationProvider convention)
+    * @param dst Receives the bearing [0, 2PI), pitch and roll in radians.
+    * @return dst
+    */
+   static public float[] anglesRadians(Quaternion Q, float[] dst)
+   //------------------------------------------------------------
+   {
+      dst[0] = bearingRadians(Q);
+      dst[1] = pitchRadians(Q);
+      dst[2] = rollRadians(Q);
+      return dst;
+   }
+
+   /**
+    * Calculates the bearings of a sequence of 4x4 rotation matrices stored in a single array.
+    * @param matrices The matrices. Matrix i starts at offset + i*stride.
+    * @param offset The offset of the first matrix.
+    * @param stride The distance between matrices (at least 16, larger if other data is interleaved).
+    * @param count The number of matrices.
+    * @param dst Receives the bearings in degrees [0, 360) starting at dstOffset.
+    * @param dstOffset The offset in dst.
+    * @return dst
+    */
+   static public float[] bearingsDegrees(float[] matrices, int offset, int stride, int count, float[] dst, int dstOffset)
+   //-------------------------------------------------------------------------------------------------------------------
+   {
+      if (stride < 16)
+         throw new IllegalArgumentException("Matrix stride must be at least 16 (" + stride + ")");
+      if (count <= 0)
+         return dst;
+      if ( (offset + (long) (count - 1) * stride + 16 > matrices.length) || (dstOffset + count > dst.length) )
+         throw new ArrayIndexOutOfBoundsException("Bearing batch out of range");
+      for (int i=0, off=offset; i<count; i++, off += stride)
+         dst[dstOffset + i] = wrapDegrees((float) Math.toDegrees(Math.atan2(-matrices[off + 2], -matrices[off + 6])));
+      return dst;
+   }
+
+   static private float wrapRadians(float bearing)
+   //---------------------------------------------
+   {
+      if (bearing < 0)
+         bearing += TWO_PI;
+      if (bearing >= TWO_PI)
+         bearing -= TWO_PI;
+      return bearing;
+   }
+
+   static private float wrapDegrees(float bearing)
+   //---------------------------------------------
+   {
+      if (bearing < 0)
+         bearing += 360;
+      if (bearing >= 360)
+         bearing -= 360;
+      return bearing;
+   }
+
+   static private float clamp(float v) { return (v > 1) ? 1 : ((v < -1) ? -1 : v); }
+}
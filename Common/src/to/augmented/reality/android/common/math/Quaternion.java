@@ -71,12 +71,23 @@ public class Quaternion implements Cloneable
    //--------------------------------------------------
    {
       float theta = QuickFloat.acos(dot(vector1, vector2));
-      float[] cross = cross(vector1, vector2);
-      cross = normalizeVec(cross);
+      float cx = vector2[2] * vector1[1] - vector2[1] * vector1[2];
+      float cy = vector2[0] * vector1[2] - vector2[2] * vector1[0];
+      float cz = vector2[1] * vector1[0] - vector2[0] * vector1[1];
+      final float d = QuickFloat.sqrt(cx * cx + cy * cy + cz * cz);
+      if (d > 0.0f)
+      {
+         cx /= d;
+         cy /= d;
+         cz /= d;
+      }
+      else
+         cx = cy = cz = 0;
 
-      this.x = QuickFloat.sin(theta / 2) * cross[0];
-      this.y = QuickFloat.sin(theta / 2) * cross[1];
-      this.z = QuickFloat.sin(theta / 2) * cross[2];
+      final float s = QuickFloat.sin(theta / 2);
+      this.x = s * cx;
+      this.y = s * cy;
+      this.z = s * cz;
       this.w = QuickFloat.cos(theta / 2);
       this.normalize();
    }
@@ -86,36 +97,23 @@ public class Quaternion implements Cloneable
     *
     * @return new float[4] with ,theta,Rx,Ry,Rz
     */
-   public float[] toAxis()
-   //---------------------
-   {
-      float[] vec = new float[4];
-      float scale = QuickFloat.sqrt(x * x + y * y + z * z);
-      vec[0] = QuickFloat.acos(w) * 2.0f;
-      vec[1] = x / scale;
-      vec[2] = y / scale;
-      vec[3] = z / scale;
-      return vec;
-   }
+   public float[] toAxis() { return toAxis(new float[4]); }
 
    /**
-    * Normalize a vector
+    * Transform the rotational quaternion to axis based rotation angles without allocating.
     *
-    * @param vector input vector
-    * @return normalized vector
+    * @param dst float[4] (or larger) which receives theta,Rx,Ry,Rz
+    * @return dst
     */
-   private float[] normalizeVec(float[] vector)
+   public float[] toAxis(float[] dst)
+   //--------------------------------
    {
-      float[] newVector = new float[3];
-
-      float d = QuickFloat.sqrt(vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2]);
-      if (d > 0.0f)
-      {
-         newVector[0] = vector[0] / d;
-         newVector[1] = vector[1] / d;
-         newVector[2] = vector[2] / d;
-      }
-      return newVector;
+      float scale = QuickFloat.sqrt(x * x + y * y + z * z);
+      dst[0] = QuickFloat.acos(w) * 2.0f;
+      dst[1] = x / scale;
+      dst[2] = y / scale;
+      dst[3] = z / scale;
+      return dst;
    }
 
    /**
@@ -130,25 +128,6 @@ public class Quaternion implements Cloneable
       return (vec1[0] * vec2[0] + vec1[1] * vec2[1] + vec1[2] * vec2[2]);
    }
 
-   /**
-    * cross product vec1 x vec2
-    *
-    * @param vec1 vector 1
-    * @param vec2 vector 2
-    * @return the resulting vector
-    */
-   private float[] cross(float[] vec1, float[] vec2)
-   //-----------------------------------------------
-   {
-      float[] out = new float[3];
-
-      out[0] = vec2[2] * vec1[1] - vec2[1] * vec1[2];
-      out[1] = vec2[0] * vec1[2] - vec2[2] * vec1[0];
-      out[2] = vec2[1] * vec1[0] - vec2[0] * vec1[1];
-
-      return out;
-   }
-
    public float getW()
    {
       return w;
@@ -277,7 +256,8 @@ public class Quaternion implements Cloneable
    }
 
    /**
-    * Multiply this quaternion by the input quaternion and store the result in the out quaternion
+    * Multiply this quaternion by the input quaternion and store the result in the out quaternion. Result may be the
+    * same instance as this or other.
     *
     * @param other
     * @param result
@@ -285,38 +265,33 @@ public class Quaternion implements Cloneable
    public Quaternion multiply(Quaternion other, Quaternion result)
    //-------------------------------------------------------------
    {
-      if (other == result)
-      {
-         final Quaternion Q = new Quaternion(this);
-         Q.multiply(other);
-         result.setFrom(Q);
-      }
-      else
-      {
-         result.setFrom(this);
-         result.multiply(other);
-      }
+      final float newX = this.w * other.x + this.x * other.w + this.y * other.z - this.z * other.y;
+      final float newY = this.w * other.y + this.y * other.w + this.z * other.x - this.x * other.z;
+      final float newZ = this.w * other.z + this.z * other.w + this.x * other.y - this.y * other.x;
+      final float newW = this.w * other.w - this.x * other.x - this.y * other.y - this.z * other.z;
+      result.x = newX;
+      result.y = newY;
+      result.z = newZ;
+      result.w = newW;
       return result;
    }
 
-   /** Multiplies this quaternion with another one in the form of this = other * this
+   /** Multiplies this quaternion with another one in the form of result = other * this. Result may be the same
+    * instance as this or other.
     *
     * @param other Quaternion to multiply with
-    * @return This quaternion for chaining */
+    * @return The result quaternion */
    public Quaternion multiplyLeft (Quaternion other, Quaternion result)
    //-----------------------------------------------------------------
    {
-      if (other == result)
-      {
-         final Quaternion Q = new Quaternion(this);
-         Q.multiplyLeft(other);
-         result.setFrom(Q);
-      }
-      else
-      {
-         result.setFrom(this);
-         result.multiplyLeft(other);
-      }
+      final float newX = other.w * this.x + other.x * this.w + other.y * this.z - other.z * this.y;
+      final float newY = other.w * this.y + other.y * this.w + other.z * this.x - other.x * this.z;
+      final float newZ = other.w * this.z + other.z * this.w + other.x * this.y - other.y * this.x;
+      final float newW = other.w * this.w - other.x * this.x - other.y * this.y - other.z * this.z;
+      result.x = newX;
+      result.y = newY;
+      result.z = newZ;
+      result.w = newW;
       return result;
    }
 
@@ -418,7 +393,6 @@ public class Quaternion implements Cloneable
    {
       float magnitude = QuickFloat.sqrt(QuickFloat.lenSquare(src) * QuickFloat.lenSquare(dst));
       float real_part = magnitude + dot(src, dst);
-      float[] imaginary_part;
 
       if (real_part < 1.e-6f * magnitude)
       {
@@ -426,15 +400,25 @@ public class Quaternion implements Cloneable
          * around an arbitrary orthogonal axis. Axis normalisation
          * can happen later, when we normalise the quaternion. */
          real_part = 0.0f;
-         imaginary_part = (QuickFloat.abs(src[0]) > QuickFloat.abs(src[2]))
-             ? new float[] { -src[1], src[0], 0.f }
-             : new float[] {0.f, -src[2], src[1] };
+         if (QuickFloat.abs(src[0]) > QuickFloat.abs(src[2]))
+         {
+            x = -src[1];
+            y = src[0];
+            z = 0.f;
+         }
+         else
+         {
+            x = 0.f;
+            y = -src[2];
+            z = src[1];
+         }
       }
       else // Otherwise, build quaternion the standard way.
-         imaginary_part = cross(src, dst);
-      x = imaginary_part[0];
-      y = imaginary_part[1];
-      z = imaginary_part[2];
+      {
+         x = dst[2] * src[1] - dst[1] * src[2];
+         y = dst[0] * src[2] - dst[2] * src[0];
+         z = dst[1] * src[0] - dst[0] * src[1];
+      }
       w = real_part;
 //      return normalize(quat(real_part, w.x, w.y, w.z));
       return this;
@@ -442,37 +426,44 @@ public class Quaternion implements Cloneable
 
    public Quaternion fromRotation(final float radians, final float[] v)
    //------------------------------------------------------------------
-{
-   float half_angle = radians * 0.5f;
-   float[] tmp = new float[v.length];
-   for (int i=0; i<v.length; i++)
-      tmp[i] = v[i];
-   QuickFloat.vecNormalize(tmp, 0, tmp.length);
-   QuickFloat.vecScalarMultiply(tmp, 0, tmp.length, QuickFloat.sin(half_angle));
-   this.x = tmp[0];
-   this.y = tmp[1];
-   this.z = tmp[2];
-   this.w = QuickFloat.cos(half_angle);
-   return this;
-}
-
-   public Quaternion fromRotation(float radians, float x, float y, float z) { return fromRotation(radians,
-                                                                                                  new float[]{x, y, z}); }
+   {
+      return fromRotation(radians, v[0], v[1], v[2]);
+   }
 
+   public Quaternion fromRotation(float radians, float x, float y, float z)
+   //----------------------------------------------------------------------
+   {
+      final float half_angle = radians * 0.5f;
+      final float len = QuickFloat.sqrt(x * x + y * y + z * z);
+      final float s = (len > 0) ? QuickFloat.sin(half_angle) / len : 0;
+      this.x = x * s;
+      this.y = y * s;
+      this.z = z * s;
+      this.w = QuickFloat.cos(half_angle);
+      return this;
+   }
 
+   /**
+    * Rotate a 3 vector by this quaternion.
+    * @param v The vector to rotate.
+    * @param result Receives the rotated vector (may be the same array as v). If null a new array is allocated.
+    * @return The rotated vector.
+    */
    public float[] rotate(float[] v, float[] result)
    //----------------------------------------------
    {
-      Quaternion Q1 = new Quaternion(), Q2 = new Quaternion();
-      Q1.setXYZW(v[0], v[1], v[2], 0.0f);
-      conjugate(Q2);
-      Q1.multiply(Q2);
-      this.multiply(Q1, Q2);
+      // Q1 = (v, 0) * conjugate(this)
+      final float vx = v[0], vy = v[1], vz = v[2];
+      final float x1 =  vx * w - vy * z + vz * y;
+      final float y1 =  vy * w - vz * x + vx * z;
+      final float z1 =  vz * w - vx * y + vy * x;
+      final float w1 =  vx * x + vy * y + vz * z;
       if (result == null)
          result = new float[v.length];
-      result[0] = Q2.x;
-      result[1] = Q2.y;
-      result[2] = Q2.z;
+      // this * Q1
+      result[0] = w * x1 + x * w1 + y * z1 - z * y1;
+      result[1] = w * y1 + y * w1 + z * x1 - x * z1;
+      result[2] = w * z1 + z * w1 + x * y1 - y * x1;
       return result;
    }
 
@@ -619,10 +610,17 @@ public class Quaternion implements Cloneable
     *
     * @return new float[16] column matrix 4x4
     */
-   public float[] toMatrix()
-   //-----------------------
+   public float[] toMatrix() { return toMatrix(new float[16]); }
+
+   /**
+    * Transform this quaternion to a 4x4 column matrix representing the rotation without allocating.
+    *
+    * @param matrix float[16] which receives the column matrix 4x4
+    * @return matrix
+    */
+   public float[] toMatrix(float[] matrix)
+   //-------------------------------------
    {
-      float[] matrix = new float[16];
       matrix[0] = 1.0f - 2 * y * y - 2 * z * z;
       matrix[1] = 2 * x * y + 2 * w * z;
       matrix[2] = 2 * x * z - 2 * w * y;
@@ -645,9 +643,23 @@ public class Quaternion implements Cloneable
       return matrix;
    }
 
-   public float[] toArray() { return new float[] { x, y, z, w }; }
+   public float[] toArray() { return toArray(new float[4]); }
+
+   public float[] toArray(float[] dst)
+   //---------------------------------
+   {
+      dst[0] = x; dst[1] = y; dst[2] = z; dst[3] = w;
+      return dst;
+   }
+
+   public float[] toAndroidQuaternion() { return toAndroidQuaternion(new float[4]); }
 
-   public float[] toAndroidQuaternion() { return new float[] { w, x, y, z }; }
+   public float[] toAndroidQuaternion(float[] dst)
+   //---------------------------------------------
+   {
+      dst[0] = w; dst[1] = x; dst[2] = y; dst[3] = z;
+      return dst;
+   }
 
    /**
     * Set this quaternion from a Spherical interpolation
@@ -657,11 +669,24 @@ public class Quaternion implements Cloneable
     * @param b target quaternion
     * @param t float between 0 and 1 representing interp.
     */
-   public Quaternion slerp(Quaternion a, Quaternion b, float t)
-   //----------------------------------------------------------
+   public Quaternion slerp(Quaternion a, Quaternion b, float t) { return slerp(a, b, t, this); }
+
+   /**
+    * Spherical interpolation of a and b into dst without allocating. dst may be the same instance as a or b.
+    *
+    * @param a initial quaternion
+    * @param b target quaternion
+    * @param t float between 0 and 1 representing interp.
+    * @param dst receives the interpolated quaternion
+    * @return dst
+    */
+   public static Quaternion slerp(Quaternion a, Quaternion b, float t, Quaternion dst)
+   //---------------------------------------------------------------------------------
    {
+      final float ax = a.x, ay = a.y, az = a.z, aw = a.w;
+      final float bx = b.x, by = b.y, bz = b.z, bw = b.w;
       float omega, cosom, sinom, sclp, sclq;
-      cosom = a.x * b.x + a.y * b.y + a.z * b.z + a.w * b.w;
+      cosom = ax * bx + ay * by + az * bz + aw * bw;
       if ((1.0f + cosom) > QuickFloat.E)
       {
          if ((1.0f - cosom) > QuickFloat.E)
@@ -675,23 +700,20 @@ public class Quaternion implements Cloneable
             sclp = 1.0f - t;
             sclq = t;
          }
-         x = sclp * a.x + sclq * b.x;
-         y = sclp * a.y + sclq * b.y;
-         z = sclp * a.z + sclq * b.z;
-         w = sclp * a.w + sclq * b.w;
+         dst.x = sclp * ax + sclq * bx;
+         dst.y = sclp * ay + sclq * by;
+         dst.z = sclp * az + sclq * bz;
+         dst.w = sclp * aw + sclq * bw;
       } else
       {
-         x = -a.y;
-         y = a.x;
-         z = -a.w;
-         w = a.z;
+         dst.w = az;
          sclp = QuickFloat.sin((1.0f - t) * QuickFloat.PI * 0.5f);
          sclq = QuickFloat.sin(t * QuickFloat.PI * 0.5f);
-         x = sclp * a.x + sclq * b.x;
-         y = sclp * a.y + sclq * b.y;
-         z = sclp * a.z + sclq * b.z;
+         dst.x = sclp * ax + sclq * bx;
+         dst.y = sclp * ay + sclq * by;
+         dst.z = sclp * az + sclq * bz;
       }
-      return this;
+      return dst;
    }
 
    /**
@@ -702,24 +724,23 @@ public class Quaternion implements Cloneable
     * @param result The quaternion to store the result in.
     * @param t      The ratio between the two quaternions where 0 <= t <= 1.0 . Increase value of t will bring rotation
     *               closer to the input quaternion.
+    * Does not allocate and result may be the same instance as this or input.
     */
    public Quaternion slerpBetween(Quaternion input, Quaternion result, float t)
    //---------------------------------------------------------------------------
    {
       // Calculate angle between them.
       //double cosHalftheta = this.dotProduct(input);
-      final Quaternion bufferQuat;
+      float bx = input.x, by = input.y, bz = input.z, bw = input.w;
       float cosHalftheta = this.dotProduct(input);
       if (cosHalftheta < 0)
       {
-         bufferQuat = new Quaternion();
          cosHalftheta = -cosHalftheta;
-         bufferQuat.x = (-input.x);
-         bufferQuat.y = (-input.y);
-         bufferQuat.z = (-input.z);
-         bufferQuat.w = (-input.w);
-      } else
-         bufferQuat = input;
+         bx = -bx;
+         by = -by;
+         bz = -bz;
+         bw = -bw;
+      }
 
       /**
        * if(dot < 0.95f){
@@ -764,10 +785,11 @@ public class Quaternion implements Cloneable
          float ratioB = QuickFloat.sin(t * halfTheta) / sinHalfTheta;
 
          //Calculate Quaternion
-         result.w = ((w * ratioA + bufferQuat.w * ratioB));
-         result.x = ((this.x * ratioA + bufferQuat.x * ratioB));
-         result.y = ((this.y * ratioA + bufferQuat.y * ratioB));
-         result.z = ((this.z * ratioA + bufferQuat.z * ratioB));
+         final float ax = this.x, ay = this.y, az = this.z, aw = this.w;
+         result.w = ((aw * ratioA + bw * ratioB));
+         result.x = ((ax * ratioA + bx * ratioB));
+         result.y = ((ay * ratioA + by * ratioB));
+         result.z = ((az * ratioA + bz * ratioB));
       }
       return result;
    }
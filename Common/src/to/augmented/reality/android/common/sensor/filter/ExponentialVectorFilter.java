@@ -0,0 +1,62 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+/**
+ * Single pole low pass (exponential moving average) filter: out = previous + alpha*(in - previous). The first
+ * sample initialises the output.
+ */
+public class ExponentialVectorFilter extends VectorFilter
+//=======================================================
+{
+   private final float[] state;
+
+   private float alpha;
+
+   /**
+    * @param alpha Smoothing factor between 0 (output never changes) and 1 (no filtering).
+    */
+   public ExponentialVectorFilter(int dimensions, float alpha)
+   //---------------------------------------------------------
+   {
+      super(dimensions);
+      state = new float[dimensions];
+      setAlpha(alpha);
+   }
+
+   public float getAlpha() { return alpha; }
+
+   public void setAlpha(float alpha)
+   //-------------------------------
+   {
+      if ( (alpha < 0) || (alpha > 1) )
+         throw new IllegalArgumentException("Exponential filter alpha must be between 0 and 1 (" + alpha + ")");
+      this.alpha = alpha;
+   }
+
+   @Override
+   protected void update(float[] in, int n, long timestamp, float[] out)
+   //-------------------------------------------------------------------
+   {
+      if (count == 0)
+         System.arraycopy(in, 0, state, 0, n);
+      else
+         for (int i=0; i<n; i++)
+            state[i] += alpha * (in[i] - state[i]);
+      System.arraycopy(state, 0, out, 0, n);
+   }
+}
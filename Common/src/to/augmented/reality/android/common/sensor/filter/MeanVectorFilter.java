@@ -0,0 +1,102 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+/**
+ * Moving average over the last window samples using a circular window with running sums (O(1) per update). The
+ * sums are recalculated each time the window wraps so floating point drift does not accumulate. Until the window has
+ * filled the mean of the samples seen so far is output.
+ */
+public class MeanVectorFilter extends VectorFilter
+//================================================
+{
+   private final int window;
+
+   private final float[] ring;
+
+   private final double[] sums;
+
+   private int head = 0, size = 0;
+
+   public MeanVectorFilter(int dimensions, int window)
+   //-------------------------------------------------
+   {
+      super(dimensions);
+      if (window <= 0)
+         throw new IllegalArgumentException("Mean filter window must be positive (" + window + ")");
+      this.window = window;
+      ring = new float[dimensions * window];
+      sums = new double[dimensions];
+   }
+
+   public int getWindow() { return window; }
+
+   @Override
+   protected void update(float[] in, int n, long timestamp, float[] out)
+   //-------------------------------------------------------------------
+   {
+      final int base = head * dimensions;
+      for (int i=0; i<n; i++)
+      {
+         final float v = in[i];
+         if (size == window)
+            sums[i] -= ring[base + i];
+         ring[base + i] = v;
+         sums[i] += v;
+      }
+      if (size < window)
+         size++;
+      if (++head == window)
+      {
+         head = 0;
+         resum();
+      }
+      for (int i=0; i<n; i++)
+         out[i] = (float) (sums[i] / size);
+   }
+
+   /**
+    * Recalculates the sums from the size most recently filled slots only (walking back from head), so slots not yet
+    * written since construction or reset are never included.
+    */
+   private void resum()
+   //------------------
+   {
+      for (int i=0; i<dimensions; i++)
+         sums[i] = 0;
+      for (int j=0, slot=head; j<size; j++)
+      {
+         if (--slot < 0)
+            slot = window - 1;
+         final int off = slot * dimensions;
+         for (int i=0; i<dimensions; i++)
+            sums[i] += ring[off + i];
+      }
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      head = size = 0;
+      for (int i=0; i<dimensions; i++)
+         sums[i] = 0;
+      for (int i=0; i<ring.length; i++)
+         ring[i] = 0;
+   }
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+/**
+ * Median of the last window samples (per dimension). Each dimension keeps its window sorted, updated with a binary
+ * search and a single arraycopy shift for the value leaving and the value entering the window. Even sized windows
+ * output the mean of the two middle values. Until the window has filled the median of the samples seen so far is
+ * output.
+ */
+public class MedianVectorFilter extends VectorFilter
+//==================================================
+{
+   private final int window;
+
+   private final float[] ring;
+
+   // dimension i's sorted window is sorted[i*window, i*window + size)
+   private final float[] sorted;
+
+   private int head = 0, size = 0;
+
+   public MedianVectorFilter(int dimensions, int window)
+   //---------------------------------------------------
+   {
+      super(dimensions);
+      if (window <= 0)
+         throw new IllegalArgumentException("Median filter window must be positive (" + window + ")");
+      this.window = window;
+      ring = new float[dimensions * window];
+      sorted = new float[dimensions * window];
+   }
+
+   public int getWindow() { return window; }
+
+   @Override
+   protected void update(float[] in, int n, long timestamp, float[] out)
+   //-------------------------------------------------------------------
+   {
+      final int base = head * dimensions;
+      final boolean isFull = (size == window);
+      for (int i=0; i<n; i++)
+      {
+         final int off = i * window;
+         int len = size;
+         if (isFull)
+         {  // remove the oldest value
+            final int index = search(off, len, ring[base + i]);
+            System.arraycopy(sorted, off + index + 1, sorted, off + index, len - index - 1);
+            len--;
+         }
+         final float v = in[i];
+         final int index = search(off, len, v);
+         System.arraycopy(sorted, off + index, sorted, off + index + 1, len - index);
+         sorted[off + index] = v;
+         ring[base + i] = v;
+      }
+      if (! isFull)
+         size++;
+      if (++head == window)
+         head = 0;
+      final int mid = size >> 1;
+      for (int i=0; i<n; i++)
+      {
+         final int off = i * window;
+         out[i] = ((size & 1) != 0) ? sorted[off + mid] : (sorted[off + mid - 1] + sorted[off + mid]) * 0.5f;
+      }
+   }
+
+   /**
+    * @return The index of the first element in sorted[off, off+len) that is not less than v.
+    */
+   private int search(int off, int len, float v)
+   //--------------------------------------------
+   {
+      int lo = 0, hi = len;
+      while (lo < hi)
+      {
+         final int m = (lo + hi) >>> 1;
+         if (sorted[off + m] < v)
+            lo = m + 1;
+         else
+            hi = m;
+      }
+      return lo;
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      head = size = 0;
+   }
+}
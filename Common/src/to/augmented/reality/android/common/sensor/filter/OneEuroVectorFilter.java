@@ -0,0 +1,106 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+/**
+ * The 1 Euro filter (Casiez, Roussel and Vogel, CHI 2012): an exponential filter whose cutoff frequency increases
+ * with the (filtered) rate of change so slow movements are smoothed heavily while fast movements have little lag.
+ * The sample timestamps (nanoseconds) determine the sampling interval; if they are absent or not increasing the
+ * interval defaults to 1/frequency.
+ */
+public class OneEuroVectorFilter extends VectorFilter
+//===================================================
+{
+   static final public float DEFAULT_FREQUENCY = 200, DEFAULT_MIN_CUTOFF = 1.0f, DEFAULT_BETA = 0.007f,
+                             DEFAULT_DERIVATIVE_CUTOFF = 1.0f;
+
+   private final float[] previous, previousDerivative;
+
+   private final float frequency, minCutoff, beta, derivativeCutoff;
+
+   private long lastTimestamp = 0;
+
+   public OneEuroVectorFilter(int dimensions)
+   //----------------------------------------
+   {
+      this(dimensions, DEFAULT_FREQUENCY, DEFAULT_MIN_CUTOFF, DEFAULT_BETA, DEFAULT_DERIVATIVE_CUTOFF);
+   }
+
+   /**
+    * @param frequency The nominal sampling frequency (Hz) used when timestamps are unavailable.
+    * @param minCutoff The minimum cutoff frequency (Hz). Lower values reduce jitter at rest.
+    * @param beta The speed coefficient. Higher values reduce lag during fast movement.
+    * @param derivativeCutoff The cutoff frequency (Hz) for the rate of change.
+    */
+   public OneEuroVectorFilter(int dimensions, float frequency, float minCutoff, float beta, float derivativeCutoff)
+   //-------------------------------------------------------------------------------------------------------------
+   {
+      super(dimensions);
+      if ( (frequency <= 0) || (minCutoff <= 0) || (beta < 0) || (derivativeCutoff <= 0) )
+         throw new IllegalArgumentException("Invalid 1 Euro filter parameters");
+      this.frequency = frequency;
+      this.minCutoff = minCutoff;
+      this.beta = beta;
+      this.derivativeCutoff = derivativeCutoff;
+      previous = new float[dimensions];
+      previousDerivative = new float[dimensions];
+   }
+
+   static private float alpha(float dt, float cutoff)
+   //------------------------------------------------
+   {
+      final float tau = 1.0f / (2 * (float) Math.PI * cutoff);
+      return 1.0f / (1.0f + tau / dt);
+   }
+
+   @Override
+   protected void update(float[] in, int n, long timestamp, float[] out)
+   //-------------------------------------------------------------------
+   {
+      if (count == 0)
+      {
+         System.arraycopy(in, 0, previous, 0, n);
+         for (int i=0; i<n; i++)
+            previousDerivative[i] = 0;
+         System.arraycopy(in, 0, out, 0, n);
+         lastTimestamp = timestamp;
+         return;
+      }
+      float dt = (timestamp - lastTimestamp) * 1e-9f;
+      if ( (timestamp <= 0) || (dt <= 0) )
+         dt = 1.0f / frequency;
+      lastTimestamp = timestamp;
+      final float derivativeAlpha = alpha(dt, derivativeCutoff);
+      for (int i=0; i<n; i++)
+      {
+         final float derivative = (in[i] - previous[i]) / dt;
+         final float filteredDerivative = previousDerivative[i] + derivativeAlpha * (derivative - previousDerivative[i]);
+         previousDerivative[i] = filteredDerivative;
+         final float cutoff = minCutoff + beta * Math.abs(filteredDerivative);
+         previous[i] += alpha(dt, cutoff) * (in[i] - previous[i]);
+         out[i] = previous[i];
+      }
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      lastTimestamp = 0;
+   }
+}
@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+/**
+ * Base class for allocation free filters over fixed dimension sensor vectors (eg the 3 accelerometer or magnetic
+ * field values). Implementations keep their state in preallocated primitive arrays and write into a caller provided
+ * output array so they can be used on every sensor event without boxing or garbage. Values beyond the filter
+ * dimensions are copied unchanged. Filters are not thread safe.
+ * <p>
+ * See FusionEngine.setInputFilter (or OrientationProvider.setSensorFilter) to filter the input of any orientation
+ * provider.
+ */
+abstract public class VectorFilter
+//================================
+{
+   protected final int dimensions;
+
+   /**
+    * The number of samples filtered since construction or reset.
+    */
+   protected long count = 0;
+
+   protected VectorFilter(int dimensions)
+   //------------------------------------
+   {
+      if (dimensions <= 0)
+         throw new IllegalArgumentException("Filter dimensions must be positive (" + dimensions + ")");
+      this.dimensions = dimensions;
+   }
+
+   public int getDimensions() { return dimensions; }
+
+   public long getCount() { return count; }
+
+   /**
+    * Filters a sample.
+    * @param in The sample values. Only the first getDimensions() values are filtered.
+    * @param timestamp The sample timestamp in nanoseconds (only used by time dependent filters).
+    * @param out Receives the filtered values (at least in.length long, may be in).
+    * @return out
+    */
+   public float[] filter(float[] in, long timestamp, float[] out)
+   //------------------------------------------------------------
+   {
+      final int n = Math.min(in.length, dimensions);
+      if ( (out != in) && (in.length > n) )
+         System.arraycopy(in, n, out, n, in.length - n);
+      update(in, n, timestamp, out);
+      count++;
+      return out;
+   }
+
+   /**
+    * Filters a sample for filters that do not depend on timestamps.
+    * @see #filter(float[], long, float[])
+    */
+   public float[] filter(float[] in, float[] out) { return filter(in, 0, out); }
+
+   /**
+    * Implementations add the first n values of in to the filter state and write the filtered values to out.
+    */
+   abstract protected void update(float[] in, int n, long timestamp, float[] out);
+
+   /**
+    * Resets the filter state.
+    */
+   public void reset() { count = 0; }
+}
@@ -0,0 +1,65 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+/**
+ * Delivers the orientation from the accelerometer and compass (magnetic field) sensors.
+ */
+public class AccelerometerCompassFusion extends FusionEngine
+//==========================================================
+{
+   static final public int[] SENSORS = { TYPE_ACCELEROMETER, TYPE_MAGNETIC_FIELD };
+
+   @Override public int[] sensors() { return SENSORS; }
+
+   private final float[] magnitudeValues = new float[3], accelerometerValues = new float[3], I = new float[16],
+                         R3 = new float[9];
+
+   @Override
+   protected boolean fuse(int type, long timestamp, float[] values)
+   //--------------------------------------------------------------
+   {
+      switch (type)
+      {
+         case TYPE_MAGNETIC_FIELD:
+            System.arraycopy(values, 0, magnitudeValues, 0, magnitudeValues.length);
+            break;
+         case TYPE_ACCELEROMETER:
+            System.arraycopy(values, 0, accelerometerValues, 0, accelerometerValues.length);
+            break;
+         default:
+            return false;
+      }
+      // Fuse accelerometer with compass
+      if (! SensorMath.getRotationMatrix(rotationMatrix, I, accelerometerValues, magnitudeValues))
+         return false;
+      // Transform rotation matrix to quaternion (setFromMatrix expects the 3x3 rotation)
+      for (int row=0; row<3; row++)
+         System.arraycopy(rotationMatrix, row*4, R3, row*3, 3);
+      quaternion.setFromMatrix(R3);
+      return true;
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      for (int i=0; i<3; i++)
+         magnitudeValues[i] = accelerometerValues[i] = 0;
+   }
+}
@@ -0,0 +1,186 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import to.augmented.reality.android.common.math.Quaternion;
+import to.augmented.reality.android.common.sensor.filter.VectorFilter;
+
+import java.util.Arrays;
+
+/**
+ * Platform independent sensor fusion core. Samples are pushed as (type, timestamp, values) tuples using the
+ * android.hardware.Sensor TYPE_* values and the fused orientation is available as a 4x4 rotation matrix and a
+ * quaternion after each sample for which onSample returns true. The Android OrientationProvider classes are thin
+ * adapters over these engines and SensorFusionBatch runs them offline over a recorded sensordata.raw file.
+ * <p>
+ * Engines are not thread safe; callers that share the output across threads must copy it under their own lock.
+ */
+abstract public class FusionEngine
+//================================
+{
+   // Same values as the corresponding android.hardware.Sensor.TYPE_* constants.
+   final static public int TYPE_ACCELEROMETER = 1, TYPE_MAGNETIC_FIELD = 2, TYPE_GYROSCOPE = 4, TYPE_GRAVITY = 9,
+                           TYPE_LINEAR_ACCELERATION = 10, TYPE_ROTATION_VECTOR = 11;
+
+   /**
+    * The 4x4 matrix that holds the current rotation
+    */
+   protected final float[] rotationMatrix = new float[16];
+
+   /**
+    * The quaternion that holds the current rotation
+    */
+   protected final Quaternion quaternion = new Quaternion();
+
+   /**
+    * Input filters indexed by sensor type (copy on write so they can be set while samples are being processed).
+    */
+   volatile private VectorFilter[] inputFilters = new VectorFilter[0];
+
+   /**
+    * Filtered values by sensor type.
+    */
+   private float[][] filtered = new float[0][];
+
+   /**
+    * @return The sensor types (TYPE_*) fused by this engine.
+    */
+   abstract public int[] sensors();
+
+   /**
+    * Processes a sensor sample, applying the input filter for the sensor type if one has been set.
+    * @param type The sensor type (one of TYPE_*). Samples for sensors not fused by the engine are ignored.
+    * @param timestamp The sample timestamp in nanoseconds.
+    * @param values The sensor values (as in SensorEvent.values). Not modified.
+    * @return true if the orientation (getRotationMatrix and getQuaternion) was updated.
+    */
+   public boolean onSample(int type, long timestamp, float[] values)
+   //---------------------------------------------------------------
+   {
+      final VectorFilter[] filters = inputFilters;
+      if ( (type >= 0) && (type < filters.length) && (filters[type] != null) )
+      {
+         if (type >= filtered.length)
+            filtered = Arrays.copyOf(filtered, filters.length);
+         float[] out = filtered[type];
+         if ( (out == null) || (out.length != values.length) )
+            filtered[type] = out = new float[values.length];
+         values = filters[type].filter(values, timestamp, out);
+      }
+      return fuse(type, timestamp, values);
+   }
+
+   /**
+    * Implementations fuse a (filtered) sensor sample.
+    * @see #onSample(int, long, float[])
+    */
+   abstract protected boolean fuse(int type, long timestamp, float[] values);
+
+   /**
+    * Sets a filter applied to the values of a sensor type before they are fused (eg a MeanVectorFilter to smooth
+    * the accelerometer).
+    * @param type The sensor type (one of TYPE_*).
+    * @param filter The filter or null to remove the filter for type.
+    */
+   public void setInputFilter(int type, VectorFilter filter)
+   //-------------------------------------------------------
+   {
+      if (type < 0)
+         throw new IllegalArgumentException("Invalid sensor type " + type);
+      final VectorFilter[] filters = Arrays.copyOf(inputFilters, Math.max(inputFilters.length, type + 1));
+      filters[type] = filter;
+      inputFilters = filters;
+   }
+
+   /**
+    * @return The input filter for a sensor type or null if none is set.
+    */
+   public VectorFilter getInputFilter(int type)
+   //------------------------------------------
+   {
+      final VectorFilter[] filters = inputFilters;
+      return ( (type >= 0) && (type < filters.length) ) ? filters[type] : null;
+   }
+
+   /**
+    * Resets the engine and its input filters to their initial state.
+    */
+   public void reset()
+   //-----------------
+   {
+      Arrays.fill(rotationMatrix, 0);
+      quaternion.setXYZW(0, 0, 0, 1);
+      for (VectorFilter filter : inputFilters)
+         if (filter != null)
+            filter.reset();
+   }
+
+   /**
+    * @return The current rotation as a 4x4 matrix. The array is updated in place by onSample.
+    */
+   public float[] getRotationMatrix() { return rotationMatrix; }
+
+   /**
+    * @return The current rotation as a quaternion. The instance is updated in place by onSample.
+    */
+   public Quaternion getQuaternion() { return quaternion; }
+
+   /**
+    * @return true if all the sensors fused by this engine are in sensorTypes.
+    */
+   public boolean canFuse(int[] sensorTypes)
+   //---------------------------------------
+   {
+      for (int type : sensors())
+      {
+         boolean isFound = false;
+         for (int available : sensorTypes)
+         {
+            if (available == type)
+            {
+               isFound = true;
+               break;
+            }
+         }
+         if (! isFound)
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Creates a fusion engine by OrientationProvider.ORIENTATION_PROVIDER name (as written to the OrientationProvider
+    * key of a recording header file).
+    * @param providerName The ORIENTATION_PROVIDER name.
+    * @return The engine or null if the name is unknown (or DEFAULT which is resolved at runtime by the recorder).
+    */
+   static public FusionEngine create(String providerName)
+   //----------------------------------------------------
+   {
+      if (providerName == null)
+         return null;
+      switch (providerName.trim().toUpperCase())
+      {
+         case "ROTATION_VECTOR":                         return new RotationVectorFusion();
+         case "ACCELLO_MAGNETIC":                        return new AccelerometerCompassFusion();
+         case "FAST_FUSED_GYROSCOPE_ROTATION_VECTOR":    return new GyroscopeRotationVectorFusion(false);
+         case "STABLE_FUSED_GYROSCOPE_ROTATION_VECTOR":  return new GyroscopeRotationVectorFusion(true);
+         case "FUSED_GYRO_ACCEL_MAGNETIC":               return new GyroAccelMagneticFusion();
+      }
+      return null;
+   }
+}
@@ -0,0 +1,282 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import to.augmented.reality.android.common.math.QuickFloat;
+import to.augmented.reality.android.common.sensor.filter.MeanVectorFilter;
+
+/**
+ * Complementary filter fusing the gyroscope with the gravity and magnetic field sensors (see the
+ * FusedGyroAccelMagnetic provider by Kaleb Kircher and Paul Lawitzki which this was extracted from). The
+ * gravity/magnetic orientation is low pass filtered by mean filters and used for long time intervals while the
+ * integrated gyroscope is used for short term changes. The mean filters are the engine's gravity and magnetic field
+ * input filters so they can be replaced with setInputFilter.
+ */
+public class GyroAccelMagneticFusion extends FusionEngine
+//=======================================================
+{
+   static final public int[] SENSORS = { TYPE_GYROSCOPE, TYPE_GRAVITY, TYPE_MAGNETIC_FIELD };
+
+   @Override public int[] sensors() { return SENSORS; }
+
+   public static final float FILTER_COEFFICIENT = 0.5f;
+   public static final float EPSILON = 0.000000001f;
+   // Nano-second to second conversion
+   private static final float NS2S = 1.0f / 1000000000.0f;
+
+   static final public int MEAN_FILTER_WINDOW = 10;
+
+   private boolean hasOrientation = false;
+
+   private final float[] gravity = new float[3];
+
+   // angular speeds from gyro
+   private final float[] gyroscope = new float[3];
+
+   // rotation matrix from gyro data
+   private final float[] gyroMatrix = new float[9];
+
+   // orientation angles from gyro matrix
+   private final float[] gyroOrientation = new float[3];
+
+   // magnetic field vector
+   private final float[] magnetic = new float[3];
+
+   // orientation angles from accel and magnet
+   private final float[] orientation = new float[3];
+
+   // final orientation angles from sensor fusion
+   private final float[] fusedOrientation = new float[3];
+
+   // accelerometer and magnetometer based rotation matrix
+   private final float[] accelMagMatrix = new float[9];
+
+   // delta rotation vector from the gyro
+   private final float[] deltaVector = new float[4];
+
+   // delta rotation vector as a matrix
+   private final float[] deltaMatrix = new float[9];
+
+   private final float[] product = new float[9], xM = new float[9], yM = new float[9], zM = new float[9];
+
+   private long timestamp = 0;
+
+   private boolean initState = false;
+
+   public GyroAccelMagneticFusion()
+   //------------------------------
+   {
+      setInputFilter(TYPE_GRAVITY, new MeanVectorFilter(3, MEAN_FILTER_WINDOW));
+      setInputFilter(TYPE_MAGNETIC_FIELD, new MeanVectorFilter(3, MEAN_FILTER_WINDOW));
+      reset();
+   }
+
+   @Override
+   protected boolean fuse(int type, long timestamp, float[] values)
+   //--------------------------------------------------------------
+   {
+      switch (type)
+      {
+         case TYPE_MAGNETIC_FIELD:
+            System.arraycopy(values, 0, magnetic, 0, Math.min(values.length, 3));
+            return false;
+         case TYPE_GRAVITY:
+            System.arraycopy(values, 0, gravity, 0, Math.min(values.length, 3));
+            calculateOrientation();
+            return false;
+         case TYPE_GYROSCOPE:
+            System.arraycopy(values, 0, gyroscope, 0, 3);
+            return onGyroscope(timestamp);
+      }
+      return false;
+   }
+
+   private boolean onGyroscope(long timestamp)
+   //-----------------------------------------
+   {
+      if (! hasOrientation) return false;
+
+      // Initialization of the gyroscope based rotation matrix
+      if (! initState)
+      {
+         SensorMath.multiply3x3(gyroMatrix, accelMagMatrix, product);
+         System.arraycopy(product, 0, gyroMatrix, 0, 9);
+         initState = true;
+      }
+
+      if (this.timestamp != 0)
+         getRotationVectorFromGyro(((timestamp - this.timestamp) * NS2S) / 2.0f);
+
+      // measurement done, save current time for next interval
+      this.timestamp = timestamp;
+
+      // Apply the new rotation interval on the gyroscope based rotation matrix to form a composite rotation matrix.
+      SensorMath.getRotationMatrixFromVector(deltaMatrix, deltaVector);
+      SensorMath.multiply3x3(gyroMatrix, deltaMatrix, product);
+      System.arraycopy(product, 0, gyroMatrix, 0, 9);
+
+      // Get the gyroscope based orientation from the composite rotation matrix. This orientation will be fused via
+      // complementary filter with the orientation from the acceleration sensor and magnetic sensor.
+      SensorMath.getOrientation(gyroMatrix, gyroOrientation);
+
+      calculateFusedOrientation();
+      return true;
+   }
+
+   /**
+    * Calculates orientation angles from accelerometer and magnetometer output.
+    */
+   private void calculateOrientation()
+   //---------------------------------
+   {
+      if (SensorMath.getRotationMatrix(accelMagMatrix, null, gravity, magnetic))
+      {
+         SensorMath.getOrientation(accelMagMatrix, orientation);
+         hasOrientation = true;
+      }
+   }
+
+   /**
+    * Calculates a delta rotation vector from the gyroscope angular speed values.
+    */
+   private void getRotationVectorFromGyro(float timeFactor)
+   //------------------------------------------------------
+   {
+      // Calculate the angular speed of the sample
+      final float omegaMagnitude = QuickFloat.sqrt(gyroscope[0] * gyroscope[0] + gyroscope[1] * gyroscope[1] +
+                                                   gyroscope[2] * gyroscope[2]);
+
+      // Normalize the rotation vector if it's big enough to get the axis
+      if (omegaMagnitude > EPSILON)
+      {
+         gyroscope[0] /= omegaMagnitude;
+         gyroscope[1] /= omegaMagnitude;
+         gyroscope[2] /= omegaMagnitude;
+      }
+
+      // Integrate around this axis with the angular speed by the timestep in order to get a delta rotation from this
+      // sample over the timestep.
+      final float thetaOverTwo = omegaMagnitude * timeFactor;
+      final float sinThetaOverTwo = QuickFloat.sin(thetaOverTwo);
+      final float cosThetaOverTwo = QuickFloat.cos(thetaOverTwo);
+
+      deltaVector[0] = sinThetaOverTwo * gyroscope[0];
+      deltaVector[1] = sinThetaOverTwo * gyroscope[1];
+      deltaVector[2] = sinThetaOverTwo * gyroscope[2];
+      deltaVector[3] = cosThetaOverTwo;
+   }
+
+   /**
+    * Fuses a gyroscope and an accelerometer/magnetic angle. If one of the two angles is negative while the other one
+    * is positive 2*PI is added to the negative value before fusing and removed from the result if it is greater
+    * than PI (fix for the 179 to -179 degree transition).
+    */
+   static private float fuse(float gyroAngle, float accelMagAngle)
+   //-------------------------------------------------------------
+   {
+      final float oneMinusCoeff = (1.0f - FILTER_COEFFICIENT);
+      float fused;
+      if (gyroAngle < -QuickFloat.HALF_PI && accelMagAngle > 0.0)
+      {
+         fused = (FILTER_COEFFICIENT * (gyroAngle + QuickFloat.TWO_PI) + oneMinusCoeff * accelMagAngle);
+         fused -= (fused > Math.PI) ? QuickFloat.TWO_PI : 0;
+      }
+      else if (accelMagAngle < -QuickFloat.HALF_PI && gyroAngle > 0.0)
+      {
+         fused = (FILTER_COEFFICIENT * gyroAngle + oneMinusCoeff * (accelMagAngle + QuickFloat.TWO_PI));
+         fused -= (fused > Math.PI) ? QuickFloat.TWO_PI : 0;
+      }
+      else
+         fused = FILTER_COEFFICIENT * gyroAngle + oneMinusCoeff * accelMagAngle;
+      return fused;
+   }
+
+   /**
+    * Calculate the fused orientation.
+    */
+   private void calculateFusedOrientation()
+   //--------------------------------------
+   {
+      for (int i=0; i<3; i++)
+         fusedOrientation[i] = fuse(gyroOrientation[i], orientation[i]);
+
+      // overwrite gyro matrix and orientation with fused orientation to compensate gyro drift
+      getRotationMatrixFromOrientation(fusedOrientation, gyroMatrix);
+      System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
+
+      rotationMatrix[0] = gyroMatrix[0];
+      rotationMatrix[1] = gyroMatrix[1];
+      rotationMatrix[2] = gyroMatrix[2];
+      rotationMatrix[4] = gyroMatrix[3];
+      rotationMatrix[5] = gyroMatrix[4];
+      rotationMatrix[6] = gyroMatrix[5];
+      rotationMatrix[8] = gyroMatrix[6];
+      rotationMatrix[9] = gyroMatrix[7];
+      rotationMatrix[10] = gyroMatrix[8];
+      quaternion.setFromMatrix(gyroMatrix);
+   }
+
+   /**
+    * Get the rotation matrix from an azimuth, pitch, roll orientation (the inverse of getOrientation). The basic
+    * rotations can be found in Wikipedia with the caveat that the rotations are *transposed* relative to what is
+    * required for this method.
+    */
+   private void getRotationMatrixFromOrientation(float[] orientation, float[] result)
+   //--------------------------------------------------------------------------------
+   {
+      float sinX = QuickFloat.sin(orientation[1]);
+      float cosX = QuickFloat.cos(orientation[1]);
+      float sinY = QuickFloat.sin(orientation[2]);
+      float cosY = QuickFloat.cos(orientation[2]);
+      float sinZ = QuickFloat.sin(orientation[0]);
+      float cosZ = QuickFloat.cos(orientation[0]);
+
+      // rotation about x-axis (pitch)
+      xM[0] = 1.0f; xM[1] = 0.0f;  xM[2] = 0.0f;
+      xM[3] = 0.0f; xM[4] = cosX;  xM[5] = sinX;
+      xM[6] = 0.0f; xM[7] = -sinX; xM[8] = cosX;
+
+      // rotation about y-axis (roll)
+      yM[0] = cosY;  yM[1] = 0.0f; yM[2] = sinY;
+      yM[3] = 0.0f;  yM[4] = 1.0f; yM[5] = 0.0f;
+      yM[6] = -sinY; yM[7] = 0.0f; yM[8] = cosY;
+
+      // rotation about z-axis (azimuth)
+      zM[0] = cosZ;  zM[1] = sinZ; zM[2] = 0.0f;
+      zM[3] = -sinZ; zM[4] = cosZ; zM[5] = 0.0f;
+      zM[6] = 0.0f;  zM[7] = 0.0f; zM[8] = 1.0f;
+
+      // Build the composite rotation... rotation order is y, x, z (roll, pitch, azimuth)
+      SensorMath.multiply3x3(xM, yM, product);
+      SensorMath.multiply3x3(zM, product, result);
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      for (int i=0; i<9; i++)
+         gyroMatrix[i] = ( (i % 4) == 0) ? 1.0f : 0.0f;
+      for (int i=0; i<3; i++)
+         gyroOrientation[i] = orientation[i] = fusedOrientation[i] = gyroscope[i] = gravity[i] = magnetic[i] = 0;
+      for (int i=0; i<4; i++)
+         deltaVector[i] = 0;
+      hasOrientation = initState = false;
+      timestamp = 0;
+   }
+}
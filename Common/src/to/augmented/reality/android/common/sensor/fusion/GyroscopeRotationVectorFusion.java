@@ -0,0 +1,249 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import to.augmented.reality.android.common.math.Quaternion;
+import to.augmented.reality.android.common.math.QuickFloat;
+
+/**
+ * Delivers the absolute orientation from the gyroscope and the Android rotation vector sensor. It mainly relies on
+ * the gyroscope, but corrects with the rotation vector which also provides an absolute estimation of current
+ * orientation (see the StableFusedGyroscopeRotationVector and FastFusedGyroscopeRotationVector providers by
+ * Alexander Pacha which this was extracted from).
+ * <p>
+ * In stable mode the correction weight is proportional to the angular velocity
+ * (INDIRECT_INTERPOLATION_WEIGHT * velocity) while in fast mode it is the static DIRECT_INTERPOLATION_WEIGHT.
+ */
+public class GyroscopeRotationVectorFusion extends FusionEngine
+//=============================================================
+{
+   static final public int[] SENSORS = { TYPE_GYROSCOPE, TYPE_ROTATION_VECTOR };
+
+   @Override public int[] sensors() { return SENSORS; }
+
+   /**
+    * Constant specifying the factor between a Nano-second and a second
+    */
+   private static final float NS2S = 1.0f / 1000000000.0f;
+
+   /**
+    * Gyroscope measurements with an angular speed below this are treated as noise (see
+    * StableFusedGyroscopeRotationVector.EPSILON).
+    */
+   private static final float EPSILON = 0.1f;
+
+   /**
+    * Stable mode weight, multiplied by the angular velocity to obtain the interpolation weight. Must be between 0 and
+    * approx. 0.04 (so the product with a velocity of up to 25 is still less than 1).
+    */
+   static final public float INDIRECT_INTERPOLATION_WEIGHT = 0.01f;
+
+   /**
+    * Fast mode weight determining directly how much the rotation vector is used to correct (0 to 1).
+    */
+   static final public float DIRECT_INTERPOLATION_WEIGHT = 0.005f;
+
+   /**
+    * If the dot-product of the gyroscope and rotation vector orientations falls below this the rotation vector is
+    * treated as an outlier and the gyroscope is used on its own.
+    */
+   static final public float OUTLIER_THRESHOLD = 0.85f;
+
+   /**
+    * If the dot-product falls below this the panic counter is increased (stable and fast mode values).
+    */
+   static final public float STABLE_OUTLIER_PANIC_THRESHOLD = 0.75f, FAST_OUTLIER_PANIC_THRESHOLD = 0.65f;
+
+   /**
+    * If the panic counter exceeds this the orientation is reset to the rotation vector.
+    */
+   static final public int PANIC_THRESHOLD = 60;
+
+   private final boolean isStable;
+
+   private final float outlierPanicThreshold;
+
+   /**
+    * The quaternion that stores the difference that is obtained by the gyroscope.
+    */
+   private final Quaternion deltaQuaternion = new Quaternion();
+
+   /**
+    * The current rotation of the gyroscope.
+    */
+   private final Quaternion quaternionGyroscope = new Quaternion();
+
+   /**
+    * The absolute orientation as obtained by the rotation vector sensor.
+    */
+   private final Quaternion quaternionRotationVector = new Quaternion();
+
+   private final float[] q = new float[4];
+
+   /**
+    * The time-stamp of the last gyroscope sample.
+    */
+   private long timestamp = 0;
+
+   private float gyroscopeRotationVelocity = 0;
+
+   private boolean positionInitialised = false;
+
+   private int panicCounter = 0;
+
+   private int panicResets = 0;
+
+   /**
+    * @param isStable true for velocity weighted (StableFusedGyroscopeRotationVector) correction, false for static
+    *                 weight (FastFusedGyroscopeRotationVector) correction.
+    */
+   public GyroscopeRotationVectorFusion(boolean isStable)
+   //----------------------------------------------------
+   {
+      this.isStable = isStable;
+      outlierPanicThreshold = (isStable) ? STABLE_OUTLIER_PANIC_THRESHOLD : FAST_OUTLIER_PANIC_THRESHOLD;
+   }
+
+   public boolean isStable() { return isStable; }
+
+   /**
+    * @return The number of times the orientation was reset to the rotation vector due to gyroscope divergence.
+    */
+   public int getPanicResets() { return panicResets; }
+
+   /**
+    * @return The angular speed of the last gyroscope sample.
+    */
+   public float getGyroscopeRotationVelocity() { return gyroscopeRotationVelocity; }
+
+   @Override
+   protected boolean fuse(int type, long timestamp, float[] values)
+   //--------------------------------------------------------------
+   {
+      if (type == TYPE_ROTATION_VECTOR)
+      {
+         // Process rotation vector (just save it)
+         SensorMath.getQuaternionFromVector(q, values);
+         quaternionRotationVector.setXYZW(q[1], q[2], q[3], -q[0]);
+         if (! positionInitialised)
+         {
+            quaternionGyroscope.setFrom(quaternionRotationVector);
+            positionInitialised = true;
+         }
+         return false;
+      }
+      if (type != TYPE_GYROSCOPE)
+         return false;
+
+      boolean isUpdated = false;
+      if (this.timestamp != 0)
+      {
+         final float dT = (timestamp - this.timestamp) * NS2S;
+         // Axis of the rotation sample, not normalized yet.
+         float axisX = values[0];
+         float axisY = values[1];
+         float axisZ = values[2];
+
+         // Calculate the angular speed of the sample
+         gyroscopeRotationVelocity = QuickFloat.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+
+         // Normalize the rotation vector if it's big enough to get the axis
+         if (gyroscopeRotationVelocity > EPSILON)
+         {
+            axisX /= gyroscopeRotationVelocity;
+            axisY /= gyroscopeRotationVelocity;
+            axisZ /= gyroscopeRotationVelocity;
+         }
+
+         // Integrate around this axis with the angular speed by the timestep in order to get a delta rotation from
+         // this sample over the timestep.
+         float thetaOverTwo = gyroscopeRotationVelocity * dT / 2.0f;
+         float sinThetaOverTwo = QuickFloat.sin(thetaOverTwo);
+         float cosThetaOverTwo = QuickFloat.cos(thetaOverTwo);
+         deltaQuaternion.setX(sinThetaOverTwo * axisX);
+         deltaQuaternion.setY(sinThetaOverTwo * axisY);
+         deltaQuaternion.setZ(sinThetaOverTwo * axisZ);
+         deltaQuaternion.setW(-cosThetaOverTwo);
+
+         // Move current gyro orientation
+         deltaQuaternion.multiply(quaternionGyroscope, quaternionGyroscope);
+
+         // Calculate dot-product to calculate whether the two orientation sensors have diverged
+         float dotProd = quaternionGyroscope.dotProduct(quaternionRotationVector);
+
+         // If they have diverged, rely on gyroscope only (this happens on some devices when the rotation vector "jumps").
+         if (Math.abs(dotProd) < OUTLIER_THRESHOLD)
+         {
+            if (Math.abs(dotProd) < outlierPanicThreshold)
+               panicCounter++;
+            setOrientation(quaternionGyroscope);
+         }
+         else
+         {
+            // Both are nearly saying the same so interpolate between the two absolute quaternions. The weight should
+            // be quite low, so the rotation vector corrects the gyro only slowly, and the output keeps responsive.
+            final float weight = (isStable) ? INDIRECT_INTERPOLATION_WEIGHT * gyroscopeRotationVelocity
+                                            : DIRECT_INTERPOLATION_WEIGHT;
+            quaternionGyroscope.slerpBetween(quaternionRotationVector, quaternionGyroscope, weight);
+            setOrientation(quaternionGyroscope);
+            panicCounter = 0;
+         }
+         isUpdated = true;
+
+         // A panic counter above the threshold indicates a gyroscope failure so reset to the rotation vector unless
+         // the device is still being shaken.
+         if ( (panicCounter > PANIC_THRESHOLD) && (gyroscopeRotationVelocity < 3) )
+         {
+            setOrientation(quaternionRotationVector);
+            quaternionGyroscope.setFrom(quaternionRotationVector);
+            panicCounter = 0;
+            panicResets++;
+         }
+      }
+      this.timestamp = timestamp;
+      return isUpdated;
+   }
+
+   /**
+    * Sets the output quaternion and matrix from the provided quaternion.
+    */
+   private void setOrientation(Quaternion quaternion)
+   //------------------------------------------------
+   {
+      this.quaternion.setFrom(quaternion);
+      // w was inverted in the deltaQuaternion, so revert it before converting back to matrix representation
+      q[0] = quaternion.getX();
+      q[1] = quaternion.getY();
+      q[2] = quaternion.getZ();
+      q[3] = -quaternion.getW();
+      SensorMath.getRotationMatrixFromVector(rotationMatrix, q);
+   }
+
+   @Override
+   public void reset()
+   //-----------------
+   {
+      super.reset();
+      deltaQuaternion.setXYZW(0, 0, 0, 1);
+      quaternionGyroscope.setXYZW(0, 0, 0, 1);
+      quaternionRotationVector.setXYZW(0, 0, 0, 1);
+      timestamp = 0;
+      gyroscopeRotationVelocity = 0;
+      positionInitialised = false;
+      panicCounter = panicResets = 0;
+   }
+}
@@ -0,0 +1,45 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+/**
+ * Delivers the orientation from the Android rotation vector sensor.
+ */
+public class RotationVectorFusion extends FusionEngine
+//====================================================
+{
+   static final public int[] SENSORS = { TYPE_ROTATION_VECTOR };
+
+   @Override public int[] sensors() { return SENSORS; }
+
+   private final float[] q = new float[4];
+
+   @Override
+   protected boolean fuse(int type, long timestamp, float[] values)
+   //--------------------------------------------------------------
+   {
+      if (type != TYPE_ROTATION_VECTOR)
+         return false;
+      // convert the rotation-vector to a 4x4 matrix. the matrix
+      // is interpreted by Open GL as the inverse of the
+      // rotation-vector, which is what we want.
+      SensorMath.getRotationMatrixFromVector(rotationMatrix, values);
+      SensorMath.getQuaternionFromVector(q, values);
+      quaternion.setXYZW(q[1], q[2], q[3], -q[0]);
+      return true;
+   }
+}
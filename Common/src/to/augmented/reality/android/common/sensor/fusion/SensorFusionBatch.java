@@ -0,0 +1,156 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import to.augmented.reality.android.common.sensor.orientation.OrientationListenable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams a recorded raw sensor file (sensordata.raw) through a FusionEngine as fast as possible, without pacing, so
+ * that orientation providers can be compared or re-run offline. The file consists of a header (big endian int sensor
+ * count followed by the int sensor types) followed by fixed size records of int type, long timestamp and
+ * RECORD_VALUES float values (unused values are NaN). The file is read in large blocks and no allocations are made
+ * per record.
+ * <p>
+ * Note the recorded timestamps are the times the provider received the events relative to the start of the
+ * recording, not the sensor event timestamps, so gyroscope integration may differ slightly from the live provider.
+ */
+public class SensorFusionBatch
+//============================
+{
+   final static public int RECORD_VALUES = 5;
+   final static public int RECORD_SIZE = 4 + 8 + 4*RECORD_VALUES; // type, timestamp, values
+
+   final static private int BLOCK_RECORDS = 8192;
+
+   private final File sensorFile;
+
+   private final int[] sensorTypes;
+
+   private final long dataOffset;
+
+   public SensorFusionBatch(File sensorFile) throws IOException
+   //----------------------------------------------------------
+   {
+      this.sensorFile = sensorFile;
+      RandomAccessFile raf = new RandomAccessFile(sensorFile, "r");
+      try
+      {
+         final int count = raf.readInt();
+         if ( (count < 0) || (count > 64) )
+            throw new IOException(sensorFile + " is not a raw sensor file (sensor count " + count + ")");
+         sensorTypes = new int[count];
+         for (int i=0; i<count; i++)
+            sensorTypes[i] = raf.readInt();
+         dataOffset = raf.getFilePointer();
+      }
+      finally
+      {
+         raf.close();
+      }
+   }
+
+   /**
+    * @return The sensor types recorded in the file.
+    */
+   public int[] getSensorTypes() { return sensorTypes; }
+
+   /**
+    * @return The number of records in the file.
+    */
+   public long size() { return (sensorFile.length() - dataOffset) / RECORD_SIZE; }
+
+   /**
+    * @return true if the file contains all the sensors required by engine.
+    */
+   public boolean canFuse(FusionEngine engine) { return engine.canFuse(sensorTypes); }
+
+   /**
+    * Runs the engine for the ORIENTATION_PROVIDER named providerName (see FusionEngine.create) over the file.
+    * @return The number of orientation updates or -1 if the provider is unknown or its sensors were not recorded.
+    */
+   public long run(String providerName, OrientationListenable listener) throws IOException
+   //--------------------------------------------------------------------------------------
+   {
+      final FusionEngine engine = FusionEngine.create(providerName);
+      if ( (engine == null) || (! canFuse(engine)) )
+         return -1;
+      return run(engine, listener);
+   }
+
+   /**
+    * Streams all the records in the file through engine.
+    * @param engine The fusion engine. It is not reset before the run.
+    * @param listener Receives the engine's rotation matrix and quaternion (updated in place so copy them if they need
+    *                 to be retained) with the record timestamp after every update. May be null.
+    * @return The number of orientation updates.
+    */
+   public long run(FusionEngine engine, OrientationListenable listener) throws IOException
+   //--------------------------------------------------------------------------------------
+   {
+      // Values arrays by length so engines see event.values like lengths (eg rotation vector with or without the
+      // accuracy value).
+      final float[][] valuesByLength = new float[RECORD_VALUES + 1][];
+      for (int i=0; i<=RECORD_VALUES; i++)
+         valuesByLength[i] = new float[i];
+      final float[] values = new float[RECORD_VALUES];
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BLOCK_RECORDS); // BIG_ENDIAN
+      long updates = 0;
+      RandomAccessFile raf = new RandomAccessFile(sensorFile, "r");
+      try
+      {
+         final FileChannel channel = raf.getChannel();
+         channel.position(dataOffset);
+         while (channel.read(buffer) > 0)
+         {
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE)
+            {
+               final int type = buffer.getInt();
+               final long timestamp = buffer.getLong();
+               int len = 0;
+               for (int i=0; i<RECORD_VALUES; i++)
+               {
+                  values[i] = buffer.getFloat();
+                  if (! Float.isNaN(values[i]))
+                     len = i + 1;
+               }
+               final float[] sample = valuesByLength[len];
+               System.arraycopy(values, 0, sample, 0, len);
+               if (engine.onSample(type, timestamp, sample))
+               {
+                  updates++;
+                  if (listener != null)
+                     listener.onOrientationListenerUpdate(engine.getRotationMatrix(), engine.getQuaternion(),
+                                                          timestamp);
+               }
+            }
+            buffer.compact();
+         }
+      }
+      finally
+      {
+         raf.close();
+      }
+      return updates;
+   }
+}
@@ -0,0 +1,238 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+/**
+ * Pure Java versions of the SensorManager static rotation helpers used by the fusion engines so that fusion can run
+ * without the Android runtime (eg offline over a recorded sensordata.raw file). The results match the corresponding
+ * android.hardware.SensorManager methods.
+ */
+public class SensorMath
+//=====================
+{
+   /**
+    * The free fall threshold (squared) below which getRotationMatrix fails (1% of standard gravity).
+    */
+   static final private float FREE_FALL_GRAVITY_SQUARED = 0.01f * 9.81f * 9.81f;
+
+   /**
+    * See SensorManager.getRotationMatrix.
+    * @param R 3x3 (9) or 4x4 (16) rotation matrix result (may be null)
+    * @param I 3x3 (9) or 4x4 (16) inclination matrix result (may be null)
+    * @param gravity gravity or accelerometer vector
+    * @param geomagnetic magnetic field vector
+    * @return true on success, false if the device is in free fall or close to magnetic north.
+    */
+   static public boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic)
+   //-------------------------------------------------------------------------------------------------
+   {
+      float Ax = gravity[0];
+      float Ay = gravity[1];
+      float Az = gravity[2];
+      final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+      if (normsqA < FREE_FALL_GRAVITY_SQUARED)
+         return false;
+      final float Ex = geomagnetic[0];
+      final float Ey = geomagnetic[1];
+      final float Ez = geomagnetic[2];
+      float Hx = Ey * Az - Ez * Ay;
+      float Hy = Ez * Ax - Ex * Az;
+      float Hz = Ex * Ay - Ey * Ax;
+      final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+      if (normH < 0.1f)
+         return false;
+      final float invH = 1.0f / normH;
+      Hx *= invH;
+      Hy *= invH;
+      Hz *= invH;
+      final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+      Ax *= invA;
+      Ay *= invA;
+      Az *= invA;
+      final float Mx = Ay * Hz - Az * Hy;
+      final float My = Az * Hx - Ax * Hz;
+      final float Mz = Ax * Hy - Ay * Hx;
+      if (R != null)
+      {
+         if (R.length == 9)
+         {
+            R[0] = Hx;     R[1] = Hy;     R[2] = Hz;
+            R[3] = Mx;     R[4] = My;     R[5] = Mz;
+            R[6] = Ax;     R[7] = Ay;     R[8] = Az;
+         }
+         else if (R.length == 16)
+         {
+            R[0]  = Hx;    R[1]  = Hy;    R[2]  = Hz;   R[3]  = 0;
+            R[4]  = Mx;    R[5]  = My;    R[6]  = Mz;   R[7]  = 0;
+            R[8]  = Ax;    R[9]  = Ay;    R[10] = Az;   R[11] = 0;
+            R[12] = 0;     R[13] = 0;     R[14] = 0;    R[15] = 1;
+         }
+      }
+      if (I != null)
+      {
+         final float invE = 1.0f / (float) Math.sqrt(Ex * Ex + Ey * Ey + Ez * Ez);
+         final float c = (Ex * Mx + Ey * My + Ez * Mz) * invE;
+         final float s = (Ex * Ax + Ey * Ay + Ez * Az) * invE;
+         if (I.length == 9)
+         {
+            I[0] = 1;     I[1] = 0;     I[2] = 0;
+            I[3] = 0;     I[4] = c;     I[5] = s;
+            I[6] = 0;     I[7] = -s;    I[8] = c;
+         }
+         else if (I.length == 16)
+         {
+            I[0] = 1;     I[1] = 0;     I[2] = 0;
+            I[4] = 0;     I[5] = c;     I[6] = s;
+            I[8] = 0;     I[9] = -s;    I[10] = c;
+            I[3] = I[7] = I[11] = I[12] = I[13] = I[14] = 0;
+            I[15] = 1;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * See SensorManager.getOrientation.
+    * @param R 3x3 (9) or 4x4 (16) rotation matrix
+    * @param values azimuth, pitch and roll result in radians
+    * @return values
+    */
+   static public float[] getOrientation(float[] R, float[] values)
+   //-------------------------------------------------------------
+   {
+      if (R.length == 9)
+      {
+         values[0] = (float) Math.atan2(R[1], R[4]);
+         values[1] = (float) Math.asin(-R[7]);
+         values[2] = (float) Math.atan2(-R[6], R[8]);
+      }
+      else
+      {
+         values[0] = (float) Math.atan2(R[1], R[5]);
+         values[1] = (float) Math.asin(-R[9]);
+         values[2] = (float) Math.atan2(-R[8], R[10]);
+      }
+      return values;
+   }
+
+   /**
+    * See SensorManager.getRotationMatrixFromVector.
+    * @param R 3x3 (9) or 4x4 (16) rotation matrix result
+    * @param rotationVector rotation vector (x, y, z[, w]). If w is not present it is calculated.
+    */
+   static public void getRotationMatrixFromVector(float[] R, float[] rotationVector)
+   //-------------------------------------------------------------------------------
+   {
+      float q0;
+      final float q1 = rotationVector[0];
+      final float q2 = rotationVector[1];
+      final float q3 = rotationVector[2];
+      if (rotationVector.length >= 4)
+         q0 = rotationVector[3];
+      else
+      {
+         q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+         q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+      }
+
+      final float sq_q1 = 2 * q1 * q1;
+      final float sq_q2 = 2 * q2 * q2;
+      final float sq_q3 = 2 * q3 * q3;
+      final float q1_q2 = 2 * q1 * q2;
+      final float q3_q0 = 2 * q3 * q0;
+      final float q1_q3 = 2 * q1 * q3;
+      final float q2_q0 = 2 * q2 * q0;
+      final float q2_q3 = 2 * q2 * q3;
+      final float q1_q0 = 2 * q1 * q0;
+
+      if (R.length == 9)
+      {
+         R[0] = 1 - sq_q2 - sq_q3;
+         R[1] = q1_q2 - q3_q0;
+         R[2] = q1_q3 + q2_q0;
+
+         R[3] = q1_q2 + q3_q0;
+         R[4] = 1 - sq_q1 - sq_q3;
+         R[5] = q2_q3 - q1_q0;
+
+         R[6] = q1_q3 - q2_q0;
+         R[7] = q2_q3 + q1_q0;
+         R[8] = 1 - sq_q1 - sq_q2;
+      }
+      else if (R.length == 16)
+      {
+         R[0] = 1 - sq_q2 - sq_q3;
+         R[1] = q1_q2 - q3_q0;
+         R[2] = q1_q3 + q2_q0;
+         R[3] = 0.0f;
+
+         R[4] = q1_q2 + q3_q0;
+         R[5] = 1 - sq_q1 - sq_q3;
+         R[6] = q2_q3 - q1_q0;
+         R[7] = 0.0f;
+
+         R[8] = q1_q3 - q2_q0;
+         R[9] = q2_q3 + q1_q0;
+         R[10] = 1 - sq_q1 - sq_q2;
+         R[11] = 0.0f;
+
+         R[12] = R[13] = R[14] = 0.0f;
+         R[15] = 1.0f;
+      }
+   }
+
+   /**
+    * See SensorManager.getQuaternionFromVector.
+    * @param Q quaternion result in Android (w, x, y, z) order
+    * @param rv rotation vector (x, y, z[, w]). If w is not present it is calculated.
+    */
+   static public void getQuaternionFromVector(float[] Q, float[] rv)
+   //---------------------------------------------------------------
+   {
+      if (rv.length >= 4)
+         Q[0] = rv[3];
+      else
+      {
+         Q[0] = 1 - rv[0] * rv[0] - rv[1] * rv[1] - rv[2] * rv[2];
+         Q[0] = (Q[0] > 0) ? (float) Math.sqrt(Q[0]) : 0;
+      }
+      Q[1] = rv[0];
+      Q[2] = rv[1];
+      Q[3] = rv[2];
+   }
+
+   /**
+    * Multiplies 3x3 matrices A and B into result which may not be A or B.
+    * @return result
+    */
+   static public float[] multiply3x3(float[] A, float[] B, float[] result)
+   //---------------------------------------------------------------------
+   {
+      result[0] = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
+      result[1] = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
+      result[2] = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
+
+      result[3] = A[3] * B[0] + A[4] * B[3] + A[5] * B[6];
+      result[4] = A[3] * B[1] + A[4] * B[4] + A[5] * B[7];
+      result[5] = A[3] * B[2] + A[4] * B[5] + A[5] * B[8];
+
+      result[6] = A[6] * B[0] + A[7] * B[3] + A[8] * B[6];
+      result[7] = A[6] * B[1] + A[7] * B[4] + A[8] * B[7];
+      result[8] = A[6] * B[2] + A[7] * B[5] + A[8] * B[8];
+      return result;
+   }
+}
@@ -7,34 +7,23 @@
 package to.augmented.reality.android.common.sensor.orientation;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
-import android.os.Build;
-import android.os.SystemClock;
+import to.augmented.reality.android.common.sensor.fusion.AccelerometerCompassFusion;
 
 /**
  * The orientation provider that delivers the current orientation from the {@link Sensor#TYPE_ACCELEROMETER
- * Accelerometer} and {@link Sensor#TYPE_MAGNETIC_FIELD Compass}.
+ * Accelerometer} and {@link Sensor#TYPE_MAGNETIC_FIELD Compass}. The fusion is done by
+ * {@link AccelerometerCompassFusion}.
  *
  * @author Alexander Pacha
  */
 public class AccelerometerCompassProvider extends OrientationProvider
 //===================================================================
 {
-   static final protected int[] SENSORS = { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_MAGNETIC_FIELD };
+   static final protected int[] SENSORS = AccelerometerCompassFusion.SENSORS;
 
    @Override protected int[] fusedSensors() { return SENSORS; }
 
-   /**
-    * Compass values
-    */
-   private float[] magnitudeValues = new float[3];
-
-   /**
-    * Accelerometer values
-    */
-   private float[] accelerometerValues = new float[3];
-
    /**
     * Initialises a new AccelerometerCompassProvider
     *
@@ -54,7 +43,7 @@ public class AccelerometerCompassProvider extends OrientationProvider
    public AccelerometerCompassProvider(SensorManager sensorManager, int[] extraSensors, int[] extraSensorSpeeds)
    //------------------------------------------------------------------------------------------------------------
    {
-      super(sensorManager);
+      super(sensorManager, new AccelerometerCompassFusion());
 
       //Add the compass and the accelerometer
       sensorList.add(sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER));
@@ -63,43 +52,4 @@ public class AccelerometerCompassProvider extends OrientationProvider
       if ( (extraSensors != null) && (extraSensors.length > 0) )
          super.rawSensors(extraSensors, extraSensorSpeeds);
    }
-
-   private float[] I = new float[16];
-
-   @Override
-   public void onSensorChanged(SensorEvent event)
-   //---------------------------------------------
-   {
-      if (isSuspended) return;
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
-         super.timestampNS = SystemClock.elapsedRealtimeNanos(); //event.timestamp;
-      else
-         super.timestampNS = System.nanoTime();
-      final int eventType = event.sensor.getType();
-      switch (eventType)
-      {
-         case Sensor.TYPE_MAGNETIC_FIELD:
-//            magnitudeValues = event.values.clone();
-            System.arraycopy(event.values, 0, magnitudeValues, 0, magnitudeValues.length);
-            break;
-         case Sensor.TYPE_ACCELEROMETER:
-//            accelerometerValues = event.values.clone();
-            System.arraycopy(event.values, 0, accelerometerValues, 0, accelerometerValues.length);
-            break;
-      }
-
-      if (magnitudeValues != null && accelerometerValues != null)
-      {
-         // Fuse accelerometer with compass
-         SensorManager.getRotationMatrix(currentOrientationRotationMatrix, I, accelerometerValues, magnitudeValues);
-         // Transform rotation matrix to quaternion
-         currentOrientationQuaternion.setFromMatrix(currentOrientationRotationMatrix);
-
-         if (orientationListener != null)
-            orientationListener.onOrientationListenerUpdate(currentOrientationRotationMatrix,
-                                                            currentOrientationQuaternion, super.timestampNS);
-         notifyObservers();
-      }
-      onHandleEvent(eventType, event);
-   }
 }
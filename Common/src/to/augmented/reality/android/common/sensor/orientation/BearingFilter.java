@@ -0,0 +1,283 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.orientation;
+
+import java.util.Arrays;
+
+/**
+ * A streaming, centered window smoothing filter for compass bearings (degrees in [0, 360)). Bearings are unwrapped
+ * as they are pushed (each sample is placed within 180 degrees of the previous one) so the window never straddles the
+ * 0/360 discontinuity, and results are wrapped back into [0, 360).
+ * <p>
+ * MEAN keeps a running sum (O(1) per sample), MEDIAN keeps a sorted copy of the window (O(kernelSize) insert and
+ * remove without allocation) and SAVITZKY_GOLAY convolves the window with precomputed least squares polynomial
+ * coefficients, which smooths while preserving peaks better than a mean.
+ * <p>
+ * The filter delays its output by {@link #delay()} samples: once {@link #push(float)} returns true {@link #value()}
+ * is the smoothed bearing of the sample pushed delay() samples earlier. The first and last delay() samples of a
+ * stream have no complete window and are not smoothed.
+ * <p>
+ * Pure Java and not thread safe.
+ */
+public class BearingFilter
+//========================
+{
+   public enum Kernel { MEAN, MEDIAN, SAVITZKY_GOLAY }
+
+   static final public int DEFAULT_POLYNOMIAL_ORDER = 2;
+
+   private final Kernel kernel;
+   private final int size, center;
+   private final double[] window; // Unwrapped bearings, circular
+   private final double[] sorted; // MEDIAN only
+   private final double[] coefficients; // SAVITZKY_GOLAY only
+   private int head = 0, count = 0;
+   private long pushed = 0;
+   private double sum = 0, last = Double.NaN;
+   private float value = -1;
+
+   /**
+    * @param kernel The smoothing kernel.
+    * @param kernelSize The window size (made odd by adding one if even). The SAVITZKY_GOLAY polynomial order is
+    *                   DEFAULT_POLYNOMIAL_ORDER, reduced to kernelSize - 1 for smaller windows.
+    */
+   public BearingFilter(Kernel kernel, int kernelSize)
+   //-------------------------------------------------
+   {
+      this(kernel, kernelSize, Math.min(DEFAULT_POLYNOMIAL_ORDER, oddSize(kernelSize) - 1));
+   }
+
+   /**
+    * @param kernel The smoothing kernel.
+    * @param kernelSize The window size (made odd by adding one if even).
+    * @param polynomialOrder The polynomial order for SAVITZKY_GOLAY (less than kernelSize), ignored otherwise.
+    */
+   public BearingFilter(Kernel kernel, int kernelSize, int polynomialOrder)
+   //----------------------------------------------------------------------
+   {
+      if (kernelSize < 1)
+         throw new IllegalArgumentException("Kernel size must be positive (" + kernelSize + ")");
+      kernelSize = oddSize(kernelSize);
+      this.kernel = (kernel == null) ? Kernel.MEAN : kernel;
+      size = kernelSize;
+      center = size / 2;
+      window = new double[size];
+      sorted = (this.kernel == Kernel.MEDIAN) ? new double[size] : null;
+      if (this.kernel == Kernel.SAVITZKY_GOLAY)
+      {
+         if ( (polynomialOrder < 0) || (polynomialOrder >= size) )
+            throw new IllegalArgumentException("Polynomial order " + polynomialOrder + " must be less than the kernel size "
+                                               + size);
+         coefficients = savitzkyGolay(center, polynomialOrder);
+      }
+      else
+         coefficients = null;
+   }
+
+   static private int oddSize(int kernelSize) { return ((kernelSize % 2) == 0) ? kernelSize + 1 : kernelSize; }
+
+   public Kernel getKernel() { return kernel; }
+
+   public int getKernelSize() { return size; }
+
+   /** The number of samples between a push and the availability of its smoothed value. */
+   public int delay() { return center; }
+
+   /** The number of samples pushed since construction or the last reset. */
+   public long pushed() { return pushed; }
+
+   /** The smoothed bearing in [0, 360) of sample pushed() - 1 - delay() (valid after push returned true). */
+   public float value() { return value; }
+
+   public void reset()
+   //-----------------
+   {
+      head = count = 0;
+      pushed = 0;
+      sum = 0;
+      last = Double.NaN;
+      value = -1;
+   }
+
+   /**
+    * Adds a bearing (degrees) to the window.
+    * @return true if the window is full and {@link #value()} holds the smoothed bearing of its center sample.
+    */
+   public boolean push(float bearing)
+   //--------------------------------
+   {
+      double b = unwrap(bearing);
+      double old = window[head];
+      boolean isFull = (count == size);
+      window[head] = b;
+      if (++head == size)
+         head = 0;
+      pushed++;
+      if (! isFull)
+         count++;
+      switch (kernel)
+      {
+         case MEAN:
+            if (head == 0)
+            {
+               sum = 0; // Resum once per revolution of the window so rounding errors can't accumulate
+               for (int i=0; i<count; i++)
+                  sum += window[i];
+            }
+            else
+               sum += (isFull) ? b - old : b;
+            break;
+         case MEDIAN:
+            if (isFull)
+               remove(old);
+            insert(b);
+            break;
+      }
+      if (count < size)
+         return false;
+      double v;
+      switch (kernel)
+      {
+         case MEDIAN:
+            v = sorted[center];
+            break;
+         case SAVITZKY_GOLAY:
+            v = 0;
+            for (int i=0, j=head; i<size; i++)
+            {
+               v += coefficients[i] * window[j];
+               if (++j == size)
+                  j = 0;
+            }
+            break;
+         default:
+            v = sum / size;
+      }
+      value = normalize(v);
+      return true;
+   }
+
+   /**
+    * Smooths bearings in place (the first and last delay() bearings are left unchanged).
+    */
+   public void filter(float[] bearings, int offset, int length)
+   //----------------------------------------------------------
+   {
+      reset();
+      final int end = offset + length;
+      for (int i=offset; i<end; i++)
+      {
+         if (push(bearings[i])) // Safe in place as the smoothed sample is behind the pushed sample
+            bearings[i - center] = value;
+      }
+   }
+
+   private double unwrap(float bearing)
+   //----------------------------------
+   {
+      if (Double.isNaN(last))
+         return last = bearing;
+      double d = bearing - normalize(last);
+      if (d > 180)
+         d -= 360;
+      else if (d < -180)
+         d += 360;
+      return last += d;
+   }
+
+   static private float normalize(double bearing)
+   //--------------------------------------------
+   {
+      double b = bearing % 360;
+      if (b < 0)
+         b += 360;
+      float f = (float) b;
+      return (f >= 360f) ? 0f : f;
+   }
+
+   private void insert(double b)
+   //---------------------------
+   {
+      final int n = count - 1; // count already includes b
+      int i = Arrays.binarySearch(sorted, 0, n, b);
+      if (i < 0)
+         i = -i - 1;
+      System.arraycopy(sorted, i, sorted, i + 1, n - i);
+      sorted[i] = b;
+   }
+
+   private void remove(double b)
+   //---------------------------
+   {
+      int i = Arrays.binarySearch(sorted, 0, size, b);
+      if (i < 0)
+         return;
+      System.arraycopy(sorted, i + 1, sorted, i, size - i - 1);
+   }
+
+   /**
+    * Computes the Savitzky-Golay smoothing coefficients for a window of 2*half + 1 samples, ie the value at 0 of the
+    * least squares fit of a polynomial of the given order, by solving the normal equations (A'A)c = A'e for the
+    * Vandermonde matrix A of the sample positions -half..half.
+    */
+   static double[] savitzkyGolay(int half, int order)
+   //------------------------------------------------
+   {
+      final int n = 2*half + 1, m = order + 1;
+      double[][] ata = new double[m][m + 1];
+      for (int r=0; r<m; r++)
+      {
+         for (int c=0; c<m; c++)
+         {
+            double s = 0;
+            for (int x=-half; x<=half; x++)
+               s += Math.pow(x, r + c);
+            ata[r][c] = s;
+         }
+         ata[r][m] = (r == 0) ? 1 : 0;
+      }
+      // Gauss-Jordan with partial pivoting; solution z gives coefficient(x) = sum_r z[r] x^r
+      for (int col=0; col<m; col++)
+      {
+         int pivot = col;
+         for (int r=col + 1; r<m; r++)
+            if (Math.abs(ata[r][col]) > Math.abs(ata[pivot][col]))
+               pivot = r;
+         double[] tmp = ata[col]; ata[col] = ata[pivot]; ata[pivot] = tmp;
+         double p = ata[col][col];
+         for (int c=col; c<=m; c++)
+            ata[col][c] /= p;
+         for (int r=0; r<m; r++)
+         {
+            if (r == col) continue;
+            double f = ata[r][col];
+            if (f != 0)
+               for (int c=col; c<=m; c++)
+                  ata[r][c] -= f*ata[col][c];
+         }
+      }
+      double[] coefficients = new double[n];
+      for (int x=-half; x<=half; x++)
+      {
+         double s = 0;
+         for (int r=0; r<m; r++)
+            s += ata[r][m]*Math.pow(x, r);
+         coefficients[x + half] = s;
+      }
+      return coefficients;
+   }
+}
@@ -1,6 +1,6 @@
 package to.augmented.reality.android.common.sensor.orientation;
 
-import java.util.*;
+import to.augmented.reality.android.common.sensor.filter.MeanVectorFilter;
 
 /*
  * Copyright 2013, Kaleb Kircher - Boki Software, Kircher Electronics
@@ -20,6 +20,9 @@ import java.util.*;
 
 /**
  * Implements a mean filter designed to smooth the data points based on a mean.
+ * <p>
+ * Now a compatibility wrapper over the allocation free {@link MeanVectorFilter} (a circular window with running sums
+ * instead of boxed per dimension lists); new code should use the sensor.filter classes directly.
  *
  * @author Kaleb
  * @version %I%, %G%
@@ -31,84 +34,50 @@ public class MeanFilter
 	// The size of the mean filters rolling window.
 	private int filterWindow = 30;
 
-	private boolean dataInit;
+	private MeanVectorFilter filter = null;
 
-	private ArrayList<LinkedList<Number>> dataLists;
+	private float[] means = null;
 
 	/**
 	 * Initialize a new MeanFilter object.
 	 */
 	public MeanFilter()
 	{
-		dataLists = new ArrayList<LinkedList<Number>>();
-		dataInit = false;
 	}
 
 	/**
 	 * Filter the data.
 	 *
-	 * @param iterator
+	 * @param data
 	 *            contains input the data.
-	 * @return the filtered output data.
+	 * @return the filtered output data. The returned array is reused by the next call.
 	 */
 	public float[] filterFloat(float[] data)
 	{
-		for (int i = 0; i < data.length; i++)
-		{
-			// Initialize the data structures for the data set.
-			if (!dataInit)
-			{
-				dataLists.add(new LinkedList<Number>());
-			}
-
-			dataLists.get(i).addLast(data[i]);
-
-			if (dataLists.get(i).size() > filterWindow)
-			{
-				dataLists.get(i).removeFirst();
-			}
-		}
-
-		dataInit = true;
-
-		float[] means = new float[dataLists.size()];
-
-		for (int i = 0; i < dataLists.size(); i++)
-		{
-			means[i] = (float) getMean(dataLists.get(i));
-		}
-
-		return means;
+		if ( (means == null) || (means.length != data.length) )
+			means = new float[data.length];
+		return filterFloat(data, means);
 	}
 
 	/**
-	 * Get the mean of the data set.
+	 * Filter the data into a caller provided array.
 	 *
 	 * @param data
-	 *            the data set.
-	 * @return the mean of the data set.
+	 *            contains input the data.
+	 * @param out
+	 *            receives the filtered output data (may be data).
+	 * @return out
 	 */
-	private float getMean(List<Number> data)
+	public float[] filterFloat(float[] data, float[] out)
 	{
-		float m = 0;
-		float count = 0;
-
-		for (int i = 0; i < data.size(); i++)
-		{
-			m += data.get(i).floatValue();
-			count++;
-		}
-
-		if (count != 0)
-		{
-			m = m / count;
-		}
-
-		return m;
+		if ( (filter == null) || (filter.getDimensions() != data.length) )
+			filter = new MeanVectorFilter(data.length, filterWindow);
+		return filter.filter(data, out);
 	}
 
 	public void setWindowSize(int size)
 	{
 		this.filterWindow = size;
+		filter = null;
 	}
 }
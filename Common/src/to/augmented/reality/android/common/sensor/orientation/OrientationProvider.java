@@ -15,13 +15,16 @@ import android.hardware.SensorManager;
 import android.os.*;
 import android.os.Process;
 import android.util.*;
+import to.augmented.reality.android.common.math.BearingMath;
 import to.augmented.reality.android.common.math.Quaternion;
-import to.augmented.reality.android.common.math.QuickFloat;
+import to.augmented.reality.android.common.sensor.filter.VectorFilter;
+import to.augmented.reality.android.common.sensor.fusion.FusionEngine;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Classes implementing this interface provide an orientation of the device either by directly accessing hardware, using
@@ -94,11 +97,48 @@ public abstract class OrientationProvider extends HandlerThread implements Senso
     */
    protected long timestampNS = 0L;
 
+   final static private int SNAPSHOT_QUATERNION = 16, SNAPSHOT_SIZE = 20;
+
+   /**
+    * Sequence lock for the published orientation snapshot. Odd while the sensor thread is publishing.
+    */
+   volatile private int snapshotSequence = 0;
+
+   /**
+    * The published orientation snapshot (the 4x4 rotation matrix followed by the quaternion x, y, z, w) as raw float
+    * bits. Element accesses are volatile so they can not be reordered around the snapshotSequence accesses.
+    */
+   private final AtomicIntegerArray snapshot = new AtomicIntegerArray(SNAPSHOT_SIZE);
+
+   volatile private long snapshotTimestamp = 0L;
+
    /**
     * The sensor manager for accessing android sensors
     */
    protected SensorManager sensorManager;
 
+   /**
+    * The platform independent fusion engine which sensor events are delegated to (may be null for providers that
+    * handle onSensorChanged themselves).
+    */
+   protected final FusionEngine fusionEngine;
+
+   public FusionEngine getFusionEngine() { return fusionEngine; }
+
+   /**
+    * Sets a filter applied to a sensor's values before they are fused (see FusionEngine.setInputFilter). Has no
+    * effect for providers without a fusion engine.
+    * @param sensorType The sensor type eg Sensor.TYPE_ACCELEROMETER
+    * @param filter The filter (eg a MeanVectorFilter, MedianVectorFilter or OneEuroVectorFilter) or null to remove
+    *               the filter.
+    */
+   public void setSensorFilter(int sensorType, VectorFilter filter)
+   //--------------------------------------------------------------
+   {
+      if (fusionEngine != null)
+         fusionEngine.setInputFilter(sensorType, filter);
+   }
+
    final static public int ACCEL_VEC_SIZE = 3, LINACCEL_VEC_SIZE = 3, GRAVITY_VEC_SIZE = 3, GYRO_VEC_SIZE = 3,
                            MAG_VEC_SIZE = 3, ROTATION_VEC_SIZE, MAX_EVENT_SIZE;
    static
@@ -124,10 +164,19 @@ public abstract class OrientationProvider extends HandlerThread implements Senso
     *
     * @param sensorManager The android sensor manager
     */
-   public OrientationProvider(SensorManager sensorManager)
-   //-----------------------------------------------------
+   public OrientationProvider(SensorManager sensorManager) { this(sensorManager, null); }
+
+   /**
+    * Initialises a new OrientationProvider which delegates sensor events to a fusion engine
+    *
+    * @param sensorManager The android sensor manager
+    * @param fusionEngine The fusion engine
+    */
+   public OrientationProvider(SensorManager sensorManager, FusionEngine fusionEngine)
+   //--------------------------------------------------------------------------------
    {
       super("OrientationProvider", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+      this.fusionEngine = fusionEngine;
       try { startMutex.acquire(); } catch (InterruptedException e) { return; }
       this.sensorManager = sensorManager;
 
@@ -136,6 +185,7 @@ public abstract class OrientationProvider extends HandlerThread implements Senso
 
       // Initialise with identity
       currentOrientationQuaternion = new Quaternion();
+      snapshot.set(SNAPSHOT_QUATERNION + 3, Float.floatToRawIntBits(1));
    }
 
    abstract protected int[] fusedSensors();
@@ -384,22 +434,114 @@ public abstract class OrientationProvider extends HandlerThread implements Senso
          isSuspended = false;
    }
 
+   @Override
+   public void onSensorChanged(SensorEvent event)
+   //--------------------------------------------
+   {
+      if (isSuspended) return;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+         timestampNS = SystemClock.elapsedRealtimeNanos(); //event.timestamp;
+      else
+         timestampNS = System.nanoTime();
+      final int eventType = event.sensor.getType();
+      if ( (fusionEngine != null) && (fusionEngine.onSample(eventType, event.timestamp, event.values)) )
+         onFusionUpdate();
+      onHandleEvent(eventType, event);
+   }
+
+   /**
+    * Copies the fusion engine output to the current orientation and notifies the listener and observers.
+    */
+   protected void onFusionUpdate()
+   //-----------------------------
+   {
+      System.arraycopy(fusionEngine.getRotationMatrix(), 0, currentOrientationRotationMatrix, 0, 16);
+      currentOrientationQuaternion.setFrom(fusionEngine.getQuaternion());
+      publish(currentOrientationRotationMatrix, currentOrientationQuaternion, timestampNS);
+      if (orientationListener != null)
+         orientationListener.onOrientationListenerUpdate(currentOrientationRotationMatrix, currentOrientationQuaternion,
+                                                         timestampNS);
+      notifyObservers();
+   }
+
    /**
-    * @return Returns the current rotation of the device in the rotation matrix format (4x4 matrix)
+    * Publishes an orientation snapshot for readRotation, readQuaternion and readOrientation. Must only be called from
+    * the sensor thread. Never blocks.
     */
-   public float[] getRotationMatrix()
+   protected void publish(float[] R, Quaternion Q, long timestamp)
+   //-------------------------------------------------------------
    {
-      synchronized (syncToken) { return currentOrientationRotationMatrix;   }
+      final int sequence = snapshotSequence;
+      snapshotSequence = sequence + 1;
+      for (int i=0; i<16; i++)
+         snapshot.set(i, Float.floatToRawIntBits(R[i]));
+      snapshot.set(SNAPSHOT_QUATERNION, Float.floatToRawIntBits(Q.getX()));
+      snapshot.set(SNAPSHOT_QUATERNION + 1, Float.floatToRawIntBits(Q.getY()));
+      snapshot.set(SNAPSHOT_QUATERNION + 2, Float.floatToRawIntBits(Q.getZ()));
+      snapshot.set(SNAPSHOT_QUATERNION + 3, Float.floatToRawIntBits(Q.getW()));
+      snapshotTimestamp = timestamp;
+      snapshotSequence = sequence + 2;
    }
 
    /**
-    * @return Returns the current rotation of the device in the quaternion format (vector4f)
+    * Copies a consistent snapshot of the current rotation and/or quaternion without locking. Any number of threads
+    * may read concurrently and readers never block the sensor thread (a read that overlaps a publish is retried).
+    * @param R Receives the 4x4 rotation matrix (16 elements). May be null.
+    * @param Q Receives the rotation quaternion. May be null.
+    * @return The timestamp of the snapshot (0 if no orientation has been published yet).
     */
-   public Quaternion getQuaternion()
+   public long readOrientation(float[] R, Quaternion Q)
+   //--------------------------------------------------
    {
-      synchronized (syncToken) { return currentOrientationQuaternion; }
+      while (true)
+      {
+         final int sequence = snapshotSequence;
+         if ((sequence & 1) != 0)
+         {
+            Thread.yield();
+            continue;
+         }
+         if (R != null)
+            for (int i=0; i<16; i++)
+               R[i] = Float.intBitsToFloat(snapshot.get(i));
+         if (Q != null)
+            Q.setXYZW(Float.intBitsToFloat(snapshot.get(SNAPSHOT_QUATERNION)),
+                      Float.intBitsToFloat(snapshot.get(SNAPSHOT_QUATERNION + 1)),
+                      Float.intBitsToFloat(snapshot.get(SNAPSHOT_QUATERNION + 2)),
+                      Float.intBitsToFloat(snapshot.get(SNAPSHOT_QUATERNION + 3)));
+         final long timestamp = snapshotTimestamp;
+         if (snapshotSequence == sequence)
+            return timestamp;
+      }
    }
 
+   /**
+    * Copies a consistent snapshot of the current rotation matrix without locking (see readOrientation).
+    * @param dst Receives the 4x4 rotation matrix (16 elements).
+    * @return The timestamp of the snapshot.
+    */
+   public long readRotation(float[] dst) { return readOrientation(dst, null); }
+
+   /**
+    * Copies a consistent snapshot of the current rotation quaternion without locking (see readOrientation).
+    * @param dst Receives the quaternion.
+    * @return The timestamp of the snapshot.
+    */
+   public long readQuaternion(Quaternion dst) { return readOrientation(null, dst); }
+
+   /**
+    * @return Returns the current rotation of the device in the rotation matrix format (4x4 matrix). This is the live
+    * array updated by the sensor thread so it may change while being read; use readRotation for a consistent copy.
+    */
+   public float[] getRotationMatrix() { return currentOrientationRotationMatrix; }
+
+   /**
+    * @return Returns the current rotation of the device in the quaternion format (vector4f). This is the live
+    * instance updated by the sensor thread so it may change while being read; use readQuaternion for a consistent
+    * copy.
+    */
+   public Quaternion getQuaternion() { return currentOrientationQuaternion; }
+
    protected List<WeakReference<OrientationObservable>> observers = null;
 
    public void addOrientationObserver(OrientationObservable observer)
@@ -566,27 +708,13 @@ public abstract class OrientationProvider extends HandlerThread implements Senso
       return (sensorManager.getDefaultSensor(type) != null);
    }
 
-   static private float[] RM = new float[16];
-   static final private int remapX = SensorManager.AXIS_X, remapY = SensorManager.AXIS_Z;
-
-   static public float getBearingDegrees(float[] R)
-   //----------------------------------------------
-   {
-      SensorManager.remapCoordinateSystem(R, remapX, remapY, RM);
-      float bearing = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
-      if (bearing < 0)
-         bearing += 360;
-      return bearing;
-   }
+   /**
+    * @return The bearing in degrees [0, 360) of rotation matrix R (thread safe, see BearingMath).
+    */
+   static public float getBearingDegrees(float[] R) { return BearingMath.bearingDegrees(R); }
 
-   static public float getBearingRadians(float[] R)
-   //----------------------------------------------
-   {
-      int worldX = SensorManager.AXIS_X,  worldY = SensorManager.AXIS_Z;
-      SensorManager.remapCoordinateSystem(R, worldX, worldY, RM);
-      float bearing = QuickFloat.atan2(RM[1], RM[5]);
-      if (bearing < 0)
-         bearing += QuickFloat.TWO_PI;
-      return bearing;
-   }
+   /**
+    * @return The bearing in radians [0, 2PI) of rotation matrix R (thread safe, see BearingMath).
+    */
+   static public float getBearingRadians(float[] R) { return BearingMath.bearingRadians(R); }
 }
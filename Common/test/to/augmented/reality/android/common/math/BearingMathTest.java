@@ -0,0 +1,125 @@
+package to.augmented.reality.android.common.math;
+
+import android.hardware.SensorManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks BearingMath against SensorManager.remapCoordinateSystem(R, AXIS_X, AXIS_Z, RM) followed by
+ * SensorManager.getOrientation(RM) (Robolectric provides the real SensorManager implementation).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BearingMathTest
+{
+   final static int COUNT = 10000;
+   final static float EPSILON = 1e-4f;
+
+   static private float[] randomRotationVector(Random random)
+   {
+      float x = (float) random.nextGaussian(), y = (float) random.nextGaussian(), z = (float) random.nextGaussian(),
+            w = (float) random.nextGaussian();
+      float n = (float) Math.sqrt(x*x + y*y + z*z + w*w);
+      return new float[] { x/n, y/n, z/n, w/n };
+   }
+
+   static private float expectedBearing(float[] R, float[] RM)
+   {
+      SensorManager.remapCoordinateSystem(R, SensorManager.AXIS_X, SensorManager.AXIS_Z, RM);
+      float bearing = (float) Math.toDegrees(Math.atan2(RM[1], RM[5]));
+      if (bearing < 0)
+         bearing += 360;
+      if (bearing >= 360)
+         bearing -= 360;
+      return bearing;
+   }
+
+   static private float angleDifference(float a, float b, float period)
+   {
+      float d = Math.abs(a - b) % period;
+      return Math.min(d, period - d);
+   }
+
+   @Test
+   public void testMatrixBearing()
+   {
+      Random random = new Random(1);
+      float[] R = new float[16], RM = new float[16];
+      for (int i=0; i<COUNT; i++)
+      {
+         SensorManager.getRotationMatrixFromVector(R, randomRotationVector(random));
+         assertEquals(expectedBearing(R, RM), BearingMath.bearingDegrees(R), 0);
+         float radians = BearingMath.bearingRadians(R);
+         assertTrue( (radians >= 0) && (radians < 2*Math.PI) );
+         assertEquals(expectedBearing(R, RM), Math.toDegrees(radians), 1e-3);
+      }
+   }
+
+   @Test
+   public void testMatrixAngles()
+   {
+      Random random = new Random(2);
+      float[] R = new float[16], R3 = new float[9], RM = new float[16], expected = new float[3], angles = new float[3];
+      for (int i=0; i<COUNT; i++)
+      {
+         float[] rv = randomRotationVector(random);
+         SensorManager.getRotationMatrixFromVector(R, rv);
+         SensorManager.getRotationMatrixFromVector(R3, rv);
+         SensorManager.remapCoordinateSystem(R, SensorManager.AXIS_X, SensorManager.AXIS_Z, RM);
+         SensorManager.getOrientation(RM, expected);
+         BearingMath.anglesRadians(R, angles);
+         assertEquals(0, angleDifference(expected[0], angles[0], (float) (2*Math.PI)), EPSILON);
+         assertEquals(expected[1], angles[1], EPSILON);
+         assertEquals(expected[2], angles[2], EPSILON);
+         BearingMath.anglesRadians(R3, angles);
+         assertEquals(0, angleDifference(expected[0], angles[0], (float) (2*Math.PI)), EPSILON);
+         assertEquals(expected[1], angles[1], EPSILON);
+         assertEquals(expected[2], angles[2], EPSILON);
+      }
+   }
+
+   @Test
+   public void testQuaternionAngles()
+   {
+      Random random = new Random(3);
+      float[] R = new float[16], RM = new float[16], q = new float[4], expected = new float[3], angles = new float[3];
+      Quaternion Q = new Quaternion();
+      for (int i=0; i<COUNT; i++)
+      {
+         float[] rv = randomRotationVector(random);
+         SensorManager.getRotationMatrixFromVector(R, rv);
+         SensorManager.remapCoordinateSystem(R, SensorManager.AXIS_X, SensorManager.AXIS_Z, RM);
+         SensorManager.getOrientation(RM, expected);
+         SensorManager.getQuaternionFromVector(q, rv);
+         float scale = (i % 2 == 0) ? 1 : -2.5f; // sign and scale must not matter
+         Q.setXYZW(q[1]*scale, q[2]*scale, q[3]*scale, -q[0]*scale);
+         BearingMath.anglesRadians(Q, angles);
+         assertEquals(0, angleDifference(expected[0], angles[0], (float) (2*Math.PI)), EPSILON);
+         assertEquals(expected[1], angles[1], EPSILON);
+         assertEquals(expected[2], angles[2], EPSILON);
+         assertEquals(0, angleDifference(expectedBearing(R, RM), BearingMath.bearingDegrees(Q), 360), 1e-2);
+      }
+   }
+
+   @Test
+   public void testBatch()
+   {
+      Random random = new Random(4);
+      final int stride = 21, offset = 3;
+      float[] matrices = new float[offset + COUNT*stride], R = new float[16], RM = new float[16];
+      float[] expected = new float[COUNT], bearings = new float[COUNT + 1];
+      for (int i=0; i<COUNT; i++)
+      {
+         SensorManager.getRotationMatrixFromVector(R, randomRotationVector(random));
+         System.arraycopy(R, 0, matrices, offset + i*stride, 16);
+         expected[i] = expectedBearing(R, RM);
+      }
+      BearingMath.bearingsDegrees(matrices, offset, stride, COUNT, bearings, 1);
+      for (int i=0; i<COUNT; i++)
+         assertEquals(expected[i], bearings[i + 1], 0);
+   }
+}
@@ -0,0 +1,59 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExponentialVectorFilterTest
+{
+   @Test
+   public void testFilter()
+   {
+      ExponentialVectorFilter filter = new ExponentialVectorFilter(2, 0.25f);
+      float[] out = new float[2];
+      filter.filter(new float[] { 8, -8 }, out); // First sample initialises the output
+      assertArrayEquals(new float[] { 8, -8 }, out, 0);
+      filter.filter(new float[] { 0, 0 }, out);
+      assertArrayEquals(new float[] { 6, -6 }, out, 1e-6f);
+      filter.filter(new float[] { 0, 0 }, out);
+      assertArrayEquals(new float[] { 4.5f, -4.5f }, out, 1e-6f);
+      filter.reset();
+      filter.filter(new float[] { 1, 2 }, out);
+      assertArrayEquals(new float[] { 1, 2 }, out, 0);
+   }
+
+   @Test
+   public void testAlphaLimits()
+   {
+      ExponentialVectorFilter filter = new ExponentialVectorFilter(1, 1);
+      float[] out = new float[1];
+      filter.filter(new float[] { 1 }, out);
+      filter.filter(new float[] { 5 }, out);
+      assertEquals(5, out[0], 0);
+      filter.setAlpha(0);
+      filter.filter(new float[] { 100 }, out);
+      assertEquals(5, out[0], 0);
+      try
+      {
+         filter.setAlpha(1.5f);
+         fail("alpha > 1 accepted");
+      }
+      catch (IllegalArgumentException e) { }
+   }
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MeanVectorFilterTest
+{
+   static private void assertBruteForce(MeanVectorFilter filter, float[][] samples, int from, int to)
+   {
+      final int dims = filter.getDimensions(), window = filter.getWindow();
+      float[] out = new float[dims];
+      for (int k=from; k<to; k++)
+      {
+         filter.filter(samples[k], out);
+         final int first = Math.max(from, k - window + 1);
+         for (int i=0; i<dims; i++)
+         {
+            double sum = 0;
+            for (int j=first; j<=k; j++)
+               sum += samples[j][i];
+            assertEquals("sample " + k, sum / (k - first + 1), out[i], 1e-4);
+         }
+      }
+   }
+
+   static private float[][] randomSamples(Random random, int count, int dims)
+   {
+      float[][] samples = new float[count][dims];
+      for (int k=0; k<count; k++)
+         for (int i=0; i<dims; i++)
+            samples[k][i] = random.nextFloat()*100 - 50;
+      return samples;
+   }
+
+   @Test
+   public void testBruteForce()
+   {
+      Random random = new Random(1);
+      for (int window : new int[] { 1, 2, 5, 10, 33 })
+         assertBruteForce(new MeanVectorFilter(3, window), randomSamples(random, 500, 3), 0, 500);
+   }
+
+   @Test
+   public void testPartialWindow()
+   {
+      MeanVectorFilter filter = new MeanVectorFilter(2, 10);
+      float[] out = new float[2];
+      filter.filter(new float[] { 4, -4 }, out);
+      assertArrayEquals(new float[] { 4, -4 }, out, 0);
+      filter.filter(new float[] { 8, 0 }, out);
+      assertArrayEquals(new float[] { 6, -2 }, out, 0);
+      filter.filter(new float[] { 0, 1 }, out);
+      assertArrayEquals(new float[] { 4, -1 }, out, 1e-6f);
+   }
+
+   @Test
+   public void testResetDoesNotUseStaleSlots()
+   {
+      Random random = new Random(2);
+      final int window = 7;
+      MeanVectorFilter filter = new MeanVectorFilter(3, window);
+      // Leave large values in part of the window, then reset and refill across the window wrap (resum)
+      float[][] stale = new float[window - 2][];
+      for (int k=0; k<stale.length; k++)
+         stale[k] = new float[] { 1e6f, -1e6f, 1e6f };
+      assertBruteForce(filter, stale, 0, stale.length);
+      filter.reset();
+      assertEquals(0, filter.getCount());
+      assertBruteForce(filter, randomSamples(random, 3*window + 1, 3), 0, 3*window + 1);
+   }
+
+   @Test
+   public void testExtraValuesAndInPlace()
+   {
+      MeanVectorFilter filter = new MeanVectorFilter(2, 2);
+      float[] v = { 2, 4, 99, 100 };
+      assertSame(v, filter.filter(v, v));
+      assertArrayEquals(new float[] { 2, 4, 99, 100 }, v, 0);
+      v = new float[] { 4, 8, 1, 2 };
+      float[] out = filter.filter(v, new float[4]);
+      assertArrayEquals(new float[] { 3, 6, 1, 2 }, out, 0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidWindow() { new MeanVectorFilter(3, 0); }
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MedianVectorFilterTest
+{
+   static private float median(float[][] samples, int from, int to, int dimension)
+   {
+      float[] v = new float[to - from];
+      for (int j=from; j<to; j++)
+         v[j - from] = samples[j][dimension];
+      Arrays.sort(v);
+      final int mid = v.length / 2;
+      return ((v.length & 1) != 0) ? v[mid] : (v[mid - 1] + v[mid]) * 0.5f;
+   }
+
+   @Test
+   public void testBruteForce()
+   {
+      Random random = new Random(1);
+      for (int window : new int[] { 1, 2, 3, 4, 9, 16 })
+      {
+         MedianVectorFilter filter = new MedianVectorFilter(3, window);
+         float[][] samples = new float[300][3];
+         float[] out = new float[3];
+         for (int k=0; k<samples.length; k++)
+         {
+            for (int i=0; i<3; i++) // Few distinct values so duplicates are exercised
+               samples[k][i] = random.nextInt(8) - (i * 0.5f);
+            filter.filter(samples[k], out);
+            for (int i=0; i<3; i++)
+               assertEquals("window " + window + " sample " + k, median(samples, Math.max(0, k - window + 1), k + 1, i),
+                            out[i], 0);
+         }
+      }
+   }
+
+   @Test
+   public void testRejectsSpike()
+   {
+      MedianVectorFilter filter = new MedianVectorFilter(1, 5);
+      float[] out = new float[1];
+      for (float v : new float[] { 1, 1, 1, 1000, 1 })
+         filter.filter(new float[] { v }, out);
+      assertEquals(1, out[0], 0);
+   }
+
+   @Test
+   public void testReset()
+   {
+      MedianVectorFilter filter = new MedianVectorFilter(1, 3);
+      float[] out = new float[1];
+      for (float v : new float[] { 9, 9, 9 })
+         filter.filter(new float[] { v }, out);
+      filter.reset();
+      filter.filter(new float[] { 1 }, out);
+      assertEquals(1, out[0], 0);
+      filter.filter(new float[] { 3 }, out);
+      assertEquals(2, out[0], 0);
+   }
+}
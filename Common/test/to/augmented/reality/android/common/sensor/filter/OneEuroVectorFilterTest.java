@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OneEuroVectorFilterTest
+{
+   final static long INTERVAL_NS = 5000000L; // 200Hz
+
+   static private float stepResponse(OneEuroVectorFilter filter, int samples, boolean hasTimestamps)
+   {
+      float[] out = new float[1];
+      filter.filter(new float[] { 0 }, hasTimestamps ? INTERVAL_NS : 0, out);
+      for (int k=1; k<=samples; k++)
+         filter.filter(new float[] { 10 }, hasTimestamps ? (k + 1) * INTERVAL_NS : 0, out);
+      return out[0];
+   }
+
+   @Test
+   public void testConstantInput()
+   {
+      OneEuroVectorFilter filter = new OneEuroVectorFilter(3);
+      float[] in = { 1, -2, 3 }, out = new float[3];
+      for (int k=0; k<100; k++)
+      {
+         filter.filter(in, (k + 1) * INTERVAL_NS, out);
+         assertArrayEquals(in, out, 1e-6f);
+      }
+   }
+
+   @Test
+   public void testStepResponse()
+   {
+      float slow = stepResponse(new OneEuroVectorFilter(1, 200, 1, 0, 1), 10, true);
+      float fast = stepResponse(new OneEuroVectorFilter(1, 200, 1, 1, 1), 10, true);
+      assertTrue( (slow > 0) && (slow < 10) );
+      // A higher beta raises the cutoff while the input is changing so there is less lag
+      assertTrue(fast > slow);
+      assertEquals(10, stepResponse(new OneEuroVectorFilter(1), 5000, true), 1e-3);
+   }
+
+   @Test
+   public void testMissingTimestampsUseFrequency()
+   {
+      assertEquals(stepResponse(new OneEuroVectorFilter(1), 20, true),
+                   stepResponse(new OneEuroVectorFilter(1), 20, false), 1e-5);
+   }
+
+   @Test
+   public void testReset()
+   {
+      OneEuroVectorFilter filter = new OneEuroVectorFilter(1);
+      stepResponse(filter, 10, true);
+      filter.reset();
+      float[] out = new float[1];
+      filter.filter(new float[] { -7 }, INTERVAL_NS, out); // First sample after reset passes through
+      assertEquals(-7, out[0], 0);
+   }
+}
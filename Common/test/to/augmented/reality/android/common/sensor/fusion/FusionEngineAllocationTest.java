@@ -0,0 +1,87 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that FusionEngine.onSample does not allocate for any of the engines, using the per-thread allocation
+ * counter of the HotSpot ThreadMXBean (see FusionEngineBenchmark for timing).
+ */
+public class FusionEngineAllocationTest
+{
+   final static int STEPS = 2000, WARMUP_ROUNDS = 20;
+
+   static private long allocatedBytes(com.sun.management.ThreadMXBean bean, long threadId)
+   {
+      return bean.getThreadAllocatedBytes(threadId);
+   }
+
+   @Test
+   public void testNoAllocation()
+   {
+      Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+      final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+      bean.setThreadAllocatedMemoryEnabled(true);
+      final long threadId = Thread.currentThread().getId();
+      for (String provider : FusionEngineTest.PROVIDERS)
+      {
+         FusionEngine engine = FusionEngine.create(provider);
+         final int[] sensors = engine.sensors();
+         final int count = STEPS * sensors.length;
+         final int[] types = new int[count];
+         final long[] timestamps = new long[count];
+         final float[][] values = new float[count][];
+         for (int step=0, i=0; step<STEPS; step++)
+         {
+            for (int type : sensors)
+            {
+               types[i] = type;
+               timestamps[i] = step*FusionEngineTest.INTERVAL;
+               values[i++] = FusionEngineTest.sample(type, FusionEngineTest.RATE * step * FusionEngineTest.INTERVAL / 1e9f);
+            }
+         }
+         long offset = 0;
+         for (int round=0; round<WARMUP_ROUNDS; round++, offset += STEPS*FusionEngineTest.INTERVAL)
+            fuse(engine, types, timestamps, values, offset);
+
+         final long overhead = allocatedBytes(bean, threadId);
+         final long start = allocatedBytes(bean, threadId);
+         final int updates = fuse(engine, types, timestamps, values, offset);
+         final long end = allocatedBytes(bean, threadId);
+         final long allocated = (end - start) - (start - overhead);
+         assertTrue(provider + " updates", updates > 0);
+         // Any allocation per sample is at least an object header so less than a byte per sample means none.
+         assertTrue(provider + " allocated " + allocated + " bytes for " + count + " samples", allocated < count);
+      }
+   }
+
+   static private int fuse(FusionEngine engine, int[] types, long[] timestamps, float[][] values, long offset)
+   {
+      int updates = 0;
+      for (int i=0; i<types.length; i++)
+         if (engine.onSample(types[i], timestamps[i] + offset, values[i]))
+            updates++;
+      return updates;
+   }
+}
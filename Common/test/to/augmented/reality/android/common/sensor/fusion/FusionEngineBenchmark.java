@@ -0,0 +1,124 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark feeding synthetic sensor samples through each FusionEngine. Run with the GC profiler
+ * (main below or -prof gc) and check gc.alloc.rate.norm, which should be 0 bytes per fused sample. The zero
+ * allocation requirement itself is checked by FusionEngineAllocationTest as part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusionEngineBenchmark
+//================================
+{
+   static final private int SAMPLES = 4096;
+
+   @Param({ "ROTATION_VECTOR", "ACCELLO_MAGNETIC", "FAST_FUSED_GYROSCOPE_ROTATION_VECTOR",
+            "STABLE_FUSED_GYROSCOPE_ROTATION_VECTOR", "FUSED_GYRO_ACCEL_MAGNETIC" })
+   public String provider;
+
+   private FusionEngine engine;
+   private final int[] types = new int[SAMPLES];
+   private final long[] timestamps = new long[SAMPLES];
+   private final float[][] values = new float[SAMPLES][];
+   private int index = 0;
+   private long timestampOffset = 0;
+
+   @Setup(Level.Trial)
+   public void setup()
+   //-----------------
+   {
+      engine = FusionEngine.create(provider);
+      final int[] sensors = engine.sensors();
+      final Random random = new Random(SAMPLES);
+      float yaw = 0, pitch = 0.2f;
+      for (int i = 0; i < SAMPLES; i++)
+      {
+         final int type = sensors[i % sensors.length];
+         types[i] = type;
+         timestamps[i] = i * 5000000L;
+         yaw += 0.002f;
+         values[i] = sample(type, yaw, pitch, random);
+      }
+      // Warm the engines past their initialisation branches before measuring.
+      for (int i = 0; i < SAMPLES; i++)
+         fuse();
+   }
+
+   private static float[] sample(int type, float yaw, float pitch, Random random)
+   //----------------------------------------------------------------------------
+   {
+      final float noise = (random.nextFloat() - 0.5f) * 0.01f;
+      switch (type)
+      {
+         case FusionEngine.TYPE_ROTATION_VECTOR:
+            final float h = yaw * 0.5f;
+            return new float[] { 0, 0, (float) Math.sin(h) + noise, (float) Math.cos(h), 0 };
+         case FusionEngine.TYPE_GYROSCOPE:
+            return new float[] { noise, noise, 0.4f + noise };
+         case FusionEngine.TYPE_MAGNETIC_FIELD:
+            return new float[] { 22 * (float) Math.sin(yaw) + noise, 22 * (float) Math.cos(yaw), -40 };
+         default: // accelerometer, gravity
+            return new float[] { noise, 9.81f * (float) Math.sin(pitch), 9.81f * (float) Math.cos(pitch) };
+      }
+   }
+
+   @Benchmark
+   public boolean fuse()
+   //-------------------
+   {
+      final int i = index;
+      index = (i + 1) % SAMPLES;
+      if (index == 0)
+         timestampOffset += SAMPLES * 5000000L;
+      return engine.onSample(types[i], timestamps[i] + timestampOffset, values[i]);
+   }
+
+   public static void main(String[] args) throws RunnerException
+   //------------------------------------------------------------
+   {
+      Options options = new OptionsBuilder().include(FusionEngineBenchmark.class.getSimpleName())
+                                            .addProfiler(GCProfiler.class).build();
+      new Runner(options).run();
+   }
+}
@@ -0,0 +1,157 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import org.junit.Test;
+import to.augmented.reality.android.common.math.Quaternion;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs each FusionEngine over a short synthetic stream for a device lying flat and turning about the vertical at a
+ * constant rate, and checks that the fused azimuth follows the true azimuth.
+ */
+public class FusionEngineTest
+{
+   final static String[] PROVIDERS = { "ROTATION_VECTOR", "ACCELLO_MAGNETIC", "FAST_FUSED_GYROSCOPE_ROTATION_VECTOR",
+                                       "STABLE_FUSED_GYROSCOPE_ROTATION_VECTOR", "FUSED_GYRO_ACCEL_MAGNETIC" };
+
+   final static float RATE = (float) Math.toRadians(30); // radians per second about the vertical
+   final static long INTERVAL = 10000000L; // 100Hz
+   final static int STEPS = 300;
+   final static float[] GRAVITY = { 0, 0, 9.81f }, MAGNETIC = { 0, 22, -40 }; // world (east, north, up) frame
+
+   /**
+    * @return The rotation vector (x, y, z, w) for the device turned by angle radians about the vertical.
+    */
+   static float[] rotationVector(float angle)
+   {
+      return new float[] { 0, 0, (float) Math.sin(angle/2), (float) Math.cos(angle/2) };
+   }
+
+   /**
+    * @return The world vector v in device coordinates (R transposed times v) for the device turned by angle.
+    */
+   static float[] toDevice(float[] v, float angle)
+   {
+      float[] R = new float[9];
+      SensorMath.getRotationMatrixFromVector(R, rotationVector(angle));
+      return new float[] { R[0]*v[0] + R[3]*v[1] + R[6]*v[2], R[1]*v[0] + R[4]*v[1] + R[7]*v[2],
+                           R[2]*v[0] + R[5]*v[1] + R[8]*v[2] };
+   }
+
+   static float[] sample(int type, float angle)
+   {
+      switch (type)
+      {
+         case FusionEngine.TYPE_ROTATION_VECTOR:   return rotationVector(angle);
+         case FusionEngine.TYPE_GYROSCOPE:         return new float[] { 0, 0, RATE };
+         case FusionEngine.TYPE_ACCELEROMETER:
+         case FusionEngine.TYPE_GRAVITY:           return toDevice(GRAVITY, angle);
+         case FusionEngine.TYPE_MAGNETIC_FIELD:    return toDevice(MAGNETIC, angle);
+      }
+      throw new IllegalArgumentException("type " + type);
+   }
+
+   /**
+    * Feeds STEPS samples of each sensor used by engine.
+    * @return The number of orientation updates.
+    */
+   static int run(FusionEngine engine)
+   {
+      int updates = 0;
+      for (int step=0; step<STEPS; step++)
+      {
+         final long timestamp = step*INTERVAL;
+         final float angle = RATE * step * INTERVAL / 1e9f;
+         for (int type : engine.sensors())
+            if (engine.onSample(type, timestamp, sample(type, angle)))
+               updates++;
+      }
+      return updates;
+   }
+
+   static private float azimuthDifference(float a, float b)
+   {
+      double d = Math.abs(a - b) % (2*Math.PI);
+      return (float) Math.min(d, 2*Math.PI - d);
+   }
+
+   @Test
+   public void testEngines()
+   {
+      final float angle = RATE * (STEPS - 1) * INTERVAL / 1e9f;
+      float[] expected = new float[16], orientation = new float[3], expectedOrientation = new float[3];
+      SensorMath.getRotationMatrixFromVector(expected, rotationVector(angle));
+      SensorMath.getOrientation(expected, expectedOrientation);
+      for (String provider : PROVIDERS)
+      {
+         FusionEngine engine = FusionEngine.create(provider);
+         assertNotNull(provider, engine);
+         int updates = run(engine);
+         assertTrue(provider + " updates " + updates, updates >= STEPS/2);
+         SensorMath.getOrientation(engine.getRotationMatrix(), orientation);
+         assertEquals(provider + " azimuth", 0,
+                      Math.toDegrees(azimuthDifference(expectedOrientation[0], orientation[0])), 2);
+         assertEquals(provider + " pitch", 0, Math.toDegrees(orientation[1]), 2);
+         assertEquals(provider + " roll", 0, Math.toDegrees(orientation[2]), 2);
+         Quaternion Q = engine.getQuaternion();
+         assertEquals(provider + " quaternion length", 1, Q.length(), 1e-3);
+         // The same rotation as the rotation vector engine's quaternion (x, y, z, -w), up to sign
+         float[] rv = rotationVector(angle);
+         assertEquals(provider + " quaternion", 1, Math.abs(Q.dotProduct(new Quaternion(rv[0], rv[1], rv[2], -rv[3]))),
+                      1e-3);
+      }
+   }
+
+   @Test
+   public void testReset()
+   {
+      for (String provider : PROVIDERS)
+      {
+         FusionEngine engine = FusionEngine.create(provider);
+         int updates = run(engine);
+         engine.reset();
+         for (float v : engine.getRotationMatrix())
+            assertEquals(provider, 0, v, 0);
+         assertEquals(provider, 1, engine.getQuaternion().getW(), 0);
+         assertEquals(provider + " rerun", updates, run(engine), STEPS/10);
+      }
+   }
+
+   @Test
+   public void testCreate()
+   {
+      assertNull(FusionEngine.create(null));
+      assertNull(FusionEngine.create("DEFAULT"));
+      assertNull(FusionEngine.create("NO_SUCH_PROVIDER"));
+      assertTrue(FusionEngine.create(" rotation_vector ") instanceof RotationVectorFusion);
+      assertTrue(((GyroscopeRotationVectorFusion) FusionEngine.create("STABLE_FUSED_GYROSCOPE_ROTATION_VECTOR")).isStable());
+      assertFalse(((GyroscopeRotationVectorFusion) FusionEngine.create("FAST_FUSED_GYROSCOPE_ROTATION_VECTOR")).isStable());
+   }
+
+   @Test
+   public void testCanFuse()
+   {
+      int[] available = { FusionEngine.TYPE_ACCELEROMETER, FusionEngine.TYPE_MAGNETIC_FIELD,
+                          FusionEngine.TYPE_ROTATION_VECTOR };
+      assertTrue(FusionEngine.create("ROTATION_VECTOR").canFuse(available));
+      assertTrue(FusionEngine.create("ACCELLO_MAGNETIC").canFuse(available));
+      assertFalse(FusionEngine.create("FAST_FUSED_GYROSCOPE_ROTATION_VECTOR").canFuse(available));
+      assertFalse(FusionEngine.create("FUSED_GYRO_ACCEL_MAGNETIC").canFuse(available));
+   }
+}
@@ -0,0 +1,162 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import to.augmented.reality.android.common.math.Quaternion;
+import to.augmented.reality.android.common.sensor.orientation.OrientationListenable;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SensorFusionBatchTest
+{
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+   static private void writeRecord(DataOutputStream dos, int type, long timestamp, float[] values) throws IOException
+   {
+      dos.writeInt(type);
+      dos.writeLong(timestamp);
+      for (int i=0; i<SensorFusionBatch.RECORD_VALUES; i++)
+         dos.writeFloat( (i < values.length) ? values[i] : Float.NaN);
+   }
+
+   /**
+    * Writes a sensordata.raw file with the FusionEngineTest stream for the rotation vector (alternately 4 and 5
+    * values), accelerometer and magnetic field sensors followed by a partial record.
+    * @return The number of complete records written.
+    */
+   private int writeSensorFile(File f, int steps) throws IOException
+   {
+      final int[] types = { FusionEngine.TYPE_ROTATION_VECTOR, FusionEngine.TYPE_ACCELEROMETER,
+                            FusionEngine.TYPE_MAGNETIC_FIELD };
+      int count = 0;
+      DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+      try
+      {
+         dos.writeInt(types.length);
+         for (int type : types)
+            dos.writeInt(type);
+         for (int step=0; step<steps; step++)
+         {
+            final long timestamp = step*FusionEngineTest.INTERVAL;
+            final float angle = FusionEngineTest.RATE * timestamp / 1e9f;
+            for (int type : types)
+            {
+               float[] values = FusionEngineTest.sample(type, angle);
+               if ( (type == FusionEngine.TYPE_ROTATION_VECTOR) && ((step & 1) == 1) )
+                  values = new float[] { values[0], values[1], values[2], values[3], 0.01f }; // with accuracy
+               writeRecord(dos, type, timestamp, values);
+               count++;
+            }
+         }
+         dos.writeInt(FusionEngine.TYPE_ROTATION_VECTOR); // partial record
+         dos.writeLong(steps*FusionEngineTest.INTERVAL);
+         dos.writeFloat(0.5f);
+      }
+      finally
+      {
+         dos.close();
+      }
+      return count;
+   }
+
+   @Test
+   public void testRun() throws IOException
+   {
+      final int steps = 100;
+      File f = folder.newFile("sensordata.raw");
+      final int records = writeSensorFile(f, steps);
+      SensorFusionBatch batch = new SensorFusionBatch(f);
+      assertArrayEquals(new int[] { FusionEngine.TYPE_ROTATION_VECTOR, FusionEngine.TYPE_ACCELEROMETER,
+                                    FusionEngine.TYPE_MAGNETIC_FIELD }, batch.getSensorTypes());
+      assertEquals(records, batch.size());
+
+      final List<Long> timestamps = new ArrayList<>();
+      final float[] last = new float[16];
+      long updates = batch.run("ROTATION_VECTOR", new OrientationListenable()
+      {
+         @Override
+         public void onOrientationListenerUpdate(float[] R, Quaternion Q, long timestamp)
+         {
+            timestamps.add(timestamp);
+            System.arraycopy(R, 0, last, 0, 16);
+         }
+      });
+      assertEquals(steps, updates);
+      assertEquals(steps, timestamps.size());
+      for (int i=0; i<steps; i++)
+         assertEquals(i*FusionEngineTest.INTERVAL, (long) timestamps.get(i));
+      float[] expected = new float[16];
+      SensorMath.getRotationMatrixFromVector(expected,
+                                             FusionEngineTest.rotationVector(FusionEngineTest.RATE * (steps - 1) *
+                                                                             FusionEngineTest.INTERVAL / 1e9f));
+      assertArrayEquals(expected, last, 1e-6f);
+
+      // Updated by every accelerometer and magnetic field sample after the first magnetic field sample
+      assertEquals(2*steps - 1, batch.run("ACCELLO_MAGNETIC", null));
+      assertEquals(-1, batch.run("FUSED_GYRO_ACCEL_MAGNETIC", null)); // no gyroscope or gravity recorded
+      assertEquals(-1, batch.run("NO_SUCH_PROVIDER", null));
+   }
+
+   @Test
+   public void testValueLengths() throws IOException
+   {
+      final int steps = 10;
+      File f = folder.newFile("sensordata.raw");
+      final int records = writeSensorFile(f, steps);
+      final List<Integer> rotationVectorLengths = new ArrayList<>();
+      final int[] samples = { 0 };
+      FusionEngine engine = new FusionEngine()
+      {
+         @Override public int[] sensors() { return RotationVectorFusion.SENSORS; }
+
+         @Override
+         protected boolean fuse(int type, long timestamp, float[] values)
+         {
+            samples[0]++;
+            if (type == TYPE_ROTATION_VECTOR)
+               rotationVectorLengths.add(values.length);
+            else
+               assertEquals(3, values.length);
+            return false;
+         }
+      };
+      assertEquals(0, new SensorFusionBatch(f).run(engine, null));
+      assertEquals(records, samples[0]);
+      assertEquals(steps, rotationVectorLengths.size());
+      for (int i=0; i<steps; i++)
+         assertEquals( ((i & 1) == 1) ? 5 : 4, (int) rotationVectorLengths.get(i));
+   }
+
+   @Test(expected = IOException.class)
+   public void testNotSensorFile() throws IOException
+   {
+      File f = folder.newFile("sensordata.raw");
+      DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+      try { dos.writeInt(-1); } finally { dos.close(); }
+      new SensorFusionBatch(f);
+   }
+}
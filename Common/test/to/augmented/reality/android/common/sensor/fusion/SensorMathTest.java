@@ -0,0 +1,164 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.fusion;
+
+import android.hardware.SensorManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the SensorMath rotation helpers against the SensorManager methods they replace (Robolectric provides the
+ * real SensorManager implementation).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SensorMathTest
+{
+   final static int COUNT = 10000;
+   final static float EPSILON = 1e-5f;
+
+   static private float[] randomVector(Random random, float scale)
+   {
+      return new float[] { (float) random.nextGaussian()*scale, (float) random.nextGaussian()*scale,
+                           (float) random.nextGaussian()*scale };
+   }
+
+   static private float[] randomRotationVector(Random random, int length)
+   {
+      float x = (float) random.nextGaussian(), y = (float) random.nextGaussian(), z = (float) random.nextGaussian(),
+            w = (float) random.nextGaussian();
+      float n = (float) Math.sqrt(x*x + y*y + z*z + w*w);
+      if (w < 0)
+         n = -n; // w >= 0 so that the 3 value form (w calculated) is the same rotation
+      float[] rv = new float[length];
+      float[] q = { x/n, y/n, z/n, w/n, 0.5f };
+      System.arraycopy(q, 0, rv, 0, length);
+      return rv;
+   }
+
+   @Test
+   public void testGetRotationMatrix()
+   {
+      Random random = new Random(1);
+      for (int size : new int[] { 9, 16 })
+      {
+         float[] R = new float[size], I = new float[size], expectedR = new float[size], expectedI = new float[size];
+         for (int i=0; i<COUNT; i++)
+         {
+            float[] gravity = randomVector(random, 9.81f), geomagnetic = randomVector(random, 40);
+            boolean expected = SensorManager.getRotationMatrix(expectedR, expectedI, gravity, geomagnetic);
+            assertEquals(expected, SensorMath.getRotationMatrix(R, I, gravity, geomagnetic));
+            if (expected)
+            {
+               assertArrayEquals(expectedR, R, EPSILON);
+               assertArrayEquals(expectedI, I, EPSILON);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testGetRotationMatrixFailures()
+   {
+      float[] R = new float[9], geomagnetic = { 0, 22, -40 };
+      float[] freeFall = { 0.05f, 0.05f, 0.05f }, parallel = { 0, 22*0.245f, -40*0.245f };
+      assertEquals(SensorManager.getRotationMatrix(R, null, freeFall, geomagnetic),
+                   SensorMath.getRotationMatrix(R, null, freeFall, geomagnetic));
+      assertFalse(SensorMath.getRotationMatrix(R, null, freeFall, geomagnetic));
+      assertEquals(SensorManager.getRotationMatrix(R, null, parallel, geomagnetic),
+                   SensorMath.getRotationMatrix(R, null, parallel, geomagnetic));
+      assertFalse(SensorMath.getRotationMatrix(R, null, parallel, geomagnetic));
+      assertTrue(SensorMath.getRotationMatrix(null, null, new float[] { 0, 0, 9.81f }, geomagnetic));
+   }
+
+   @Test
+   public void testGetOrientation()
+   {
+      Random random = new Random(2);
+      for (int size : new int[] { 9, 16 })
+      {
+         float[] R = new float[size], values = new float[3], expected = new float[3];
+         for (int i=0; i<COUNT; i++)
+         {
+            SensorManager.getRotationMatrixFromVector(R, randomRotationVector(random, 4));
+            SensorManager.getOrientation(R, expected);
+            assertSame(values, SensorMath.getOrientation(R, values));
+            assertArrayEquals(expected, values, EPSILON);
+         }
+      }
+   }
+
+   @Test
+   public void testGetRotationMatrixFromVector()
+   {
+      Random random = new Random(3);
+      for (int size : new int[] { 9, 16 })
+      {
+         float[] R = new float[size], expected = new float[size];
+         for (int length : new int[] { 3, 4, 5 })
+         {
+            for (int i=0; i<COUNT; i++)
+            {
+               float[] rv = randomRotationVector(random, length);
+               SensorManager.getRotationMatrixFromVector(expected, rv);
+               SensorMath.getRotationMatrixFromVector(R, rv);
+               assertArrayEquals("length " + length, expected, R, EPSILON);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testGetQuaternionFromVector()
+   {
+      Random random = new Random(4);
+      float[] Q = new float[4], expected = new float[4];
+      for (int length : new int[] { 3, 4, 5 })
+      {
+         for (int i=0; i<COUNT; i++)
+         {
+            float[] rv = randomRotationVector(random, length);
+            SensorManager.getQuaternionFromVector(expected, rv);
+            SensorMath.getQuaternionFromVector(Q, rv);
+            assertArrayEquals("length " + length, expected, Q, EPSILON);
+         }
+      }
+   }
+
+   @Test
+   public void testMultiply3x3()
+   {
+      Random random = new Random(5);
+      float[] A = new float[9], B = new float[9], result = new float[9];
+      for (int i=0; i<100; i++)
+      {
+         for (int j=0; j<9; j++)
+         {
+            A[j] = random.nextFloat()*2 - 1;
+            B[j] = random.nextFloat()*2 - 1;
+         }
+         assertSame(result, SensorMath.multiply3x3(A, B, result));
+         for (int r=0; r<3; r++)
+            for (int c=0; c<3; c++)
+               assertEquals(A[r*3]*B[c] + A[r*3 + 1]*B[3 + c] + A[r*3 + 2]*B[6 + c], result[r*3 + c], EPSILON);
+      }
+   }
+}
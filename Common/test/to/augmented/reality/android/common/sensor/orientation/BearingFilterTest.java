@@ -0,0 +1,141 @@
+/*
+* Copyright (C) 2014 Donald Munro.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package to.augmented.reality.android.common.sensor.orientation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BearingFilterTest
+{
+   final static float EPSILON = 1e-3f;
+
+   static private float angleDifference(float a, float b)
+   {
+      float d = Math.abs(a - b) % 360;
+      return Math.min(d, 360 - d);
+   }
+
+   static private float centerValue(BearingFilter.Kernel kernel, float... bearings)
+   {
+      BearingFilter filter = new BearingFilter(kernel, bearings.length);
+      boolean isFull = false;
+      for (float b : bearings)
+         isFull = filter.push(b);
+      assertTrue(isFull);
+      float v = filter.value();
+      assertTrue( (v >= 0) && (v < 360) );
+      return v;
+   }
+
+   @Test
+   public void testMeanWrap()
+   {
+      assertEquals(0, angleDifference(0, centerValue(BearingFilter.Kernel.MEAN, 358, 359, 0, 1, 2)), EPSILON);
+      assertEquals(0, angleDifference(359, centerValue(BearingFilter.Kernel.MEAN, 2, 358, 357, 0, 358)), EPSILON);
+   }
+
+   @Test
+   public void testMedianWrap()
+   {
+      // Unwrapped 350, 355, 365, 370, 362 so the median is 362
+      assertEquals(0, angleDifference(2, centerValue(BearingFilter.Kernel.MEDIAN, 350, 355, 5, 10, 2)), EPSILON);
+      assertEquals(0, angleDifference(0, centerValue(BearingFilter.Kernel.MEDIAN, 1, 359, 90, 358, 0)), EPSILON);
+   }
+
+   @Test
+   public void testSavitzkyGolayWrap()
+   {
+      // A polynomial fit reproduces a linear ramp exactly, including across 0/360
+      assertEquals(0, angleDifference(0, centerValue(BearingFilter.Kernel.SAVITZKY_GOLAY, 356, 358, 0, 2, 4)),
+                   EPSILON);
+      assertEquals(0, angleDifference(357, centerValue(BearingFilter.Kernel.SAVITZKY_GOLAY, 6, 3, 0, 357, 354, 351,
+                                                       348)), EPSILON);
+   }
+
+   @Test
+   public void testSavitzkyGolayCoefficients()
+   {
+      assertArrayEquals(new double[] { -3/35.0, 12/35.0, 17/35.0, 12/35.0, -3/35.0 },
+                        BearingFilter.savitzkyGolay(2, 2), 1e-9);
+      assertArrayEquals(new double[] { -2/21.0, 3/21.0, 6/21.0, 7/21.0, 6/21.0, 3/21.0, -2/21.0 },
+                        BearingFilter.savitzkyGolay(3, 2), 1e-9);
+      // Cubic has the same smoothing coefficients as quadratic (odd terms vanish at the center)
+      assertArrayEquals(BearingFilter.savitzkyGolay(3, 2), BearingFilter.savitzkyGolay(3, 3), 1e-9);
+      assertArrayEquals(new double[] { 0.2, 0.2, 0.2, 0.2, 0.2 }, BearingFilter.savitzkyGolay(2, 0), 1e-9);
+      assertArrayEquals(new double[] { -21/231.0, 14/231.0, 39/231.0, 54/231.0, 59/231.0, 54/231.0, 39/231.0,
+                                       14/231.0, -21/231.0 }, BearingFilter.savitzkyGolay(4, 2), 1e-9);
+   }
+
+   @Test
+   public void testDelay()
+   {
+      for (BearingFilter.Kernel kernel : BearingFilter.Kernel.values())
+      {
+         BearingFilter filter = new BearingFilter(kernel, 7);
+         assertEquals(3, filter.delay());
+         float[] ramp = new float[40];
+         for (int i=0; i<ramp.length; i++)
+            ramp[i] = (i * 20) % 360;
+         for (int i=0; i<ramp.length; i++)
+         {
+            boolean isFull = filter.push(ramp[i]);
+            assertEquals(i >= 6, isFull);
+            assertEquals(i + 1, filter.pushed());
+            // All kernels reproduce a linear ramp so the value is the sample delay() pushes back
+            if (isFull)
+               assertEquals(kernel.name(), 0, angleDifference(ramp[i - filter.delay()], filter.value()), EPSILON);
+         }
+         filter.reset();
+         assertEquals(0, filter.pushed());
+         assertFalse(filter.push(10));
+      }
+   }
+
+   @Test
+   public void testFilterEdges()
+   {
+      float[] bearings = { 10, 50, 350, 20, 340, 30, 0, 90, 180 };
+      float[] original = bearings.clone();
+      BearingFilter filter = new BearingFilter(BearingFilter.Kernel.MEDIAN, 5);
+      filter.filter(bearings, 0, bearings.length);
+      for (int i=0; i<filter.delay(); i++)
+      {
+         assertEquals(original[i], bearings[i], 0);
+         assertEquals(original[bearings.length - 1 - i], bearings[bearings.length - 1 - i], 0);
+      }
+      assertEquals(0, angleDifference(10, bearings[2]), EPSILON); // median of 10, 50, -10, 20, -20
+      assertEquals(0, angleDifference(20, bearings[3]), EPSILON); // median of 50, -10, 20, -20, 30
+   }
+
+   @Test
+   public void testKernelSize()
+   {
+      BearingFilter filter = new BearingFilter(BearingFilter.Kernel.SAVITZKY_GOLAY, 1);
+      assertEquals(1, filter.getKernelSize());
+      assertTrue(filter.push(123));
+      assertEquals(123, filter.value(), EPSILON);
+      assertEquals(5, new BearingFilter(BearingFilter.Kernel.MEAN, 4).getKernelSize());
+      assertEquals(3, new BearingFilter(BearingFilter.Kernel.SAVITZKY_GOLAY, 2).getKernelSize());
+      try
+      {
+         new BearingFilter(BearingFilter.Kernel.SAVITZKY_GOLAY, 3, 3);
+         fail("Polynomial order not less than kernel size accepted");
+      }
+      catch (IllegalArgumentException e) { }
+   }
+}